@@ -2,14 +2,20 @@
 
 # Generate SAML keystore for testing
 # DO NOT use in production without proper certificates
+#
+# Defaults can be overridden from the environment, e.g. the load test
+# generates its fake AD FS signing key with:
+#   KEYSTORE_FILE=target/loadtest/adfs-signing.p12 CERT_FILE=target/loadtest/adfs-signing.pem \
+#   KEY_ALIAS=adfs-signing DN="CN=ADFS Signing - loadtest" ./scripts/generate-saml-keystore.sh
 
 set -e
 
-KEYSTORE_FILE="src/main/resources/saml/keystore.jks"
-KEY_ALIAS="saml"
-KEY_PASSWORD="changeit"
-DN="CN=buerokratt.ee,OU=IT,O=Bürokratt,L=Tallinn,C=EE"
-VALIDITY=365  # days
+KEYSTORE_FILE="${KEYSTORE_FILE:-src/main/resources/saml/keystore.jks}"
+CERT_FILE="${CERT_FILE:-src/main/resources/saml/cert.pem}"
+KEY_ALIAS="${KEY_ALIAS:-saml}"
+KEY_PASSWORD="${KEY_PASSWORD:-changeit}"
+DN="${DN:-CN=buerokratt.ee,OU=IT,O=Bürokratt,L=Tallinn,C=EE}"
+VALIDITY="${VALIDITY:-365}"  # days
 
 echo "=== Generating SAML Keystore ==="
 
@@ -31,13 +37,14 @@ keytool -genkeypair \
 # Export certificate
 keytool -exportcert \
   -alias "$KEY_ALIAS" \
-  -file src/main/resources/saml/cert.pem \
+  -file "$CERT_FILE" \
+  -rfc \
   -keystore "$KEYSTORE_FILE" \
   -storepass "$KEY_PASSWORD" \
   -noprompt
 
 echo "✅ Keystore generated: $KEYSTORE_FILE"
-echo "✅ Certificate exported: src/main/resources/saml/cert.pem"
+echo "✅ Certificate exported: $CERT_FILE"
 echo ""
 echo "⚠️  WARNING: This is a self-signed certificate for testing only!"
 echo "⚠️  In production, use certificates signed by your organization's CA"
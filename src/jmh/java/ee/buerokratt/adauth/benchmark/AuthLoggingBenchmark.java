@@ -0,0 +1,127 @@
+package ee.buerokratt.adauth.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.FileAppender;
+import ch.qos.logback.core.encoder.Encoder;
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.config.BoundedAsyncAppender;
+import ee.buerokratt.adauth.config.JsonLogEncoder;
+import ee.buerokratt.adauth.model.UserAttributes;
+import ee.buerokratt.adauth.service.AuthEventLogger;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logging cost per /validate request under concurrent load
+ *
+ * - sync: as before, DEBUG enabled, five lines per request written by the
+ *   request thread through a pattern encoder
+ * - async-drop / async-block: INFO, one AuthEventLogger event per request
+ *   through BoundedAsyncAppender and JsonLogEncoder, with either overflow
+ *   policy; the disabled DEBUG calls of role mapping are still made
+ * Logs go to a temporary file on local disk. With DROP the latency under
+ * overload is bought with dropped events; see logging.async.dropped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class AuthLoggingBenchmark {
+
+    private static final String UPN = "john.doe@domain.com";
+    private static final String GROUP = "CN=Buerokratt-Admins,OU=Groups,DC=domain,DC=com";
+    private static final List<String> ROLES = List.of("ROLE_ADMINISTRATOR");
+
+    @Param({"sync", "async-drop", "async-block"})
+    private String mode;
+
+    private final org.slf4j.Logger controller = LoggerFactory.getLogger("ee.buerokratt.adauth.controller.AuthController");
+    private final org.slf4j.Logger samlService = LoggerFactory.getLogger("ee.buerokratt.adauth.service.SAMLService");
+    private final org.slf4j.Logger roleMapping = LoggerFactory.getLogger("ee.buerokratt.adauth.service.RoleMappingService");
+
+    private Path logFile;
+    private AuthEventLogger authEventLogger;
+    private UserAttributes user;
+
+    @Setup
+    public void setUp() throws IOException {
+        logFile = Files.createTempFile("auth-logging-benchmark", ".log");
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        context.reset();
+
+        FileAppender<ILoggingEvent> file = new FileAppender<>();
+        file.setContext(context);
+        file.setFile(logFile.toString());
+        Appender<ILoggingEvent> root;
+        if (mode.equals("sync")) {
+            PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+            encoder.setContext(context);
+            encoder.setPattern("%d{yyyy-MM-dd HH:mm:ss} %-5level [%thread] %logger - %msg%n");
+            encoder.start();
+            file.setEncoder(encoder);
+            file.start();
+            root = file;
+        } else {
+            Encoder<ILoggingEvent> encoder = new JsonLogEncoder();
+            encoder.setContext(context);
+            encoder.start();
+            file.setEncoder(encoder);
+            file.start();
+            BoundedAsyncAppender async = new BoundedAsyncAppender();
+            async.setContext(context);
+            async.setQueueSize(8192);
+            async.setOverflowPolicy(mode.substring("async-".length()));
+            async.addAppender(file);
+            async.start();
+            root = async;
+        }
+        Logger rootLogger = context.getLogger(Logger.ROOT_LOGGER_NAME);
+        rootLogger.addAppender(root);
+        context.getLogger("ee.buerokratt.adauth").setLevel(mode.equals("sync") ? Level.DEBUG : Level.INFO);
+
+        authEventLogger = new AuthEventLogger();
+        ReflectionTestUtils.setField(authEventLogger, "adProperties", new ADProperties());
+        ReflectionTestUtils.invokeMethod(authEventLogger, "init");
+        user = new UserAttributes();
+        user.setUPN(UPN);
+        user.setMemberOf(List.of(GROUP));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ((LoggerContext) LoggerFactory.getILoggerFactory()).reset();
+        Files.deleteIfExists(logFile);
+    }
+
+    @Benchmark
+    public void request() {
+        if (mode.equals("sync")) {
+            controller.info("Validating SAML response");
+            samlService.info("Validating SAML response");
+            samlService.info("SAML validation successful for user: {}", UPN);
+            roleMapping.debug("Matched AD group {} to role {} (priority {})", GROUP, ROLES.get(0), 1);
+            controller.info("SAML validation successful for user: {}, roles: {}", UPN, ROLES);
+        } else {
+            if (roleMapping.isDebugEnabled()) {
+                roleMapping.debug("Matched AD group {} to role {} (priority {})", GROUP, ROLES.get(0), 1);
+            }
+            samlService.debug("SAML validation successful");
+            authEventLogger.validated(user, ROLES);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ee.buerokratt.adauth.benchmark;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.service.AuthMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of AuthMetrics per /validate request, by stage sample rate
+ *
+ * Times every stage and the request as AuthController does, recording
+ * into a Prometheus registry from four threads. Compare with the parse
+ * and serialisation benchmarks to get the share of a request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class AuthMetricsBenchmark {
+
+    @Param({"1.0", "0.1", "0.0"})
+    private double sampleRate;
+
+    private AuthMetrics metrics;
+
+    @Setup
+    public void setUp() {
+        ADProperties adProperties = new ADProperties();
+        adProperties.getMetrics().setStageSampleRate(sampleRate);
+
+        metrics = new AuthMetrics();
+        ReflectionTestUtils.setField(metrics, "adProperties", adProperties);
+        ReflectionTestUtils.setField(metrics, "meterRegistry", new PrometheusMeterRegistry(PrometheusConfig.DEFAULT));
+        ReflectionTestUtils.invokeMethod(metrics, "init");
+    }
+
+    @Benchmark
+    public void request() {
+        AuthMetrics.Request request = metrics.start();
+        for (AuthMetrics.Stage stage : AuthMetrics.Stage.values()) {
+            request.completed(stage);
+        }
+        request.finish();
+    }
+}
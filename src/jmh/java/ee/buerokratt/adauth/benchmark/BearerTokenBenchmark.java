@@ -0,0 +1,78 @@
+package ee.buerokratt.adauth.benchmark;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.UserAttributes;
+import ee.buerokratt.adauth.service.BearerTokenVerifier;
+import ee.buerokratt.adauth.service.SessionTokenService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.security.KeyStore;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of authenticating a bearer token per request
+ *
+ * - cached: the same token again, a SHA-256 and a cache lookup
+ * - uncached: parsing, RS256 signature check and claim checks, as for a
+ *   token seen for the first time
+ * The token is signed with the RSA-2048 test IdP key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BearerTokenBenchmark {
+
+    private BearerTokenVerifier verifier;
+    private MethodHandle verifyUncached;
+    private String token;
+
+    @Setup
+    public void setUp() throws Throwable {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (var in = BearerTokenBenchmark.class.getResourceAsStream("/saml/test-idp-keystore.p12")) {
+            keyStore.load(in, "changeit".toCharArray());
+        }
+        KeyStore.PrivateKeyEntry entry = (KeyStore.PrivateKeyEntry) keyStore.getEntry("adfs-signing",
+            new KeyStore.PasswordProtection("changeit".toCharArray()));
+
+        ADProperties adProperties = new ADProperties();
+        adProperties.setFederation(new ADProperties.Federation());
+        adProperties.getSession().setIssuer("https://ruuter.buerokratt.ee");
+        adProperties.getSession().setAudience("ad-auth-service");
+        SessionTokenService issuer = new SessionTokenService();
+        ReflectionTestUtils.setField(issuer, "adProperties", adProperties);
+        ReflectionTestUtils.invokeMethod(issuer, "useKey", entry.getPrivateKey(), entry.getCertificate().getPublicKey());
+        UserAttributes caller = new UserAttributes();
+        caller.setUPN("ruuter");
+        token = issuer.issue(caller, List.of("ROLE_SERVICE"), Instant.now());
+
+        adProperties.getApiAuth().setTrustedCertificates(List.of("classpath:saml/test-idp-signing.crt"));
+        adProperties.getApiAuth().setAudience("ad-auth-service");
+        verifier = new BearerTokenVerifier();
+        ReflectionTestUtils.setField(verifier, "adProperties", adProperties);
+        ReflectionTestUtils.invokeMethod(verifier, "init");
+
+        verifyUncached = MethodHandles.privateLookupIn(BearerTokenVerifier.class, MethodHandles.lookup())
+            .findVirtual(BearerTokenVerifier.class, "verifyUncached",
+                MethodType.methodType(BearerTokenVerifier.VerifiedToken.class, String.class, long.class));
+    }
+
+    @Benchmark
+    public Object cached() throws Exception {
+        return verifier.verify(token);
+    }
+
+    @Benchmark
+    public Object uncached() throws Throwable {
+        return verifyUncached.invoke(verifier, token, System.currentTimeMillis() / 1000);
+    }
+}
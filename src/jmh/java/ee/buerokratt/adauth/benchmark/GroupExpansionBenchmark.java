@@ -0,0 +1,80 @@
+package ee.buerokratt.adauth.benchmark;
+
+import ee.buerokratt.adauth.model.DistinguishedName;
+import ee.buerokratt.adauth.service.GroupGraph;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GroupGraph expansion of a user's groups, and the cost of a refresh
+ *
+ * The graph is a forest of department, unit and team groups, eight levels
+ * deep at most, with a few cross-links. The user is a direct member of 20
+ * groups drawn from it. update measures a refresh in which one team moves
+ * to another unit, build the same graph from scratch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupExpansionBenchmark {
+
+    @Param({"1000", "10000", "40000"})
+    private int size;
+
+    private GroupGraph graph;
+    private Map<DistinguishedName, Set<DistinguishedName>> memberOf;
+    private Map<DistinguishedName, Set<DistinguishedName>> moved;
+    private List<DistinguishedName> user;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        memberOf = new HashMap<>();
+        for (int i = 1; i < size; i++) {
+            // Each group in one with a lower number, so at most log8(size) levels
+            Set<DistinguishedName> parents = random.nextInt(20) == 0
+                ? Set.of(group((i - 1) / 8), group(random.nextInt(i)))
+                : Set.of(group((i - 1) / 8));
+            memberOf.put(group(i), parents);
+        }
+        graph = GroupGraph.build(memberOf);
+
+        moved = new HashMap<>(memberOf);
+        moved.put(group(size - 1), Set.of(group(size / 16)));
+        user = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            user.add(group(size / 2 + random.nextInt(size / 2)));
+        }
+    }
+
+    @Benchmark
+    public List<DistinguishedName> expand() {
+        return graph.expand(user);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public GroupGraph update() {
+        return graph.update(moved).graph();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public GroupGraph build() {
+        return GroupGraph.build(moved);
+    }
+
+    private static DistinguishedName group(int i) {
+        return DistinguishedName.of("CN=Group-" + i + ",OU=Groups,DC=domain,DC=com");
+    }
+}
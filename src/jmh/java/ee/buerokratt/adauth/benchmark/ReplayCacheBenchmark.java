@@ -0,0 +1,59 @@
+package ee.buerokratt.adauth.benchmark;
+
+import ee.buerokratt.adauth.service.ReplayCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replay cache check of one login at a steady 2k logins/s
+ *
+ * Each login records two IDs (assertion and InResponseTo) with the AD FS
+ * default 5 minute SubjectConfirmation lifetime, on a simulated clock that
+ * advances 0.5 ms per login. The cache is filled with 10 simulated minutes
+ * of logins first, so expiry runs as in production. Sampled, so the report
+ * has p99 and p99.9; run with -prof gc for allocation per login.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayCacheBenchmark {
+
+    private static final int LOGINS_PER_SECOND = 2000;
+    private static final long HOUR = 3_600_000L;
+    private static final long LIFETIME = 300_000L;
+    private static final int MAX_ENTRIES = 2_000_000;
+    private static final long START = 1_700_000_000_000L;
+
+    @Param({"false", "true"})
+    private boolean fingerprints;
+
+    private ReplayCache cache;
+    private long login;
+
+    @Setup
+    public void setUp() {
+        cache = new ReplayCache(2 * HOUR, 64, MAX_ENTRIES, fingerprints);
+        for (int i = 0; i < LOGINS_PER_SECOND * 600; i++) {
+            login();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (cache.getRejections() > 0) {
+            throw new IllegalStateException(cache.getRejections() + " logins refused with " + cache.size() + " entries");
+        }
+    }
+
+    @Benchmark
+    public boolean login() {
+        long now = START + login * 1000L / LOGINS_PER_SECOND;
+        long id = login++;
+        return cache.checkAndRecord("assertion:_" + id, now + LIFETIME, now)
+            & cache.checkAndRecord("request:_" + id, now + LIFETIME, now);
+    }
+}
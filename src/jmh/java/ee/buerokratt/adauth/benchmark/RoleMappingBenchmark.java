@@ -0,0 +1,78 @@
+package ee.buerokratt.adauth.benchmark;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.RoleMappingResult;
+import ee.buerokratt.adauth.service.RoleMappingService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.cache.support.NoOpCacheManager;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RoleMappingService.mapGroups per strategy, rule count and group count
+ *
+ * The service runs with a no-op cache, so every call measures the
+ * mapping itself. Half of the user's groups match a rule, the rest are
+ * unrelated groups as AD FS sends them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoleMappingBenchmark {
+
+    @Param({"HIGHEST_PRIORITY", "COMBINE", "FIRST_MATCH"})
+    private ADProperties.RoleMapping.MultiGroupStrategy strategy;
+
+    @Param({"5", "50", "500"})
+    private int rules;
+
+    @Param({"2", "50", "500"})
+    private int groups;
+
+    private RoleMappingService service;
+    private List<String> adGroups;
+
+    @Setup
+    public void setUp() {
+        List<ADProperties.RoleMappingRule> ruleList = new ArrayList<>(rules);
+        for (int i = 0; i < rules; i++) {
+            ADProperties.RoleMappingRule rule = new ADProperties.RoleMappingRule();
+            rule.setAdGroup(group("Buerokratt-Role-" + i));
+            rule.setRole("ROLE_" + i);
+            rule.setPriority(rules - i);
+            ruleList.add(rule);
+        }
+        ADProperties.RoleMapping roleMapping = new ADProperties.RoleMapping();
+        roleMapping.setRules(ruleList);
+        roleMapping.setMultiGroupStrategy(strategy);
+        ADProperties adProperties = new ADProperties();
+        adProperties.setRoleMapping(roleMapping);
+
+        service = new RoleMappingService();
+        ReflectionTestUtils.setField(service, "adProperties", adProperties);
+        ReflectionTestUtils.setField(service, "cacheManager", new NoOpCacheManager());
+        ReflectionTestUtils.invokeMethod(service, "init");
+
+        adGroups = new ArrayList<>(groups);
+        for (int i = 0; i < groups; i++) {
+            adGroups.add(i % 2 == 0
+                ? group("Buerokratt-Role-" + (i / 2) % rules)
+                : group("Department-" + i));
+        }
+    }
+
+    @Benchmark
+    public RoleMappingResult mapGroups() {
+        return service.mapGroups(adGroups);
+    }
+
+    private static String group(String name) {
+        return "CN=" + name + ",OU=Groups,DC=domain,DC=com";
+    }
+}
@@ -0,0 +1,43 @@
+package ee.buerokratt.adauth.benchmark;
+
+import ee.buerokratt.adauth.service.ParsedSAMLResponse;
+import ee.buerokratt.adauth.service.SAMLResponseParser;
+import ee.buerokratt.adauth.service.SAMLTestResponses;
+import ee.buerokratt.adauth.service.SAMLValidationException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base64 decode plus parse of AD FS responses from the test corpus
+ *
+ * admin carries a handful of claims, large-groups some 250 group values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SAMLParseBenchmark {
+
+    private static final String AUDIENCE = "https://buerokratt.ee/saml/sp";
+    private static final String ACS_URL = "https://buerokratt.ee/auth/ad/acs";
+
+    @Param({SAMLTestResponses.ADMIN, SAMLTestResponses.LARGE_GROUPS})
+    private String sample;
+
+    private SAMLResponseParser parser;
+    private String base64;
+
+    @Setup
+    public void setUp() {
+        parser = new SAMLResponseParser(262144);
+        base64 = SAMLTestResponses.base64(sample, AUDIENCE, ACS_URL);
+    }
+
+    @Benchmark
+    public ParsedSAMLResponse parse() throws SAMLValidationException {
+        return parser.parse(base64);
+    }
+}
@@ -0,0 +1,99 @@
+package ee.buerokratt.adauth.benchmark;
+
+import ee.buerokratt.adauth.service.CollectedSignature;
+import ee.buerokratt.adauth.service.SAMLResponseParser;
+import ee.buerokratt.adauth.service.SAMLSignatureVerifier;
+import ee.buerokratt.adauth.service.SAMLTestResponses;
+import ee.buerokratt.adauth.service.SAMLTestSigner;
+import ee.buerokratt.adauth.service.SAMLValidationException;
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.XMLConstants;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request signature verification: streaming verifier against javax.xml.crypto
+ *
+ * - streaming: parse plus SAMLSignatureVerifier, as /validate does
+ * - dom: what a straightforward implementation does on every request:
+ *   decode, build a DOM, parse the KeyInfo certificate and run the JDK
+ *   XML-DSig validator
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SAMLSignatureBenchmark {
+
+    private static final String AUDIENCE = "https://buerokratt.ee/saml/sp";
+    private static final String ACS_URL = "https://buerokratt.ee/auth/ad/acs";
+
+    @Param({SAMLTestResponses.ADMIN, SAMLTestResponses.LARGE_GROUPS})
+    private String sample;
+
+    private SAMLResponseParser parser;
+    private SAMLSignatureVerifier verifier;
+    private X509Certificate trusted;
+    private String base64;
+
+    @Setup
+    public void setUp() throws Exception {
+        try (InputStream in = getClass().getResourceAsStream("/saml/test-idp-signing.crt")) {
+            trusted = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+        }
+        parser = new SAMLResponseParser(262144);
+        verifier = new SAMLSignatureVerifier();
+        verifier.updateTrustedCertificates(List.of(trusted));
+        base64 = SAMLTestResponses.encode(SAMLTestSigner.signAssertion(SAMLTestResponses.xml(sample, AUDIENCE, ACS_URL)));
+        if (!dom()) {
+            throw new IllegalStateException("Signature of " + sample + " does not verify");
+        }
+    }
+
+    @Benchmark
+    public int streaming() throws SAMLValidationException {
+        List<CollectedSignature> signatures = parser.parse(base64).getSignatures();
+        for (CollectedSignature signature : signatures) {
+            verifier.verify(signature);
+        }
+        return signatures.size();
+    }
+
+    @Benchmark
+    public boolean dom() throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        Document document = factory.newDocumentBuilder()
+            .parse(new ByteArrayInputStream(Base64.getMimeDecoder().decode(base64)));
+
+        Element assertion = (Element) document.getElementsByTagNameNS(SAMLResponseParser.ASSERTION_NS, "Assertion").item(0);
+        assertion.setIdAttributeNS(null, "ID", true);
+        Element signature = (Element) assertion.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature").item(0);
+
+        String encoded = signature.getElementsByTagNameNS(XMLSignature.XMLNS, "X509Certificate").item(0).getTextContent();
+        X509Certificate certificate = (X509Certificate) CertificateFactory.getInstance("X.509")
+            .generateCertificate(new ByteArrayInputStream(Base64.getMimeDecoder().decode(encoded)));
+        if (!certificate.equals(trusted)) {
+            return false;
+        }
+
+        DOMValidateContext context = new DOMValidateContext(certificate.getPublicKey(), signature);
+        return XMLSignatureFactory.getInstance("DOM").unmarshalXMLSignature(context).validate(context);
+    }
+}
@@ -0,0 +1,67 @@
+package ee.buerokratt.adauth.benchmark;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.UserAttributes;
+import ee.buerokratt.adauth.service.SessionTokenService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of minting a session JWT per /validate request, by key type
+ *
+ * RSA-2048 (RS256) against EC P-256 (ES256), with the header and static
+ * claims prepared once as SessionTokenService does at startup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionTokenBenchmark {
+
+    @Param({"RSA", "EC"})
+    private String key;
+
+    private SessionTokenService service;
+    private UserAttributes user;
+    private final List<String> roles = List.of("ROLE_ADMINISTRATOR", "ROLE_CUSTOMER_SUPPORT_AGENT");
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(key);
+        if (key.equals("EC")) {
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+        } else {
+            generator.initialize(2048);
+        }
+        KeyPair keyPair = generator.generateKeyPair();
+
+        ADProperties adProperties = new ADProperties();
+        ADProperties.Federation federation = new ADProperties.Federation();
+        federation.setEntityId("https://buerokratt.ee/saml/sp");
+        adProperties.setFederation(federation);
+        adProperties.getSession().setAudience("ruuter");
+        service = new SessionTokenService();
+        ReflectionTestUtils.setField(service, "adProperties", adProperties);
+        ReflectionTestUtils.invokeMethod(service, "useKey", keyPair.getPrivate(), keyPair.getPublic());
+
+        user = new UserAttributes();
+        user.setUPN("john.doe@domain.com");
+        user.setEmail("john.doe@domain.com");
+        user.setDisplayName("John Doe");
+    }
+
+    @Benchmark
+    public String issue() {
+        return service.issue(user, roles, Instant.now());
+    }
+}
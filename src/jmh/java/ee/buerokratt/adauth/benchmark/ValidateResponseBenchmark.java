@@ -0,0 +1,88 @@
+package ee.buerokratt.adauth.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import ee.buerokratt.adauth.config.ValidationResponseSerializer;
+import ee.buerokratt.adauth.model.UserAttributes;
+import ee.buerokratt.adauth.model.ValidationResponse;
+import ee.buerokratt.adauth.service.SAMLResponseParser;
+import ee.buerokratt.adauth.service.SAMLTestResponses;
+import ee.buerokratt.adauth.service.SAMLValidationException;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialisation of the /validate success body
+ *
+ * Uses an ObjectMapper configured like Spring Boot's, with the body built
+ * from parsed corpus responses:
+ * - mapBytes: the Map.of body AuthController used to return, written to a
+ *   byte[] first as it was
+ * - map: the same map written to a reused stream
+ * - dto: ValidationResponse through ValidationResponseSerializer, written
+ *   to a reused stream as to the servlet output stream
+ * Run with -prof gc for allocation per response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidateResponseBenchmark {
+
+    private static final String AUDIENCE = "https://buerokratt.ee/saml/sp";
+    private static final String ACS_URL = "https://buerokratt.ee/auth/ad/acs";
+
+    @Param({SAMLTestResponses.ADMIN, SAMLTestResponses.LARGE_GROUPS})
+    private String sample;
+
+    private ObjectMapper objectMapper;
+    private ObjectWriter writer;
+    private Map<String, Object> body;
+    private ValidationResponse response;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(65536);
+
+    @Setup
+    public void setUp() throws SAMLValidationException {
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+            .serializers(new ValidationResponseSerializer())
+            .build();
+        writer = objectMapper.writerFor(ValidationResponse.class);
+        UserAttributes user = new SAMLResponseParser(262144)
+            .parse(SAMLTestResponses.base64(sample, AUDIENCE, ACS_URL))
+            .getUserAttributes();
+        List<String> roles = List.of("ROLE_ADMINISTRATOR", "ROLE_CUSTOMER_SUPPORT_AGENT");
+        body = Map.of(
+            "valid", true,
+            "userAttributes", user,
+            "roles", roles
+        );
+        response = ValidationResponse.success(user, roles);
+    }
+
+    @Benchmark
+    public byte[] mapBytes() throws IOException {
+        return objectMapper.writeValueAsBytes(body);
+    }
+
+    @Benchmark
+    public int map() throws IOException {
+        out.reset();
+        objectMapper.writeValue(out, body);
+        return out.size();
+    }
+
+    @Benchmark
+    public int dto() throws IOException {
+        out.reset();
+        writer.writeValue(out, response);
+        return out.size();
+    }
+}
@@ -0,0 +1,183 @@
+package ee.buerokratt.adauth.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ee.buerokratt.adauth.service.SAMLTestResponses;
+import ee.buerokratt.adauth.service.SAMLTestSigner;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Embedded stand-in for AD FS
+ *
+ * Serves FederationMetadata.xml with the generated signing certificate and
+ * answers HTTP-Redirect AuthnRequests on /adfs/ls/ with an auto-submit form
+ * carrying a signed SAML Response for the request's ID, audience and ACS
+ * URL. Every sign-in waits the configured latency (plus up to the same
+ * again as jitter); the configured share fails with 503, and another share
+ * gets a Response whose signature no longer matches.
+ */
+public class FakeAdfs implements AutoCloseable {
+
+    static final String ENTITY_ID = "http://adfs.domain.com/adfs/services/trust";
+    static final String METADATA_PATH = "/FederationMetadata/2007-06/FederationMetadata.xml";
+    static final String SSO_PATH = "/adfs/ls/";
+
+    private static final Pattern REQUEST_ID = Pattern.compile("<samlp:AuthnRequest [^>]*ID=\"([^\"]+)\"");
+    private static final Pattern ACS_URL = Pattern.compile("AssertionConsumerServiceURL=\"([^\"]+)\"");
+    private static final Pattern ISSUER = Pattern.compile("<saml:Issuer[^>]*>([^<]+)</saml:Issuer>");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final PrivateKey signingKey;
+    private final X509Certificate signingCertificate;
+    private final String responseTemplate;
+    private final long latencyMillis;
+    private final double errorRate;
+    private final double invalidRate;
+    private final AtomicLong signIns = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong invalidResponses = new AtomicLong();
+
+    /**
+     * @param responseTemplate name of a sample in src/test/resources/saml/responses
+     * @param latencyMillis    base delay of each sign-in
+     * @param errorRate        share of sign-ins answered with 503
+     * @param invalidRate      share of sign-ins answered with a tampered Response
+     */
+    public FakeAdfs(PrivateKey signingKey, X509Certificate signingCertificate, String responseTemplate,
+                    long latencyMillis, double errorRate, double invalidRate, int threads) throws IOException {
+        this.signingKey = signingKey;
+        this.signingCertificate = signingCertificate;
+        this.responseTemplate = responseTemplate;
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+        this.invalidRate = invalidRate;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext(METADATA_PATH, this::metadata);
+        server.createContext(SSO_PATH, this::signIn);
+        server.start();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public String getMetadataUrl() {
+        return getBaseUrl() + METADATA_PATH;
+    }
+
+    public long getSignIns() {
+        return signIns.get();
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    public long getInvalidResponses() {
+        return invalidResponses.get();
+    }
+
+    private void metadata(HttpExchange exchange) throws IOException {
+        String certificate;
+        try {
+            certificate = Base64.getEncoder().encodeToString(signingCertificate.getEncoded());
+        } catch (CertificateEncodingException e) {
+            throw new IOException(e);
+        }
+        String sso = getBaseUrl() + SSO_PATH;
+        String xml = "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+            + "<EntityDescriptor entityID=\"" + ENTITY_ID + "\" cacheDuration=\"PT1H\""
+            + " xmlns=\"urn:oasis:names:tc:SAML:2.0:metadata\">"
+            + "<IDPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">"
+            + "<KeyDescriptor use=\"signing\"><KeyInfo xmlns=\"http://www.w3.org/2000/09/xmldsig#\">"
+            + "<X509Data><X509Certificate>" + certificate + "</X509Certificate></X509Data>"
+            + "</KeyInfo></KeyDescriptor>"
+            + "<SingleSignOnService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Redirect\""
+            + " Location=\"" + sso + "\"/>"
+            + "<SingleSignOnService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST\""
+            + " Location=\"" + sso + "\"/>"
+            + "</IDPSSODescriptor></EntityDescriptor>";
+        send(exchange, 200, "application/samlmetadata+xml", xml);
+    }
+
+    private void signIn(HttpExchange exchange) throws IOException {
+        signIns.incrementAndGet();
+        try {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis + random.nextLong(latencyMillis + 1));
+            }
+            if (random.nextDouble() < errorRate) {
+                injectedErrors.incrementAndGet();
+                send(exchange, 503, "text/plain", "Injected AD FS failure");
+                return;
+            }
+
+            Map<String, String> query = SAMLTestResponses.query(exchange.getRequestURI().toString());
+            String authnRequest = SAMLTestResponses.inflate(query.get("SAMLRequest"));
+            String xml = SAMLTestResponses.withFreshIds(
+                SAMLTestResponses.xml(responseTemplate, group(ISSUER, authnRequest), group(ACS_URL, authnRequest)),
+                group(REQUEST_ID, authnRequest));
+            String signed = SAMLTestSigner.sign(xml, "Assertion", signingKey, signingCertificate);
+            if (random.nextDouble() < invalidRate) {
+                invalidResponses.incrementAndGet();
+                signed = signed.replace("john.doe@domain.com", "mallory@domain.com");
+            }
+
+            String relayState = query.getOrDefault("RelayState", "");
+            send(exchange, 200, "text/html; charset=utf-8",
+                "<html><body onload=\"document.forms[0].submit()\">"
+                    + "<form method=\"post\" action=\"" + group(ACS_URL, authnRequest) + "\">"
+                    + "<input type=\"hidden\" name=\"SAMLResponse\" value=\"" + SAMLTestResponses.encode(signed) + "\"/>"
+                    + "<input type=\"hidden\" name=\"RelayState\" value=\"" + relayState + "\"/>"
+                    + "</form></body></html>");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, "text/plain", "Interrupted");
+        } catch (RuntimeException e) {
+            send(exchange, 400, "text/plain", "Bad AuthnRequest: " + e.getMessage());
+        }
+    }
+
+    private static String group(Pattern pattern, String xml) {
+        Matcher matcher = pattern.matcher(xml);
+        if (!matcher.find()) {
+            throw new IllegalArgumentException("no " + pattern.pattern());
+        }
+        return matcher.group(1);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
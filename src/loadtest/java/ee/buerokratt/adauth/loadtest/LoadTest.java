@@ -0,0 +1,532 @@
+package ee.buerokratt.adauth.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import ee.buerokratt.adauth.AdAuthServiceApplication;
+import ee.buerokratt.adauth.model.RoleMappingRequest;
+import ee.buerokratt.adauth.model.SAMLValidationRequest;
+import ee.buerokratt.adauth.service.SAMLTestResponses;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Open-model load test of the full login, validate and map-roles flow
+ *
+ * Generates an AD FS signing key with scripts/generate-saml-keystore.sh,
+ * starts FakeAdfs and the service in its own JVM pointed at it, then starts
+ * flows at a fixed rate: POST /auth/ad/login, the AD FS redirect, POST
+ * /auth/ad/validate with the returned SAMLResponse and POST
+ * /auth/ad/map-roles with the user's groups, the last two with a service
+ * bearer token. Latency is measured from each flow's scheduled start, so a
+ * stalled service shows up as queueing instead of a lower request rate.
+ *
+ * GC pauses and allocation come from the service's /actuator/prometheus
+ * before and after the measured window, CPU time from its process. The
+ * report is printed and written to target/loadtest/report.json.
+ *
+ * Options, as --name=value: rps, warmup and duration (seconds),
+ * concurrency, adfs-latency (ms), adfs-error-rate, adfs-invalid-rate,
+ * response (sample in saml/responses), app-jvm-args, app-args.
+ */
+public final class LoadTest {
+
+    private static final Path WORK_DIR = Path.of("target", "loadtest");
+    private static final String KEY_ALIAS = "adfs-signing";
+    private static final String KEY_PASSWORD = "changeit";
+    private static final String AUDIENCE = "ad-auth-service";
+    private static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(2);
+    private static final Pattern SAML_RESPONSE = Pattern.compile("name=\"SAMLResponse\" value=\"([^\"]+)\"");
+    private static final Pattern RELAY_STATE = Pattern.compile("name=\"RelayState\" value=\"([^\"]*)\"");
+    private static final ObjectMapper JSON = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final Map<String, String> options;
+    private final HttpClient http = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(5))
+        .build();
+
+    private final Map<String, Histogram> latencies = new LinkedHashMap<>();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong adfsErrors = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong appRequests = new AtomicLong();
+    private final AtomicLong lastCompletion = new AtomicLong();
+    private final Map<String, AtomicLong> errorsByStep = new LinkedHashMap<>();
+
+    private String baseUrl;
+    private String bearerToken;
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+        latencies.put("flow", new ConcurrentHistogram(HIGHEST_LATENCY_MICROS, 3));
+        for (String step : List.of("login", "adfs", "validate", "map-roles")) {
+            latencies.put(step, new ConcurrentHistogram(HIGHEST_LATENCY_MICROS, 3));
+            errorsByStep.put(step, new AtomicLong());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("rps", "50");
+        options.put("warmup", "15");
+        options.put("duration", "60");
+        options.put("concurrency", "64");
+        options.put("adfs-latency", "20");
+        options.put("adfs-error-rate", "0");
+        options.put("adfs-invalid-rate", "0");
+        options.put("response", SAMLTestResponses.ADMIN);
+        // Heap and CPUs a pod sees with the k8s/deployment.yaml limits (1Gi, 500m)
+        options.put("app-jvm-args", "-XX:MaxRAMPercentage=25 -XX:ActiveProcessorCount=1");
+        options.put("app-args", "");
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0 || !options.containsKey(arg.substring(2, eq))) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected --name=value with name one of "
+                    + options.keySet());
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        System.exit(new LoadTest(options).run());
+    }
+
+    private int run() throws Exception {
+        Files.createDirectories(WORK_DIR);
+        Path keystore = WORK_DIR.resolve("adfs-signing.p12");
+        Path certificate = WORK_DIR.resolve("adfs-signing.pem");
+        generateSigningKey(keystore, certificate);
+        KeyStore keyStore = KeyStore.getInstance(keystore.toFile(), KEY_PASSWORD.toCharArray());
+        PrivateKey key = (PrivateKey) keyStore.getKey(KEY_ALIAS, KEY_PASSWORD.toCharArray());
+        X509Certificate cert = (X509Certificate) keyStore.getCertificate(KEY_ALIAS);
+        bearerToken = serviceToken(key);
+
+        int concurrency = intOption("concurrency");
+        try (FakeAdfs adfs = new FakeAdfs(key, cert, options.get("response"), longOption("adfs-latency"),
+                doubleOption("adfs-error-rate"), doubleOption("adfs-invalid-rate"), concurrency)) {
+            Process app = startService(adfs, certificate);
+            try {
+                awaitReady(app);
+                Map<String, Object> report = drive(app, adfs);
+                print(report);
+                JSON.writeValue(WORK_DIR.resolve("report.json").toFile(), report);
+                System.out.println("Report written to " + WORK_DIR.resolve("report.json"));
+                return completed.get() > 0 ? 0 : 1;
+            } finally {
+                app.destroy();
+                if (!app.waitFor(30, TimeUnit.SECONDS)) {
+                    app.destroyForcibly();
+                }
+            }
+        }
+    }
+
+    /**
+     * Key and certificate of the fake AD FS, created by the keystore script on first use
+     */
+    private static void generateSigningKey(Path keystore, Path certificate) throws IOException, InterruptedException {
+        if (Files.exists(keystore) && Files.exists(certificate)) {
+            return;
+        }
+        Files.deleteIfExists(keystore);
+        ProcessBuilder builder = new ProcessBuilder("bash", "scripts/generate-saml-keystore.sh")
+            .redirectErrorStream(true)
+            .redirectOutput(WORK_DIR.resolve("keystore.log").toFile());
+        builder.environment().put("KEYSTORE_FILE", keystore.toString());
+        builder.environment().put("CERT_FILE", certificate.toString());
+        builder.environment().put("KEY_ALIAS", KEY_ALIAS);
+        builder.environment().put("KEY_PASSWORD", KEY_PASSWORD);
+        builder.environment().put("DN", "CN=ADFS Signing - loadtest");
+        if (builder.start().waitFor() != 0) {
+            throw new IllegalStateException("generate-saml-keystore.sh failed, see " + WORK_DIR.resolve("keystore.log"));
+        }
+    }
+
+    /**
+     * Service under test in its own JVM, so its GC and allocation are not mixed with the driver's
+     */
+    private Process startService(FakeAdfs adfs, Path certificate) throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        baseUrl = "http://127.0.0.1:" + port;
+
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(split(options.get("app-jvm-args")));
+        command.add("-Xlog:gc:file=" + WORK_DIR.resolve("gc.log"));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(AdAuthServiceApplication.class.getName());
+        command.add("--server.port=" + port);
+        command.add("--ad.federation.metadata-url=" + adfs.getMetadataUrl());
+        command.add("--ad.federation.signing-certificates=file:" + certificate.toAbsolutePath());
+        command.add("--ad.api-auth.trusted-certificates=file:" + certificate.toAbsolutePath());
+        command.add("--ad.api-auth.audience=" + AUDIENCE);
+        command.addAll(split(options.get("app-args")));
+
+        File log = WORK_DIR.resolve("app.log").toFile();
+        System.out.println("Starting service on " + baseUrl + ", output in " + log);
+        return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+    }
+
+    private void awaitReady(Process app) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(120);
+        while (System.nanoTime() < deadline) {
+            if (!app.isAlive()) {
+                throw new IllegalStateException("Service exited with " + app.exitValue() + ", see "
+                    + WORK_DIR.resolve("app.log"));
+            }
+            try {
+                HttpResponse<String> response = http.send(HttpRequest.newBuilder(URI.create(baseUrl + "/actuator/health"))
+                    .timeout(Duration.ofSeconds(5)).build(), HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException("Service not ready after 120 s, see " + WORK_DIR.resolve("app.log"));
+    }
+
+    /**
+     * Start flows at the target rate through warmup and the measured window
+     */
+    private Map<String, Object> drive(Process app, FakeAdfs adfs) throws Exception {
+        double rps = doubleOption("rps");
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rps);
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(longOption("warmup"));
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(longOption("duration"));
+
+        int concurrency = intOption("concurrency");
+        ExecutorService workers = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>());
+        System.out.printf(Locale.ROOT, "Driving %.1f flows/s: %d s warmup, %d s measured%n",
+            rps, longOption("warmup"), longOption("duration"));
+
+        Snapshot before = null;
+        long cpuBefore = 0;
+        long adfsBefore = 0;
+        for (long i = 0; ; i++) {
+            long intended = start + i * interval;
+            if (intended >= end) {
+                break;
+            }
+            if (before == null && intended >= measureFrom) {
+                before = scrape();
+                cpuBefore = cpuNanos(app);
+                adfsBefore = adfs.getSignIns();
+            }
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            boolean measured = intended >= measureFrom;
+            workers.execute(() -> flow(intended, measured));
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(2, TimeUnit.MINUTES)) {
+            workers.shutdownNow();
+        }
+        Snapshot after = scrape();
+        long cpu = cpuNanos(app) - cpuBefore;
+        return report(measureFrom, before, after, cpu, adfs.getSignIns() - adfsBefore, adfs);
+    }
+
+    /**
+     * One login → AD FS → validate → map-roles flow
+     */
+    private void flow(long intended, boolean measured) {
+        String step = "login";
+        try {
+            long t0 = System.nanoTime();
+            HttpResponse<String> login = send(HttpRequest.newBuilder(URI.create(baseUrl + "/auth/ad/login?relayState=/loadtest"))
+                .POST(HttpRequest.BodyPublishers.noBody()), measured);
+            long t1 = System.nanoTime();
+            if (login.statusCode() != 200) {
+                fail(step, measured);
+                return;
+            }
+            String redirectUrl = JSON.readTree(login.body()).path("redirectUrl").asText();
+
+            step = "adfs";
+            HttpResponse<String> signIn = http.send(HttpRequest.newBuilder(URI.create(redirectUrl))
+                .timeout(Duration.ofSeconds(30)).build(), HttpResponse.BodyHandlers.ofString());
+            long t2 = System.nanoTime();
+            if (signIn.statusCode() != 200) {
+                if (measured) {
+                    adfsErrors.incrementAndGet();
+                }
+                return;
+            }
+
+            step = "validate";
+            SAMLValidationRequest validation = new SAMLValidationRequest(
+                group(SAML_RESPONSE, signIn.body()), group(RELAY_STATE, signIn.body()));
+            HttpResponse<String> validate = send(json(baseUrl + "/auth/ad/validate", validation), measured);
+            long t3 = System.nanoTime();
+            JsonNode validated = validate.statusCode() == 200 ? JSON.readTree(validate.body()) : null;
+            if (validated == null) {
+                fail(step, measured);
+                return;
+            }
+            if (!validated.path("valid").asBoolean()) {
+                if (measured) {
+                    rejected.incrementAndGet();
+                }
+                return;
+            }
+
+            step = "map-roles";
+            List<String> groups = new ArrayList<>();
+            validated.path("userAttributes").path("memberOf").forEach(group -> groups.add(group.asText()));
+            HttpResponse<String> mapRoles = send(json(baseUrl + "/auth/ad/map-roles", new RoleMappingRequest(groups)),
+                measured);
+            long t4 = System.nanoTime();
+            if (mapRoles.statusCode() != 200) {
+                fail(step, measured);
+                return;
+            }
+
+            if (measured) {
+                record("login", t1 - t0);
+                record("adfs", t2 - t1);
+                record("validate", t3 - t2);
+                record("map-roles", t4 - t3);
+                record("flow", t4 - intended);
+                completed.incrementAndGet();
+                lastCompletion.accumulateAndGet(t4, Math::max);
+            }
+        } catch (Exception e) {
+            fail(step, measured);
+        }
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request, boolean measured)
+            throws IOException, InterruptedException {
+        if (measured) {
+            appRequests.incrementAndGet();
+        }
+        return http.send(request.timeout(Duration.ofSeconds(30)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest.Builder json(String url, Object body) throws IOException {
+        return HttpRequest.newBuilder(URI.create(url))
+            .header("Content-Type", "application/json")
+            .header("Authorization", "Bearer " + bearerToken)
+            .POST(HttpRequest.BodyPublishers.ofByteArray(JSON.writeValueAsBytes(body)));
+    }
+
+    private void record(String step, long nanos) {
+        latencies.get(step).recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), HIGHEST_LATENCY_MICROS));
+    }
+
+    private void fail(String step, boolean measured) {
+        if (measured) {
+            errors.incrementAndGet();
+            errorsByStep.get(step).incrementAndGet();
+        }
+    }
+
+    private Map<String, Object> report(long measureFrom, Snapshot before, Snapshot after, long cpuNanos,
+                                       long signIns, FakeAdfs adfs) {
+        double seconds = Math.max(1, lastCompletion.get() - measureFrom) / 1e9;
+        long flows = completed.get();
+        long requests = Math.max(1, appRequests.get());
+        // The allocation counter only moves at GCs; the change in Eden use covers the rest
+        double allocated = after.allocatedBytes() - before.allocatedBytes() + after.edenBytes() - before.edenBytes();
+        double pauseMillis = (after.pauseSeconds() - before.pauseSeconds()) * 1000;
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("options", options);
+        Map<String, Object> throughput = new LinkedHashMap<>();
+        throughput.put("flowsPerSecond", round(flows / seconds));
+        throughput.put("serviceRequestsPerSecond", round(requests / seconds));
+        throughput.put("completedFlows", flows);
+        throughput.put("rejectedFlows", rejected.get());
+        throughput.put("adfsErrors", adfsErrors.get());
+        throughput.put("errors", errors.get());
+        throughput.put("errorsByStep", errorsByStep);
+        report.put("throughput", throughput);
+
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latencies.forEach((step, histogram) -> {
+            Map<String, Object> percentiles = new LinkedHashMap<>();
+            percentiles.put("p50", millis(histogram.getValueAtPercentile(50)));
+            percentiles.put("p99", millis(histogram.getValueAtPercentile(99)));
+            percentiles.put("p999", millis(histogram.getValueAtPercentile(99.9)));
+            percentiles.put("max", millis(histogram.getMaxValue()));
+            latency.put(step, percentiles);
+        });
+        report.put("latencyMillis", latency);
+
+        Map<String, Object> gc = new LinkedHashMap<>();
+        gc.put("pauses", Math.round(after.pauseCount() - before.pauseCount()));
+        gc.put("pauseMillisTotal", round(pauseMillis));
+        gc.put("pauseMillisMax", round(after.pauseMaxSeconds() * 1000));
+        gc.put("pauseTimeShare", round(pauseMillis / 1000 / seconds));
+        gc.put("allocatedBytesPerSecond", Math.round(allocated / seconds));
+        gc.put("allocatedBytesPerRequest", Math.round(allocated / requests));
+        gc.put("allocatedBytesPerFlow", flows > 0 ? Math.round(allocated / flows) : 0);
+        report.put("service", gc);
+        report.put("serviceCpuMillisPerFlow", flows > 0 ? round(cpuNanos / 1e6 / flows) : 0);
+
+        Map<String, Object> fake = new LinkedHashMap<>();
+        fake.put("signIns", signIns);
+        fake.put("injectedErrorsTotal", adfs.getInjectedErrors());
+        fake.put("invalidResponsesTotal", adfs.getInvalidResponses());
+        report.put("adfs", fake);
+        return report;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void print(Map<String, Object> report) {
+        Map<String, Object> throughput = (Map<String, Object>) report.get("throughput");
+        Map<String, Object> service = (Map<String, Object>) report.get("service");
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Throughput: %s flows/s, %s service requests/s (%s completed, %s rejected,"
+                + " %s AD FS errors, %s errors %s)%n",
+            throughput.get("flowsPerSecond"), throughput.get("serviceRequestsPerSecond"),
+            throughput.get("completedFlows"), throughput.get("rejectedFlows"), throughput.get("adfsErrors"),
+            throughput.get("errors"), throughput.get("errorsByStep"));
+        System.out.printf(Locale.ROOT, "%-10s %10s %10s %10s %10s%n", "ms", "p50", "p99", "p999", "max");
+        ((Map<String, Map<String, Object>>) report.get("latencyMillis")).forEach((step, p) ->
+            System.out.printf(Locale.ROOT, "%-10s %10s %10s %10s %10s%n",
+                step, p.get("p50"), p.get("p99"), p.get("p999"), p.get("max")));
+        System.out.printf(Locale.ROOT, "GC: %s pauses, %s ms total, %s ms max, %s of wall time%n",
+            service.get("pauses"), service.get("pauseMillisTotal"), service.get("pauseMillisMax"),
+            service.get("pauseTimeShare"));
+        System.out.printf(Locale.ROOT, "Allocation: %s B/s, %s B per request, %s B per flow; CPU %s ms per flow%n",
+            service.get("allocatedBytesPerSecond"), service.get("allocatedBytesPerRequest"),
+            service.get("allocatedBytesPerFlow"), report.get("serviceCpuMillisPerFlow"));
+    }
+
+    /**
+     * RS256 token accepted by ad.api-auth, signed with the fake AD FS key
+     */
+    private static String serviceToken(PrivateKey key) throws Exception {
+        long now = System.currentTimeMillis() / 1000;
+        Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("sub", "loadtest");
+        claims.put("aud", AUDIENCE);
+        claims.put("roles", List.of("ROLE_SERVICE"));
+        claims.put("iat", now);
+        claims.put("exp", now + TimeUnit.DAYS.toSeconds(1));
+        Base64.Encoder base64 = Base64.getUrlEncoder().withoutPadding();
+        String signingInput = base64.encodeToString("{\"alg\":\"RS256\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8))
+            + "." + base64.encodeToString(new ObjectMapper().writeValueAsBytes(claims));
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(key);
+        signature.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+        return signingInput + "." + base64.encodeToString(signature.sign());
+    }
+
+    /**
+     * GC and allocation counters from /actuator/prometheus
+     */
+    private Snapshot scrape() throws IOException, InterruptedException {
+        HttpResponse<String> response = http.send(HttpRequest.newBuilder(URI.create(baseUrl + "/actuator/prometheus"))
+            .header("Authorization", "Bearer " + bearerToken)
+            .timeout(Duration.ofSeconds(10)).build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("/actuator/prometheus returned " + response.statusCode());
+        }
+        double allocated = 0;
+        double eden = 0;
+        double pauseCount = 0;
+        double pauseSeconds = 0;
+        double pauseMax = 0;
+        for (String line : response.body().split("\n")) {
+            if (line.startsWith("#") || line.isBlank()) {
+                continue;
+            }
+            double value = Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+            if (line.startsWith("jvm_gc_memory_allocated_bytes_total")) {
+                allocated += value;
+            } else if (line.startsWith("jvm_memory_used_bytes{") && line.contains("Eden")) {
+                eden += value;
+            } else if (line.startsWith("jvm_gc_pause_seconds_count{")) {
+                pauseCount += value;
+            } else if (line.startsWith("jvm_gc_pause_seconds_sum{")) {
+                pauseSeconds += value;
+            } else if (line.startsWith("jvm_gc_pause_seconds_max{")) {
+                pauseMax = Math.max(pauseMax, value);
+            }
+        }
+        return new Snapshot(allocated, eden, pauseCount, pauseSeconds, pauseMax);
+    }
+
+    private record Snapshot(double allocatedBytes, double edenBytes, double pauseCount, double pauseSeconds,
+                            double pauseMaxSeconds) {
+    }
+
+    private static long cpuNanos(Process process) {
+        return process.info().totalCpuDuration().map(Duration::toNanos).orElse(0L);
+    }
+
+    private static String group(Pattern pattern, String html) {
+        Matcher matcher = pattern.matcher(html);
+        if (!matcher.find()) {
+            throw new IllegalStateException("AD FS page without " + pattern.pattern());
+        }
+        return matcher.group(1);
+    }
+
+    private static List<String> split(String value) {
+        return value.isBlank() ? List.of() : List.of(value.trim().split("\\s+"));
+    }
+
+    private static double millis(long micros) {
+        return round(micros / 1000.0);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    private int intOption(String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    private long longOption(String name) {
+        return Long.parseLong(options.get(name));
+    }
+
+    private double doubleOption(String name) {
+        return Double.parseDouble(options.get(name));
+    }
+}
@@ -0,0 +1,156 @@
+package ee.buerokratt.adauth.loadtest;
+
+import com.sun.net.httpserver.HttpServer;
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.service.ResilienceService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Request throughput and p99 latency against a slow AD FS: platform vs virtual threads
+ *
+ * A local stub answers after 200 ms. Each simulated request makes one
+ * outbound call through ResilienceService, on either a pool of 200
+ * platform threads (Tomcat's default maximum) or one virtual thread per
+ * request, as with spring.threads.virtual.enabled. Latency is measured
+ * from submission, so time queued for a thread counts. Needs Java 21;
+ * exits with 1 if virtual threads do not beat the platform pool or the
+ * bulkhead lets more than max-concurrent-calls through.
+ */
+public final class VirtualThreadLoadTest {
+
+    private static final int MAX_CONCURRENT_CALLS = 400;
+    private static final int ADFS_LATENCY_MILLIS = 200;
+    private static final int PLATFORM_THREADS = 200;
+    private static final int REQUESTS = 4000;
+    private static final int WARMUP_REQUESTS = 400;
+
+    private final ResilienceService resilienceService;
+    private final CloseableHttpClient httpClient;
+    private final String adfsUrl;
+
+    private VirtualThreadLoadTest(ResilienceService resilienceService, CloseableHttpClient httpClient, String adfsUrl) {
+        this.resilienceService = resilienceService;
+        this.httpClient = httpClient;
+        this.adfsUrl = adfsUrl;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (Runtime.version().feature() < 21) {
+            System.err.println("Virtual threads need Java 21, running on " + Runtime.version());
+            System.exit(2);
+        }
+        // The JDK server closes idle keep-alive connections beyond 200 by default, which the pool then trips over
+        System.setProperty("sun.net.httpserver.maxIdleConnections", String.valueOf(REQUESTS));
+
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        HttpServer adfs = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        adfs.setExecutor(newVirtualThreadPerTaskExecutor());
+        adfs.createContext("/adfs/ls", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(ADFS_LATENCY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        adfs.start();
+
+        ADProperties adProperties = new ADProperties();
+        adProperties.getResilience().setMaxConcurrentCalls(MAX_CONCURRENT_CALLS);
+        adProperties.getResilience().setMaxConcurrentCallsWait(60000L);
+        ResilienceService resilienceService = new ResilienceService();
+        ReflectionTestUtils.setField(resilienceService, "adProperties", adProperties);
+        ReflectionTestUtils.setField(resilienceService, "meterRegistry", new SimpleMeterRegistry());
+
+        boolean passed;
+        try (CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                    .setMaxConnTotal(REQUESTS)
+                    .setMaxConnPerRoute(REQUESTS)
+                    .build())
+                .build()) {
+            VirtualThreadLoadTest test = new VirtualThreadLoadTest(resilienceService, httpClient,
+                "http://127.0.0.1:" + adfs.getAddress().getPort() + "/adfs/ls");
+            ExecutorService platform = Executors.newFixedThreadPool(PLATFORM_THREADS);
+            ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+            test.run(platform, WARMUP_REQUESTS);
+            test.run(virtual, WARMUP_REQUESTS);
+
+            maxInFlight.set(0);
+            Result platformResult = test.run(platform, REQUESTS);
+            Result virtualResult = test.run(virtual, REQUESTS);
+            int virtualMaxInFlight = maxInFlight.get();
+            platform.shutdown();
+            virtual.shutdown();
+
+            System.out.printf("Slow AD FS (%d ms), %d requests:%n", ADFS_LATENCY_MILLIS, REQUESTS);
+            System.out.printf("  platform (%d threads): %s%n", PLATFORM_THREADS, platformResult);
+            System.out.printf("  virtual (bulkhead %d):  %s%n", MAX_CONCURRENT_CALLS, virtualResult);
+            System.out.printf("  max concurrent AD FS calls: %d%n", virtualMaxInFlight);
+            passed = virtualMaxInFlight <= MAX_CONCURRENT_CALLS
+                && virtualResult.throughput > platformResult.throughput
+                && virtualResult.p99Millis < platformResult.p99Millis;
+        } finally {
+            adfs.stop(0);
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor(), looked up at run time as the build targets Java 17
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws ReflectiveOperationException {
+        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+
+    private Result run(ExecutorService executor, int requests) throws Exception {
+        long start = System.nanoTime();
+        List<Future<Long>> futures = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            long submitted = System.nanoTime();
+            futures.add(executor.submit(() -> {
+                resilienceService.execute("load-test-adfs", 0,
+                    () -> httpClient.execute(new HttpGet(adfsUrl), response -> {
+                        EntityUtils.consume(response.getEntity());
+                        return response.getCode();
+                    }));
+                return System.nanoTime() - submitted;
+            }));
+        }
+        long[] latencies = new long[requests];
+        for (int i = 0; i < requests; i++) {
+            latencies[i] = futures.get(i).get(5, TimeUnit.MINUTES);
+        }
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        return new Result(requests * 1e9 / elapsed, latencies[(int) (requests * 0.99) - 1] / 1e6);
+    }
+
+    private record Result(double throughput, double p99Millis) {
+
+        @Override
+        public String toString() {
+            return String.format("%.0f req/s, p99 %.0f ms", throughput, p99Millis);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package ee.buerokratt.adauth.config;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -17,6 +18,14 @@ public class ADProperties {
     private Federation federation;
     private RoleMapping roleMapping;
     private Resilience resilience;
+    private Cluster cluster = new Cluster();
+    private Metrics metrics = new Metrics();
+    private Logging logging = new Logging();
+    private Session session = new Session();
+    private ApiAuth apiAuth = new ApiAuth();
+    private Ldap ldap = new Ldap();
+    private Provisioning provisioning = new Provisioning();
+    private Sync sync = new Sync();
 
     // Getters and setters
     public Federation getFederation() {
@@ -43,6 +52,70 @@ public class ADProperties {
         this.resilience = resilience;
     }
 
+    public Cluster getCluster() {
+        return cluster;
+    }
+
+    public void setCluster(Cluster cluster) {
+        this.cluster = cluster;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Logging getLogging() {
+        return logging;
+    }
+
+    public void setLogging(Logging logging) {
+        this.logging = logging;
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    public void setSession(Session session) {
+        this.session = session;
+    }
+
+    public ApiAuth getApiAuth() {
+        return apiAuth;
+    }
+
+    public void setApiAuth(ApiAuth apiAuth) {
+        this.apiAuth = apiAuth;
+    }
+
+    public Ldap getLdap() {
+        return ldap;
+    }
+
+    public void setLdap(Ldap ldap) {
+        this.ldap = ldap;
+    }
+
+    public Provisioning getProvisioning() {
+        return provisioning;
+    }
+
+    public void setProvisioning(Provisioning provisioning) {
+        this.provisioning = provisioning;
+    }
+
+    public Sync getSync() {
+        return sync;
+    }
+
+    public void setSync(Sync sync) {
+        this.sync = sync;
+    }
+
     public static class Federation {
         private String entityId;
         private String acsUrl;
@@ -50,7 +123,23 @@ public class ADProperties {
         private String keystorePath;
         private String keystorePassword;
         private String privateKeyPassword;
+        private Boolean signAuthnRequests = false;
+        private String signingKeyAlias;
         private Integer timeout = 5000;
+        private Integer maxResponseSize = 262144;
+        private Long clockSkew = 60000L;
+        private List<String> signingCertificates = new ArrayList<>();
+        private List<String> metadataSigningCertificates = new ArrayList<>();
+        private List<MetadataSource> metadata = new ArrayList<>();
+        private Long metadataRefreshInterval = 3600000L;
+        private Long metadataMinRefreshInterval = 60000L;
+        private Long replayCacheWindow = 7200000L;
+        private Integer replayCacheMaxEntries = 2000000;
+        private Integer replayCacheExpectedRate = 2000;
+        private Long replayCacheExpectedLifetime = 300000L;
+        private Boolean replayCacheFingerprints = false;
+        private Long authnRequestLifetime = 900000L;
+        private Integer authnRequestMaxEntries = 2000000;
 
         public String getEntityId() {
             return entityId;
@@ -100,6 +189,22 @@ public class ADProperties {
             this.privateKeyPassword = privateKeyPassword;
         }
 
+        public Boolean getSignAuthnRequests() {
+            return signAuthnRequests;
+        }
+
+        public void setSignAuthnRequests(Boolean signAuthnRequests) {
+            this.signAuthnRequests = signAuthnRequests;
+        }
+
+        public String getSigningKeyAlias() {
+            return signingKeyAlias;
+        }
+
+        public void setSigningKeyAlias(String signingKeyAlias) {
+            this.signingKeyAlias = signingKeyAlias;
+        }
+
         public Integer getTimeout() {
             return timeout;
         }
@@ -107,12 +212,148 @@ public class ADProperties {
         public void setTimeout(Integer timeout) {
             this.timeout = timeout;
         }
+
+        public Integer getMaxResponseSize() {
+            return maxResponseSize;
+        }
+
+        public void setMaxResponseSize(Integer maxResponseSize) {
+            this.maxResponseSize = maxResponseSize;
+        }
+
+        public Long getClockSkew() {
+            return clockSkew;
+        }
+
+        public void setClockSkew(Long clockSkew) {
+            this.clockSkew = clockSkew;
+        }
+
+        public List<String> getSigningCertificates() {
+            return signingCertificates;
+        }
+
+        public void setSigningCertificates(List<String> signingCertificates) {
+            this.signingCertificates = signingCertificates;
+        }
+
+        public List<String> getMetadataSigningCertificates() {
+            return metadataSigningCertificates;
+        }
+
+        public void setMetadataSigningCertificates(List<String> metadataSigningCertificates) {
+            this.metadataSigningCertificates = metadataSigningCertificates;
+        }
+
+        public List<MetadataSource> getMetadata() {
+            return metadata;
+        }
+
+        public void setMetadata(List<MetadataSource> metadata) {
+            this.metadata = metadata;
+        }
+
+        public Long getMetadataRefreshInterval() {
+            return metadataRefreshInterval;
+        }
+
+        public void setMetadataRefreshInterval(Long metadataRefreshInterval) {
+            this.metadataRefreshInterval = metadataRefreshInterval;
+        }
+
+        public Long getMetadataMinRefreshInterval() {
+            return metadataMinRefreshInterval;
+        }
+
+        public void setMetadataMinRefreshInterval(Long metadataMinRefreshInterval) {
+            this.metadataMinRefreshInterval = metadataMinRefreshInterval;
+        }
+
+        public Long getReplayCacheWindow() {
+            return replayCacheWindow;
+        }
+
+        public void setReplayCacheWindow(Long replayCacheWindow) {
+            this.replayCacheWindow = replayCacheWindow;
+        }
+
+        public Integer getReplayCacheMaxEntries() {
+            return replayCacheMaxEntries;
+        }
+
+        public void setReplayCacheMaxEntries(Integer replayCacheMaxEntries) {
+            this.replayCacheMaxEntries = replayCacheMaxEntries;
+        }
+
+        public Integer getReplayCacheExpectedRate() {
+            return replayCacheExpectedRate;
+        }
+
+        public void setReplayCacheExpectedRate(Integer replayCacheExpectedRate) {
+            this.replayCacheExpectedRate = replayCacheExpectedRate;
+        }
+
+        public Long getReplayCacheExpectedLifetime() {
+            return replayCacheExpectedLifetime;
+        }
+
+        public void setReplayCacheExpectedLifetime(Long replayCacheExpectedLifetime) {
+            this.replayCacheExpectedLifetime = replayCacheExpectedLifetime;
+        }
+
+        public Boolean getReplayCacheFingerprints() {
+            return replayCacheFingerprints;
+        }
+
+        public void setReplayCacheFingerprints(Boolean replayCacheFingerprints) {
+            this.replayCacheFingerprints = replayCacheFingerprints;
+        }
+
+        public Long getAuthnRequestLifetime() {
+            return authnRequestLifetime;
+        }
+
+        public void setAuthnRequestLifetime(Long authnRequestLifetime) {
+            this.authnRequestLifetime = authnRequestLifetime;
+        }
+
+        public Integer getAuthnRequestMaxEntries() {
+            return authnRequestMaxEntries;
+        }
+
+        public void setAuthnRequestMaxEntries(Integer authnRequestMaxEntries) {
+            this.authnRequestMaxEntries = authnRequestMaxEntries;
+        }
+    }
+
+    public static class MetadataSource {
+        private String uri;
+        private Integer priority = 1;
+
+        public String getUri() {
+            return uri;
+        }
+
+        public void setUri(String uri) {
+            this.uri = uri;
+        }
+
+        public Integer getPriority() {
+            return priority;
+        }
+
+        public void setPriority(Integer priority) {
+            this.priority = priority;
+        }
     }
 
     public static class RoleMapping {
         private List<RoleMappingRule> rules;
         private String defaultRole = "ROLE_UNAUTHENTICATED";
         private MultiGroupStrategy multiGroupStrategy = MultiGroupStrategy.HIGHEST_PRIORITY;
+        private String rulesFile;
+        private Long rulesReloadInterval = 10000L;
+        private NestedGroups nestedGroups = new NestedGroups();
 
         public enum MultiGroupStrategy {
             HIGHEST_PRIORITY,
@@ -143,6 +384,30 @@ public class ADProperties {
         public void setMultiGroupStrategy(MultiGroupStrategy multiGroupStrategy) {
             this.multiGroupStrategy = multiGroupStrategy;
         }
+
+        public String getRulesFile() {
+            return rulesFile;
+        }
+
+        public void setRulesFile(String rulesFile) {
+            this.rulesFile = rulesFile;
+        }
+
+        public Long getRulesReloadInterval() {
+            return rulesReloadInterval;
+        }
+
+        public void setRulesReloadInterval(Long rulesReloadInterval) {
+            this.rulesReloadInterval = rulesReloadInterval;
+        }
+
+        public NestedGroups getNestedGroups() {
+            return nestedGroups;
+        }
+
+        public void setNestedGroups(NestedGroups nestedGroups) {
+            this.nestedGroups = nestedGroups;
+        }
     }
 
     public static class RoleMappingRule {
@@ -175,11 +440,45 @@ public class ADProperties {
         }
     }
 
+    public static class NestedGroups {
+        private Boolean enabled = false;
+        private String ldifFile;
+        private Long refreshInterval = 300000L;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getLdifFile() {
+            return ldifFile;
+        }
+
+        public void setLdifFile(String ldifFile) {
+            this.ldifFile = ldifFile;
+        }
+
+        public Long getRefreshInterval() {
+            return refreshInterval;
+        }
+
+        public void setRefreshInterval(Long refreshInterval) {
+            this.refreshInterval = refreshInterval;
+        }
+    }
+
     public static class Resilience {
         private Integer maxRetries = 3;
         private Long retryBackoff = 1000L;
         private Integer circuitBreakerFailureThreshold = 50;
         private Long circuitBreakerWaitDuration = 30000L;
+        private Integer circuitBreakerSlidingWindowSize = 10;
+        private Integer circuitBreakerMinimumCalls = 5;
+        private Integer maxConcurrentCalls = 100;
+        private Long maxConcurrentCallsWait = 1000L;
 
         public Integer getMaxRetries() {
             return maxRetries;
@@ -212,5 +511,523 @@ public class ADProperties {
         public void setCircuitBreakerWaitDuration(Long circuitBreakerWaitDuration) {
             this.circuitBreakerWaitDuration = circuitBreakerWaitDuration;
         }
+
+        public Integer getCircuitBreakerSlidingWindowSize() {
+            return circuitBreakerSlidingWindowSize;
+        }
+
+        public void setCircuitBreakerSlidingWindowSize(Integer circuitBreakerSlidingWindowSize) {
+            this.circuitBreakerSlidingWindowSize = circuitBreakerSlidingWindowSize;
+        }
+
+        public Integer getCircuitBreakerMinimumCalls() {
+            return circuitBreakerMinimumCalls;
+        }
+
+        public void setCircuitBreakerMinimumCalls(Integer circuitBreakerMinimumCalls) {
+            this.circuitBreakerMinimumCalls = circuitBreakerMinimumCalls;
+        }
+
+        public Integer getMaxConcurrentCalls() {
+            return maxConcurrentCalls;
+        }
+
+        public void setMaxConcurrentCalls(Integer maxConcurrentCalls) {
+            this.maxConcurrentCalls = maxConcurrentCalls;
+        }
+
+        public Long getMaxConcurrentCallsWait() {
+            return maxConcurrentCallsWait;
+        }
+
+        public void setMaxConcurrentCallsWait(Long maxConcurrentCallsWait) {
+            this.maxConcurrentCallsWait = maxConcurrentCallsWait;
+        }
+    }
+
+    public static class Cluster {
+        private String replayStore = "local";
+        private List<String> peers = new ArrayList<>();
+        private String peerService;
+        private String sharedSecret;
+        private Integer timeout = 500;
+        private Long flushInterval = 50L;
+        private Integer batchSize = 500;
+        private Integer maxPending = 100000;
+
+        public String getReplayStore() {
+            return replayStore;
+        }
+
+        public void setReplayStore(String replayStore) {
+            this.replayStore = replayStore;
+        }
+
+        public List<String> getPeers() {
+            return peers;
+        }
+
+        public void setPeers(List<String> peers) {
+            this.peers = peers;
+        }
+
+        public String getPeerService() {
+            return peerService;
+        }
+
+        public void setPeerService(String peerService) {
+            this.peerService = peerService;
+        }
+
+        public String getSharedSecret() {
+            return sharedSecret;
+        }
+
+        public void setSharedSecret(String sharedSecret) {
+            this.sharedSecret = sharedSecret;
+        }
+
+        public Integer getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Integer timeout) {
+            this.timeout = timeout;
+        }
+
+        public Long getFlushInterval() {
+            return flushInterval;
+        }
+
+        public void setFlushInterval(Long flushInterval) {
+            this.flushInterval = flushInterval;
+        }
+
+        public Integer getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(Integer batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public Integer getMaxPending() {
+            return maxPending;
+        }
+
+        public void setMaxPending(Integer maxPending) {
+            this.maxPending = maxPending;
+        }
+    }
+
+    public static class Metrics {
+        private Double stageSampleRate = 1.0;
+
+        public Double getStageSampleRate() {
+            return stageSampleRate;
+        }
+
+        public void setStageSampleRate(Double stageSampleRate) {
+            this.stageSampleRate = stageSampleRate;
+        }
+    }
+
+    /**
+     * Read by logback-spring.xml, except pseudonymKey
+     */
+    public static class Logging {
+        private Integer queueSize = 8192;
+        private String overflowPolicy = "DROP";
+        private String pseudonymKey;
+
+        public Integer getQueueSize() {
+            return queueSize;
+        }
+
+        public void setQueueSize(Integer queueSize) {
+            this.queueSize = queueSize;
+        }
+
+        public String getOverflowPolicy() {
+            return overflowPolicy;
+        }
+
+        public void setOverflowPolicy(String overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+        }
+
+        public String getPseudonymKey() {
+            return pseudonymKey;
+        }
+
+        public void setPseudonymKey(String pseudonymKey) {
+            this.pseudonymKey = pseudonymKey;
+        }
+    }
+
+    public static class Session {
+        private Boolean enabled = false;
+        private String issuer;
+        private String audience;
+        private String keyAlias;
+        private Long tokenLifetime = 3600000L;
+        private Long jwksMaxAge = 3600000L;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getIssuer() {
+            return issuer;
+        }
+
+        public void setIssuer(String issuer) {
+            this.issuer = issuer;
+        }
+
+        public String getAudience() {
+            return audience;
+        }
+
+        public void setAudience(String audience) {
+            this.audience = audience;
+        }
+
+        public String getKeyAlias() {
+            return keyAlias;
+        }
+
+        public void setKeyAlias(String keyAlias) {
+            this.keyAlias = keyAlias;
+        }
+
+        public Long getTokenLifetime() {
+            return tokenLifetime;
+        }
+
+        public void setTokenLifetime(Long tokenLifetime) {
+            this.tokenLifetime = tokenLifetime;
+        }
+
+        public Long getJwksMaxAge() {
+            return jwksMaxAge;
+        }
+
+        public void setJwksMaxAge(Long jwksMaxAge) {
+            this.jwksMaxAge = jwksMaxAge;
+        }
+    }
+
+    public static class ApiAuth {
+        private List<String> trustedCertificates = new ArrayList<>();
+        private String issuer;
+        private String audience;
+        private Integer cacheMaxEntries = 10000;
+
+        public List<String> getTrustedCertificates() {
+            return trustedCertificates;
+        }
+
+        public void setTrustedCertificates(List<String> trustedCertificates) {
+            this.trustedCertificates = trustedCertificates;
+        }
+
+        public String getIssuer() {
+            return issuer;
+        }
+
+        public void setIssuer(String issuer) {
+            this.issuer = issuer;
+        }
+
+        public String getAudience() {
+            return audience;
+        }
+
+        public void setAudience(String audience) {
+            this.audience = audience;
+        }
+
+        public Integer getCacheMaxEntries() {
+            return cacheMaxEntries;
+        }
+
+        public void setCacheMaxEntries(Integer cacheMaxEntries) {
+            this.cacheMaxEntries = cacheMaxEntries;
+        }
+    }
+
+    public static class Ldap {
+        private Boolean enabled = false;
+        private String url;
+        private String bindDn;
+        private String bindPassword;
+        private String baseDn;
+        private String userFilter = "(userPrincipalName={0})";
+        private Integer poolSize = 4;
+        private Integer connectTimeout = 2000;
+        private Integer readTimeout = 2000;
+        private Long cacheTtl = 600000L;
+        private Integer cacheMaxEntries = 10000;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getBindDn() {
+            return bindDn;
+        }
+
+        public void setBindDn(String bindDn) {
+            this.bindDn = bindDn;
+        }
+
+        public String getBindPassword() {
+            return bindPassword;
+        }
+
+        public void setBindPassword(String bindPassword) {
+            this.bindPassword = bindPassword;
+        }
+
+        public String getBaseDn() {
+            return baseDn;
+        }
+
+        public void setBaseDn(String baseDn) {
+            this.baseDn = baseDn;
+        }
+
+        public String getUserFilter() {
+            return userFilter;
+        }
+
+        public void setUserFilter(String userFilter) {
+            this.userFilter = userFilter;
+        }
+
+        public Integer getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(Integer poolSize) {
+            this.poolSize = poolSize;
+        }
+
+        public Integer getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        public void setConnectTimeout(Integer connectTimeout) {
+            this.connectTimeout = connectTimeout;
+        }
+
+        public Integer getReadTimeout() {
+            return readTimeout;
+        }
+
+        public void setReadTimeout(Integer readTimeout) {
+            this.readTimeout = readTimeout;
+        }
+
+        public Long getCacheTtl() {
+            return cacheTtl;
+        }
+
+        public void setCacheTtl(Long cacheTtl) {
+            this.cacheTtl = cacheTtl;
+        }
+
+        public Integer getCacheMaxEntries() {
+            return cacheMaxEntries;
+        }
+
+        public void setCacheMaxEntries(Integer cacheMaxEntries) {
+            this.cacheMaxEntries = cacheMaxEntries;
+        }
+    }
+
+    public static class Provisioning {
+        private Boolean enabled = false;
+        private String jdbcUrl;
+        private String username;
+        private String password;
+        private Integer queueSize = 10000;
+        private Integer batchSize = 200;
+        private Long flushInterval = 1000L;
+        private Long unchangedTtl = 86400000L;
+        private Integer hashCacheMaxEntries = 100000;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getJdbcUrl() {
+            return jdbcUrl;
+        }
+
+        public void setJdbcUrl(String jdbcUrl) {
+            this.jdbcUrl = jdbcUrl;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+
+        public Integer getQueueSize() {
+            return queueSize;
+        }
+
+        public void setQueueSize(Integer queueSize) {
+            this.queueSize = queueSize;
+        }
+
+        public Integer getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(Integer batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public Long getFlushInterval() {
+            return flushInterval;
+        }
+
+        public void setFlushInterval(Long flushInterval) {
+            this.flushInterval = flushInterval;
+        }
+
+        public Long getUnchangedTtl() {
+            return unchangedTtl;
+        }
+
+        public void setUnchangedTtl(Long unchangedTtl) {
+            this.unchangedTtl = unchangedTtl;
+        }
+
+        public Integer getHashCacheMaxEntries() {
+            return hashCacheMaxEntries;
+        }
+
+        public void setHashCacheMaxEntries(Integer hashCacheMaxEntries) {
+            this.hashCacheMaxEntries = hashCacheMaxEntries;
+        }
+    }
+
+    public static class Sync {
+        private Boolean enabled = false;
+        private Long interval = 300000L;
+        private Long fullInterval = 86400000L;
+        private String checkpointFile;
+        private String userFilter = "(&(objectClass=user)(userPrincipalName=*))";
+        private String groupFilter = "(objectClass=group)";
+        private Integer pageSize = 500;
+        private Integer chunkSize = 500;
+        private Integer parallelism = 2;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Long getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Long interval) {
+            this.interval = interval;
+        }
+
+        public Long getFullInterval() {
+            return fullInterval;
+        }
+
+        public void setFullInterval(Long fullInterval) {
+            this.fullInterval = fullInterval;
+        }
+
+        public String getCheckpointFile() {
+            return checkpointFile;
+        }
+
+        public void setCheckpointFile(String checkpointFile) {
+            this.checkpointFile = checkpointFile;
+        }
+
+        public String getUserFilter() {
+            return userFilter;
+        }
+
+        public void setUserFilter(String userFilter) {
+            this.userFilter = userFilter;
+        }
+
+        public String getGroupFilter() {
+            return groupFilter;
+        }
+
+        public void setGroupFilter(String groupFilter) {
+            this.groupFilter = groupFilter;
+        }
+
+        public Integer getPageSize() {
+            return pageSize;
+        }
+
+        public void setPageSize(Integer pageSize) {
+            this.pageSize = pageSize;
+        }
+
+        public Integer getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(Integer chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        public Integer getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(Integer parallelism) {
+            this.parallelism = parallelism;
+        }
     }
 }
@@ -0,0 +1,51 @@
+package ee.buerokratt.adauth.config;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Iterator;
+
+/**
+ * Queue depth and dropped events of the asynchronous log appenders
+ *
+ * Exported per BoundedAsyncAppender attached to the root logger as
+ * logging.async.queue.size and logging.async.dropped.
+ */
+@Configuration
+public class AsyncLoggingMetrics {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @PostConstruct
+    void init() {
+        if (!(LoggerFactory.getILoggerFactory() instanceof LoggerContext)) {
+            return;
+        }
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        Iterator<Appender<ILoggingEvent>> appenders = context.getLogger(Logger.ROOT_LOGGER_NAME).iteratorForAppenders();
+        while (appenders.hasNext()) {
+            Appender<ILoggingEvent> appender = appenders.next();
+            if (appender instanceof BoundedAsyncAppender) {
+                BoundedAsyncAppender async = (BoundedAsyncAppender) appender;
+                Gauge.builder("logging.async.queue.size", async, BoundedAsyncAppender::getNumberOfElementsInQueue)
+                    .tag("appender", async.getName())
+                    .description("Log events waiting to be written")
+                    .register(meterRegistry);
+                FunctionCounter.builder("logging.async.dropped", async, BoundedAsyncAppender::getDropped)
+                    .tag("appender", async.getName())
+                    .description("Log events dropped because the queue was full")
+                    .register(meterRegistry);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package ee.buerokratt.adauth.config;
+
+import ee.buerokratt.adauth.service.BearerTokenException;
+import ee.buerokratt.adauth.service.BearerTokenVerifier;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Stateless authentication of service-to-service calls by bearer token
+ *
+ * Requests with "Authorization: Bearer <jwt>" are authenticated as the
+ * token's subject with its roles as authorities, verified by
+ * BearerTokenVerifier. Requests without a bearer token pass through
+ * unauthenticated; an invalid token is answered with 401 and an RFC 6750
+ * WWW-Authenticate header. Added to the chain by SecurityConfig only, so
+ * it is not a bean of its own.
+ */
+public class BearerTokenFilter extends OncePerRequestFilter {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BearerTokenFilter.class);
+
+    private static final String BEARER = "Bearer ";
+
+    private final BearerTokenVerifier verifier;
+
+    public BearerTokenFilter(BearerTokenVerifier verifier) {
+        this.verifier = verifier;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (authorization == null || !authorization.regionMatches(true, 0, BEARER, 0, BEARER.length())) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        BearerTokenVerifier.VerifiedToken token;
+        try {
+            token = verifier.verify(authorization.substring(BEARER.length()).trim());
+        } catch (BearerTokenException e) {
+            log.debug("Rejected bearer token: {}", e.getMessage());
+            SecurityContextHolder.clearContext();
+            response.setHeader(HttpHeaders.WWW_AUTHENTICATE,
+                "Bearer error=\"invalid_token\", error_description=\"" + e.getMessage() + "\"");
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(UsernamePasswordAuthenticationToken.authenticated(
+            token.subject(), null, token.authorities()));
+        SecurityContextHolder.setContext(context);
+        chain.doFilter(request, response);
+    }
+}
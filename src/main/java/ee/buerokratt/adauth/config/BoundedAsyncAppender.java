@@ -0,0 +1,85 @@
+package ee.buerokratt.adauth.config;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logback AsyncAppender with an explicit policy for a full queue
+ *
+ * Request threads only put events into a bounded queue; one worker
+ * thread encodes and writes them. What happens when the writer falls
+ * behind is set with overflowPolicy:
+ * - DROP: TRACE to INFO events are discarded once less than a fifth of
+ *   the queue is free, and any event is discarded when it is full, so
+ *   logging never delays a request
+ * - BLOCK: nothing is discarded, request threads wait for space
+ * Dropped events are counted and exported by AsyncLoggingMetrics.
+ */
+public class BoundedAsyncAppender extends AsyncAppender {
+
+    /**
+     * Behaviour when the queue is full
+     */
+    public enum OverflowPolicy {
+        DROP,
+        BLOCK
+    }
+
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+    private final LongAdder dropped = new LongAdder();
+
+    public BoundedAsyncAppender() {
+        setIncludeCallerData(false);
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(String overflowPolicy) {
+        this.overflowPolicy = OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase(Locale.ROOT));
+    }
+
+    @Override
+    public void start() {
+        if (overflowPolicy == OverflowPolicy.DROP) {
+            setNeverBlock(true);
+            setDiscardingThreshold(getQueueSize() / 5);
+        } else {
+            setNeverBlock(false);
+            setDiscardingThreshold(0);
+        }
+        super.start();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        if (overflowPolicy == OverflowPolicy.DROP && getRemainingCapacity() == 0) {
+            dropped.increment();
+            return;
+        }
+        super.append(event);
+    }
+
+    /**
+     * Asked only once the queue is filled beyond the discarding threshold
+     */
+    @Override
+    protected boolean isDiscardable(ILoggingEvent event) {
+        boolean discardable = super.isDiscardable(event);
+        if (discardable) {
+            dropped.increment();
+        }
+        return discardable;
+    }
+
+    /**
+     * Events discarded because the queue was (nearly) full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+}
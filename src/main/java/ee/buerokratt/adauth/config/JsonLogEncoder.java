@@ -0,0 +1,142 @@
+package ee.buerokratt.adauth.config;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.encoder.EncoderBase;
+import org.slf4j.event.KeyValuePair;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One JSON object per line for logback
+ *
+ * Writes timestamp, level, logger, thread and message, then the SLF4J
+ * key/value pairs of the event (as added with log.atInfo().addKeyValue())
+ * and the MDC as top-level fields, and the stack trace as one string.
+ * Numbers and booleans are written unquoted. The timestamp prefix is
+ * formatted once per second and reused.
+ */
+public class JsonLogEncoder extends EncoderBase<ILoggingEvent> {
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final DateTimeFormatter SECONDS =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss").withZone(ZoneOffset.UTC);
+
+    private long cachedSecond = Long.MIN_VALUE;
+    private String cachedPrefix;
+
+    @Override
+    public byte[] headerBytes() {
+        return EMPTY;
+    }
+
+    @Override
+    public byte[] encode(ILoggingEvent event) {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"timestamp\":\"");
+        timestamp(json, event.getTimeStamp());
+        json.append("\",\"level\":\"").append(event.getLevel().levelStr)
+            .append("\",\"logger\":");
+        string(json, event.getLoggerName());
+        json.append(",\"thread\":");
+        string(json, event.getThreadName());
+        json.append(",\"message\":");
+        string(json, event.getFormattedMessage());
+
+        List<KeyValuePair> pairs = event.getKeyValuePairs();
+        if (pairs != null) {
+            for (KeyValuePair pair : pairs) {
+                field(json, pair.key, pair.value);
+            }
+        }
+        Map<String, String> mdc = event.getMDCPropertyMap();
+        if (mdc != null && !mdc.isEmpty()) {
+            for (Map.Entry<String, String> entry : mdc.entrySet()) {
+                field(json, entry.getKey(), entry.getValue());
+            }
+        }
+        IThrowableProxy throwable = event.getThrowableProxy();
+        if (throwable != null) {
+            json.append(",\"exception\":");
+            string(json, ThrowableProxyUtil.asString(throwable));
+        }
+        json.append("}\n");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] footerBytes() {
+        return EMPTY;
+    }
+
+    /**
+     * ISO-8601 UTC with milliseconds
+     */
+    private synchronized void timestamp(StringBuilder json, long millis) {
+        long second = Math.floorDiv(millis, 1000);
+        if (second != cachedSecond) {
+            cachedPrefix = SECONDS.format(Instant.ofEpochSecond(second));
+            cachedSecond = second;
+        }
+        int fraction = Math.floorMod(millis, 1000);
+        json.append(cachedPrefix).append('.')
+            .append((char) ('0' + fraction / 100))
+            .append((char) ('0' + fraction / 10 % 10))
+            .append((char) ('0' + fraction % 10))
+            .append('Z');
+    }
+
+    private static void field(StringBuilder json, String key, Object value) {
+        json.append(',');
+        string(json, key);
+        json.append(':');
+        if (value == null) {
+            json.append("null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            json.append(value);
+        } else {
+            string(json, value.toString());
+        }
+    }
+
+    static void string(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 15, 16));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
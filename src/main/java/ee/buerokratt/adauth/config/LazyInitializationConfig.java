@@ -0,0 +1,40 @@
+package ee.buerokratt.adauth.config;
+
+import ee.buerokratt.adauth.service.AuthMetrics;
+import ee.buerokratt.adauth.service.DirectorySyncService;
+import ee.buerokratt.adauth.service.FederationMetadataService;
+import ee.buerokratt.adauth.service.NestedGroupService;
+import ee.buerokratt.adauth.service.ReplayService;
+import ee.buerokratt.adauth.service.RoleMappingRulesLoader;
+import ee.buerokratt.adauth.service.UserProvisioningService;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Beans kept eager under the lazy profile
+ *
+ * With spring.main.lazy-initialization a bean is only created when first
+ * used, so a replica turns ready sooner and the first login pays for the
+ * SAML, role mapping and controller beans instead. Services that work on
+ * background threads, or publish metrics that should exist from the
+ * start, would then not run until a request happened to touch them; they
+ * are created at startup regardless. Without the lazy profile this has no
+ * effect.
+ */
+@Configuration
+public class LazyInitializationConfig {
+
+    @Bean
+    static LazyInitializationExcludeFilter backgroundServices() {
+        return LazyInitializationExcludeFilter.forBeanTypes(
+            FederationMetadataService.class,
+            RoleMappingRulesLoader.class,
+            NestedGroupService.class,
+            ReplayService.class,
+            UserProvisioningService.class,
+            DirectorySyncService.class,
+            AuthMetrics.class,
+            AsyncLoggingMetrics.class);
+    }
+}
@@ -1,23 +1,28 @@
 package ee.buerokratt.adauth.config;
 
+import ee.buerokratt.adauth.service.BearerTokenVerifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.HttpStatusEntryPoint;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
 
 /**
  * Security Configuration for AD-Auth Service
  *
- * Configures which endpoints are publicly accessible and which require authentication
+ * Configures which endpoints are publicly accessible and which require authentication.
+ * Callers such as Ruuter authenticate with a bearer token (BearerTokenFilter).
  */
 @Configuration
 @EnableWebSecurity
 public class SecurityConfig {
 
     @Bean
-    public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain filterChain(HttpSecurity http, BearerTokenVerifier bearerTokenVerifier) throws Exception {
         http
             .authorizeHttpRequests(auth -> auth
                 .requestMatchers("/actuator/health", "/actuator/health/readiness").permitAll()
@@ -25,11 +30,18 @@ public class SecurityConfig {
                 .requestMatchers("/auth/ad/login").permitAll()
                 .requestMatchers("/auth/ad/acs").permitAll()
                 .requestMatchers("/auth/ad/metadata").permitAll()
+                .requestMatchers("/auth/ad/jwks").permitAll()
+                // Replica-to-replica replay sharing, checked against the cluster secret
+                .requestMatchers("/internal/replay/**").permitAll()
                 .anyRequest().authenticated()
             )
             .csrf(csrf -> csrf.disable())
             .sessionManagement(session -> session
                 .sessionCreationPolicy(SessionCreationPolicy.STATELESS)
+            )
+            .addFilterBefore(new BearerTokenFilter(bearerTokenVerifier), BasicAuthenticationFilter.class)
+            .exceptionHandling(exceptions -> exceptions
+                .authenticationEntryPoint(new HttpStatusEntryPoint(HttpStatus.UNAUTHORIZED))
             );
 
         return http.build();
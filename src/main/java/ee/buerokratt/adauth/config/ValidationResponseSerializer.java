@@ -0,0 +1,138 @@
+package ee.buerokratt.adauth.config;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import ee.buerokratt.adauth.model.DistinguishedName;
+import ee.buerokratt.adauth.model.UserAttributes;
+import ee.buerokratt.adauth.model.ValidationResponse;
+import org.springframework.boot.jackson.JsonComponent;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hand-written Jackson serializer of the /validate body
+ *
+ * Registered once with Spring Boot's ObjectMapper. Field names are
+ * pre-encoded, role names are encoded once per name (they come from the
+ * bounded rule set) and group DNs once per pooled DistinguishedName, so
+ * a response is mostly a copy of cached UTF-8 bytes into the generator's
+ * buffer. The content matches what bean serialisation of the same fields
+ * produced, including nulls, except for the directory attributes, which
+ * are left out when not set; fields are written in a fixed order.
+ */
+@JsonComponent
+public class ValidationResponseSerializer extends StdSerializer<ValidationResponse> {
+
+    private static final int MAX_CACHED_ROLES = 1024;
+
+    private static final SerializedString VALID = new SerializedString("valid");
+    private static final SerializedString USER_ATTRIBUTES = new SerializedString("userAttributes");
+    private static final SerializedString ROLES = new SerializedString("roles");
+    private static final SerializedString SESSION_TOKEN = new SerializedString("sessionToken");
+    private static final SerializedString ERROR = new SerializedString("error");
+    private static final SerializedString UPN = new SerializedString("upn");
+    private static final SerializedString EMAIL = new SerializedString("email");
+    private static final SerializedString DISPLAY_NAME = new SerializedString("displayName");
+    private static final SerializedString FIRST_NAME = new SerializedString("firstName");
+    private static final SerializedString LAST_NAME = new SerializedString("lastName");
+    private static final SerializedString MEMBER_OF = new SerializedString("memberOf");
+    private static final SerializedString OBJECT_GUID = new SerializedString("objectGuid");
+    private static final SerializedString MANAGER = new SerializedString("manager");
+    private static final SerializedString DEPARTMENT = new SerializedString("department");
+
+    private final ConcurrentHashMap<String, SerializedString> roleNames = new ConcurrentHashMap<>();
+
+    public ValidationResponseSerializer() {
+        super(ValidationResponse.class);
+    }
+
+    @Override
+    public void serialize(ValidationResponse value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartObject(value);
+        gen.writeFieldName(VALID);
+        gen.writeBoolean(value.isValid());
+        if (value.isValid()) {
+            gen.writeFieldName(USER_ATTRIBUTES);
+            writeUser(value.getUserAttributes(), gen);
+            gen.writeFieldName(ROLES);
+            writeRoles(value.getRoles(), gen);
+            if (value.getSessionToken() != null) {
+                gen.writeFieldName(SESSION_TOKEN);
+                gen.writeString(value.getSessionToken());
+            }
+        } else {
+            gen.writeFieldName(ERROR);
+            gen.writeString(value.getError());
+        }
+        gen.writeEndObject();
+    }
+
+    private void writeUser(UserAttributes user, JsonGenerator gen) throws IOException {
+        if (user == null) {
+            gen.writeNull();
+            return;
+        }
+        gen.writeStartObject();
+        gen.writeFieldName(UPN);
+        gen.writeString(user.getUPN());
+        gen.writeFieldName(EMAIL);
+        gen.writeString(user.getEmail());
+        gen.writeFieldName(DISPLAY_NAME);
+        gen.writeString(user.getDisplayName());
+        gen.writeFieldName(FIRST_NAME);
+        gen.writeString(user.getFirstName());
+        gen.writeFieldName(LAST_NAME);
+        gen.writeString(user.getLastName());
+        gen.writeFieldName(MEMBER_OF);
+        List<DistinguishedName> groups = user.getGroups();
+        if (groups == null) {
+            gen.writeNull();
+        } else {
+            gen.writeStartArray();
+            for (DistinguishedName group : groups) {
+                gen.writeString(group.toSerializedString());
+            }
+            gen.writeEndArray();
+        }
+        writeIfSet(OBJECT_GUID, user.getObjectGuid(), gen);
+        writeIfSet(MANAGER, user.getManager(), gen);
+        writeIfSet(DEPARTMENT, user.getDepartment(), gen);
+        gen.writeEndObject();
+    }
+
+    private static void writeIfSet(SerializableString name, String value, JsonGenerator gen) throws IOException {
+        if (value != null) {
+            gen.writeFieldName(name);
+            gen.writeString(value);
+        }
+    }
+
+    private void writeRoles(List<String> roles, JsonGenerator gen) throws IOException {
+        if (roles == null) {
+            gen.writeNull();
+            return;
+        }
+        gen.writeStartArray();
+        for (String role : roles) {
+            gen.writeString(roleName(role));
+        }
+        gen.writeEndArray();
+    }
+
+    private SerializableString roleName(String role) {
+        SerializedString cached = roleNames.get(role);
+        if (cached != null) {
+            return cached;
+        }
+        SerializedString created = new SerializedString(role);
+        if (roleNames.size() < MAX_CACHED_ROLES) {
+            roleNames.putIfAbsent(role, created);
+        }
+        return created;
+    }
+}
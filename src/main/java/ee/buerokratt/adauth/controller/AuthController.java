@@ -1,14 +1,32 @@
 package ee.buerokratt.adauth.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import ee.buerokratt.adauth.model.*;
+import ee.buerokratt.adauth.service.AuthEventLogger;
+import ee.buerokratt.adauth.service.AuthMetrics;
+import ee.buerokratt.adauth.service.LdapEnrichmentService;
+import ee.buerokratt.adauth.service.ReplayCacheFullException;
+import ee.buerokratt.adauth.service.RoleMappingBatchService;
 import ee.buerokratt.adauth.service.RoleMappingService;
 import ee.buerokratt.adauth.service.SAMLService;
+import ee.buerokratt.adauth.service.SessionTokenService;
+import ee.buerokratt.adauth.service.UserProvisioningService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Map;
 
 /**
@@ -28,6 +46,34 @@ public class AuthController {
     @Autowired
     private RoleMappingService roleMappingService;
 
+    @Autowired
+    private RoleMappingBatchService roleMappingBatchService;
+
+    @Autowired
+    private AuthMetrics authMetrics;
+
+    @Autowired
+    private AuthEventLogger authEventLogger;
+
+    @Autowired
+    private SessionTokenService sessionTokenService;
+
+    @Autowired
+    private LdapEnrichmentService ldapEnrichmentService;
+
+    @Autowired
+    private UserProvisioningService userProvisioningService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private ObjectWriter validationResponseWriter;
+
+    @PostConstruct
+    void init() {
+        validationResponseWriter = objectMapper.writerFor(ValidationResponse.class);
+    }
+
     /**
      * Initiate AD authentication
      * Generates SAML AuthnRequest and returns AD FS login URL
@@ -35,9 +81,16 @@ public class AuthController {
     @PostMapping("/login")
     public ResponseEntity<?> initiateLogin(@RequestParam(required = false) String relayState) {
         try {
-            log.info("Initiating AD authentication with relayState: {}", relayState);
             String authUrl = samlService.createAuthenticationRequest(relayState);
+            authEventLogger.loginInitiated(relayState);
             return ResponseEntity.ok(Map.of("redirectUrl", authUrl));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (ReplayCacheFullException e) {
+            // Outstanding requests are bounded, as anyone can call /login
+            log.warn("Refusing AD authentication: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(Map.of("error", "Too many pending authentications, try again later"));
         } catch (Exception e) {
             log.error("Failed to initiate AD authentication", e);
             return ResponseEntity.internalServerError()
@@ -48,49 +101,102 @@ public class AuthController {
     /**
      * Validate SAML response and map roles
      * Called by Ruuter after receiving SAML response from AD FS
+     * Each stage is timed by AuthMetrics, including serialisation of the
+     * body, which is written straight to the response stream
      */
     @PostMapping("/validate")
-    public ResponseEntity<?> validateSAMLResponse(@RequestBody SAMLValidationRequest request) {
+    public void validateSAMLResponse(@RequestBody SAMLValidationRequest request,
+                                     HttpServletResponse response) throws IOException {
+        AuthMetrics.Request metrics = authMetrics.start();
+        try {
+            ValidationResponse body = validate(request, metrics);
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            try {
+                validationResponseWriter.writeValue(response.getOutputStream(), body);
+            } catch (IOException | RuntimeException e) {
+                metrics.failed(AuthMetrics.Stage.SERIALISATION, false);
+                throw e;
+            }
+            if (body.isValid()) {
+                metrics.completed(AuthMetrics.Stage.SERIALISATION);
+            }
+        } finally {
+            metrics.finish();
+        }
+    }
+
+    private ValidationResponse validate(SAMLValidationRequest request, AuthMetrics.Request metrics) {
         try {
-            log.info("Validating SAML response");
-            ValidationResult validationResult = samlService.validateResponse(request.getSAMLResponse());
+            ValidationResult validationResult = samlService.validateResponse(request.getSAMLResponse(), metrics);
 
             if (!validationResult.isValid()) {
-                log.warn("SAML validation failed: {}", validationResult.getError());
-                return ResponseEntity.ok(Map.of(
-                    "valid", false,
-                    "error", validationResult.getError()
-                ));
+                authEventLogger.rejected(validationResult.getError());
+                return ValidationResponse.failure(validationResult.getError());
+            }
+
+            // Directory attributes AD FS does not release; the user is accepted without them
+            if (ldapEnrichmentService.isEnabled()) {
+                ldapEnrichmentService.enrich(validationResult.getUserAttributes());
+                metrics.completed(AuthMetrics.Stage.ENRICHMENT);
             }
 
             // Map AD groups to roles
-            RoleMappingResult roleResult = roleMappingService.mapGroups(
-                validationResult.getUserAttributes().getMemberOf()
+            RoleMappingResult roleResult = roleMappingService.mapDistinguishedNames(
+                validationResult.getUserAttributes().getGroups()
             );
+            metrics.completed(AuthMetrics.Stage.ROLE_MAPPING);
 
-            log.info("SAML validation successful for user: {}, roles: {}",
-                validationResult.getUserAttributes().getUPN(), roleResult.getRoles());
+            String sessionToken = null;
+            if (sessionTokenService.isEnabled()) {
+                sessionToken = sessionTokenService.issue(validationResult.getUserAttributes(),
+                    roleResult.getRoles(), Instant.now());
+                metrics.completed(AuthMetrics.Stage.SESSION_TOKEN);
+            }
 
-            return ResponseEntity.ok(Map.of(
-                "valid", true,
-                "userAttributes", validationResult.getUserAttributes(),
-                "roles", roleResult.getRoles()
-            ));
+            authEventLogger.validated(validationResult.getUserAttributes(), roleResult.getRoles());
+            // Queued only; auth_users is written in the background
+            if (userProvisioningService.isEnabled()) {
+                userProvisioningService.provision(validationResult.getUserAttributes(), roleResult.getRoles(),
+                    Instant.now());
+            }
+            return ValidationResponse.success(validationResult.getUserAttributes(), roleResult.getRoles(), sessionToken);
         } catch (Exception e) {
             log.error("Error processing SAML response", e);
-            return ResponseEntity.ok(Map.of(
-                "valid", false,
-                "error", "Validation failed: " + e.getMessage()
-            ));
+            metrics.failed(false);
+            return ValidationResponse.failure("Validation failed: " + e.getMessage());
         }
     }
 
+    /**
+     * Public key of the session tokens as a JWKS document
+     * Cacheable for ad.session.jwks-max-age; the ETag is the key ID
+     */
+    @GetMapping("/jwks")
+    public ResponseEntity<byte[]> jwks(WebRequest request) {
+        if (!sessionTokenService.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        String etag = "\"" + sessionTokenService.getKeyId() + "\"";
+        CacheControl cacheControl = CacheControl.maxAge(Duration.ofMillis(sessionTokenService.getJwksMaxAge())).cachePublic();
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(cacheControl).eTag(etag).build();
+        }
+        return ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_JSON)
+            .cacheControl(cacheControl)
+            .eTag(etag)
+            .body(sessionTokenService.getJwks());
+    }
+
     /**
      * Map AD groups to roles
      * Separate endpoint for testing and manual role mapping
      */
     @PostMapping("/map-roles")
     public ResponseEntity<?> mapRoles(@RequestBody RoleMappingRequest request) {
+        if (request.getAdGroups() == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "adGroups is required"));
+        }
         try {
             log.debug("Mapping {} AD groups to roles", request.getAdGroups().size());
             RoleMappingResult result = roleMappingService.mapGroups(request.getAdGroups());
@@ -102,6 +208,19 @@ public class AuthController {
         }
     }
 
+    /**
+     * Map roles for a batch of users
+     * Accepts a JSON array or NDJSON of {id, adGroups} and streams the
+     * results back in the same format and order
+     */
+    @PostMapping(value = "/map-roles/batch",
+        consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public void mapRolesBatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        boolean ndjson = MediaType.APPLICATION_NDJSON.isCompatibleWith(MediaType.parseMediaType(request.getContentType()));
+        response.setContentType(ndjson ? MediaType.APPLICATION_NDJSON_VALUE : MediaType.APPLICATION_JSON_VALUE);
+        roleMappingBatchService.mapStream(request.getInputStream(), response.getOutputStream(), ndjson);
+    }
+
     /**
      * Logout and redirect to AD FS signout
      */
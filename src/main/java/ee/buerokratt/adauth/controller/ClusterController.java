@@ -0,0 +1,64 @@
+package ee.buerokratt.adauth.controller;
+
+import ee.buerokratt.adauth.model.ReplayEntry;
+import ee.buerokratt.adauth.service.PeerReplayStore;
+import ee.buerokratt.adauth.service.ReplayService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Replica-to-replica endpoints of the peers replay store
+ *
+ * Not for clients: answers 404 unless ad.cluster.replay-store=peers, and
+ * is guarded by the shared cluster secret.
+ */
+@RestController
+@RequestMapping(PeerReplayStore.PATH)
+public class ClusterController {
+
+    @Autowired
+    private PeerReplayStore peerReplayStore;
+
+    @Autowired
+    private ReplayService replayService;
+
+    /**
+     * Batch of entries published by another replica
+     */
+    @PostMapping
+    public ResponseEntity<Void> receive(
+            @RequestHeader(value = PeerReplayStore.TOKEN_HEADER, required = false) String token,
+            @RequestBody List<ReplayEntry> entries) {
+        if (!peerReplayStore.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!peerReplayStore.isAuthorised(token)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        peerReplayStore.receive(entries);
+        return ResponseEntity.accepted().build();
+    }
+
+    /**
+     * 200 if this replica knows the key, 404 otherwise
+     */
+    @GetMapping("/{key}")
+    public ResponseEntity<Void> lookup(
+            @RequestHeader(value = PeerReplayStore.TOKEN_HEADER, required = false) String token,
+            @PathVariable String key) {
+        if (!peerReplayStore.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!peerReplayStore.isAuthorised(token)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return replayService.knows(key, Instant.now())
+            ? ResponseEntity.ok().build()
+            : ResponseEntity.notFound().build();
+    }
+}
@@ -1,6 +1,13 @@
 package ee.buerokratt.adauth.controller;
 
+import org.springframework.boot.actuate.health.CompositeHealth;
+import org.springframework.boot.actuate.health.HealthComponent;
+import org.springframework.boot.actuate.health.HealthEndpoint;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
 import org.springframework.boot.info.BuildProperties;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -13,29 +20,48 @@ import java.util.Optional;
 /**
  * Health Check Controller
  *
- * Provides health endpoints for Kubernetes probes and monitoring
+ * Provides health endpoints for Kubernetes probes and monitoring.
+ * The aggregated actuator health (circuit breakers etc.) is included
+ * under components. Readiness follows the application's readiness
+ * state, so a replica only gets traffic once startup has completed.
  */
 @RestController
 @RequestMapping("/actuator")
 public class HealthController {
 
     private final Optional<BuildProperties> buildProperties;
+    private final HealthEndpoint healthEndpoint;
+    private final ApplicationAvailability applicationAvailability;
 
-    public HealthController(Optional<BuildProperties> buildProperties) {
+    public HealthController(Optional<BuildProperties> buildProperties, HealthEndpoint healthEndpoint,
+                            ApplicationAvailability applicationAvailability) {
         this.buildProperties = buildProperties;
+        this.healthEndpoint = healthEndpoint;
+        this.applicationAvailability = applicationAvailability;
     }
 
     @GetMapping("/health")
     public ResponseEntity<Map<String, Object>> health() {
+        HealthComponent health = healthEndpoint.health();
+        Status status = health.getStatus();
+
         Map<String, Object> response = new HashMap<>();
-        response.put("status", "UP");
+        response.put("status", status.getCode());
         response.put("application", "AD-Auth Service");
         response.put("version", buildProperties.map(BuildProperties::getVersion).orElse("unknown"));
-        return ResponseEntity.ok(response);
+        if (health instanceof CompositeHealth) {
+            response.put("components", ((CompositeHealth) health).getComponents());
+        }
+
+        boolean down = Status.DOWN.equals(status) || Status.OUT_OF_SERVICE.equals(status);
+        return ResponseEntity.status(down ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.OK).body(response);
     }
 
     @GetMapping("/health/readiness")
     public ResponseEntity<Map<String, String>> readiness() {
+        if (applicationAvailability.getReadinessState() != ReadinessState.ACCEPTING_TRAFFIC) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("status", "NOT_READY"));
+        }
         return ResponseEntity.ok(Map.of("status", "READY"));
     }
 }
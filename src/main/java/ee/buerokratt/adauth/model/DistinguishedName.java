@@ -0,0 +1,476 @@
+package ee.buerokratt.adauth.model;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parsed, canonical LDAP Distinguished Name (RFC 4514)
+ *
+ * A DN is its first RDN plus a parent DN, so "CN=Admins,OU=Groups,DC=domain"
+ * shares the "OU=Groups,DC=domain" node with every other group under it.
+ * Nodes are interned in a bounded JVM-wide pool keyed by the text as
+ * received, which also makes repeated parsing of the same group a map
+ * lookup. Each RDN is kept in canonical form: attribute types and values
+ * case-folded, escapes resolved, multi-valued RDNs sorted. Equality and
+ * hashing use the canonical form and the hash is computed once.
+ *
+ * Values that are not valid DNs (e.g. "DOMAIN\Group") are kept as opaque
+ * names, equal only to the same name ignoring case.
+ */
+public final class DistinguishedName {
+
+    private static final int MAX_POOLED = 50000;
+    private static final int MAX_RDNS = 64;
+    private static final String SPECIAL = ",+\"\\<>;=";
+    private static final ConcurrentHashMap<String, DistinguishedName> POOL = new ConcurrentHashMap<>();
+
+    private final String value;
+    private final String rdn;
+    private final DistinguishedName parent;
+    private final boolean opaque;
+    private final int size;
+    private final int hash;
+    private String canonical;
+    private SerializedString serialized;
+
+    private DistinguishedName(String value, String rdn, DistinguishedName parent, boolean opaque) {
+        this.value = value;
+        this.rdn = rdn;
+        this.parent = parent;
+        this.opaque = opaque;
+        this.size = parent == null ? 1 : parent.size + 1;
+        this.hash = 31 * (parent == null ? (opaque ? 1 : 0) : parent.hash) + rdn.hashCode();
+    }
+
+    /**
+     * DN for a group value, opaque if it does not parse
+     */
+    public static DistinguishedName of(String value) {
+        DistinguishedName pooled = POOL.get(value);
+        if (pooled != null) {
+            return pooled;
+        }
+        try {
+            return parse(value);
+        } catch (IllegalArgumentException e) {
+            return intern(new DistinguishedName(value, value.toLowerCase(Locale.ROOT), null, true));
+        }
+    }
+
+    /**
+     * DNs for group values, skipping nulls
+     */
+    public static List<DistinguishedName> listOf(Collection<String> values) {
+        List<DistinguishedName> names = new ArrayList<>(values.size());
+        for (String value : values) {
+            if (value != null) {
+                names.add(of(value));
+            }
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Parse an RFC 4514 string representation
+     *
+     * @throws IllegalArgumentException if the value is not a valid DN
+     */
+    public static DistinguishedName parse(String value) {
+        DistinguishedName pooled = POOL.get(value);
+        if (pooled != null && !pooled.opaque) {
+            return pooled;
+        }
+        List<Integer> starts = new ArrayList<>();
+        List<String> rdns = new ArrayList<>();
+        new Parser(value).parse(starts, rdns);
+
+        // Reuse the longest suffix already pooled, then add the nodes in front of it
+        int first = rdns.size();
+        DistinguishedName parent = null;
+        for (int i = 1; i < rdns.size(); i++) {
+            DistinguishedName suffix = POOL.get(value.substring(starts.get(i)));
+            if (suffix != null && !suffix.opaque) {
+                first = i;
+                parent = suffix;
+                break;
+            }
+        }
+        for (int i = first - 1; i >= 0; i--) {
+            String text = i == 0 ? value : value.substring(starts.get(i));
+            parent = intern(new DistinguishedName(text, rdns.get(i), parent, false));
+        }
+        return parent;
+    }
+
+    private static DistinguishedName intern(DistinguishedName name) {
+        if (POOL.size() >= MAX_POOLED) {
+            return name;
+        }
+        DistinguishedName existing = POOL.putIfAbsent(name.value, name);
+        return existing != null ? existing : name;
+    }
+
+    /**
+     * False for an opaque name that did not parse as a DN
+     */
+    public boolean isDistinguishedName() {
+        return !opaque;
+    }
+
+    /**
+     * First RDN in canonical form, e.g. "cn=buerokratt-admins"
+     */
+    public String getRdn() {
+        return rdn;
+    }
+
+    /**
+     * DN without the first RDN, null at the top
+     */
+    public DistinguishedName getParent() {
+        return parent;
+    }
+
+    /**
+     * Number of RDNs
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Whether this DN begins with all RDNs of another, e.g. "CN=A,OU=B,DC=c" with "CN=A,OU=B"
+     */
+    public boolean startsWith(DistinguishedName prefix) {
+        if (opaque || prefix.opaque || prefix.size > size) {
+            return false;
+        }
+        DistinguishedName node = this;
+        for (DistinguishedName p = prefix; p != null; p = p.parent, node = node.parent) {
+            if (p == node) {
+                return true;
+            }
+            if (!p.rdn.equals(node.rdn)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Canonical string: canonical RDNs joined by ","
+     */
+    public String toCanonicalString() {
+        String current = canonical;
+        if (current == null) {
+            current = parent == null ? rdn : rdn + "," + parent.toCanonicalString();
+            canonical = current;
+        }
+        return current;
+    }
+
+    /**
+     * The DN as received, as a JSON string
+     *
+     * Created once per pooled DN; Jackson keeps its escaped UTF-8 bytes,
+     * so a group is encoded once however many responses list it.
+     */
+    public SerializableString toSerializedString() {
+        SerializedString current = serialized;
+        if (current == null) {
+            current = new SerializedString(value);
+            serialized = current;
+        }
+        return current;
+    }
+
+    /**
+     * The DN as received
+     */
+    @Override
+    public String toString() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DistinguishedName)) {
+            return false;
+        }
+        DistinguishedName other = (DistinguishedName) o;
+        if (hash != other.hash || size != other.size || opaque != other.opaque) {
+            return false;
+        }
+        DistinguishedName a = this;
+        DistinguishedName b = other;
+        while (a != b) {
+            if (!a.rdn.equals(b.rdn)) {
+                return false;
+            }
+            a = a.parent;
+            b = b.parent;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * RFC 4514 reader; also accepts spaces around separators and quoted values (RFC 2253)
+     */
+    private static final class Parser {
+
+        private final String text;
+        private int pos;
+        private byte[] bytes = new byte[64];
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        void parse(List<Integer> starts, List<String> rdns) {
+            if (text.isBlank()) {
+                throw new IllegalArgumentException("Empty DN");
+            }
+            while (true) {
+                skipSpaces();
+                starts.add(pos);
+                rdns.add(rdn());
+                if (rdns.size() > MAX_RDNS) {
+                    throw new IllegalArgumentException("DN has more than " + MAX_RDNS + " RDNs");
+                }
+                if (pos == text.length()) {
+                    return;
+                }
+                pos++; // ','
+            }
+        }
+
+        private String rdn() {
+            List<String> avas = new ArrayList<>(1);
+            while (true) {
+                skipSpaces();
+                String type = type();
+                skipSpaces();
+                if (pos == text.length() || text.charAt(pos) != '=') {
+                    throw new IllegalArgumentException("Expected '=' after " + type);
+                }
+                pos++;
+                skipSpaces();
+                avas.add(type + "=" + value());
+                if (pos == text.length() || text.charAt(pos) == ',') {
+                    break;
+                }
+                pos++; // '+'
+            }
+            if (avas.size() == 1) {
+                return avas.get(0);
+            }
+            String[] sorted = avas.toArray(new String[0]);
+            Arrays.sort(sorted);
+            return String.join("+", sorted);
+        }
+
+        private String type() {
+            int start = pos;
+            while (pos < text.length() && text.charAt(pos) != '=' && text.charAt(pos) != ' ') {
+                pos++;
+            }
+            String type = text.substring(start, pos).toLowerCase(Locale.ROOT);
+            if (type.startsWith("oid.")) {
+                type = type.substring(4);
+            }
+            if (!isDescriptor(type) && !isNumericOid(type)) {
+                throw new IllegalArgumentException("Invalid attribute type '" + type + "'");
+            }
+            return type;
+        }
+
+        private String value() {
+            if (pos < text.length() && text.charAt(pos) == '#') {
+                return hexValue();
+            }
+            if (pos < text.length() && text.charAt(pos) == '"') {
+                return escape(quotedValue());
+            }
+            int length = 0;
+            int significant = 0;
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+                if (c == ',' || c == '+') {
+                    break;
+                }
+                if (c == '\\') {
+                    length = escaped(length);
+                    significant = length;
+                    continue;
+                }
+                int codePoint = text.codePointAt(pos);
+                length = put(length, codePoint);
+                if (c != ' ') {
+                    significant = length;
+                }
+                pos += Character.charCount(codePoint);
+            }
+            // Unescaped trailing spaces are not part of the value
+            return escape(decode(significant).toLowerCase(Locale.ROOT));
+        }
+
+        private String hexValue() {
+            int start = pos++;
+            while (pos < text.length() && Character.digit(text.charAt(pos), 16) >= 0) {
+                pos++;
+            }
+            String hex = text.substring(start, pos).toLowerCase(Locale.ROOT);
+            if (hex.length() < 3 || hex.length() % 2 == 0) {
+                throw new IllegalArgumentException("Invalid hex value " + hex);
+            }
+            skipSpaces();
+            return hex;
+        }
+
+        private String quotedValue() {
+            pos++;
+            int length = 0;
+            while (pos < text.length() && text.charAt(pos) != '"') {
+                if (text.charAt(pos) == '\\') {
+                    length = escaped(length);
+                } else {
+                    int codePoint = text.codePointAt(pos);
+                    length = put(length, codePoint);
+                    pos += Character.charCount(codePoint);
+                }
+            }
+            if (pos == text.length()) {
+                throw new IllegalArgumentException("Unterminated quoted value");
+            }
+            pos++;
+            skipSpaces();
+            return decode(length).toLowerCase(Locale.ROOT);
+        }
+
+        /**
+         * Escape at pos: "\" followed by a special character or two hex digits
+         */
+        private int escaped(int length) {
+            if (pos + 1 >= text.length()) {
+                throw new IllegalArgumentException("Dangling escape");
+            }
+            char next = text.charAt(pos + 1);
+            if (SPECIAL.indexOf(next) >= 0 || next == ' ' || next == '#') {
+                pos += 2;
+                return put(length, next);
+            }
+            int high = Character.digit(next, 16);
+            int low = pos + 2 < text.length() ? Character.digit(text.charAt(pos + 2), 16) : -1;
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid escape at " + pos);
+            }
+            pos += 3;
+            return putByte(length, (byte) (high << 4 | low));
+        }
+
+        private int put(int length, int codePoint) {
+            if (codePoint < 0x80) {
+                return putByte(length, (byte) codePoint);
+            }
+            for (byte b : new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8)) {
+                length = putByte(length, b);
+            }
+            return length;
+        }
+
+        private int putByte(int length, byte b) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, length * 2);
+            }
+            bytes[length] = b;
+            return length + 1;
+        }
+
+        private String decode(int length) {
+            try {
+                return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes, 0, length))
+                    .toString();
+            } catch (CharacterCodingException e) {
+                throw new IllegalArgumentException("Value is not valid UTF-8", e);
+            }
+        }
+
+        private void skipSpaces() {
+            while (pos < text.length() && text.charAt(pos) == ' ') {
+                pos++;
+            }
+        }
+
+        private static boolean isDescriptor(String type) {
+            if (type.isEmpty() || type.charAt(0) < 'a' || type.charAt(0) > 'z') {
+                return false;
+            }
+            for (int i = 1; i < type.length(); i++) {
+                char c = type.charAt(i);
+                if (!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9') && c != '-') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isNumericOid(String type) {
+            if (type.isEmpty() || type.startsWith(".") || type.endsWith(".") || type.contains("..")) {
+                return false;
+            }
+            for (int i = 0; i < type.length(); i++) {
+                char c = type.charAt(i);
+                if (!(c >= '0' && c <= '9') && c != '.') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Canonical escaping, so distinct values never produce the same RDN string
+         */
+        private static String escape(String value) {
+            StringBuilder escaped = null;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                boolean needs = SPECIAL.indexOf(c) >= 0
+                    || (i == 0 && (c == ' ' || c == '#'))
+                    || (i == value.length() - 1 && c == ' ');
+                if (needs && escaped == null) {
+                    escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+                }
+                if (escaped != null) {
+                    if (needs) {
+                        escaped.append('\\');
+                    }
+                    escaped.append(c);
+                }
+            }
+            return escaped != null ? escaped.toString() : value;
+        }
+    }
+}
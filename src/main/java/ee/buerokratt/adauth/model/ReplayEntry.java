@@ -0,0 +1,38 @@
+package ee.buerokratt.adauth.model;
+
+/**
+ * ID shared between replicas for replay detection
+ *
+ * Issued AuthnRequest IDs and consumed assertion/InResponseTo IDs, keyed
+ * with their namespace, together with the epoch millis until which they
+ * must be remembered.
+ */
+public class ReplayEntry {
+
+    private String key;
+    private long expiresAt;
+
+    public ReplayEntry() {
+    }
+
+    public ReplayEntry(String key, long expiresAt) {
+        this.key = key;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
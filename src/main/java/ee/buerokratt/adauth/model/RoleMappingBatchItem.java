@@ -0,0 +1,40 @@
+package ee.buerokratt.adauth.model;
+
+import java.util.List;
+
+/**
+ * One entry of a batch role mapping request
+ *
+ * The optional id (e.g. the user's login) is echoed in the result so the
+ * caller can match results without relying on order.
+ */
+public class RoleMappingBatchItem implements IRoleMappingRequest {
+
+    private String id;
+    private List<String> adGroups;
+
+    public RoleMappingBatchItem() {
+    }
+
+    public RoleMappingBatchItem(String id, List<String> adGroups) {
+        this.id = id;
+        this.adGroups = adGroups;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    @Override
+    public List<String> getAdGroups() {
+        return adGroups;
+    }
+
+    public void setAdGroups(List<String> adGroups) {
+        this.adGroups = adGroups;
+    }
+}
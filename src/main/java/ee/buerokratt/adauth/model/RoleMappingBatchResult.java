@@ -0,0 +1,51 @@
+package ee.buerokratt.adauth.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * Result for one entry of a batch role mapping request
+ *
+ * Carries either the mapped roles or an error for that entry.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class RoleMappingBatchResult {
+
+    private String id;
+    private List<String> roles;
+    private String error;
+
+    public RoleMappingBatchResult() {
+    }
+
+    public RoleMappingBatchResult(String id, List<String> roles, String error) {
+        this.id = id;
+        this.roles = roles;
+        this.error = error;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public List<String> getRoles() {
+        return roles;
+    }
+
+    public void setRoles(List<String> roles) {
+        this.roles = roles;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -1,12 +1,20 @@
 package ee.buerokratt.adauth.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * User attributes extracted from SAML assertion
  *
  * Contains user information retrieved from Active Directory
- * via SAML authentication response
+ * via SAML authentication response. Groups are held as parsed
+ * DistinguishedNames; the memberOf strings are built from them on first use.
+ * objectGuid, manager and department are not released by AD FS and are
+ * filled in from the directory by LdapEnrichmentService when it is enabled.
  */
 public class UserAttributes {
 
@@ -16,6 +24,10 @@ public class UserAttributes {
     private String firstName;          // First name
     private String lastName;           // Last name
     private List<String> memberOf;     // AD groups (Distinguished Names)
+    private List<DistinguishedName> groups;
+    private String objectGuid;         // AD objectGUID in its string form
+    private String manager;            // Manager's Distinguished Name
+    private String department;
 
     public UserAttributes() {
     }
@@ -70,10 +82,65 @@ public class UserAttributes {
     }
 
     public List<String> getMemberOf() {
-        return memberOf;
+        List<String> current = memberOf;
+        if (current == null && groups != null) {
+            List<String> values = new ArrayList<>(groups.size());
+            for (DistinguishedName group : groups) {
+                values.add(group.toString());
+            }
+            current = Collections.unmodifiableList(values);
+            memberOf = current;
+        }
+        return current;
     }
 
     public void setMemberOf(List<String> memberOf) {
         this.memberOf = memberOf;
+        this.groups = null;
+    }
+
+    /**
+     * AD groups as parsed DNs, parsed from memberOf on first use
+     */
+    @JsonIgnore
+    public List<DistinguishedName> getGroups() {
+        List<DistinguishedName> current = groups;
+        if (current == null && memberOf != null) {
+            current = DistinguishedName.listOf(memberOf);
+            groups = current;
+        }
+        return current;
+    }
+
+    public void setGroups(List<DistinguishedName> groups) {
+        this.groups = groups;
+        this.memberOf = null;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getObjectGuid() {
+        return objectGuid;
+    }
+
+    public void setObjectGuid(String objectGuid) {
+        this.objectGuid = objectGuid;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getManager() {
+        return manager;
+    }
+
+    public void setManager(String manager) {
+        this.manager = manager;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getDepartment() {
+        return department;
+    }
+
+    public void setDepartment(String department) {
+        this.department = department;
     }
 }
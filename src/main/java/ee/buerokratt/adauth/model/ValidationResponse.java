@@ -0,0 +1,61 @@
+package ee.buerokratt.adauth.model;
+
+import java.util.List;
+
+/**
+ * Body of the /validate response
+ *
+ * Either the user attributes, mapped roles and, when session tokens are
+ * enabled, the session JWT, or an error. Written by
+ * ValidationResponseSerializer as {"valid", "userAttributes", "roles",
+ * "sessionToken"} or {"valid", "error"}.
+ */
+public class ValidationResponse {
+
+    private final boolean valid;
+    private final UserAttributes userAttributes;
+    private final List<String> roles;
+    private final String sessionToken;
+    private final String error;
+
+    private ValidationResponse(boolean valid, UserAttributes userAttributes, List<String> roles,
+                               String sessionToken, String error) {
+        this.valid = valid;
+        this.userAttributes = userAttributes;
+        this.roles = roles;
+        this.sessionToken = sessionToken;
+        this.error = error;
+    }
+
+    public static ValidationResponse success(UserAttributes userAttributes, List<String> roles) {
+        return success(userAttributes, roles, null);
+    }
+
+    public static ValidationResponse success(UserAttributes userAttributes, List<String> roles, String sessionToken) {
+        return new ValidationResponse(true, userAttributes, roles, sessionToken, null);
+    }
+
+    public static ValidationResponse failure(String error) {
+        return new ValidationResponse(false, null, null, null, error);
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public UserAttributes getUserAttributes() {
+        return userAttributes;
+    }
+
+    public List<String> getRoles() {
+        return roles;
+    }
+
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
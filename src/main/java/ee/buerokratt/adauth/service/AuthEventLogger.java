@@ -0,0 +1,120 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.UserAttributes;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Structured, PII-safe log events of the authentication flow
+ *
+ * One event per request with a fixed message and key/value fields, which
+ * JsonLogEncoder writes as JSON fields; nothing is formatted unless INFO
+ * is enabled. The UPN is replaced by a keyed pseudonym (HMAC-SHA256 with
+ * ad.logging.pseudonym-key), so one user's events can be correlated
+ * without the log holding the name. Group DNs are never logged, only
+ * their count.
+ */
+@Service
+public class AuthEventLogger {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AuthEventLogger.class);
+
+    private static final String HMAC = "HmacSHA256";
+    private static final int PSEUDONYM_BYTES = 8;
+
+    @Autowired
+    private ADProperties adProperties;
+
+    private Mac prototype;
+
+    @PostConstruct
+    void init() throws GeneralSecurityException {
+        String key = adProperties.getLogging().getPseudonymKey();
+        byte[] keyBytes;
+        if (key == null || key.isEmpty()) {
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+            log.info("No ad.logging.pseudonym-key set, user pseudonyms in auth events change on restart");
+        } else {
+            keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        }
+        prototype = Mac.getInstance(HMAC);
+        prototype.init(new SecretKeySpec(keyBytes, HMAC));
+    }
+
+    /**
+     * AuthnRequest issued for a login
+     */
+    public void loginInitiated(String relayState) {
+        if (!log.isInfoEnabled()) {
+            return;
+        }
+        log.atInfo()
+            .setMessage("AD authentication initiated")
+            .addKeyValue("event", "auth.login")
+            .addKeyValue("relayState", relayState)
+            .log();
+    }
+
+    /**
+     * SAML response accepted and roles mapped
+     */
+    public void validated(UserAttributes user, List<String> roles) {
+        if (!log.isInfoEnabled()) {
+            return;
+        }
+        log.atInfo()
+            .setMessage("SAML validation successful")
+            .addKeyValue("event", "auth.validate")
+            .addKeyValue("outcome", "success")
+            .addKeyValue("user", pseudonym(user.getUPN()))
+            .addKeyValue("groups", user.getGroups() == null ? 0 : user.getGroups().size())
+            .addKeyValue("roles", String.join(",", roles))
+            .log();
+    }
+
+    /**
+     * SAML response rejected
+     *
+     * @param reason Validation error, as returned to the caller
+     */
+    public void rejected(String reason) {
+        if (!log.isWarnEnabled()) {
+            return;
+        }
+        log.atWarn()
+            .setMessage("SAML validation failed")
+            .addKeyValue("event", "auth.validate")
+            .addKeyValue("outcome", "failure")
+            .addKeyValue("reason", reason)
+            .log();
+    }
+
+    /**
+     * Stable, keyed pseudonym of a user principal name, case-insensitive
+     */
+    String pseudonym(String upn) {
+        if (upn == null) {
+            return null;
+        }
+        Mac mac;
+        try {
+            mac = (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(HMAC + " cannot be cloned", e);
+        }
+        byte[] digest = mac.doFinal(upn.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest, 0, PSEUDONYM_BYTES);
+    }
+}
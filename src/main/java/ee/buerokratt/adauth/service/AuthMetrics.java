@@ -0,0 +1,178 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency and failure metrics of the /validate pipeline
+ *
+ * - ad.auth.duration{outcome}: whole request, success or failure
+ * - ad.auth.stage.duration{stage}: parse (Base64 decoding and XML, which
+ *   are streamed together), signature, conditions, replay, role_mapping,
+ *   session_token (when ad.session.enabled), serialisation
+ * - ad.role.mapping.duration: the role_mapping stage again, under the name
+ *   of the design document's metrics list
+ * - ad.saml.validation.errors{stage,type}: failures by the stage they
+ *   happened in, "invalid" for rejected responses, "error" otherwise
+ *
+ * Tags come from fixed sets only, never from request content. All meters
+ * are registered up front with bounded histograms, so recording is a
+ * clock read and an array access. Stage timing can be sampled with
+ * ad.metrics.stage-sample-rate; stage counts then cover the sampled
+ * requests only.
+ */
+@Service
+public class AuthMetrics {
+
+    /**
+     * Stages of /validate in execution order
+     */
+    public enum Stage {
+        PARSE,
+        SIGNATURE,
+        CONDITIONS,
+        REPLAY,
+        ENRICHMENT,
+        ROLE_MAPPING,
+        SESSION_TOKEN,
+        SERIALISATION;
+
+        final String tag = name().toLowerCase(Locale.ROOT);
+    }
+
+    private static final Duration MIN_EXPECTED = Duration.ofMillis(1).dividedBy(10);
+    private static final Duration MAX_EXPECTED = Duration.ofSeconds(10);
+    private static final Stage[] STAGES = Stage.values();
+
+    @Autowired
+    private ADProperties adProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Timer success;
+    private Timer failure;
+    private Timer[] stageTimers;
+    private Timer roleMapping;
+    private Counter[] invalid;
+    private Counter[] errors;
+
+    @PostConstruct
+    void init() {
+        success = durationTimer("ad.auth.duration", "Duration of /validate requests")
+            .tag("outcome", "success").register(meterRegistry);
+        failure = durationTimer("ad.auth.duration", "Duration of /validate requests")
+            .tag("outcome", "failure").register(meterRegistry);
+        roleMapping = durationTimer("ad.role.mapping.duration", "Duration of AD group to role mapping")
+            .register(meterRegistry);
+        stageTimers = new Timer[STAGES.length];
+        invalid = new Counter[STAGES.length];
+        errors = new Counter[STAGES.length];
+        for (Stage stage : STAGES) {
+            stageTimers[stage.ordinal()] = durationTimer("ad.auth.stage.duration", "Duration of a /validate stage")
+                .tag("stage", stage.tag).register(meterRegistry);
+            invalid[stage.ordinal()] = error(stage, "invalid");
+            errors[stage.ordinal()] = error(stage, "error");
+        }
+    }
+
+    /**
+     * Start timing a /validate request
+     */
+    public Request start() {
+        double rate = adProperties.getMetrics().getStageSampleRate();
+        boolean sampled = rate >= 1.0 || (rate > 0.0 && ThreadLocalRandom.current().nextDouble() < rate);
+        return new Request(sampled);
+    }
+
+    private Timer.Builder durationTimer(String name, String description) {
+        return Timer.builder(name)
+            .description(description)
+            .publishPercentileHistogram()
+            .minimumExpectedValue(MIN_EXPECTED)
+            .maximumExpectedValue(MAX_EXPECTED);
+    }
+
+    private Counter error(Stage stage, String type) {
+        return Counter.builder("ad.saml.validation.errors")
+            .description("Failed /validate requests by stage")
+            .tag("stage", stage.tag)
+            .tag("type", type)
+            .register(meterRegistry);
+    }
+
+    /**
+     * Timing of one request; not thread-safe
+     *
+     * Stages are completed in order, so a failure is attributed to the
+     * stage after the last completed one.
+     */
+    public final class Request {
+
+        private final boolean sampled;
+        private final long start;
+        private long stageStart;
+        private int completed;
+        private boolean failed;
+
+        private Request(boolean sampled) {
+            this.sampled = sampled;
+            this.start = System.nanoTime();
+            this.stageStart = start;
+        }
+
+        /**
+         * Mark a stage as completed, timing it since the previous one
+         */
+        public void completed(Stage stage) {
+            if (sampled) {
+                long now = System.nanoTime();
+                stageTimers[stage.ordinal()].record(now - stageStart, TimeUnit.NANOSECONDS);
+                if (stage == Stage.ROLE_MAPPING) {
+                    roleMapping.record(now - stageStart, TimeUnit.NANOSECONDS);
+                }
+                stageStart = now;
+            }
+            completed = stage.ordinal() + 1;
+        }
+
+        /**
+         * Count a failure of the current stage
+         *
+         * @param rejected True if the SAML response was rejected, false for unexpected errors
+         */
+        public void failed(boolean rejected) {
+            failed(STAGES[Math.min(completed, STAGES.length - 1)], rejected);
+        }
+
+        /**
+         * Count a failure of a given stage, for stages that may follow skipped ones
+         *
+         * @param rejected True if the SAML response was rejected, false for unexpected errors
+         */
+        public void failed(Stage stage, boolean rejected) {
+            if (failed) {
+                return;
+            }
+            failed = true;
+            (rejected ? invalid : errors)[stage.ordinal()].increment();
+        }
+
+        /**
+         * Record the request duration
+         */
+        public void finish() {
+            (failed ? failure : success).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package ee.buerokratt.adauth.service;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Builds HTTP-Redirect binding URLs for SAML AuthnRequests
+ *
+ * The AuthnRequest XML is rendered once per SSO endpoint into a byte
+ * template; per request only the fixed-width ID and IssueInstant are
+ * copied in. Deflater, buffers and the optional Signature live in pooled
+ * workspaces, so building a request allocates little more than the
+ * resulting URL. When a private key is given, the query is signed as
+ * required by the binding (SigAlg and Signature parameters).
+ */
+public class AuthnRequestBuilder {
+
+    static final String SIG_ALG_RSA_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#rsa-sha256";
+
+    private static final String PROTOCOL_NS = "urn:oasis:names:tc:SAML:2.0:protocol";
+    private static final String ASSERTION_NS = "urn:oasis:names:tc:SAML:2.0:assertion";
+    private static final String HTTP_POST_BINDING = "urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST";
+    private static final String NAME_ID_FORMAT = "urn:oasis:names:tc:SAML:1.1:nameid-format:unspecified";
+
+    private static final int ID_LENGTH = 33;            // "_" + 32 hex digits
+    private static final int INSTANT_LENGTH = 20;       // yyyy-MM-ddTHH:mm:ssZ
+    private static final int MAX_POOLED_WORKSPACES = Runtime.getRuntime().availableProcessors() * 2;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final char[] BASE64 =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final String entityId;
+    private final String acsUrl;
+    private final PrivateKey signingKey;
+    private final String encodedSigAlg;
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentLinkedQueue<Workspace> workspaces = new ConcurrentLinkedQueue<>();
+
+    private volatile Template template;
+    private volatile IssueInstant issueInstant = new IssueInstant(Long.MIN_VALUE, null);
+
+    /**
+     * @param entityId   SP entity ID, sent as Issuer
+     * @param acsUrl     Assertion Consumer Service URL
+     * @param signingKey RSA key for SigAlg/Signature, null to send unsigned requests
+     */
+    public AuthnRequestBuilder(String entityId, String acsUrl, PrivateKey signingKey) {
+        this.entityId = entityId;
+        this.acsUrl = acsUrl;
+        this.signingKey = signingKey;
+        this.encodedSigAlg = URLEncoder.encode(SIG_ALG_RSA_SHA256, StandardCharsets.UTF_8);
+    }
+
+    public boolean isSigning() {
+        return signingKey != null;
+    }
+
+    /**
+     * Render the template for an SSO endpoint ahead of the first request
+     */
+    public void prepare(String ssoUrl) {
+        template(ssoUrl);
+    }
+
+    /**
+     * New AuthnRequest ID: "_" followed by 128 random bits in hex
+     */
+    public String newRequestId() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        byte[] id = new byte[ID_LENGTH];
+        id[0] = '_';
+        for (int i = 0; i < bytes.length; i++) {
+            id[1 + 2 * i] = HEX[(bytes[i] >> 4) & 0x0f];
+            id[2 + 2 * i] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(id, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Redirect URL carrying the deflated, Base64- and URL-encoded AuthnRequest
+     *
+     * @param ssoUrl     AD FS SingleSignOnService endpoint (HTTP-Redirect)
+     * @param requestId  ID from newRequestId()
+     * @param now        IssueInstant, truncated to seconds
+     * @param relayState RelayState to echo back, may be null
+     * @return URL to redirect the browser to
+     */
+    public String build(String ssoUrl, String requestId, Instant now, String relayState) {
+        if (requestId.length() != ID_LENGTH) {
+            throw new IllegalArgumentException("AuthnRequest ID must be " + ID_LENGTH + " characters");
+        }
+        Template current = template(ssoUrl);
+        Workspace workspace = workspaces.poll();
+        if (workspace == null) {
+            workspace = new Workspace();
+        }
+        try {
+            return workspace.build(current, requestId, instant(now), relayState);
+        } finally {
+            if (workspaces.size() < MAX_POOLED_WORKSPACES) {
+                workspaces.offer(workspace);
+            } else {
+                workspace.deflater.end();
+            }
+        }
+    }
+
+    private Template template(String ssoUrl) {
+        Template current = template;
+        if (current == null || !current.destination.equals(ssoUrl)) {
+            current = new Template(ssoUrl, entityId, acsUrl);
+            template = current;
+        }
+        return current;
+    }
+
+    /**
+     * IssueInstant bytes, shared by all requests within the same second
+     */
+    private byte[] instant(Instant now) {
+        long second = now.getEpochSecond();
+        IssueInstant current = issueInstant;
+        if (current.epochSecond != second) {
+            String formatted = DateTimeFormatter.ISO_INSTANT.format(now.truncatedTo(ChronoUnit.SECONDS));
+            current = new IssueInstant(second, formatted.getBytes(StandardCharsets.US_ASCII));
+            issueInstant = current;
+        }
+        return current.bytes;
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+    }
+
+    private static final class IssueInstant {
+
+        final long epochSecond;
+        final byte[] bytes;
+
+        IssueInstant(long epochSecond, byte[] bytes) {
+            this.epochSecond = epochSecond;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * AuthnRequest XML for one destination with the offsets of ID and IssueInstant
+     */
+    private static final class Template {
+
+        final String destination;
+        final byte[] xml;
+        final int idOffset;
+        final int instantOffset;
+        final String urlPrefix;
+
+        Template(String destination, String entityId, String acsUrl) {
+            String head = "<samlp:AuthnRequest xmlns:samlp=\"" + PROTOCOL_NS + "\" ID=\"";
+            String xml = head + "_".repeat(ID_LENGTH)
+                + "\" Version=\"2.0\" IssueInstant=\"" + "0".repeat(INSTANT_LENGTH)
+                + "\" Destination=\"" + escape(destination)
+                + "\" AssertionConsumerServiceURL=\"" + escape(acsUrl)
+                + "\" ProtocolBinding=\"" + HTTP_POST_BINDING + "\">"
+                + "<saml:Issuer xmlns:saml=\"" + ASSERTION_NS + "\">" + escape(entityId) + "</saml:Issuer>"
+                + "<samlp:NameIDPolicy Format=\"" + NAME_ID_FORMAT + "\" AllowCreate=\"true\"/>"
+                + "</samlp:AuthnRequest>";
+            this.destination = destination;
+            this.xml = xml.getBytes(StandardCharsets.UTF_8);
+            this.idOffset = head.length();
+            this.instantOffset = xml.indexOf("IssueInstant=\"") + "IssueInstant=\"".length();
+            this.urlPrefix = destination + (destination.indexOf('?') < 0 ? '?' : '&');
+        }
+    }
+
+    /**
+     * Per-call state, reused across requests
+     */
+    private final class Workspace {
+
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final StringBuilder url = new StringBuilder(1024);
+        final Signature signer;
+        byte[] xml = new byte[0];
+        byte[] deflated = new byte[1024];
+        byte[] signed = new byte[1024];
+        final byte[] signature = new byte[1024];
+
+        Workspace() {
+            if (signingKey == null) {
+                signer = null;
+                return;
+            }
+            try {
+                signer = Signature.getInstance("SHA256withRSA");
+                signer.initSign(signingKey);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Cannot initialise AuthnRequest signing", e);
+            }
+        }
+
+        String build(Template template, String requestId, byte[] instant, String relayState) {
+            if (xml.length != template.xml.length) {
+                xml = new byte[template.xml.length];
+            }
+            System.arraycopy(template.xml, 0, xml, 0, xml.length);
+            for (int i = 0; i < ID_LENGTH; i++) {
+                xml[template.idOffset + i] = (byte) requestId.charAt(i);
+            }
+            System.arraycopy(instant, 0, xml, template.instantOffset, INSTANT_LENGTH);
+
+            int length = deflate();
+
+            url.setLength(0);
+            url.append(template.urlPrefix);
+            int queryStart = url.length();
+            url.append("SAMLRequest=");
+            appendBase64UrlEncoded(deflated, length);
+            if (relayState != null) {
+                url.append("&RelayState=").append(URLEncoder.encode(relayState, StandardCharsets.UTF_8));
+            }
+            if (signer != null) {
+                url.append("&SigAlg=").append(encodedSigAlg);
+                int signatureLength = sign(queryStart);
+                url.append("&Signature=");
+                appendBase64UrlEncoded(signature, signatureLength);
+            }
+            return url.toString();
+        }
+
+        private int deflate() {
+            deflater.reset();
+            deflater.setInput(xml);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == deflated.length) {
+                    deflated = Arrays.copyOf(deflated, deflated.length * 2);
+                }
+                length += deflater.deflate(deflated, length, deflated.length - length);
+            }
+            return length;
+        }
+
+        /**
+         * Sign the query octets from queryStart, as they appear in the URL
+         */
+        private int sign(int queryStart) {
+            int length = url.length() - queryStart;
+            if (signed.length < length) {
+                signed = new byte[Math.max(length, signed.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                signed[i] = (byte) url.charAt(queryStart + i);
+            }
+            try {
+                signer.update(signed, 0, length);
+                return signer.sign(signature, 0, signature.length);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AuthnRequest signing failed", e);
+            }
+        }
+
+        private void appendBase64UrlEncoded(byte[] data, int length) {
+            int i = 0;
+            for (; i + 2 < length; i += 3) {
+                int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+                appendBase64Char(bits >>> 18);
+                appendBase64Char(bits >>> 12);
+                appendBase64Char(bits >>> 6);
+                appendBase64Char(bits);
+            }
+            int remaining = length - i;
+            if (remaining > 0) {
+                int bits = (data[i] & 0xff) << 16 | (remaining == 2 ? (data[i + 1] & 0xff) << 8 : 0);
+                appendBase64Char(bits >>> 18);
+                appendBase64Char(bits >>> 12);
+                if (remaining == 2) {
+                    appendBase64Char(bits >>> 6);
+                } else {
+                    url.append("%3D");
+                }
+                url.append("%3D");
+            }
+        }
+
+        private void appendBase64Char(int sextet) {
+            char c = BASE64[sextet & 0x3f];
+            if (c == '+') {
+                url.append("%2B");
+            } else if (c == '/') {
+                url.append("%2F");
+            } else {
+                url.append(c);
+            }
+        }
+    }
+}
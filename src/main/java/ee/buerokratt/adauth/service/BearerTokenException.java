@@ -0,0 +1,13 @@
+package ee.buerokratt.adauth.service;
+
+/**
+ * Thrown when a bearer token is malformed, untrusted or not valid now
+ *
+ * The message is safe to return to the caller as error_description.
+ */
+public class BearerTokenException extends Exception {
+
+    public BearerTokenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,323 @@
+package ee.buerokratt.adauth.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import ee.buerokratt.adauth.config.ADProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies JWS bearer tokens of service-to-service callers such as Ruuter
+ *
+ * The trusted keys come from ad.api-auth.trusted-certificates and are
+ * loaded once, indexed by their RFC 7638 thumbprint, which is matched
+ * against the token's kid; a token without a kid is tried against every
+ * key of its alg. The alg must be the key's (RS256 for RSA, ES256/384/512
+ * for EC), so a token cannot pick a weaker algorithm.
+ *
+ * Verified tokens are cached by the SHA-256 of the token, never the token
+ * itself, until their exp, in a bounded cache. A repeated token costs a
+ * hash and a lookup instead of a signature check. Failures are not
+ * cached. Signature instances are pooled per algorithm.
+ */
+@Service
+public class BearerTokenVerifier {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BearerTokenVerifier.class);
+
+    private static final int MAX_TOKEN_LENGTH = 8192;
+    private static final int MAX_POOLED_SIGNATURES = Runtime.getRuntime().availableProcessors() * 2;
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final Base64.Decoder BASE64URL = Base64.getUrlDecoder();
+
+    @Autowired
+    private ADProperties adProperties;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    private final ResourceLoader resourceLoader = new DefaultResourceLoader();
+    private final Map<String, ConcurrentLinkedQueue<Signature>> signaturePool = new ConcurrentHashMap<>();
+    private Map<String, JsonWebKey> keysById = Map.of();
+    private List<JsonWebKey> keys = List.of();
+    private Cache<TokenHash, VerifiedToken> verified;
+    private long clockSkewSeconds;
+
+    @PostConstruct
+    void init() {
+        ADProperties.ApiAuth apiAuth = adProperties.getApiAuth();
+        Map<String, JsonWebKey> byId = new HashMap<>();
+        List<JsonWebKey> all = new ArrayList<>();
+        for (String location : apiAuth.getTrustedCertificates()) {
+            if (location == null || location.isBlank()) {
+                continue;
+            }
+            for (X509Certificate certificate : loadCertificates(location.trim())) {
+                JsonWebKey key = JsonWebKey.of(certificate.getPublicKey());
+                if (byId.putIfAbsent(key.thumbprint(), key) == null) {
+                    all.add(key);
+                }
+            }
+        }
+        keysById = Collections.unmodifiableMap(byId);
+        keys = List.copyOf(all);
+        Long clockSkew = adProperties.getFederation() != null ? adProperties.getFederation().getClockSkew() : null;
+        clockSkewSeconds = clockSkew != null ? clockSkew / 1000 : 60;
+
+        verified = Caffeine.newBuilder()
+            .maximumSize(apiAuth.getCacheMaxEntries())
+            .expireAfter(new UntilExpiry())
+            .recordStats()
+            .build();
+        if (meterRegistry != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, verified, "bearerTokens");
+        }
+        if (keys.isEmpty()) {
+            log.info("No ad.api-auth.trusted-certificates set, bearer tokens are rejected");
+        } else {
+            log.info("Accepting bearer tokens signed by {} trusted keys", keys.size());
+        }
+    }
+
+    /**
+     * Verified claims of a token, from the cache when it was seen before
+     *
+     * @throws BearerTokenException if the token is malformed, untrusted, expired or not for this service
+     */
+    public VerifiedToken verify(String token) throws BearerTokenException {
+        if (token.length() > MAX_TOKEN_LENGTH) {
+            throw new BearerTokenException("Token too large");
+        }
+        long now = System.currentTimeMillis() / 1000;
+        TokenHash hash = TokenHash.of(token);
+        VerifiedToken cached = verified.getIfPresent(hash);
+        if (cached != null && cached.expiresAt() + clockSkewSeconds > now) {
+            return cached;
+        }
+        VerifiedToken result = verifyUncached(token, now);
+        verified.put(hash, result);
+        return result;
+    }
+
+    /**
+     * Full check: signature, then exp, nbf, iss and aud
+     */
+    VerifiedToken verifyUncached(String token, long now) throws BearerTokenException {
+        int firstDot = token.indexOf('.');
+        int secondDot = firstDot < 0 ? -1 : token.indexOf('.', firstDot + 1);
+        if (secondDot < 0 || token.indexOf('.', secondDot + 1) >= 0) {
+            throw new BearerTokenException("Malformed token");
+        }
+        JsonNode header = decodeJson(token.substring(0, firstDot));
+        String alg = header.path("alg").asText(null);
+        String kid = header.path("kid").asText(null);
+        byte[] signingInput = token.substring(0, secondDot).getBytes(StandardCharsets.US_ASCII);
+        byte[] signature = decode(token.substring(secondDot + 1));
+
+        if (!verifySignature(alg, kid, signingInput, signature)) {
+            throw new BearerTokenException("Invalid token signature");
+        }
+
+        JsonNode claims = decodeJson(token.substring(firstDot + 1, secondDot));
+        if (!claims.path("exp").canConvertToLong()) {
+            throw new BearerTokenException("Token has no exp");
+        }
+        long exp = claims.get("exp").asLong();
+        if (exp + clockSkewSeconds <= now) {
+            throw new BearerTokenException("Token expired");
+        }
+        if (claims.path("nbf").canConvertToLong() && claims.get("nbf").asLong() - clockSkewSeconds > now) {
+            throw new BearerTokenException("Token not yet valid");
+        }
+        ADProperties.ApiAuth apiAuth = adProperties.getApiAuth();
+        String issuer = apiAuth.getIssuer();
+        if (issuer != null && !issuer.isBlank() && !issuer.equals(claims.path("iss").asText(null))) {
+            throw new BearerTokenException("Untrusted token issuer");
+        }
+        String audience = apiAuth.getAudience();
+        if (audience != null && !audience.isBlank() && !hasAudience(claims.path("aud"), audience)) {
+            throw new BearerTokenException("Token is not for this service");
+        }
+
+        List<GrantedAuthority> authorities = new ArrayList<>();
+        for (JsonNode role : claims.path("roles")) {
+            if (role.isTextual()) {
+                authorities.add(new SimpleGrantedAuthority(role.asText()));
+            }
+        }
+        return new VerifiedToken(claims.path("sub").asText(null), List.copyOf(authorities), exp);
+    }
+
+    private boolean verifySignature(String alg, String kid, byte[] signingInput, byte[] signature)
+            throws BearerTokenException {
+        if (kid != null) {
+            JsonWebKey key = keysById.get(kid);
+            if (key == null) {
+                throw new BearerTokenException("Unknown signing key");
+            }
+            if (!key.algorithm().equals(alg)) {
+                throw new BearerTokenException("Unexpected token algorithm");
+            }
+            return verify(key, signingInput, signature);
+        }
+        for (JsonWebKey key : keys) {
+            if (key.algorithm().equals(alg) && verify(key, signingInput, signature)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean verify(JsonWebKey key, byte[] signingInput, byte[] signature) throws BearerTokenException {
+        ConcurrentLinkedQueue<Signature> pool = signaturePool.computeIfAbsent(key.jcaAlgorithm(),
+            a -> new ConcurrentLinkedQueue<>());
+        Signature verifier = pool.poll();
+        try {
+            if (verifier == null) {
+                verifier = Signature.getInstance(key.jcaAlgorithm());
+            }
+            verifier.initVerify(key.publicKey());
+            verifier.update(signingInput);
+            return verifier.verify(signature);
+        } catch (NoSuchAlgorithmException e) {
+            throw new BearerTokenException("Token algorithm not available");
+        } catch (GeneralSecurityException e) {
+            log.debug("Token signature check failed: {}", e.getMessage());
+            return false;
+        } finally {
+            if (verifier != null && pool.size() < MAX_POOLED_SIGNATURES) {
+                pool.offer(verifier);
+            }
+        }
+    }
+
+    private static boolean hasAudience(JsonNode aud, String audience) {
+        if (aud.isArray()) {
+            for (JsonNode value : aud) {
+                if (audience.equals(value.asText())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return audience.equals(aud.asText(null));
+    }
+
+    private static JsonNode decodeJson(String part) throws BearerTokenException {
+        try {
+            JsonNode node = JSON.readTree(decode(part));
+            if (node == null || !node.isObject()) {
+                throw new BearerTokenException("Malformed token");
+            }
+            return node;
+        } catch (IOException e) {
+            throw new BearerTokenException("Malformed token");
+        }
+    }
+
+    private static byte[] decode(String part) throws BearerTokenException {
+        try {
+            return BASE64URL.decode(part);
+        } catch (IllegalArgumentException e) {
+            throw new BearerTokenException("Malformed token");
+        }
+    }
+
+    /**
+     * Load certificates from classpath:/file: location or inline PEM
+     */
+    private List<X509Certificate> loadCertificates(String location) {
+        try {
+            if (location.startsWith("-----BEGIN")) {
+                return SAMLSignatureVerifier.parseCertificates(
+                    new ByteArrayInputStream(location.getBytes(StandardCharsets.US_ASCII)));
+            }
+            Resource resource = resourceLoader.getResource(location);
+            try (InputStream in = resource.getInputStream()) {
+                return SAMLSignatureVerifier.parseCertificates(in);
+            }
+        } catch (IOException | CertificateException e) {
+            throw new IllegalStateException("Cannot load bearer token certificate from " + location, e);
+        }
+    }
+
+    /**
+     * Caller identity from a verified token
+     *
+     * @param subject     sub claim
+     * @param authorities roles claim
+     * @param expiresAt   exp claim, epoch seconds
+     */
+    public record VerifiedToken(String subject, List<GrantedAuthority> authorities, long expiresAt) {
+    }
+
+    /**
+     * Keeps each verified token until its exp
+     */
+    private static final class UntilExpiry implements Expiry<TokenHash, VerifiedToken> {
+
+        @Override
+        public long expireAfterCreate(TokenHash key, VerifiedToken token, long currentTime) {
+            long seconds = Math.max(0, token.expiresAt() - System.currentTimeMillis() / 1000);
+            return TimeUnit.SECONDS.toNanos(seconds);
+        }
+
+        @Override
+        public long expireAfterUpdate(TokenHash key, VerifiedToken token, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, token, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(TokenHash key, VerifiedToken token, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+    /**
+     * First 128 bits of the token's SHA-256
+     */
+    private record TokenHash(long high, long low) {
+
+        static TokenHash of(String token) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+                ByteBuffer buffer = ByteBuffer.wrap(digest);
+                return new TokenHash(buffer.getLong(), buffer.getLong());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
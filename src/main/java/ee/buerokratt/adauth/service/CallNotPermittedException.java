@@ -0,0 +1,21 @@
+package ee.buerokratt.adauth.service;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of making an outbound call while its circuit breaker is open
+ *
+ * An IOException, so callers that already handle an unreachable endpoint
+ * (failover, fallback) treat an open breaker the same way. Also thrown
+ * when the endpoint already has the maximum number of calls in flight.
+ */
+public class CallNotPermittedException extends IOException {
+
+    public CallNotPermittedException(String name) {
+        super("Circuit breaker " + name + " is open");
+    }
+
+    public CallNotPermittedException(String name, String reason) {
+        super(name + ": " + reason);
+    }
+}
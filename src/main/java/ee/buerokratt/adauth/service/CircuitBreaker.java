@@ -0,0 +1,205 @@
+package ee.buerokratt.adauth.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free count-based circuit breaker
+ *
+ * Outcomes of the last N calls are kept in an atomic ring buffer next to a
+ * running failure count, so recording a call is a few atomic operations and
+ * never blocks. The breaker opens when the failure rate reaches the
+ * threshold, rejects calls while open, and after the wait duration lets a
+ * single trial call through (half-open) to decide whether to close again.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Notified after every state change
+     */
+    @FunctionalInterface
+    public interface TransitionListener {
+        void onTransition(CircuitBreaker breaker, State from, State to);
+    }
+
+    private static final int EMPTY = 0;
+    private static final int SUCCESS = 1;
+    private static final int FAILURE = 2;
+
+    private final String name;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final float failureRateThreshold;
+    private final long waitDurationNanos;
+    private final LongSupplier nanoClock;
+    private final TransitionListener listener;
+
+    private final AtomicReference<StateSince> state;
+    private final AtomicReference<Window> window;
+    private final AtomicInteger halfOpenPermits = new AtomicInteger();
+
+    /**
+     * @param name                 Name used in logs, metrics and health
+     * @param windowSize           Number of most recent calls the failure rate is computed over
+     * @param minimumCalls         Calls needed in the window before the breaker can open
+     * @param failureRateThreshold Failure rate in percent that opens the breaker
+     * @param waitDurationMillis   Time the breaker stays open before a trial call
+     * @param listener             Transition listener, may be null
+     */
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, float failureRateThreshold,
+                          long waitDurationMillis, TransitionListener listener) {
+        this(name, windowSize, minimumCalls, failureRateThreshold, waitDurationMillis, listener, System::nanoTime);
+    }
+
+    CircuitBreaker(String name, int windowSize, int minimumCalls, float failureRateThreshold,
+                   long waitDurationMillis, TransitionListener listener, LongSupplier nanoClock) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Circuit breaker window size must be positive");
+        }
+        this.name = name;
+        this.windowSize = windowSize;
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, windowSize));
+        this.failureRateThreshold = failureRateThreshold;
+        this.waitDurationNanos = waitDurationMillis * 1_000_000L;
+        this.listener = listener;
+        this.nanoClock = nanoClock;
+        this.state = new AtomicReference<>(new StateSince(State.CLOSED, nanoClock.getAsLong()));
+        this.window = new AtomicReference<>(new Window(windowSize));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return state.get().state;
+    }
+
+    /**
+     * Failure rate in percent over the window, -1 until the minimum number of calls is recorded
+     */
+    public float getFailureRate() {
+        Window current = window.get();
+        int calls = current.recorded.get();
+        return calls < minimumCalls ? -1f : current.failures.get() * 100f / calls;
+    }
+
+    public int getBufferedCalls() {
+        return window.get().recorded.get();
+    }
+
+    public int getFailedCalls() {
+        return window.get().failures.get();
+    }
+
+    /**
+     * Ask to make a call
+     *
+     * @return false if the breaker is open and the call must fail fast
+     */
+    public boolean tryAcquirePermission() {
+        StateSince current = state.get();
+        switch (current.state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (nanoClock.getAsLong() - current.sinceNanos < waitDurationNanos) {
+                    return false;
+                }
+                // One caller wins the transition and sets up the trial permit
+                if (transition(current, State.HALF_OPEN)) {
+                    halfOpenPermits.set(1);
+                }
+                return halfOpenPermits.getAndDecrement() > 0;
+            case HALF_OPEN:
+                return halfOpenPermits.getAndDecrement() > 0;
+            default:
+                return false;
+        }
+    }
+
+    public void onSuccess() {
+        StateSince current = state.get();
+        if (current.state == State.HALF_OPEN) {
+            if (transition(current, State.CLOSED)) {
+                window.set(new Window(windowSize));
+            }
+            return;
+        }
+        window.get().record(SUCCESS);
+    }
+
+    public void onFailure() {
+        StateSince current = state.get();
+        if (current.state == State.HALF_OPEN) {
+            transition(current, State.OPEN);
+            return;
+        }
+        Window currentWindow = window.get();
+        currentWindow.record(FAILURE);
+        if (current.state == State.CLOSED) {
+            int calls = currentWindow.recorded.get();
+            if (calls >= minimumCalls && currentWindow.failures.get() * 100f / calls >= failureRateThreshold) {
+                transition(current, State.OPEN);
+            }
+        }
+    }
+
+    private boolean transition(StateSince from, State to) {
+        if (!state.compareAndSet(from, new StateSince(to, nanoClock.getAsLong()))) {
+            return false;
+        }
+        if (listener != null) {
+            listener.onTransition(this, from.state, to);
+        }
+        return true;
+    }
+
+    private static final class StateSince {
+
+        final State state;
+        final long sinceNanos;
+
+        StateSince(State state, long sinceNanos) {
+            this.state = state;
+            this.sinceNanos = sinceNanos;
+        }
+    }
+
+    /**
+     * Ring buffer of call outcomes; replaced as a whole when the breaker closes
+     */
+    private static final class Window {
+
+        final AtomicIntegerArray outcomes;
+        final AtomicLong cursor = new AtomicLong();
+        final AtomicInteger recorded = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+
+        Window(int size) {
+            outcomes = new AtomicIntegerArray(size);
+        }
+
+        void record(int outcome) {
+            int slot = (int) (cursor.getAndIncrement() % outcomes.length());
+            int previous = outcomes.getAndSet(slot, outcome);
+            if (previous == EMPTY) {
+                recorded.incrementAndGet();
+            } else if (previous == FAILURE) {
+                failures.decrementAndGet();
+            }
+            if (outcome == FAILURE) {
+                failures.incrementAndGet();
+            }
+        }
+    }
+}
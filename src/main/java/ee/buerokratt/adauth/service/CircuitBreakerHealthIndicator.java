@@ -0,0 +1,42 @@
+package ee.buerokratt.adauth.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reports circuit breaker states under /actuator/health
+ *
+ * An open breaker makes the service DEGRADED rather than DOWN: the
+ * service itself is alive and keeps answering from cached data, so
+ * Kubernetes probes must not restart it because AD FS is unreachable.
+ */
+@Component("circuitBreakers")
+public class CircuitBreakerHealthIndicator implements HealthIndicator {
+
+    public static final Status DEGRADED = new Status("DEGRADED", "Outbound dependency unavailable");
+
+    @Autowired
+    private ResilienceService resilienceService;
+
+    @Override
+    public Health health() {
+        boolean open = false;
+        Map<String, Object> details = new LinkedHashMap<>();
+        for (CircuitBreaker breaker : resilienceService.getCircuitBreakers()) {
+            Map<String, Object> breakerDetails = new LinkedHashMap<>();
+            breakerDetails.put("state", breaker.getState());
+            breakerDetails.put("failureRate", breaker.getFailureRate());
+            breakerDetails.put("bufferedCalls", breaker.getBufferedCalls());
+            breakerDetails.put("failedCalls", breaker.getFailedCalls());
+            details.put(breaker.getName(), breakerDetails);
+            open |= breaker.getState() == CircuitBreaker.State.OPEN;
+        }
+        return Health.status(open ? DEGRADED : Status.UP).withDetails(details).build();
+    }
+}
@@ -0,0 +1,160 @@
+package ee.buerokratt.adauth.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Enveloped XML signature read while parsing a SAML Response
+ *
+ * Carries the Signature element's values together with the canonical
+ * SignedInfo bytes and the digest computed over the signed element, so
+ * SAMLSignatureVerifier can check it without touching the XML again.
+ */
+public class CollectedSignature {
+
+    private final String elementName;
+    private final String elementId;
+
+    private String canonicalizationMethod;
+    private String signatureMethod;
+    private String referenceUri;
+    private int referenceCount;
+    private final List<String> transforms = new ArrayList<>();
+    private String inclusiveNamespaces;
+    private String digestMethod;
+    private String digestValue;
+    private String signatureValue;
+    private String certificate;
+
+    private byte[] signedInfo;
+    private byte[] computedDigest;
+    private String error;
+
+    CollectedSignature(String elementName, String elementId) {
+        this.elementName = elementName;
+        this.elementId = elementId;
+    }
+
+    /**
+     * Local name of the signed element (Response or Assertion)
+     */
+    public String getElementName() {
+        return elementName;
+    }
+
+    public String getElementId() {
+        return elementId;
+    }
+
+    public String getCanonicalizationMethod() {
+        return canonicalizationMethod;
+    }
+
+    void setCanonicalizationMethod(String canonicalizationMethod) {
+        this.canonicalizationMethod = canonicalizationMethod;
+    }
+
+    public String getSignatureMethod() {
+        return signatureMethod;
+    }
+
+    void setSignatureMethod(String signatureMethod) {
+        this.signatureMethod = signatureMethod;
+    }
+
+    public String getReferenceUri() {
+        return referenceUri;
+    }
+
+    void setReferenceUri(String referenceUri) {
+        this.referenceUri = referenceUri;
+    }
+
+    public int getReferenceCount() {
+        return referenceCount;
+    }
+
+    void incrementReferenceCount() {
+        this.referenceCount++;
+    }
+
+    public List<String> getTransforms() {
+        return transforms;
+    }
+
+    public String getInclusiveNamespaces() {
+        return inclusiveNamespaces;
+    }
+
+    void setInclusiveNamespaces(String inclusiveNamespaces) {
+        this.inclusiveNamespaces = inclusiveNamespaces;
+    }
+
+    public String getDigestMethod() {
+        return digestMethod;
+    }
+
+    void setDigestMethod(String digestMethod) {
+        this.digestMethod = digestMethod;
+    }
+
+    public String getDigestValue() {
+        return digestValue;
+    }
+
+    void setDigestValue(String digestValue) {
+        this.digestValue = digestValue;
+    }
+
+    public String getSignatureValue() {
+        return signatureValue;
+    }
+
+    void setSignatureValue(String signatureValue) {
+        this.signatureValue = signatureValue;
+    }
+
+    /**
+     * Base64 X509Certificate from KeyInfo, null if the signature carries none
+     */
+    public String getCertificate() {
+        return certificate;
+    }
+
+    void setCertificate(String certificate) {
+        this.certificate = certificate;
+    }
+
+    /**
+     * Exclusive canonical form of SignedInfo, the input of the signature check
+     */
+    public byte[] getSignedInfo() {
+        return signedInfo;
+    }
+
+    void setSignedInfo(byte[] signedInfo) {
+        this.signedInfo = signedInfo;
+    }
+
+    /**
+     * Digest of the signed element after the enveloped-signature and exc-c14n transforms
+     */
+    public byte[] getComputedDigest() {
+        return computedDigest;
+    }
+
+    void setComputedDigest(byte[] computedDigest) {
+        this.computedDigest = computedDigest;
+    }
+
+    /**
+     * Problem found while collecting, e.g. an unsupported digest algorithm
+     */
+    public String getError() {
+        return error;
+    }
+
+    void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,250 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.DistinguishedName;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, pre-indexed form of the configured role mapping rules
+ *
+ * Compiled once per rule set so that matching a user's AD groups costs a
+ * few hash lookups per RDN instead of O(rules x groups x DN length):
+ * - rules are pre-sorted by priority for HIGHEST_PRIORITY
+ * - a group equal to a configured AD group is resolved with a single hash lookup
+ * - any other group is walked RDN by RDN, looking up patterns by their first RDN
+ *
+ * A rule matches when its AD group, parsed as a DistinguishedName, is a
+ * run of whole RDNs within a group: "CN=Admins" and "OU=Groups" match
+ * "CN=Admins,OU=Groups,DC=domain", "CN=Admins" does not match
+ * "CN=Admins-Old,OU=Groups". Comparison is case-insensitive per RDN.
+ */
+public final class CompiledRoleRules {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(CompiledRoleRules.class);
+
+    private final List<ADProperties.RoleMappingRule> source;
+    private final ADProperties.RoleMappingRule[] rules;
+    private final int[] priorityRank;
+    private final DistinguishedName[] patterns;
+    private final int[][] rulesByPattern;
+    private final long[] emptyPatternRules;
+    private final Map<DistinguishedName, long[]> exactIndex;
+    private final Map<String, int[]> patternsByFirstRdn;
+
+    private CompiledRoleRules(List<ADProperties.RoleMappingRule> source) {
+        this.source = source;
+        List<ADProperties.RoleMappingRule> valid = new ArrayList<>();
+        if (source != null) {
+            for (ADProperties.RoleMappingRule rule : source) {
+                if (rule == null || rule.getAdGroup() == null) {
+                    log.warn("Ignoring role mapping rule without AD group: {}",
+                        rule != null ? rule.getRole() : null);
+                    continue;
+                }
+                valid.add(rule);
+            }
+        }
+        this.rules = valid.toArray(new ADProperties.RoleMappingRule[0]);
+
+        // Stable sort by priority; rules without priority never take part in HIGHEST_PRIORITY
+        Integer[] byPriority = new Integer[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            byPriority[i] = i;
+        }
+        Arrays.sort(byPriority, (a, b) -> {
+            Integer pa = rules[a].getPriority();
+            Integer pb = rules[b].getPriority();
+            if (pa == null || pb == null) {
+                return pa == null ? (pb == null ? 0 : 1) : -1;
+            }
+            return Integer.compare(pa, pb);
+        });
+        this.priorityRank = new int[rules.length];
+        for (int rank = 0; rank < byPriority.length; rank++) {
+            int rule = byPriority[rank];
+            priorityRank[rule] = rules[rule].getPriority() != null ? rank : Integer.MAX_VALUE;
+        }
+
+        // Deduplicate patterns; several rules may share one AD group, in any spelling
+        Map<DistinguishedName, List<Integer>> byPattern = new LinkedHashMap<>();
+        this.emptyPatternRules = new long[words(rules.length)];
+        for (int i = 0; i < rules.length; i++) {
+            String pattern = rules[i].getAdGroup();
+            if (pattern.isEmpty()) {
+                set(emptyPatternRules, i);
+            } else {
+                DistinguishedName dn = DistinguishedName.of(pattern);
+                if (!dn.isDistinguishedName()) {
+                    log.warn("AD group '{}' of role {} is not a DN, matching it only as a whole group name",
+                        pattern, rules[i].getRole());
+                }
+                byPattern.computeIfAbsent(dn, p -> new ArrayList<>()).add(i);
+            }
+        }
+        this.patterns = byPattern.keySet().toArray(new DistinguishedName[0]);
+        this.rulesByPattern = new int[patterns.length][];
+        Map<String, List<Integer>> firstRdns = new HashMap<>();
+        for (int p = 0; p < patterns.length; p++) {
+            rulesByPattern[p] = byPattern.get(patterns[p]).stream().mapToInt(Integer::intValue).toArray();
+            if (patterns[p].isDistinguishedName()) {
+                firstRdns.computeIfAbsent(patterns[p].getRdn(), rdn -> new ArrayList<>()).add(p);
+            }
+        }
+        this.patternsByFirstRdn = new HashMap<>(firstRdns.size() * 2);
+        firstRdns.forEach((rdn, ids) -> patternsByFirstRdn.put(rdn, ids.stream().mapToInt(Integer::intValue).toArray()));
+
+        // A group equal to a pattern matches exactly the patterns contained in it
+        this.exactIndex = new HashMap<>(patterns.length * 2);
+        for (int p = 0; p < patterns.length; p++) {
+            long[] matched = emptyPatternRules.clone();
+            if (patterns[p].isDistinguishedName()) {
+                collect(patterns[p], matched);
+            } else {
+                setRules(p, matched);
+            }
+            exactIndex.put(patterns[p], matched);
+        }
+    }
+
+    /**
+     * Compile rule list as bound from ADProperties.RoleMapping
+     */
+    public static CompiledRoleRules compile(List<ADProperties.RoleMappingRule> rules) {
+        CompiledRoleRules compiled = new CompiledRoleRules(rules);
+        log.debug("Compiled {} role mapping rules into {} distinct patterns",
+            compiled.rules.length, compiled.patterns.length);
+        return compiled;
+    }
+
+    /**
+     * Rule list this instance was compiled from
+     */
+    public List<ADProperties.RoleMappingRule> getSource() {
+        return source;
+    }
+
+    public boolean isEmpty() {
+        return rules.length == 0;
+    }
+
+    /**
+     * Match AD groups against all rules
+     *
+     * @param adGroups List of AD group Distinguished Names
+     * @return Bitset of matched rule indexes (configuration order)
+     */
+    public long[] match(Collection<DistinguishedName> adGroups) {
+        long[] matched = new long[emptyPatternRules.length];
+        boolean anyGroup = false;
+        for (DistinguishedName group : adGroups) {
+            if (group == null) {
+                continue;
+            }
+            anyGroup = true;
+            long[] exact = exactIndex.get(group);
+            if (exact != null) {
+                or(matched, exact);
+            } else if (group.isDistinguishedName()) {
+                collect(group, matched);
+            }
+        }
+        if (anyGroup) {
+            or(matched, emptyPatternRules);
+        }
+        return matched;
+    }
+
+    /**
+     * First matched rule in configuration order, or null
+     */
+    public ADProperties.RoleMappingRule firstMatch(long[] matched) {
+        int index = nextSetBit(matched, 0);
+        return index >= 0 ? rules[index] : null;
+    }
+
+    /**
+     * Matched rule with the highest priority (lowest value), or null
+     */
+    public ADProperties.RoleMappingRule highestPriority(long[] matched) {
+        int best = -1;
+        int bestRank = Integer.MAX_VALUE;
+        for (int i = nextSetBit(matched, 0); i >= 0; i = nextSetBit(matched, i + 1)) {
+            if (priorityRank[i] < bestRank) {
+                bestRank = priorityRank[i];
+                best = i;
+            }
+        }
+        return best >= 0 ? rules[best] : null;
+    }
+
+    /**
+     * All matched rules in configuration order
+     */
+    public List<ADProperties.RoleMappingRule> allMatches(long[] matched) {
+        List<ADProperties.RoleMappingRule> result = new ArrayList<>();
+        for (int i = nextSetBit(matched, 0); i >= 0; i = nextSetBit(matched, i + 1)) {
+            result.add(rules[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Patterns found as a run of RDNs starting at any RDN of the group
+     */
+    private void collect(DistinguishedName group, long[] matched) {
+        for (DistinguishedName node = group; node != null; node = node.getParent()) {
+            int[] candidates = patternsByFirstRdn.get(node.getRdn());
+            if (candidates != null) {
+                for (int pattern : candidates) {
+                    if (node.startsWith(patterns[pattern])) {
+                        setRules(pattern, matched);
+                    }
+                }
+            }
+        }
+    }
+
+    private void setRules(int pattern, long[] matched) {
+        for (int rule : rulesByPattern[pattern]) {
+            set(matched, rule);
+        }
+    }
+
+    private static int words(int bits) {
+        return Math.max(1, (bits + 63) >>> 6);
+    }
+
+    private static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    private static void or(long[] target, long[] source) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] |= source[i];
+        }
+    }
+
+    private static int nextSetBit(long[] bits, int from) {
+        int word = from >>> 6;
+        if (word >= bits.length) {
+            return -1;
+        }
+        long current = bits[word] & (-1L << from);
+        while (true) {
+            if (current != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(current);
+            }
+            if (++word == bits.length) {
+                return -1;
+            }
+            current = bits[word];
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package ee.buerokratt.adauth.service;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Users and groups changed in AD since an update sequence number
+ *
+ * Every write on a domain controller stamps the entry with the next
+ * uSNChanged of that controller, and the root DSE reports the highest
+ * one committed. Entries changed since a position are found with a range
+ * filter on uSNChanged and read in pages (paged results control). USNs
+ * are local to a controller, so a position carries its dsServiceName; a
+ * position from another controller, or one ahead of the controller after
+ * a restore, is read from zero, i.e. in full.
+ *
+ * AD does not change a user's uSNChanged when only its memberships
+ * change (memberOf is a back link), just the group's. Changed groups are
+ * therefore read with their full member list, fetching members beyond
+ * the controller's MaxValRange by range retrieval.
+ */
+final class DirectoryChangeFeed {
+
+    private static final String[] POSITION_ATTRIBUTES = {"highestCommittedUSN", "dsServiceName"};
+    private static final String[] USER_ATTRIBUTES = {"userPrincipalName", "memberOf"};
+    private static final String[] GROUP_ATTRIBUTES = {"member"};
+    private static final String CHANGED = "(uSNChanged>={0})(uSNChanged<={1})";
+
+    /**
+     * Handler of one search result
+     */
+    @FunctionalInterface
+    private interface ResultHandler {
+        void accept(SearchResult result) throws NamingException;
+    }
+
+    private final String baseDn;
+    private final String userFilter;
+    private final String groupFilter;
+    private final int pageSize;
+
+    /**
+     * @param userFilter  Filter selecting the users to sync, e.g. (objectClass=user)
+     * @param groupFilter Filter selecting their groups, e.g. (objectClass=group)
+     */
+    DirectoryChangeFeed(String baseDn, String userFilter, String groupFilter, int pageSize) {
+        this.baseDn = baseDn;
+        this.userFilter = userFilter;
+        this.groupFilter = groupFilter;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Highest committed USN of the domain controller the context is bound to
+     */
+    Position position(LdapContext context) throws NamingException {
+        Attributes attributes = context.getAttributes("", POSITION_ATTRIBUTES);
+        Attribute usn = attributes.get("highestCommittedUSN");
+        Attribute server = attributes.get("dsServiceName");
+        if (usn == null || server == null) {
+            throw new NamingException("Root DSE has no highestCommittedUSN, not an AD domain controller");
+        }
+        return new Position(server.get().toString(), Long.parseLong(usn.get().toString()));
+    }
+
+    /**
+     * Users and groups changed after a position, up to the current position of the controller
+     *
+     * @param since Position of the previous read, or null to read everything
+     */
+    Changes read(LdapContext context, Position since) throws NamingException {
+        Position position = position(context);
+        boolean full = since == null || !since.server().equalsIgnoreCase(position.server())
+            || since.usn() > position.usn();
+        long from = full ? 0 : since.usn() + 1;
+        if (!full && from > position.usn()) {
+            return new Changes(position, false, List.of(), List.of());
+        }
+        Object[] range = {from, position.usn()};
+
+        List<UserChange> users = new ArrayList<>();
+        search(context, "(&" + userFilter + CHANGED + ")", range, USER_ATTRIBUTES, result -> {
+            Attributes attributes = result.getAttributes();
+            Attribute upn = attributes.get("userPrincipalName");
+            users.add(new UserChange(result.getNameInNamespace(), upn != null ? upn.get().toString() : null,
+                values(attributes.get("memberOf"), new ArrayList<>())));
+        });
+
+        List<GroupChange> groups = new ArrayList<>();
+        List<Map.Entry<GroupChange, Integer>> ranged = new ArrayList<>();
+        search(context, "(&" + groupFilter + CHANGED + ")", range, GROUP_ATTRIBUTES, result -> {
+            Attribute member = member(result.getAttributes());
+            GroupChange group = new GroupChange(result.getNameInNamespace(), values(member, new ArrayList<>()));
+            int next = next(member);
+            if (next > 0) {
+                ranged.add(Map.entry(group, next));
+            }
+            groups.add(group);
+        });
+        // After paging, as the paged results control stays on the context until then
+        for (Map.Entry<GroupChange, Integer> group : ranged) {
+            readMembers(context, group.getKey(), group.getValue());
+        }
+
+        Position end = position(context);
+        if (!end.server().equalsIgnoreCase(position.server())) {
+            throw new NamingException("Domain controller changed from " + position.server() + " to "
+                + end.server() + " during the read");
+        }
+        return new Changes(position, full, users, groups);
+    }
+
+    private void search(LdapContext context, String filter, Object[] arguments, String[] attributes,
+                        ResultHandler handler) throws NamingException {
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        controls.setReturningAttributes(attributes);
+        byte[] cookie = null;
+        try {
+            do {
+                context.setRequestControls(new Control[]{pagedResults(cookie)});
+                NamingEnumeration<SearchResult> results = context.search(baseDn, filter, arguments, controls);
+                try {
+                    while (results.hasMore()) {
+                        handler.accept(results.next());
+                    }
+                } finally {
+                    results.close();
+                }
+                cookie = cookie(context.getResponseControls());
+            } while (cookie != null && cookie.length > 0);
+        } finally {
+            context.setRequestControls(null);
+        }
+    }
+
+    private PagedResultsControl pagedResults(byte[] cookie) {
+        try {
+            return new PagedResultsControl(pageSize, cookie, Control.CRITICAL);
+        } catch (IOException e) {
+            // Only thrown when BER encoding fails
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] cookie(Control[] controls) {
+        if (controls != null) {
+            for (Control control : controls) {
+                if (control instanceof PagedResultsResponseControl paged) {
+                    return paged.getCookie();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fetch the members of a group from an offset on, one range at a time
+     */
+    private static void readMembers(LdapContext context, GroupChange group, int from) throws NamingException {
+        LdapName name = new LdapName(group.dn());
+        for (int next = from; next > 0; ) {
+            Attribute member = member(context.getAttributes(name, new String[]{"member;range=" + next + "-*"}));
+            if (member == null) {
+                return;
+            }
+            values(member, group.members());
+            next = next(member);
+        }
+    }
+
+    /**
+     * The member attribute, plain or with a range option
+     */
+    private static Attribute member(Attributes attributes) throws NamingException {
+        NamingEnumeration<? extends Attribute> all = attributes.getAll();
+        try {
+            while (all.hasMore()) {
+                Attribute attribute = all.next();
+                String id = attribute.getID().toLowerCase(Locale.ROOT);
+                if (id.equals("member") || id.startsWith("member;range=")) {
+                    return attribute;
+                }
+            }
+            return null;
+        } finally {
+            all.close();
+        }
+    }
+
+    /**
+     * Offset of the next range after member;range=first-last, or 0 after the last one
+     */
+    private static int next(Attribute member) {
+        if (member == null) {
+            return 0;
+        }
+        String id = member.getID();
+        int range = id.toLowerCase(Locale.ROOT).indexOf(";range=");
+        if (range < 0 || id.endsWith("-*")) {
+            return 0;
+        }
+        return Integer.parseInt(id.substring(id.lastIndexOf('-') + 1)) + 1;
+    }
+
+    private static List<String> values(Attribute attribute, List<String> values) throws NamingException {
+        if (attribute != null) {
+            NamingEnumeration<?> all = attribute.getAll();
+            try {
+                while (all.hasMore()) {
+                    values.add(Objects.toString(all.next()));
+                }
+            } finally {
+                all.close();
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Highest committed USN of a domain controller, identified by its dsServiceName
+     */
+    record Position(String server, long usn) {
+    }
+
+    /**
+     * Entries changed up to a position; full if everything was read
+     */
+    record Changes(Position position, boolean full, List<UserChange> users, List<GroupChange> groups) {
+    }
+
+    /**
+     * Changed user with its current direct groups
+     */
+    record UserChange(String dn, String upn, List<String> memberOf) {
+    }
+
+    /**
+     * Changed group with its current direct members, users and groups alike
+     */
+    record GroupChange(String dn, List<String> members) {
+    }
+}
@@ -0,0 +1,612 @@
+package ee.buerokratt.adauth.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.DistinguishedName;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.stereotype.Service;
+
+import javax.naming.NamingException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Incremental sync of AD group memberships into the roles in auth_users
+ *
+ * Every interval the users and groups changed in the directory since the
+ * checkpoint are read (DirectoryChangeFeed), and only the users they
+ * affect are mapped again; the cost of a run follows the churn, not the
+ * size of the directory. A user is re-mapped when
+ *  - its own entry changed, e.g. a new user or new memberOf values,
+ *  - it was added to or removed from a changed group,
+ *  - one of its groups is nested differently after a nested group reload,
+ *  - a rule was added, removed or changed whose group pattern matches one
+ *    of its groups, expanded; a new default role or strategy re-maps all.
+ * For this the direct groups and last roles of every synced user are kept
+ * together with an index from group to members. Affected users are mapped
+ * in chunks of chunk-size on parallelism threads, and users whose roles
+ * changed are written through UserProvisioningService.updateRoles().
+ *
+ * The state is saved to checkpoint-file after each run that changed it
+ * (written to a temporary file and moved), so a restart continues from
+ * about the last USN. Without a checkpoint, or against another domain
+ * controller, the whole directory is read once. Users deleted from AD
+ * lose their groups when these are next changed; their rows are not
+ * removed.
+ *
+ * Deleted and renamed groups are not seen by the incremental read: a
+ * deleted group leaves the search, and AD updates its members' memberOf
+ * without a new uSNChanged, so their old group DN keeps granting roles.
+ * The whole directory is therefore read again every full-interval, which
+ * bounds how long such a revocation takes.
+ */
+@Service
+@RegisterReflectionForBinding(DirectorySyncService.Checkpoint.class)
+public class DirectorySyncService {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DirectorySyncService.class);
+
+    static final String CIRCUIT_BREAKER_NAME = "ldap-sync";
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    @Autowired
+    private ADProperties adProperties;
+
+    @Autowired
+    private RoleMappingService roleMappingService;
+
+    @Autowired
+    private UserProvisioningService provisioningService;
+
+    @Autowired
+    private ResilienceService resilienceService;
+
+    @Autowired(required = false)
+    private NestedGroupService nestedGroupService;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    /** Synced users by lower-case DN */
+    private final Map<String, SyncedUser> users = new HashMap<>();
+    /** Direct group to the keys of its synced members */
+    private final Map<DistinguishedName, Set<String>> members = new HashMap<>();
+    /** Fingerprint of the expansion of each direct group */
+    private final Map<DistinguishedName, Long> nesting = new HashMap<>();
+    /** Users whose new roles could not be queued */
+    private final Set<String> unsynced = new HashSet<>();
+    private DirectoryChangeFeed.Position position;
+    /** Time of the last full read; null if none is known */
+    private Instant fullRead;
+    private RuleState rules;
+    /** Graph the nesting fingerprints were taken with; null after loading a checkpoint */
+    private GroupGraph graph;
+
+    private LdapConnectionPool pool;
+    private DirectoryChangeFeed feed;
+    private Path checkpointFile;
+    private ExecutorService workers;
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    void init() {
+        ADProperties.Sync sync = adProperties.getSync();
+        if (!Boolean.TRUE.equals(sync.getEnabled())) {
+            return;
+        }
+        ADProperties.Ldap ldap = adProperties.getLdap();
+        if (ldap.getUrl() == null || ldap.getUrl().isBlank()) {
+            log.warn("Directory sync enabled without ad.ldap.url, roles are not synced");
+            return;
+        }
+        if (!provisioningService.isEnabled()) {
+            log.warn("Directory sync enabled without ad.provisioning, roles are not synced");
+            return;
+        }
+
+        // Paging cookies belong to a connection, and USNs to the controller behind it
+        pool = LdapConnectionPool.create(ldap, 1);
+        feed = new DirectoryChangeFeed(ldap.getBaseDn(), sync.getUserFilter(), sync.getGroupFilter(),
+            sync.getPageSize());
+        if (sync.getCheckpointFile() != null && !sync.getCheckpointFile().isBlank()) {
+            checkpointFile = Path.of(sync.getCheckpointFile());
+            load();
+        }
+
+        AtomicInteger workerCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(sync.getParallelism(), runnable -> {
+            Thread thread = new Thread(runnable, "directory-sync-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "directory-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = sync.getInterval();
+        scheduler.scheduleWithFixedDelay(this::scheduledRun, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Syncing AD roles from {} every {} ms", ldap.getUrl(), interval);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            workers.shutdownNow();
+        }
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Whether roles are synced from the directory
+     */
+    public boolean isEnabled() {
+        return scheduler != null;
+    }
+
+    /**
+     * Users currently tracked
+     */
+    synchronized int getUserCount() {
+        return users.size();
+    }
+
+    private void scheduledRun() {
+        try {
+            run();
+        } catch (IOException e) {
+            log.warn("Directory sync skipped: {}", e.getMessage());
+            countRun("unavailable");
+        } catch (NamingException | RuntimeException e) {
+            log.error("Directory sync failed", e);
+            countRun("failed");
+        }
+    }
+
+    /**
+     * Read the changes since the checkpoint and re-map the users they affect
+     *
+     * @return Users whose roles changed
+     */
+    synchronized int run() throws IOException, NamingException {
+        long started = System.nanoTime();
+        Instant now = Instant.now();
+        DirectoryChangeFeed.Position since = fullReadDue(now) ? null : position;
+        DirectoryChangeFeed.Changes changes = resilienceService.execute(CIRCUIT_BREAKER_NAME,
+            () -> pool.execute(context -> feed.read(context, since)));
+
+        Set<String> affected = new LinkedHashSet<>(unsynced);
+        Set<DistinguishedName> newGroups = new HashSet<>();
+        if (changes.full()) {
+            replaceUsers(changes.users(), affected, newGroups);
+        } else {
+            updateUsers(changes.users(), affected, newGroups);
+        }
+        updateMembers(changes.groups(), affected, newGroups);
+
+        RuleState current = RuleState.of(adProperties.getRoleMapping());
+        CompiledRoleRules changedRules = null;
+        if (rules != null && !rules.equals(current)) {
+            if (!Objects.equals(rules.defaultRole(), current.defaultRole())
+                || !Objects.equals(rules.strategy(), current.strategy())) {
+                affected.addAll(users.keySet());
+            } else {
+                changedRules = CompiledRoleRules.compile(rules.changedRules(current));
+            }
+        }
+        GroupGraph currentGraph = nestedGroupService != null && nestedGroupService.isEnabled()
+            ? nestedGroupService.getGraph() : GroupGraph.EMPTY;
+        boolean graphChanged = currentGraph != graph;
+        checkGroups(graphChanged || changedRules != null ? members.keySet() : newGroups, currentGraph,
+            changedRules, affected);
+
+        int changed = remap(affected, Instant.now());
+        boolean modified = changes.full() || !affected.isEmpty() || !newGroups.isEmpty() || graphChanged
+            || !current.equals(rules);
+        position = changes.position();
+        if (changes.full()) {
+            fullRead = now;
+        }
+        rules = current;
+        graph = currentGraph;
+        if (modified) {
+            save();
+        }
+
+        countRun(changes.full() ? "full" : "incremental");
+        count("read", changes.users().size());
+        count("remapped", affected.size());
+        count("changed", changed);
+        log.info("Directory sync to USN {} ({}): {} users and {} groups changed, {} users re-mapped, "
+                + "{} with new roles, in {} ms", position.usn(), changes.full() ? "full" : "incremental",
+            changes.users().size(), changes.groups().size(), affected.size(), changed,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        return changed;
+    }
+
+    /**
+     * Whether full-interval has passed since the last full read
+     */
+    private boolean fullReadDue(Instant now) {
+        long interval = adProperties.getSync().getFullInterval();
+        return interval > 0 && (fullRead == null || !now.isBefore(fullRead.plusMillis(interval)));
+    }
+
+    /**
+     * Replace every user after a full read, keeping the roles of those already known
+     */
+    private void replaceUsers(List<DirectoryChangeFeed.UserChange> changes, Set<String> affected,
+                              Set<DistinguishedName> newGroups) {
+        Map<String, SyncedUser> previous = new HashMap<>(users);
+        users.clear();
+        members.clear();
+        for (DirectoryChangeFeed.UserChange change : changes) {
+            String key = change.dn().toLowerCase(Locale.ROOT);
+            SyncedUser known = previous.get(key);
+            SyncedUser user = new SyncedUser(change.upn(), DistinguishedName.listOf(change.memberOf()),
+                known != null ? known.roles : null);
+            users.put(key, user);
+            index(key, user.groups, newGroups);
+            if (known == null || !user.groups.equals(known.groups) || !Objects.equals(user.upn, known.upn)) {
+                affected.add(key);
+            }
+        }
+        nesting.keySet().retainAll(members.keySet());
+        unsynced.retainAll(users.keySet());
+        affected.retainAll(users.keySet());
+    }
+
+    /**
+     * Apply changed user entries; their memberOf replaces their groups
+     */
+    private void updateUsers(List<DirectoryChangeFeed.UserChange> changes, Set<String> affected,
+                             Set<DistinguishedName> newGroups) {
+        for (DirectoryChangeFeed.UserChange change : changes) {
+            String key = change.dn().toLowerCase(Locale.ROOT);
+            List<DistinguishedName> groups = DistinguishedName.listOf(change.memberOf());
+            SyncedUser known = users.get(key);
+            if (known != null && known.groups.equals(groups) && Objects.equals(known.upn, change.upn())) {
+                continue;
+            }
+            if (known != null) {
+                unindex(key, known.groups);
+            }
+            users.put(key, new SyncedUser(change.upn(), groups, known != null ? known.roles : null));
+            index(key, groups, newGroups);
+            affected.add(key);
+        }
+    }
+
+    /**
+     * Apply the member lists of changed groups to the synced users
+     */
+    private void updateMembers(List<DirectoryChangeFeed.GroupChange> changes, Set<String> affected,
+                               Set<DistinguishedName> newGroups) {
+        for (DirectoryChangeFeed.GroupChange change : changes) {
+            DistinguishedName group = DistinguishedName.of(change.dn());
+            Set<String> current = new HashSet<>();
+            for (String member : change.members()) {
+                String key = member.toLowerCase(Locale.ROOT);
+                // Nested groups and users outside the user filter are not synced
+                if (users.containsKey(key)) {
+                    current.add(key);
+                }
+            }
+            Set<String> previous = members.getOrDefault(group, Set.of());
+            for (String key : current) {
+                if (!previous.contains(key)) {
+                    SyncedUser user = users.get(key);
+                    List<DistinguishedName> groups = new ArrayList<>(user.groups);
+                    groups.add(group);
+                    users.put(key, user.withGroups(List.copyOf(groups)));
+                    affected.add(key);
+                }
+            }
+            for (String key : previous) {
+                if (!current.contains(key)) {
+                    SyncedUser user = users.get(key);
+                    List<DistinguishedName> groups = new ArrayList<>(user.groups);
+                    groups.remove(group);
+                    users.put(key, user.withGroups(List.copyOf(groups)));
+                    affected.add(key);
+                }
+            }
+            if (current.isEmpty()) {
+                members.remove(group);
+                nesting.remove(group);
+            } else {
+                if (!members.containsKey(group)) {
+                    newGroups.add(group);
+                }
+                members.put(group, current);
+            }
+        }
+    }
+
+    /**
+     * Mark the members of groups whose expansion changed, or that match a changed rule
+     */
+    private void checkGroups(Collection<DistinguishedName> groups, GroupGraph currentGraph,
+                             CompiledRoleRules changedRules, Set<String> affected) {
+        for (DistinguishedName group : groups) {
+            Set<String> keys = members.get(group);
+            if (keys == null) {
+                continue;
+            }
+            List<DistinguishedName> expanded = currentGraph.expand(List.of(group));
+            long fingerprint = fingerprint(expanded);
+            Long previous = nesting.put(group, fingerprint);
+            boolean renested = previous != null && previous != fingerprint;
+            if (renested || changedRules != null && matches(changedRules.match(expanded))) {
+                affected.addAll(keys);
+            }
+        }
+    }
+
+    /**
+     * Map the affected users in parallel chunks and queue the roles that changed
+     */
+    private int remap(Set<String> affected, Instant now) throws IOException {
+        if (affected.isEmpty()) {
+            return 0;
+        }
+        List<String> keys = new ArrayList<>(affected);
+        int chunkSize = adProperties.getSync().getChunkSize();
+        List<Callable<Map<String, List<String>>>> chunks = new ArrayList<>();
+        for (int from = 0; from < keys.size(); from += chunkSize) {
+            List<String> chunk = keys.subList(from, Math.min(keys.size(), from + chunkSize));
+            chunks.add(() -> {
+                Map<String, List<String>> changed = new HashMap<>();
+                for (String key : chunk) {
+                    SyncedUser user = users.get(key);
+                    List<String> roles = roleMappingService.mapDistinguishedNames(user.groups).getRoles();
+                    if (!roles.equals(user.roles)) {
+                        changed.put(key, roles);
+                    }
+                }
+                return changed;
+            });
+        }
+
+        int changed = 0;
+        try {
+            for (Future<Map<String, List<String>>> chunk : workers.invokeAll(chunks)) {
+                for (Map.Entry<String, List<String>> entry : chunk.get().entrySet()) {
+                    SyncedUser user = users.get(entry.getKey());
+                    if (user.upn == null) {
+                        continue;
+                    }
+                    if (provisioningService.updateRoles(user.upn, entry.getValue(), now)) {
+                        users.put(entry.getKey(), user.withRoles(entry.getValue()));
+                        unsynced.remove(entry.getKey());
+                        changed++;
+                    } else {
+                        unsynced.add(entry.getKey());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted mapping synced users");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Mapping synced users failed", e.getCause());
+        }
+        return changed;
+    }
+
+    private void index(String key, List<DistinguishedName> groups, Set<DistinguishedName> newGroups) {
+        for (DistinguishedName group : groups) {
+            Set<String> keys = members.get(group);
+            if (keys == null) {
+                keys = new HashSet<>();
+                members.put(group, keys);
+                newGroups.add(group);
+            }
+            keys.add(key);
+        }
+    }
+
+    private void unindex(String key, List<DistinguishedName> groups) {
+        for (DistinguishedName group : groups) {
+            Set<String> keys = members.get(group);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                members.remove(group);
+                nesting.remove(group);
+            }
+        }
+    }
+
+    private static boolean matches(long[] matched) {
+        for (long word : matched) {
+            if (word != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Order-independent fingerprint of an expanded group set
+     */
+    private static long fingerprint(List<DistinguishedName> expanded) {
+        String[] names = new String[expanded.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = expanded.get(i).toCanonicalString();
+        }
+        Arrays.sort(names);
+        return UserProvisioningService.Upsert.hash(names);
+    }
+
+    private void load() {
+        if (!Files.exists(checkpointFile)) {
+            log.info("No directory sync checkpoint at {}, starting with a full read", checkpointFile);
+            return;
+        }
+        try {
+            Checkpoint checkpoint = JSON.readValue(checkpointFile.toFile(), Checkpoint.class);
+            for (Checkpoint.User user : checkpoint.users()) {
+                SyncedUser synced = new SyncedUser(user.upn(), DistinguishedName.listOf(user.groups()), user.roles());
+                users.put(user.dn(), synced);
+                index(user.dn(), synced.groups, new HashSet<>());
+                if (synced.roles == null) {
+                    unsynced.add(user.dn());
+                }
+            }
+            checkpoint.nesting().forEach((group, fingerprint) -> nesting.put(DistinguishedName.of(group), fingerprint));
+            position = new DirectoryChangeFeed.Position(checkpoint.server(), checkpoint.usn());
+            fullRead = checkpoint.fullRead() != null ? Instant.ofEpochMilli(checkpoint.fullRead()) : null;
+            rules = checkpoint.rules();
+            log.info("Loaded directory sync checkpoint at USN {} with {} users", checkpoint.usn(), users.size());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Directory sync checkpoint {} unreadable, starting with a full read: {}", checkpointFile,
+                e.getMessage());
+            users.clear();
+            members.clear();
+            nesting.clear();
+            unsynced.clear();
+        }
+    }
+
+    private void save() throws IOException {
+        if (checkpointFile == null) {
+            return;
+        }
+        List<Checkpoint.User> saved = new ArrayList<>(users.size());
+        users.forEach((key, user) -> saved.add(new Checkpoint.User(key, user.upn,
+            user.groups.stream().map(DistinguishedName::toString).toList(),
+            unsynced.contains(key) ? null : user.roles)));
+        Map<String, Long> fingerprints = new HashMap<>();
+        nesting.forEach((group, fingerprint) -> fingerprints.put(group.toString(), fingerprint));
+        Checkpoint checkpoint = new Checkpoint(position.server(), position.usn(),
+            fullRead != null ? fullRead.toEpochMilli() : null, rules, fingerprints, saved);
+
+        Path directory = checkpointFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, checkpointFile.getFileName().toString(), ".tmp");
+        try {
+            JSON.writeValue(temporary.toFile(), checkpoint);
+            Files.move(temporary, checkpointFile, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private void countRun(String outcome) {
+        if (meterRegistry != null) {
+            meterRegistry.counter("ad.sync.runs", "outcome", outcome).increment();
+        }
+    }
+
+    private void count(String outcome, int users) {
+        if (meterRegistry != null) {
+            meterRegistry.counter("ad.sync.users", "outcome", outcome).increment(users);
+        }
+    }
+
+    /**
+     * Direct groups and last synced roles of one user; roles are null until first synced
+     */
+    private record SyncedUser(String upn, List<DistinguishedName> groups, List<String> roles) {
+
+        SyncedUser withGroups(List<DistinguishedName> groups) {
+            return new SyncedUser(upn, groups, roles);
+        }
+
+        SyncedUser withRoles(List<String> roles) {
+            return new SyncedUser(upn, groups, roles);
+        }
+    }
+
+    /**
+     * Role mapping configuration a sync was done with
+     */
+    record RuleState(String defaultRole, String strategy, List<Rule> rules) {
+
+        static RuleState of(ADProperties.RoleMapping roleMapping) {
+            List<Rule> rules = new ArrayList<>();
+            if (roleMapping.getRules() != null) {
+                for (ADProperties.RoleMappingRule rule : roleMapping.getRules()) {
+                    rules.add(new Rule(rule.getAdGroup(), rule.getRole(), rule.getPriority()));
+                }
+            }
+            return new RuleState(roleMapping.getDefaultRole(), String.valueOf(roleMapping.getMultiGroupStrategy()),
+                rules);
+        }
+
+        /**
+         * Old and new versions of every rule that differs by position; a moved rule counts as changed
+         */
+        List<ADProperties.RoleMappingRule> changedRules(RuleState next) {
+            List<ADProperties.RoleMappingRule> changed = new ArrayList<>();
+            for (int i = 0; i < Math.max(rules.size(), next.rules.size()); i++) {
+                Rule before = i < rules.size() ? rules.get(i) : null;
+                Rule after = i < next.rules.size() ? next.rules.get(i) : null;
+                if (!Objects.equals(before, after)) {
+                    if (before != null) {
+                        changed.add(before.toRule());
+                    }
+                    if (after != null) {
+                        changed.add(after.toRule());
+                    }
+                }
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * One role mapping rule, comparable by value
+     */
+    record Rule(String adGroup, String role, Integer priority) {
+
+        ADProperties.RoleMappingRule toRule() {
+            ADProperties.RoleMappingRule rule = new ADProperties.RoleMappingRule();
+            rule.setAdGroup(adGroup);
+            rule.setRole(role);
+            rule.setPriority(priority);
+            return rule;
+        }
+    }
+
+    /**
+     * Saved sync state: position, time of the last full read, rules, nesting fingerprints and users by lower-case DN
+     */
+    record Checkpoint(String server, long usn, Long fullRead, RuleState rules, Map<String, Long> nesting,
+                      List<User> users) {
+
+        record User(String dn, String upn, List<String> groups, List<String> roles) {
+        }
+    }
+}
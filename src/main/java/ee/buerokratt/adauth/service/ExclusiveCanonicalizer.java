@@ -0,0 +1,327 @@
+package ee.buerokratt.adauth.service;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Streaming Exclusive XML Canonicalization (xml-exc-c14n#, without comments)
+ *
+ * Fed StAX events for one element subtree and writes its canonical UTF-8 form
+ * either into an internal buffer or, once the digest algorithm is known,
+ * straight into a MessageDigest so large subtrees are never buffered.
+ * Only visibly utilized namespaces are rendered; an InclusiveNamespaces
+ * PrefixList is not supported.
+ */
+final class ExclusiveCanonicalizer {
+
+    private byte[] buffer = new byte[1024];
+    private int length;
+    private MessageDigest digest;
+
+    // Namespace declarations rendered by output ancestors
+    private String[] renderedPrefix = new String[8];
+    private String[] renderedUri = new String[8];
+    private int renderedCount;
+
+    private int[] renderedMark = new int[16];
+    private String[] qnames = new String[16];
+    private int depth;
+
+    // Scratch space for the current start tag
+    private String[] candidatePrefix = new String[4];
+    private String[] candidateUri = new String[4];
+    private int[] attributeOrder = new int[8];
+
+    /**
+     * Depth inside the canonicalized subtree (0 after the apex element closed)
+     */
+    int depth() {
+        return depth;
+    }
+
+    void startElement(XMLStreamReader reader) {
+        String prefix = nullToEmpty(reader.getPrefix());
+        String uri = nullToEmpty(reader.getNamespaceURI());
+        String qname = prefix.isEmpty() ? reader.getLocalName() : prefix + ':' + reader.getLocalName();
+
+        if (depth == qnames.length) {
+            qnames = Arrays.copyOf(qnames, depth * 2);
+            renderedMark = Arrays.copyOf(renderedMark, depth * 2);
+        }
+        renderedMark[depth] = renderedCount;
+        qnames[depth++] = qname;
+
+        write('<');
+        write(qname);
+
+        // Namespaces visibly utilized by the element and its attributes
+        int candidates = 0;
+        candidates = addCandidate(candidates, prefix, uri);
+        int attributes = reader.getAttributeCount();
+        for (int i = 0; i < attributes; i++) {
+            String attributePrefix = nullToEmpty(reader.getAttributePrefix(i));
+            if (!attributePrefix.isEmpty() && !XMLConstants.XML_NS_PREFIX.equals(attributePrefix)) {
+                candidates = addCandidate(candidates, attributePrefix, nullToEmpty(reader.getAttributeNamespace(i)));
+            }
+        }
+        sortCandidates(candidates);
+        for (int i = 0; i < candidates; i++) {
+            String p = candidatePrefix[i];
+            String u = candidateUri[i];
+            String rendered = lookupRendered(p);
+            boolean render = p.isEmpty()
+                ? (u.isEmpty() ? rendered != null && !rendered.isEmpty() : !u.equals(rendered))
+                : !u.equals(rendered);
+            if (render) {
+                write(p.isEmpty() ? " xmlns=\"" : " xmlns:");
+                if (!p.isEmpty()) {
+                    write(p);
+                    write("=\"");
+                }
+                writeEscaped(u, true);
+                write('"');
+                pushRendered(p, u);
+            }
+        }
+
+        // Attributes ordered by namespace URI, then local name
+        if (attributeOrder.length < attributes) {
+            attributeOrder = new int[attributes * 2];
+        }
+        for (int i = 0; i < attributes; i++) {
+            attributeOrder[i] = i;
+        }
+        sortAttributes(reader, attributes);
+        for (int n = 0; n < attributes; n++) {
+            int i = attributeOrder[n];
+            String attributePrefix = nullToEmpty(reader.getAttributePrefix(i));
+            write(' ');
+            if (!attributePrefix.isEmpty()) {
+                write(attributePrefix);
+                write(':');
+            }
+            write(reader.getAttributeLocalName(i));
+            write("=\"");
+            writeEscaped(reader.getAttributeValue(i), true);
+            write('"');
+        }
+        write('>');
+    }
+
+    void endElement() {
+        depth--;
+        write("</");
+        write(qnames[depth]);
+        write('>');
+        renderedCount = renderedMark[depth];
+    }
+
+    void characters(XMLStreamReader reader) {
+        char[] text = reader.getTextCharacters();
+        int start = reader.getTextStart();
+        int end = start + reader.getTextLength();
+        for (int i = start; i < end; i++) {
+            char c = text[i];
+            switch (c) {
+                case '&':
+                    write("&amp;");
+                    break;
+                case '<':
+                    write("&lt;");
+                    break;
+                case '>':
+                    write("&gt;");
+                    break;
+                case '\r':
+                    write("&#xD;");
+                    break;
+                default:
+                    if (Character.isHighSurrogate(c) && i + 1 < end) {
+                        writeCodePoint(Character.toCodePoint(c, text[++i]));
+                    } else {
+                        writeCodePoint(c);
+                    }
+            }
+        }
+    }
+
+    void processingInstruction(XMLStreamReader reader) {
+        write("<?");
+        write(reader.getPITarget());
+        String data = reader.getPIData();
+        if (data != null && !data.isEmpty()) {
+            write(' ');
+            write(data);
+        }
+        write("?>");
+    }
+
+    /**
+     * Send buffered and all further output to the digest
+     */
+    void digestInto(MessageDigest messageDigest) {
+        this.digest = messageDigest;
+        messageDigest.update(buffer, 0, length);
+        length = 0;
+    }
+
+    boolean isDigesting() {
+        return digest != null;
+    }
+
+    byte[] finishDigest() {
+        digest.update(buffer, 0, length);
+        length = 0;
+        return digest.digest();
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private int addCandidate(int count, String prefix, String uri) {
+        for (int i = 0; i < count; i++) {
+            if (candidatePrefix[i].equals(prefix)) {
+                return count;
+            }
+        }
+        if (count == candidatePrefix.length) {
+            candidatePrefix = Arrays.copyOf(candidatePrefix, count * 2);
+            candidateUri = Arrays.copyOf(candidateUri, count * 2);
+        }
+        candidatePrefix[count] = prefix;
+        candidateUri[count] = uri;
+        return count + 1;
+    }
+
+    private void sortCandidates(int count) {
+        // Insertion sort; the default namespace ("") sorts first
+        for (int i = 1; i < count; i++) {
+            String p = candidatePrefix[i];
+            String u = candidateUri[i];
+            int j = i - 1;
+            while (j >= 0 && candidatePrefix[j].compareTo(p) > 0) {
+                candidatePrefix[j + 1] = candidatePrefix[j];
+                candidateUri[j + 1] = candidateUri[j];
+                j--;
+            }
+            candidatePrefix[j + 1] = p;
+            candidateUri[j + 1] = u;
+        }
+    }
+
+    private void sortAttributes(XMLStreamReader reader, int count) {
+        for (int i = 1; i < count; i++) {
+            int current = attributeOrder[i];
+            int j = i - 1;
+            while (j >= 0 && compareAttributes(reader, attributeOrder[j], current) > 0) {
+                attributeOrder[j + 1] = attributeOrder[j];
+                j--;
+            }
+            attributeOrder[j + 1] = current;
+        }
+    }
+
+    private static int compareAttributes(XMLStreamReader reader, int a, int b) {
+        int byNamespace = nullToEmpty(reader.getAttributeNamespace(a))
+            .compareTo(nullToEmpty(reader.getAttributeNamespace(b)));
+        return byNamespace != 0 ? byNamespace
+            : reader.getAttributeLocalName(a).compareTo(reader.getAttributeLocalName(b));
+    }
+
+    private String lookupRendered(String prefix) {
+        for (int i = renderedCount - 1; i >= 0; i--) {
+            if (renderedPrefix[i].equals(prefix)) {
+                return renderedUri[i];
+            }
+        }
+        return null;
+    }
+
+    private void pushRendered(String prefix, String uri) {
+        if (renderedCount == renderedPrefix.length) {
+            renderedPrefix = Arrays.copyOf(renderedPrefix, renderedCount * 2);
+            renderedUri = Arrays.copyOf(renderedUri, renderedCount * 2);
+        }
+        renderedPrefix[renderedCount] = prefix;
+        renderedUri[renderedCount++] = uri;
+    }
+
+    private void writeEscaped(String value, boolean attribute) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    write("&amp;");
+                    break;
+                case '<':
+                    write("&lt;");
+                    break;
+                case '"':
+                    write(attribute ? "&quot;" : "\"");
+                    break;
+                case '\t':
+                    write(attribute ? "&#x9;" : "\t");
+                    break;
+                case '\n':
+                    write(attribute ? "&#xA;" : "\n");
+                    break;
+                case '\r':
+                    write("&#xD;");
+                    break;
+                default:
+                    if (Character.isHighSurrogate(c) && i + 1 < value.length()) {
+                        writeCodePoint(Character.toCodePoint(c, value.charAt(++i)));
+                    } else {
+                        writeCodePoint(c);
+                    }
+            }
+        }
+    }
+
+    private void write(String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            writeCodePoint(ascii.charAt(i));
+        }
+    }
+
+    private void write(char c) {
+        writeByte(c);
+    }
+
+    private void writeCodePoint(int cp) {
+        if (cp < 0x80) {
+            writeByte(cp);
+        } else if (cp < 0x800) {
+            writeByte(0xC0 | (cp >> 6));
+            writeByte(0x80 | (cp & 0x3F));
+        } else if (cp < 0x10000) {
+            writeByte(0xE0 | (cp >> 12));
+            writeByte(0x80 | ((cp >> 6) & 0x3F));
+            writeByte(0x80 | (cp & 0x3F));
+        } else {
+            writeByte(0xF0 | (cp >> 18));
+            writeByte(0x80 | ((cp >> 12) & 0x3F));
+            writeByte(0x80 | ((cp >> 6) & 0x3F));
+            writeByte(0x80 | (cp & 0x3F));
+        }
+    }
+
+    private void writeByte(int b) {
+        if (length == buffer.length) {
+            if (digest != null) {
+                digest.update(buffer, 0, length);
+                length = 0;
+            } else {
+                buffer = Arrays.copyOf(buffer, length * 2);
+            }
+        }
+        buffer[length++] = (byte) b;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
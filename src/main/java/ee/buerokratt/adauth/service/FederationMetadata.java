@@ -0,0 +1,100 @@
+package ee.buerokratt.adauth.service;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of AD FS federation metadata
+ *
+ * Holds the IdP SingleSignOnService endpoints by binding and the token
+ * signing certificates from the IDPSSODescriptor. A new snapshot replaces
+ * the previous one as a whole on every successful refresh.
+ */
+public final class FederationMetadata {
+
+    public static final String HTTP_REDIRECT_BINDING = "urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Redirect";
+    public static final String HTTP_POST_BINDING = "urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST";
+
+    private final String entityId;
+    private final Map<String, String> singleSignOnServices;
+    private final List<X509Certificate> signingCertificates;
+    private final Instant validUntil;
+    private final Duration cacheDuration;
+    private final String source;
+    private final Instant fetchedAt;
+
+    FederationMetadata(String entityId, Map<String, String> singleSignOnServices,
+                       List<X509Certificate> signingCertificates, Instant validUntil, Duration cacheDuration,
+                       String source, Instant fetchedAt) {
+        this.entityId = entityId;
+        this.singleSignOnServices = Map.copyOf(singleSignOnServices);
+        this.signingCertificates = List.copyOf(signingCertificates);
+        this.validUntil = validUntil;
+        this.cacheDuration = cacheDuration;
+        this.source = source;
+        this.fetchedAt = fetchedAt;
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    /**
+     * SingleSignOnService locations keyed by binding URI
+     */
+    public Map<String, String> getSingleSignOnServices() {
+        return singleSignOnServices;
+    }
+
+    /**
+     * SSO endpoint for browser redirects: HTTP-Redirect binding, else HTTP-POST
+     */
+    public String getSingleSignOnUrl() {
+        String redirect = singleSignOnServices.get(HTTP_REDIRECT_BINDING);
+        return redirect != null ? redirect : singleSignOnServices.get(HTTP_POST_BINDING);
+    }
+
+    public List<X509Certificate> getSigningCertificates() {
+        return signingCertificates;
+    }
+
+    /**
+     * validUntil of the EntityDescriptor, null if not given
+     */
+    public Instant getValidUntil() {
+        return validUntil;
+    }
+
+    /**
+     * cacheDuration of the EntityDescriptor, null if not given
+     */
+    public Duration getCacheDuration() {
+        return cacheDuration;
+    }
+
+    /**
+     * URI the snapshot was loaded from
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public Instant getFetchedAt() {
+        return fetchedAt;
+    }
+
+    /**
+     * Same snapshot without signing certificates, for metadata whose keys are not trusted
+     */
+    FederationMetadata withoutSigningCertificates() {
+        return new FederationMetadata(entityId, singleSignOnServices, List.of(), validUntil, cacheDuration,
+            source, fetchedAt);
+    }
+
+    public boolean isExpired(Instant now) {
+        return validUntil != null && !now.isBefore(validUntil);
+    }
+}
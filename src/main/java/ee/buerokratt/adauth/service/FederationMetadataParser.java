@@ -0,0 +1,184 @@
+package ee.buerokratt.adauth.service;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming parser for AD FS FederationMetadata.xml
+ *
+ * Reads the SAML 2.0 IDPSSODescriptor: SingleSignOnService endpoints and
+ * signing certificates, plus validUntil and cacheDuration of the enclosing
+ * descriptors. WS-Federation RoleDescriptors that AD FS also publishes are
+ * ignored. Uses the same hardened StAX settings as SAMLResponseParser.
+ */
+public class FederationMetadataParser {
+
+    public static final String METADATA_NS = "urn:oasis:names:tc:SAML:2.0:metadata";
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(FederationMetadataParser.class);
+
+    /**
+     * Parse metadata document
+     *
+     * @param in       Metadata XML
+     * @param source   URI the document was loaded from
+     * @param now      Fetch time recorded in the snapshot
+     * @return Snapshot of the IdP descriptor
+     * @throws SAMLValidationException if the document is malformed or has no SAML 2.0 IdP descriptor
+     */
+    public FederationMetadata parse(InputStream in, String source, Instant now) throws SAMLValidationException {
+        XMLStreamReader reader = null;
+        try {
+            // Metadata is parsed rarely; a fresh factory keeps parses independent
+            reader = SAMLResponseParser.newFactory().createXMLStreamReader(in);
+            return read(reader, source, now);
+        } catch (XMLStreamException e) {
+            throw new SAMLValidationException("Malformed federation metadata: " + e.getMessage(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                    // Nothing left to read
+                }
+            }
+        }
+    }
+
+    private FederationMetadata read(XMLStreamReader reader, String source, Instant now)
+            throws XMLStreamException, SAMLValidationException {
+        Map<String, String> singleSignOnServices = new LinkedHashMap<>();
+        List<X509Certificate> certificates = new ArrayList<>();
+        Instant validUntil = null;
+        Duration cacheDuration = null;
+        String currentEntityId = null;
+        String entityId = null;
+
+        int depth = 0;
+        int idpDepth = -1;
+        boolean signingKey = false;
+        boolean idpSeen = false;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.DTD) {
+                throw new SAMLValidationException("DTD is not allowed in federation metadata");
+            }
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == idpDepth) {
+                    idpDepth = -1;
+                }
+                if (METADATA_NS.equals(reader.getNamespaceURI()) && "KeyDescriptor".equals(reader.getLocalName())) {
+                    signingKey = false;
+                }
+                depth--;
+                continue;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            depth++;
+
+            String ns = reader.getNamespaceURI();
+            String name = reader.getLocalName();
+
+            if (METADATA_NS.equals(ns)) {
+                switch (name) {
+                    case "EntitiesDescriptor":
+                    case "EntityDescriptor":
+                        if ("EntityDescriptor".equals(name)) {
+                            currentEntityId = reader.getAttributeValue(null, "entityID");
+                        }
+                        validUntil = earliest(validUntil, instant(reader.getAttributeValue(null, "validUntil")));
+                        cacheDuration = shortest(cacheDuration, duration(reader.getAttributeValue(null, "cacheDuration")));
+                        break;
+                    case "IDPSSODescriptor":
+                        String protocols = reader.getAttributeValue(null, "protocolSupportEnumeration");
+                        if (!idpSeen && protocols != null && protocols.contains(SAMLResponseParser.PROTOCOL_NS)) {
+                            idpDepth = depth;
+                            idpSeen = true;
+                            entityId = currentEntityId;
+                        }
+                        break;
+                    case "KeyDescriptor":
+                        String use = reader.getAttributeValue(null, "use");
+                        signingKey = idpDepth > 0 && (use == null || "signing".equals(use));
+                        break;
+                    case "SingleSignOnService":
+                        if (idpDepth > 0) {
+                            singleSignOnServices.putIfAbsent(reader.getAttributeValue(null, "Binding"),
+                                reader.getAttributeValue(null, "Location"));
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            } else if (signingKey && SignatureCollector.DSIG_NS.equals(ns) && "X509Certificate".equals(name)) {
+                certificates.add(certificate(reader.getElementText()));
+                depth--;
+            }
+        }
+
+        if (!idpSeen) {
+            throw new SAMLValidationException("Federation metadata has no SAML 2.0 IdP descriptor");
+        }
+        return new FederationMetadata(entityId, singleSignOnServices, certificates, validUntil, cacheDuration,
+            source, now);
+    }
+
+    private static X509Certificate certificate(String base64) throws SAMLValidationException {
+        try {
+            byte[] encoded = Base64.getMimeDecoder().decode(base64.trim());
+            return (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(encoded));
+        } catch (IllegalArgumentException | CertificateException e) {
+            throw new SAMLValidationException("Invalid signing certificate in federation metadata", e);
+        }
+    }
+
+    private static Instant instant(String value) throws SAMLValidationException {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Instant.parse(value.trim());
+        } catch (DateTimeParseException e) {
+            throw new SAMLValidationException("Invalid validUntil in federation metadata: " + value);
+        }
+    }
+
+    private static Duration duration(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Duration.parse(value.trim());
+        } catch (DateTimeParseException e) {
+            // xs:duration with years or months has no fixed length; fall back to the configured interval
+            log.debug("Ignoring cacheDuration {}", value);
+            return null;
+        }
+    }
+
+    private static Instant earliest(Instant current, Instant candidate) {
+        return current == null || (candidate != null && candidate.isBefore(current)) ? candidate : current;
+    }
+
+    private static Duration shortest(Duration current, Duration candidate) {
+        return current == null || (candidate != null && candidate.compareTo(current) < 0) ? candidate : current;
+    }
+}
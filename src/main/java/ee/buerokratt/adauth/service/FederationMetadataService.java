@@ -0,0 +1,263 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background-refreshed cache of AD FS federation metadata
+ *
+ * Metadata sources are tried in priority order (ad.federation.metadata, or
+ * metadata-url when no list is configured) and the first one that loads
+ * wins. The parsed snapshot is published through a volatile reference, so
+ * the request path never blocks on I/O. Refreshes follow validUntil and
+ * cacheDuration within the configured bounds; when every source fails the
+ * previous snapshot is kept and the refresh retried after the minimum
+ * interval. Signing certificates from metadata are added to the trust set
+ * of SAMLSignatureVerifier. With ad.federation.metadata-signing-certificates
+ * set, a source is only used if its metadata is signed by one of those
+ * certificates; without them, certificates are only taken from https
+ * sources and other sources supply endpoints only. Each HTTP source has its own circuit breaker,
+ * so an unresponsive AD FS node is skipped without waiting for timeouts.
+ */
+@Service
+public class FederationMetadataService {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(FederationMetadataService.class);
+
+    private static final int MAX_METADATA_SIZE = 1024 * 1024;
+    private static final String CIRCUIT_BREAKER_PREFIX = "adfs-metadata:";
+
+    @Autowired
+    private ADProperties adProperties;
+
+    @Autowired
+    private SAMLSignatureVerifier signatureVerifier;
+
+    @Autowired
+    private ResilienceService resilienceService;
+
+    private final FederationMetadataParser parser = new FederationMetadataParser();
+    private final ResourceLoader resourceLoader = new DefaultResourceLoader();
+
+    private volatile FederationMetadata metadata;
+    private List<ADProperties.MetadataSource> sources;
+    private MetadataSignatureVerifier metadataSignatureVerifier;
+    private CloseableHttpClient httpClient;
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    void init() {
+        ADProperties.Federation federation = adProperties.getFederation();
+        sources = prioritisedSources(federation);
+        List<X509Certificate> pinned = new ArrayList<>();
+        for (String location : federation.getMetadataSigningCertificates()) {
+            if (location != null && !location.isBlank()) {
+                pinned.addAll(SAMLSignatureVerifier.loadCertificates(location.trim()));
+            }
+        }
+        if (!pinned.isEmpty()) {
+            metadataSignatureVerifier = new MetadataSignatureVerifier(pinned);
+        }
+
+        Timeout timeout = Timeout.ofMilliseconds(federation.getTimeout());
+        httpClient = HttpClients.custom()
+            .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                    .setConnectTimeout(timeout)
+                    .setSocketTimeout(timeout)
+                    // Refreshes are far apart, so pooled connections are usually stale
+                    .setValidateAfterInactivity(TimeValue.ofSeconds(1))
+                    .build())
+                .build())
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectionRequestTimeout(timeout)
+                .setResponseTimeout(timeout)
+                .build())
+            // Retries are done by ResilienceService
+            .disableAutomaticRetries()
+            .build();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "federation-metadata-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.execute(this::scheduledRefresh);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+        httpClient.close(CloseMode.IMMEDIATE);
+    }
+
+    /**
+     * Current metadata snapshot
+     *
+     * @return Last successfully loaded metadata, null until the first load succeeds
+     */
+    public FederationMetadata getMetadata() {
+        return metadata;
+    }
+
+    private void scheduledRefresh() {
+        long delay;
+        try {
+            delay = refresh();
+        } catch (RuntimeException e) {
+            log.error("Federation metadata refresh failed", e);
+            delay = adProperties.getFederation().getMetadataMinRefreshInterval();
+        }
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(this::scheduledRefresh, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Load metadata from the first source that answers
+     *
+     * @return Delay until the next refresh in milliseconds
+     */
+    synchronized long refresh() {
+        ADProperties.Federation federation = adProperties.getFederation();
+        Instant now = Instant.now();
+        for (ADProperties.MetadataSource source : sources) {
+            try {
+                FederationMetadata loaded = load(source.getUri(), now);
+                install(loaded);
+                long delay = nextRefreshDelay(loaded, now,
+                    federation.getMetadataRefreshInterval(), federation.getMetadataMinRefreshInterval());
+                log.info("Loaded federation metadata from {}: {} signing certificate(s), next refresh in {} s",
+                    source.getUri(), loaded.getSigningCertificates().size(), delay / 1000);
+                return delay;
+            } catch (IOException | SAMLValidationException e) {
+                log.warn("Federation metadata from {} unavailable: {}", source.getUri(), e.getMessage());
+            }
+        }
+
+        FederationMetadata current = metadata;
+        if (current == null) {
+            log.warn("No federation metadata loaded yet");
+        } else if (current.isExpired(now)) {
+            log.warn("Federation metadata from {} expired at {}, keeping it until a source answers",
+                current.getSource(), current.getValidUntil());
+        }
+        return federation.getMetadataMinRefreshInterval();
+    }
+
+    private FederationMetadata load(String uri, Instant now) throws IOException, SAMLValidationException {
+        byte[] document;
+        if (uri.startsWith("http://") || uri.startsWith("https://")) {
+            document = resilienceService.execute(CIRCUIT_BREAKER_PREFIX + uri,
+                () -> httpClient.execute(new HttpGet(uri), response -> {
+                    if (response.getCode() != 200) {
+                        throw new IOException("HTTP " + response.getCode());
+                    }
+                    HttpEntity entity = response.getEntity();
+                    if (entity == null) {
+                        throw new IOException("Empty response");
+                    }
+                    try (InputStream in = entity.getContent()) {
+                        return readLimited(in);
+                    }
+                }));
+        } else {
+            try (InputStream in = resourceLoader.getResource(uri).getInputStream()) {
+                document = readLimited(in);
+            }
+        }
+
+        if (metadataSignatureVerifier != null) {
+            metadataSignatureVerifier.verify(document);
+        }
+        FederationMetadata loaded = parser.parse(new ByteArrayInputStream(document), uri, now);
+        if (loaded.isExpired(now)) {
+            throw new SAMLValidationException("Metadata validUntil " + loaded.getValidUntil() + " has passed");
+        }
+        if (metadataSignatureVerifier == null && !uri.startsWith("https://")
+                && !loaded.getSigningCertificates().isEmpty()) {
+            // Anyone on the path could swap the keys of unsigned metadata fetched without TLS
+            log.warn("Ignoring signing certificates from unsigned non-https metadata source {}", uri);
+            loaded = loaded.withoutSigningCertificates();
+        }
+        return loaded;
+    }
+
+    private void install(FederationMetadata loaded) {
+        List<X509Certificate> trusted = new ArrayList<>(signatureVerifier.getConfiguredCertificates());
+        trusted.addAll(loaded.getSigningCertificates());
+        signatureVerifier.updateTrustedCertificates(trusted);
+        metadata = loaded;
+    }
+
+    private static byte[] readLimited(InputStream in) throws IOException {
+        byte[] document = in.readNBytes(MAX_METADATA_SIZE + 1);
+        if (document.length > MAX_METADATA_SIZE) {
+            throw new IOException("Metadata exceeds " + MAX_METADATA_SIZE + " bytes");
+        }
+        return document;
+    }
+
+    /**
+     * Time until the next refresh: the configured interval, shortened by
+     * cacheDuration and validUntil, but never below the minimum interval
+     */
+    static long nextRefreshDelay(FederationMetadata metadata, Instant now, long maxInterval, long minInterval) {
+        long delay = maxInterval;
+        Duration cacheDuration = metadata.getCacheDuration();
+        if (cacheDuration != null) {
+            delay = Math.min(delay, cacheDuration.toMillis());
+        }
+        if (metadata.getValidUntil() != null) {
+            // Refresh well before expiry so a failing source still leaves time for retries
+            long untilExpiry = Duration.between(now, metadata.getValidUntil()).toMillis();
+            delay = Math.min(delay, untilExpiry / 2);
+        }
+        return Math.max(delay, minInterval);
+    }
+
+    private static List<ADProperties.MetadataSource> prioritisedSources(ADProperties.Federation federation) {
+        List<ADProperties.MetadataSource> configured = new ArrayList<>();
+        for (ADProperties.MetadataSource source : federation.getMetadata()) {
+            if (source.getUri() != null && !source.getUri().isBlank()) {
+                configured.add(source);
+            }
+        }
+        if (configured.isEmpty() && federation.getMetadataUrl() != null) {
+            ADProperties.MetadataSource source = new ADProperties.MetadataSource();
+            source.setUri(federation.getMetadataUrl());
+            configured.add(source);
+        }
+        configured.sort(Comparator.comparing(ADProperties.MetadataSource::getPriority,
+            Comparator.nullsLast(Comparator.naturalOrder())));
+        return List.copyOf(configured);
+    }
+}
@@ -0,0 +1,383 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.model.DistinguishedName;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable group → parent graph with its transitive closure
+ *
+ * Each group has a dense int id and its ancestors are stored as a bitset
+ * over those ids, trimmed after the last non-zero word, or as a sorted id
+ * array when that is smaller, as it is for a few ancestors spread over a
+ * large directory. Groups that are not nested anywhere share one empty
+ * array. Expanding a user's groups is a hash lookup and a bitwise OR (or a
+ * few bit sets) per group. Cycles, which AD
+ * allows, are resolved with Tarjan's algorithm: groups on a cycle share
+ * one closure.
+ *
+ * update() keeps the ids of existing groups and recomputes closures only
+ * for groups whose parents changed and the groups nested in them; every
+ * other closure is reused as is. Ids of removed groups stay reserved until
+ * they outnumber the live ones, then the graph is rebuilt from scratch.
+ */
+public final class GroupGraph {
+
+    private static final int[] NO_ANCESTORS = new int[0];
+
+    public static final GroupGraph EMPTY = new GroupGraph(Map.of(), new DistinguishedName[0], new int[0][],
+        new long[0][], new int[0][], 0);
+
+    private final Map<DistinguishedName, Integer> ids;
+    private final DistinguishedName[] groups;
+    private final int[][] parents;
+    // Per group exactly one of the two is set
+    private final long[][] ancestorBits;
+    private final int[][] ancestorIds;
+    private final int edges;
+
+    private GroupGraph(Map<DistinguishedName, Integer> ids, DistinguishedName[] groups, int[][] parents,
+                       long[][] ancestorBits, int[][] ancestorIds, int edges) {
+        this.ids = ids;
+        this.groups = groups;
+        this.parents = parents;
+        this.ancestorBits = ancestorBits;
+        this.ancestorIds = ancestorIds;
+        this.edges = edges;
+    }
+
+    /**
+     * Build the closure of a complete graph
+     *
+     * @param memberOf Direct parents of each group
+     */
+    public static GroupGraph build(Map<DistinguishedName, ? extends Collection<DistinguishedName>> memberOf) {
+        return EMPTY.update(memberOf).graph();
+    }
+
+    /**
+     * Graph for a new complete set of memberships, reusing unchanged closures
+     *
+     * @param memberOf Direct parents of each group
+     */
+    public Update update(Map<DistinguishedName, ? extends Collection<DistinguishedName>> memberOf) {
+        // Ids: existing groups keep theirs, new ones are appended
+        Map<DistinguishedName, Integer> nextIds = new HashMap<>(ids);
+        List<DistinguishedName> nextGroups = new ArrayList<>(Arrays.asList(groups));
+        memberOf.forEach((group, groupParents) -> {
+            id(group, nextIds, nextGroups);
+            for (DistinguishedName parent : groupParents) {
+                id(parent, nextIds, nextGroups);
+            }
+        });
+        int live = 0;
+        boolean[] present = new boolean[nextGroups.size()];
+        for (Map.Entry<DistinguishedName, ? extends Collection<DistinguishedName>> entry : memberOf.entrySet()) {
+            present[nextIds.get(entry.getKey())] = true;
+            for (DistinguishedName parent : entry.getValue()) {
+                present[nextIds.get(parent)] = true;
+            }
+        }
+        for (boolean p : present) {
+            live += p ? 1 : 0;
+        }
+        if (this != EMPTY && nextGroups.size() - live > live) {
+            return new Update(EMPTY.update(memberOf).graph(), live);
+        }
+        for (int id = 0; id < present.length; id++) {
+            if (!present[id]) {
+                nextIds.remove(nextGroups.get(id));
+            }
+        }
+
+        int size = nextGroups.size();
+        int[][] nextParents = new int[size][];
+        int edgeCount = 0;
+        for (int id = 0; id < size; id++) {
+            Collection<DistinguishedName> direct = present[id] ? memberOf.get(nextGroups.get(id)) : null;
+            if (direct == null || direct.isEmpty()) {
+                nextParents[id] = new int[0];
+                continue;
+            }
+            nextParents[id] = direct.stream().mapToInt(nextIds::get).distinct().sorted().toArray();
+            edgeCount += nextParents[id].length;
+        }
+
+        // Changed: new groups and groups whose parents differ; affected: those and everything nested in them
+        boolean[] affected = new boolean[size];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int id = 0; id < size; id++) {
+            if (id >= parents.length || !Arrays.equals(parents[id], nextParents[id])) {
+                affected[id] = true;
+                queue.add(id);
+            }
+        }
+        int[][] children = children(nextParents);
+        while (!queue.isEmpty()) {
+            for (int child : children[queue.poll()]) {
+                if (!affected[child]) {
+                    affected[child] = true;
+                    queue.add(child);
+                }
+            }
+        }
+
+        long[][] nextBits = new long[size][];
+        int[][] nextAncestorIds = new int[size][];
+        int recomputed = 0;
+        for (int id = 0; id < size; id++) {
+            if (affected[id]) {
+                recomputed++;
+            } else {
+                nextBits[id] = ancestorBits[id];
+                nextAncestorIds[id] = ancestorIds[id];
+            }
+        }
+        new Closure(nextParents, nextBits, nextAncestorIds, affected).run();
+
+        GroupGraph graph = new GroupGraph(Collections.unmodifiableMap(nextIds),
+            nextGroups.toArray(new DistinguishedName[0]), nextParents, nextBits, nextAncestorIds, edgeCount);
+        return new Update(graph, recomputed);
+    }
+
+    /**
+     * Groups followed by every group they are nested in, directly or not
+     *
+     * @return The given list when none of its groups is nested
+     */
+    public List<DistinguishedName> expand(List<DistinguishedName> memberOf) {
+        long[] found = null;
+        for (DistinguishedName group : memberOf) {
+            Integer id = group != null ? ids.get(group) : null;
+            if (id == null || ancestorIds[id] == NO_ANCESTORS) {
+                continue;
+            }
+            if (found == null) {
+                found = new long[words(groups.length)];
+            }
+            union(found, ancestorBits[id], ancestorIds[id]);
+        }
+        if (found == null) {
+            return memberOf;
+        }
+        // Groups the user is a direct member of are listed once, in their place
+        for (DistinguishedName group : memberOf) {
+            Integer id = group != null ? ids.get(group) : null;
+            if (id != null) {
+                found[id >>> 6] &= ~(1L << id);
+            }
+        }
+        List<DistinguishedName> expanded = new ArrayList<>(memberOf.size() + 8);
+        expanded.addAll(memberOf);
+        for (int word = 0; word < found.length; word++) {
+            for (long bits = found[word]; bits != 0; bits &= bits - 1) {
+                expanded.add(groups[(word << 6) + Long.numberOfTrailingZeros(bits)]);
+            }
+        }
+        return expanded;
+    }
+
+    /**
+     * Number of groups in the graph
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * Number of direct group-in-group memberships
+     */
+    public int edges() {
+        return edges;
+    }
+
+    private static void id(DistinguishedName group, Map<DistinguishedName, Integer> ids, List<DistinguishedName> groups) {
+        if (!ids.containsKey(group)) {
+            ids.put(group, groups.size());
+            groups.add(group);
+        }
+    }
+
+    private static int[][] children(int[][] parents) {
+        int[] counts = new int[parents.length];
+        for (int[] p : parents) {
+            for (int parent : p) {
+                counts[parent]++;
+            }
+        }
+        int[][] children = new int[parents.length][];
+        for (int id = 0; id < parents.length; id++) {
+            children[id] = new int[counts[id]];
+        }
+        for (int id = 0; id < parents.length; id++) {
+            for (int parent : parents[id]) {
+                children[parent][--counts[parent]] = id;
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Add one group's ancestors, in either form, to a bitset
+     */
+    private static void union(long[] target, long[] bits, int[] ids) {
+        if (bits != null) {
+            for (int i = 0; i < bits.length; i++) {
+                target[i] |= bits[i];
+            }
+        } else {
+            for (int id : ids) {
+                target[id >>> 6] |= 1L << id;
+            }
+        }
+    }
+
+    private static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    /**
+     * Result of update(): the new graph and how many closures were recomputed
+     */
+    public record Update(GroupGraph graph, int recomputed) {
+    }
+
+    /**
+     * Iterative Tarjan over the affected groups, following edges to parents
+     *
+     * An SCC is completed only after every SCC it reaches, so the closures
+     * of parents outside it are final when it is closed. Unaffected groups
+     * already have their final closure.
+     */
+    private static final class Closure {
+
+        private final int[][] parents;
+        private final long[][] ancestorBits;
+        private final int[][] ancestorIds;
+        private final boolean[] affected;
+        private final int[] index;
+        private final int[] lowLink;
+        private final boolean[] onStack;
+        private final int[] stack;
+        private final long[] scratch;
+        private int stackSize;
+        private int nextIndex = 1;
+
+        Closure(int[][] parents, long[][] ancestorBits, int[][] ancestorIds, boolean[] affected) {
+            this.parents = parents;
+            this.ancestorBits = ancestorBits;
+            this.ancestorIds = ancestorIds;
+            this.affected = affected;
+            this.index = new int[parents.length];
+            this.lowLink = new int[parents.length];
+            this.onStack = new boolean[parents.length];
+            this.stack = new int[parents.length];
+            this.scratch = new long[words(parents.length)];
+        }
+
+        void run() {
+            int[] callStack = new int[parents.length];
+            int[] edgeCursor = new int[parents.length];
+            for (int root = 0; root < parents.length; root++) {
+                if (!affected[root] || index[root] != 0) {
+                    continue;
+                }
+                int depth = 0;
+                callStack[depth] = root;
+                visit(root);
+                while (depth >= 0) {
+                    int node = callStack[depth];
+                    if (edgeCursor[node] < parents[node].length) {
+                        int parent = parents[node][edgeCursor[node]++];
+                        if (!affected[parent]) {
+                            continue;
+                        }
+                        if (index[parent] == 0) {
+                            visit(parent);
+                            callStack[++depth] = parent;
+                        } else if (onStack[parent]) {
+                            lowLink[node] = Math.min(lowLink[node], index[parent]);
+                        }
+                        continue;
+                    }
+                    if (lowLink[node] == index[node]) {
+                        close(node);
+                    }
+                    depth--;
+                    if (depth >= 0) {
+                        int caller = callStack[depth];
+                        lowLink[caller] = Math.min(lowLink[caller], lowLink[node]);
+                    }
+                }
+            }
+        }
+
+        private void visit(int node) {
+            index[node] = nextIndex;
+            lowLink[node] = nextIndex;
+            nextIndex++;
+            stack[stackSize++] = node;
+            onStack[node] = true;
+        }
+
+        /**
+         * Pop the SCC rooted at node and give all its groups one closure
+         */
+        private void close(int root) {
+            int start = stackSize;
+            do {
+                start--;
+            } while (stack[start] != root);
+
+            long[] closure = scratch;
+            int last = -1;
+            for (int i = start; i < stackSize; i++) {
+                for (int parent : parents[stack[i]]) {
+                    closure[parent >>> 6] |= 1L << parent;
+                    last = Math.max(last, parent >>> 6);
+                    // Only groups of this SCC are still on the stack; they have no closure yet
+                    if (!onStack[parent]) {
+                        long[] bits = ancestorBits[parent];
+                        int[] ids = ancestorIds[parent];
+                        union(closure, bits, ids);
+                        last = Math.max(last, bits != null ? bits.length - 1
+                            : ids.length > 0 ? ids[ids.length - 1] >>> 6 : -1);
+                    }
+                }
+            }
+            // Sorted ids take 4 bytes per ancestor, the trimmed bitset 8 per word
+            int count = 0;
+            for (int w = 0; w <= last; w++) {
+                count += Long.bitCount(closure[w]);
+            }
+            long[] bits = null;
+            int[] ids = NO_ANCESTORS;
+            if (count > 0 && count >= 2 * (last + 1)) {
+                bits = Arrays.copyOf(closure, last + 1);
+                ids = null;
+            } else if (count > 0) {
+                ids = new int[count];
+                int n = 0;
+                for (int w = 0; w <= last; w++) {
+                    for (long word = closure[w]; word != 0; word &= word - 1) {
+                        ids[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                    }
+                }
+            }
+            Arrays.fill(closure, 0, last + 1, 0L);
+            for (int i = start; i < stackSize; i++) {
+                ancestorBits[stack[i]] = bits;
+                ancestorIds[stack[i]] = ids;
+                onStack[stack[i]] = false;
+            }
+            stackSize = start;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.DistinguishedName;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/**
+ * Cache key for role mapping results
+ *
+ * Holds a SHA-256 digest of the canonical group set (nulls dropped,
+ * canonical DN strings, duplicates removed, sorted, each entry
+ * length-prefixed), so the key is independent of group order and DN
+ * spelling, and two different group sets cannot realistically share a key.
+ * The multi-group strategy, default role and rule version are part of the
+ * key because they change the mapping result for the same groups.
+ */
+public final class GroupSetKey {
+
+    private final byte[] digest;
+    private final ADProperties.RoleMapping.MultiGroupStrategy strategy;
+    private final String defaultRole;
+    private final long rulesVersion;
+    private final int hash;
+
+    private GroupSetKey(byte[] digest, ADProperties.RoleMapping.MultiGroupStrategy strategy, String defaultRole,
+                        long rulesVersion) {
+        this.digest = digest;
+        this.strategy = strategy;
+        this.defaultRole = defaultRole;
+        this.rulesVersion = rulesVersion;
+        this.hash = 31 * (31 * (31 * Arrays.hashCode(digest) + Objects.hashCode(strategy))
+            + Objects.hashCode(defaultRole)) + Long.hashCode(rulesVersion);
+    }
+
+    /**
+     * Build key for a group list under the given mapping configuration
+     */
+    public static GroupSetKey of(Collection<DistinguishedName> adGroups,
+                                 ADProperties.RoleMapping.MultiGroupStrategy strategy,
+                                 String defaultRole, long rulesVersion) {
+        TreeSet<String> canonical = new TreeSet<>();
+        for (DistinguishedName group : adGroups) {
+            if (group != null) {
+                canonical.add((group.isDistinguishedName() ? "" : "\0") + group.toCanonicalString());
+            }
+        }
+
+        MessageDigest sha256 = newDigest();
+        byte[] length = new byte[4];
+        for (String group : canonical) {
+            byte[] bytes = group.getBytes(StandardCharsets.UTF_8);
+            length[0] = (byte) (bytes.length >>> 24);
+            length[1] = (byte) (bytes.length >>> 16);
+            length[2] = (byte) (bytes.length >>> 8);
+            length[3] = (byte) bytes.length;
+            sha256.update(length);
+            sha256.update(bytes);
+        }
+        return new GroupSetKey(sha256.digest(), strategy, defaultRole, rulesVersion);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GroupSetKey)) {
+            return false;
+        }
+        GroupSetKey other = (GroupSetKey) o;
+        return hash == other.hash
+            && rulesVersion == other.rulesVersion
+            && strategy == other.strategy
+            && Objects.equals(defaultRole, other.defaultRole)
+            && MessageDigest.isEqual(digest, other.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,160 @@
+package ee.buerokratt.adauth.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Public key as a JWK, with its JWS algorithm and RFC 7638 thumbprint
+ *
+ * RSA keys use RS256, EC keys ES256/ES384/ES512 by curve; ECDSA
+ * signatures are in the JOSE (P1363) format.
+ */
+final class JsonWebKey {
+
+    static final Base64.Encoder BASE64URL = Base64.getUrlEncoder().withoutPadding();
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final PublicKey publicKey;
+    private final String algorithm;
+    private final String jcaAlgorithm;
+    // Required members in the lexicographic order of the thumbprint
+    private final String[] members;
+    private final String thumbprint;
+
+    private JsonWebKey(PublicKey publicKey, String algorithm, String jcaAlgorithm, String[] members) {
+        this.publicKey = publicKey;
+        this.algorithm = algorithm;
+        this.jcaAlgorithm = jcaAlgorithm;
+        this.members = members;
+        this.thumbprint = computeThumbprint();
+    }
+
+    /**
+     * @throws IllegalStateException if the key is neither RSA nor EC on a NIST curve
+     */
+    static JsonWebKey of(PublicKey publicKey) {
+        if (publicKey instanceof RSAPublicKey rsa) {
+            return new JsonWebKey(publicKey, "RS256", "SHA256withRSA", new String[] {
+                "e", base64url(rsa.getPublicExponent(), 0),
+                "kty", "RSA",
+                "n", base64url(rsa.getModulus(), 0)
+            });
+        }
+        if (publicKey instanceof ECPublicKey ec) {
+            int fieldSize = ec.getParams().getCurve().getField().getFieldSize();
+            String algorithm = switch (fieldSize) {
+                case 256 -> "ES256";
+                case 384 -> "ES384";
+                case 521 -> "ES512";
+                default -> throw new IllegalStateException("Unsupported EC key size " + fieldSize);
+            };
+            int length = (fieldSize + 7) / 8;
+            return new JsonWebKey(publicKey, algorithm, "SHA" + algorithm.substring(2) + "withECDSAinP1363Format",
+                new String[] {
+                    "crv", "P-" + fieldSize,
+                    "kty", "EC",
+                    "x", base64url(ec.getW().getAffineX(), length),
+                    "y", base64url(ec.getW().getAffineY(), length)
+                });
+        }
+        throw new IllegalStateException("JWS needs an RSA or EC key, not " + publicKey.getAlgorithm());
+    }
+
+    PublicKey publicKey() {
+        return publicKey;
+    }
+
+    /**
+     * JWS "alg", e.g. "RS256"
+     */
+    String algorithm() {
+        return algorithm;
+    }
+
+    /**
+     * JCA Signature algorithm for alg
+     */
+    String jcaAlgorithm() {
+        return jcaAlgorithm;
+    }
+
+    /**
+     * Base64url SHA-256 thumbprint, used as kid
+     */
+    String thumbprint() {
+        return thumbprint;
+    }
+
+    /**
+     * JWKS document with this key only
+     */
+    byte[] jwks() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        try (JsonGenerator gen = JSON.createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("keys");
+            write(gen, true);
+            gen.writeEndArray();
+            gen.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private String computeThumbprint() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        try (JsonGenerator gen = JSON.createGenerator(out)) {
+            write(gen, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            return BASE64URL.encodeToString(MessageDigest.getInstance("SHA-256").digest(out.toByteArray()));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void write(JsonGenerator gen, boolean withUsage) throws IOException {
+        gen.writeStartObject();
+        for (int i = 0; i < members.length; i += 2) {
+            gen.writeStringField(members[i], members[i + 1]);
+        }
+        if (withUsage) {
+            gen.writeStringField("use", "sig");
+            gen.writeStringField("alg", algorithm);
+            gen.writeStringField("kid", thumbprint);
+        }
+        gen.writeEndObject();
+    }
+
+    /**
+     * Unsigned big-endian bytes, left-padded to length
+     */
+    private static String base64url(BigInteger value, int length) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        if (bytes.length < length) {
+            byte[] padded = new byte[length];
+            System.arraycopy(bytes, 0, padded, length - bytes.length, bytes.length);
+            bytes = padded;
+        }
+        return BASE64URL.encodeToString(bytes);
+    }
+}
@@ -0,0 +1,209 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Hashtable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed-size pool of bound LDAP connections
+ *
+ * A JNDI LdapContext holds one connection and must not be used by two
+ * threads at once, so each operation borrows a context for its duration.
+ * Contexts are opened on demand, up to the pool size, and kept open
+ * between operations; the most recently used one is handed out first.
+ * A context that fails on the connection level is closed instead of
+ * returned. When that happens to a reused context the operation is
+ * repeated on the next one, as the directory or a firewall may have
+ * dropped the idle connection; a failure on a new connection is final.
+ */
+final class LdapConnectionPool implements AutoCloseable {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(LdapConnectionPool.class);
+
+    static final String CONTEXT_FACTORY = "com.sun.jndi.ldap.LdapCtxFactory";
+
+    /**
+     * Operation on a borrowed context
+     */
+    @FunctionalInterface
+    interface Operation<T> {
+        T apply(LdapContext context) throws NamingException;
+    }
+
+    private final Hashtable<String, Object> environment;
+    private final Semaphore permits;
+    private final long borrowTimeout;
+    private final ConcurrentLinkedDeque<LdapContext> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger opened = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param environment   JNDI environment of each connection, including credentials and timeouts
+     * @param size          Maximum number of connections
+     * @param borrowTimeout Milliseconds to wait for a free connection
+     */
+    LdapConnectionPool(Hashtable<String, Object> environment, int size, long borrowTimeout) {
+        this.environment = environment;
+        this.permits = new Semaphore(size);
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    /**
+     * Pool of connections to the directory in ad.ldap
+     *
+     * @param size Maximum number of connections
+     */
+    static LdapConnectionPool create(ADProperties.Ldap ldap, int size) {
+        Hashtable<String, Object> environment = new Hashtable<>();
+        environment.put(Context.INITIAL_CONTEXT_FACTORY, CONTEXT_FACTORY);
+        // Space-separated URLs are tried in order
+        environment.put(Context.PROVIDER_URL, ldap.getUrl().trim());
+        if (ldap.getBindDn() != null && !ldap.getBindDn().isBlank()) {
+            environment.put(Context.SECURITY_AUTHENTICATION, "simple");
+            environment.put(Context.SECURITY_PRINCIPAL, ldap.getBindDn());
+            environment.put(Context.SECURITY_CREDENTIALS, ldap.getBindPassword() != null ? ldap.getBindPassword() : "");
+        }
+        environment.put(Context.REFERRAL, "ignore");
+        environment.put("com.sun.jndi.ldap.connect.timeout", String.valueOf(ldap.getConnectTimeout()));
+        environment.put("com.sun.jndi.ldap.read.timeout", String.valueOf(ldap.getReadTimeout()));
+        environment.put("java.naming.ldap.attributes.binary", "objectGUID");
+        return new LdapConnectionPool(environment, size, ldap.getConnectTimeout() + ldap.getReadTimeout());
+    }
+
+    /**
+     * Run an operation on a pooled connection
+     *
+     * @throws IOException     if no connection could be borrowed or the connection failed
+     * @throws NamingException from the directory, e.g. a rejected bind or search
+     */
+    <T> T execute(Operation<T> operation) throws IOException, NamingException {
+        acquire();
+        try {
+            while (true) {
+                LdapContext context = idle.pollFirst();
+                boolean reused = context != null;
+                if (context == null) {
+                    context = open();
+                }
+                try {
+                    T result = operation.apply(context);
+                    release(context);
+                    return result;
+                } catch (NamingException e) {
+                    if (!isConnectionFailure(e)) {
+                        release(context);
+                        throw e;
+                    }
+                    close(context);
+                    if (!reused) {
+                        throw new IOException("LDAP connection failed: " + e.getMessage(), e);
+                    }
+                    log.debug("Pooled LDAP connection failed, retrying on another: {}", e.getMessage());
+                } catch (RuntimeException e) {
+                    close(context);
+                    throw e;
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Connections opened since the pool was created
+     */
+    int getOpened() {
+        return opened.get();
+    }
+
+    /**
+     * Connections currently idle in the pool
+     */
+    int getIdle() {
+        return idle.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (LdapContext context = idle.pollFirst(); context != null; context = idle.pollFirst()) {
+            close(context);
+        }
+    }
+
+    private void acquire() throws IOException {
+        try {
+            if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+                throw new IOException("No LDAP connection free within " + borrowTimeout + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for an LDAP connection");
+        }
+    }
+
+    private LdapContext open() throws IOException, NamingException {
+        try {
+            LdapContext context = new InitialLdapContext(environment, null);
+            opened.incrementAndGet();
+            return context;
+        } catch (NamingException e) {
+            if (isConnectionFailure(e)) {
+                throw new IOException("LDAP connection failed: " + e.getMessage(), e);
+            }
+            throw e;
+        }
+    }
+
+    private void release(LdapContext context) {
+        idle.offerFirst(context);
+        if (closed) {
+            close();
+        }
+    }
+
+    private static void close(LdapContext context) {
+        try {
+            context.close();
+        } catch (NamingException e) {
+            log.debug("Closing LDAP connection failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Whether the connection, rather than the directory, failed
+     *
+     * JNDI reports read timeouts and closed connections as a plain NamingException.
+     */
+    private static boolean isConnectionFailure(NamingException e) {
+        return e instanceof CommunicationException || e instanceof ServiceUnavailableException
+            || e.getClass() == NamingException.class;
+    }
+
+    /**
+     * Native image hints for the context factory, which JNDI loads by name
+     */
+    static final class Hints implements RuntimeHintsRegistrar {
+
+        @Override
+        public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+            hints.reflection().registerTypeIfPresent(classLoader, CONTEXT_FACTORY,
+                MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package ee.buerokratt.adauth.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.UserAttributes;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.ImportRuntimeHints;
+import org.springframework.stereotype.Service;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.SizeLimitExceededException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Directory attributes that AD FS does not release, looked up over LDAP
+ *
+ * When ad.ldap is enabled, /validate adds the objectGUID, manager and
+ * department of the user to the UserAttributes from the assertion. The
+ * user is searched by UPN under base-dn on a pooled connection
+ * (LdapConnectionPool); the search goes through ResilienceService as the
+ * "ldap" endpoint, so the circuit breaker and bulkhead settings of
+ * ad.resilience bound it. Login does not wait for retries: when the
+ * directory is unreachable or the breaker is open the user is returned
+ * without the attributes.
+ *
+ * Entries, including users that were not found, are cached by UPN for
+ * cache-ttl. Concurrent lookups of the same UPN share one search: the
+ * first caller runs it, the others wait for its result.
+ */
+@Service
+@ImportRuntimeHints(LdapConnectionPool.Hints.class)
+public class LdapEnrichmentService {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(LdapEnrichmentService.class);
+
+    static final String CIRCUIT_BREAKER_NAME = "ldap";
+
+    private static final String[] ATTRIBUTES = {"objectGUID", "manager", "department"};
+
+    @Autowired
+    private ADProperties adProperties;
+
+    @Autowired
+    private ResilienceService resilienceService;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    private final ConcurrentHashMap<String, CompletableFuture<DirectoryEntry>> inFlight = new ConcurrentHashMap<>();
+    private LdapConnectionPool pool;
+    private Cache<String, DirectoryEntry> entries;
+    private SearchControls searchControls;
+
+    @PostConstruct
+    void init() {
+        ADProperties.Ldap ldap = adProperties.getLdap();
+        if (!Boolean.TRUE.equals(ldap.getEnabled())) {
+            return;
+        }
+        if (ldap.getUrl() == null || ldap.getUrl().isBlank()) {
+            log.warn("LDAP enrichment enabled without ad.ldap.url, users are not enriched");
+            return;
+        }
+
+        pool = LdapConnectionPool.create(ldap, ldap.getPoolSize());
+
+        searchControls = new SearchControls();
+        searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        searchControls.setReturningAttributes(ATTRIBUTES);
+        searchControls.setCountLimit(2);
+
+        entries = Caffeine.newBuilder()
+            .maximumSize(ldap.getCacheMaxEntries())
+            .expireAfterWrite(Duration.ofMillis(ldap.getCacheTtl()))
+            .recordStats()
+            .build();
+        if (meterRegistry != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, entries, "ldapEntries");
+        }
+        log.info("Enriching users from {} with up to {} connections", ldap.getUrl(), ldap.getPoolSize());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Whether users are enriched
+     */
+    public boolean isEnabled() {
+        return pool != null;
+    }
+
+    /**
+     * Set the directory attributes of a user
+     *
+     * @return True if the user was found; false if not, or if the directory could not be asked
+     */
+    public boolean enrich(UserAttributes user) {
+        if (pool == null || user.getUPN() == null) {
+            return false;
+        }
+        DirectoryEntry entry;
+        try {
+            entry = lookup(user.getUPN());
+        } catch (IOException e) {
+            log.warn("LDAP enrichment skipped: {}", e.getMessage());
+            count("unavailable");
+            return false;
+        } catch (NamingException e) {
+            log.warn("LDAP enrichment failed: {}", e.toString());
+            count("error");
+            return false;
+        }
+        if (entry == DirectoryEntry.NOT_FOUND) {
+            count("not_found");
+            return false;
+        }
+        user.setObjectGuid(entry.objectGuid());
+        user.setManager(entry.manager());
+        user.setDepartment(entry.department());
+        count("found");
+        return true;
+    }
+
+    /**
+     * Directory entry of a UPN, from the cache, a search already in flight or a new search
+     */
+    DirectoryEntry lookup(String upn) throws IOException, NamingException {
+        String key = upn.toLowerCase(Locale.ROOT);
+        DirectoryEntry cached = entries.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        CompletableFuture<DirectoryEntry> search = new CompletableFuture<>();
+        CompletableFuture<DirectoryEntry> running = inFlight.putIfAbsent(key, search);
+        if (running != null) {
+            return await(running);
+        }
+        try {
+            // Cached by a search that finished after the check above
+            DirectoryEntry entry = entries.getIfPresent(key);
+            if (entry == null) {
+                entry = resilienceService.execute(CIRCUIT_BREAKER_NAME, 0,
+                    () -> pool.execute(context -> search(context, upn)));
+                entries.put(key, entry);
+            }
+            search.complete(entry);
+            return entry;
+        } catch (IOException | NamingException | RuntimeException e) {
+            search.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, search);
+        }
+    }
+
+    /**
+     * Searches currently in flight
+     */
+    int getSearchesInFlight() {
+        return inFlight.size();
+    }
+
+    private DirectoryEntry search(LdapContext context, String upn) throws NamingException {
+        ADProperties.Ldap ldap = adProperties.getLdap();
+        // The UPN is a filter argument, so JNDI escapes it
+        NamingEnumeration<SearchResult> results = context.search(ldap.getBaseDn(), ldap.getUserFilter(),
+            new Object[]{upn}, searchControls);
+        try {
+            if (!results.hasMore()) {
+                return DirectoryEntry.NOT_FOUND;
+            }
+            Attributes attributes = results.next().getAttributes();
+            if (results.hasMore()) {
+                log.warn("More than one directory entry matches a UPN, not enriching");
+                return DirectoryEntry.NOT_FOUND;
+            }
+            return new DirectoryEntry(objectGuid(attributes.get("objectGUID")),
+                string(attributes.get("manager")), string(attributes.get("department")));
+        } catch (SizeLimitExceededException e) {
+            log.warn("More than one directory entry matches a UPN, not enriching");
+            return DirectoryEntry.NOT_FOUND;
+        } finally {
+            results.close();
+        }
+    }
+
+    private static DirectoryEntry await(CompletableFuture<DirectoryEntry> running) throws IOException, NamingException {
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for an LDAP search");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof NamingException naming) {
+                throw naming;
+            }
+            throw (RuntimeException) cause;
+        }
+    }
+
+    private void count(String outcome) {
+        if (meterRegistry != null) {
+            meterRegistry.counter("ad.ldap.enrichment", "outcome", outcome).increment();
+        }
+    }
+
+    private static String string(Attribute attribute) throws NamingException {
+        Object value = attribute != null ? attribute.get() : null;
+        return value != null ? value.toString() : null;
+    }
+
+    /**
+     * AD objectGUID in the usual string form, whose first three fields are stored little-endian
+     */
+    static String objectGuid(Attribute attribute) throws NamingException {
+        Object value = attribute != null ? attribute.get() : null;
+        if (!(value instanceof byte[] bytes) || bytes.length != 16) {
+            return null;
+        }
+        long high = (bytes[3] & 0xffL) << 56 | (bytes[2] & 0xffL) << 48 | (bytes[1] & 0xffL) << 40
+            | (bytes[0] & 0xffL) << 32 | (bytes[5] & 0xffL) << 24 | (bytes[4] & 0xffL) << 16
+            | (bytes[7] & 0xffL) << 8 | (bytes[6] & 0xffL);
+        long low = 0;
+        for (int i = 8; i < 16; i++) {
+            low = low << 8 | (bytes[i] & 0xffL);
+        }
+        return new UUID(high, low).toString();
+    }
+
+    /**
+     * Cached attributes of one user
+     */
+    record DirectoryEntry(String objectGuid, String manager, String department) {
+
+        static final DirectoryEntry NOT_FOUND = new DirectoryEntry(null, null, null);
+    }
+}
@@ -0,0 +1,34 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.model.ReplayEntry;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * In-process replay store for a single replica
+ *
+ * Nothing is shared; ReplayService works from its near cache alone.
+ */
+@Component
+public class LocalReplayStore implements ReplayStore {
+
+    @Override
+    public boolean isShared() {
+        return false;
+    }
+
+    @Override
+    public void publish(List<ReplayEntry> entries) {
+    }
+
+    @Override
+    public boolean lookup(String key) {
+        return false;
+    }
+
+    @Override
+    public void subscribe(Consumer<List<ReplayEntry>> listener) {
+    }
+}
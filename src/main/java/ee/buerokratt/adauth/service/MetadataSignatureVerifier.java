@@ -0,0 +1,105 @@
+package ee.buerokratt.adauth.service;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.crypto.MarshalException;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureException;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+/**
+ * Verifies the enveloped signature of a federation metadata document
+ *
+ * The signature must be a child of the root EntityDescriptor or
+ * EntitiesDescriptor, reference the root by its ID and verify against one of
+ * the pinned certificates, so every element the metadata parser reads is
+ * covered. Metadata is small and fetched once per refresh, so the JDK's DOM
+ * XML Signature implementation is used instead of the streaming verifier of
+ * the request path.
+ */
+final class MetadataSignatureVerifier {
+
+    private static final String SECURE_VALIDATION = "org.jcp.xml.dsig.secureValidation";
+
+    private final List<X509Certificate> pinnedCertificates;
+
+    MetadataSignatureVerifier(List<X509Certificate> pinnedCertificates) {
+        this.pinnedCertificates = List.copyOf(pinnedCertificates);
+    }
+
+    /**
+     * Check the metadata signature
+     *
+     * @throws SAMLValidationException if the document is unsigned or no pinned certificate verifies it
+     */
+    void verify(byte[] document) throws SAMLValidationException {
+        Element root = parse(document).getDocumentElement();
+        String id = root.getAttributeNS(null, "ID");
+        Element signatureElement = signature(root);
+        if (id.isEmpty() || signatureElement == null) {
+            throw new SAMLValidationException("Federation metadata is not signed");
+        }
+        root.setIdAttributeNS(null, "ID", true);
+
+        XMLSignatureFactory factory = XMLSignatureFactory.getInstance("DOM");
+        try {
+            for (X509Certificate certificate : pinnedCertificates) {
+                DOMValidateContext context = new DOMValidateContext(certificate.getPublicKey(), signatureElement);
+                context.setProperty(SECURE_VALIDATION, Boolean.TRUE);
+                XMLSignature signature = factory.unmarshalXMLSignature(context);
+                List<?> references = signature.getSignedInfo().getReferences();
+                if (references.size() != 1) {
+                    throw new SAMLValidationException("Federation metadata signature must have exactly one reference");
+                }
+                String uri = ((Reference) references.get(0)).getURI();
+                if (!("#" + id).equals(uri) && !"".equals(uri)) {
+                    throw new SAMLValidationException("Federation metadata signature does not cover the root element");
+                }
+                if (signature.validate(context)) {
+                    return;
+                }
+            }
+        } catch (MarshalException | XMLSignatureException e) {
+            throw new SAMLValidationException("Invalid federation metadata signature: " + e.getMessage());
+        }
+        throw new SAMLValidationException("Federation metadata signature does not verify against a pinned certificate");
+    }
+
+    private static Element signature(Element root) {
+        for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element element && XMLSignature.XMLNS.equals(element.getNamespaceURI())
+                    && "Signature".equals(element.getLocalName())) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private static Document parse(byte[] document) throws SAMLValidationException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setXIncludeAware(false);
+            factory.setExpandEntityReferences(false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            return builder.parse(new ByteArrayInputStream(document));
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new SAMLValidationException("Cannot parse federation metadata: " + e.getMessage());
+        }
+    }
+}
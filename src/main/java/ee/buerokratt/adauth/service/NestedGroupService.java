@@ -0,0 +1,272 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.DistinguishedName;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transitive group membership from an LDIF export of the AD group objects
+ *
+ * AD FS sends only the groups a user is a direct member of. When
+ * ad.role-mapping.nested-groups is enabled, RoleMappingService expands them
+ * with every group they are nested in before matching rules, from a
+ * GroupGraph built off the request path. The LDIF file is bulk-loaded at
+ * startup and checked every refresh-interval; a changed file is applied
+ * with GroupGraph.update(), which recomputes only the closures the change
+ * can reach. A file that is missing or unreadable keeps the current graph.
+ */
+@Service
+public class NestedGroupService {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(NestedGroupService.class);
+
+    private static final Set<String> GROUP_CLASSES = Set.of("group", "groupofnames", "groupofuniquenames");
+
+    @Autowired
+    private ADProperties adProperties;
+
+    private volatile GroupGraph graph = GroupGraph.EMPTY;
+    private Path ldifFile;
+    private Object loadedVersion;
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    void init() {
+        ADProperties.NestedGroups nestedGroups = adProperties.getRoleMapping().getNestedGroups();
+        if (!Boolean.TRUE.equals(nestedGroups.getEnabled())) {
+            return;
+        }
+        if (nestedGroups.getLdifFile() == null || nestedGroups.getLdifFile().isBlank()) {
+            log.warn("Nested groups enabled without ad.role-mapping.nested-groups.ldif-file, groups are not expanded");
+            return;
+        }
+        ldifFile = Path.of(nestedGroups.getLdifFile());
+        reload();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nested-groups-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = nestedGroups.getRefreshInterval();
+        scheduler.scheduleWithFixedDelay(this::scheduledReload, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Whether groups are expanded
+     */
+    public boolean isEnabled() {
+        return ldifFile != null;
+    }
+
+    /**
+     * Groups followed by every group they are nested in
+     *
+     * @return The given list when none of its groups is nested
+     */
+    public List<DistinguishedName> expand(List<DistinguishedName> memberOf) {
+        return graph.expand(memberOf);
+    }
+
+    /**
+     * Current group graph
+     */
+    public GroupGraph getGraph() {
+        return graph;
+    }
+
+    private void scheduledReload() {
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            log.error("Nested group reload failed", e);
+        }
+    }
+
+    /**
+     * Load the LDIF file if its size or modification time changed since the last load
+     *
+     * @return True if a new graph was published
+     */
+    synchronized boolean reload() {
+        if (ldifFile == null) {
+            return false;
+        }
+        Map<DistinguishedName, Set<DistinguishedName>> memberOf;
+        Object version;
+        try {
+            // The file is large and replaced as a whole, so its attributes identify a version
+            BasicFileAttributes attributes = Files.readAttributes(ldifFile, BasicFileAttributes.class);
+            version = List.of(attributes.size(), attributes.lastModifiedTime(), String.valueOf(attributes.fileKey()));
+            if (version.equals(loadedVersion)) {
+                return false;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(ldifFile, StandardCharsets.UTF_8)) {
+                memberOf = parseLdif(reader);
+            }
+        } catch (NoSuchFileException e) {
+            log.warn("Nested groups LDIF file {} not found, keeping current groups", ldifFile);
+            return false;
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Nested groups LDIF file {} unreadable, keeping current groups: {}", ldifFile, e.getMessage());
+            return false;
+        }
+
+        long start = System.nanoTime();
+        GroupGraph.Update update = graph.update(memberOf);
+        graph = update.graph();
+        loadedVersion = version;
+        log.info("Loaded {} nested groups with {} memberships from {}, {} closures recomputed in {} ms",
+            update.graph().size(), update.graph().edges(), ldifFile, update.recomputed(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return true;
+    }
+
+    /**
+     * Direct parents of each group in an LDIF export
+     *
+     * Entries with objectClass group, groupOfNames or groupOfUniqueNames are
+     * groups. A group listed in another group's member (or uniqueMember)
+     * values, or listing it in its own memberOf values, is nested in it.
+     * Members that are not groups, i.e. users, are skipped. Groups that are
+     * neither nested nor contain groups are left out.
+     *
+     * @throws IllegalArgumentException if the LDIF is malformed
+     */
+    static Map<DistinguishedName, Set<DistinguishedName>> parseLdif(Reader ldif) throws IOException {
+        BufferedReader reader = ldif instanceof BufferedReader buffered ? buffered : new BufferedReader(ldif);
+        List<Entry> groupEntries = new ArrayList<>();
+
+        Entry entry = new Entry();
+        String pending = null;
+        int lineNumber = 0;
+        for (String line = reader.readLine(); ; line = reader.readLine()) {
+            lineNumber++;
+            if (line != null && line.startsWith(" ")) {
+                // Folded line
+                if (pending == null) {
+                    throw new IllegalArgumentException("Continuation without attribute at line " + lineNumber);
+                }
+                pending += line.substring(1);
+                continue;
+            }
+            if (pending != null) {
+                entry.add(pending, lineNumber);
+                pending = null;
+            }
+            if (line == null || line.isEmpty()) {
+                if (entry.dn != null && entry.isGroup) {
+                    groupEntries.add(entry);
+                }
+                if (line == null) {
+                    break;
+                }
+                entry = new Entry();
+            } else if (!line.startsWith("#")) {
+                pending = line;
+            }
+        }
+
+        // Only group DNs are parsed; user members are dropped by a lookup of their text
+        Map<String, DistinguishedName> groups = new HashMap<>(groupEntries.size() * 2);
+        for (Entry group : groupEntries) {
+            groups.put(group.dn.toLowerCase(Locale.ROOT), DistinguishedName.of(group.dn));
+        }
+        Map<DistinguishedName, Set<DistinguishedName>> memberOf = new HashMap<>();
+        for (Entry group : groupEntries) {
+            DistinguishedName dn = groups.get(group.dn.toLowerCase(Locale.ROOT));
+            for (String member : group.members) {
+                DistinguishedName nested = groups.get(member.toLowerCase(Locale.ROOT));
+                if (nested != null) {
+                    memberOf.computeIfAbsent(nested, m -> new LinkedHashSet<>()).add(dn);
+                }
+            }
+            for (String parent : group.memberOf) {
+                DistinguishedName parentDn = groups.get(parent.toLowerCase(Locale.ROOT));
+                memberOf.computeIfAbsent(dn, g -> new LinkedHashSet<>())
+                    .add(parentDn != null ? parentDn : DistinguishedName.of(parent));
+            }
+        }
+        return memberOf;
+    }
+
+    /**
+     * Attributes of one LDIF record that matter for nesting
+     */
+    private static final class Entry {
+
+        String dn;
+        boolean isGroup;
+        final List<String> members = new ArrayList<>();
+        final List<String> memberOf = new ArrayList<>();
+
+        void add(String line, int lineNumber) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("No attribute name at line " + lineNumber);
+            }
+            String name = line.substring(0, colon);
+            int option = name.indexOf(';');
+            // Options such as member;range=0-1499
+            name = (option > 0 ? name.substring(0, option) : name).toLowerCase(Locale.ROOT);
+            String value;
+            if (line.startsWith("::", colon)) {
+                try {
+                    value = new String(Base64.getMimeDecoder().decode(line.substring(colon + 2).trim()),
+                        StandardCharsets.UTF_8);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Invalid base64 value at line " + lineNumber);
+                }
+            } else if (line.startsWith(":<", colon)) {
+                return;
+            } else {
+                value = line.substring(colon + 1).trim();
+            }
+
+            switch (name) {
+                case "dn" -> dn = value;
+                case "objectclass" -> isGroup |= GROUP_CLASSES.contains(value.toLowerCase(Locale.ROOT));
+                case "member", "uniquemember" -> members.add(value);
+                case "memberof" -> memberOf.add(value);
+                case "changetype" -> {
+                    if (!"add".equalsIgnoreCase(value)) {
+                        throw new IllegalArgumentException("Unsupported changetype " + value + " at line " + lineNumber
+                            + ", a full export is expected");
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+    }
+}
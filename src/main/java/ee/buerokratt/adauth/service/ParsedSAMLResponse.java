@@ -0,0 +1,198 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.model.UserAttributes;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SAML Response fields read by SAMLResponseParser
+ *
+ * Holds the protocol-level data needed for validation (status, conditions,
+ * subject confirmation) next to the UserAttributes filled from the
+ * AttributeStatement.
+ */
+public class ParsedSAMLResponse {
+
+    private String responseId;
+    private String inResponseTo;
+    private String destination;
+    private Instant issueInstant;
+    private String issuer;
+    private String statusCode;
+    private String statusMessage;
+
+    private String assertionId;
+    private String assertionIssuer;
+    private String nameId;
+    private Instant notBefore;
+    private Instant notOnOrAfter;
+    private final List<List<String>> audienceRestrictions = new ArrayList<>();
+
+    private String recipient;
+    private Instant subjectNotOnOrAfter;
+    private String subjectInResponseTo;
+
+    private int assertionCount;
+    private final List<CollectedSignature> signatures = new ArrayList<>(2);
+    private final UserAttributes userAttributes = new UserAttributes();
+
+    public String getResponseId() {
+        return responseId;
+    }
+
+    void setResponseId(String responseId) {
+        this.responseId = responseId;
+    }
+
+    public String getInResponseTo() {
+        return inResponseTo;
+    }
+
+    void setInResponseTo(String inResponseTo) {
+        this.inResponseTo = inResponseTo;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    void setDestination(String destination) {
+        this.destination = destination;
+    }
+
+    public Instant getIssueInstant() {
+        return issueInstant;
+    }
+
+    void setIssueInstant(Instant issueInstant) {
+        this.issueInstant = issueInstant;
+    }
+
+    public String getIssuer() {
+        return issuer;
+    }
+
+    void setIssuer(String issuer) {
+        this.issuer = issuer;
+    }
+
+    public String getStatusCode() {
+        return statusCode;
+    }
+
+    void setStatusCode(String statusCode) {
+        this.statusCode = statusCode;
+    }
+
+    public String getStatusMessage() {
+        return statusMessage;
+    }
+
+    void setStatusMessage(String statusMessage) {
+        this.statusMessage = statusMessage;
+    }
+
+    public String getAssertionId() {
+        return assertionId;
+    }
+
+    void setAssertionId(String assertionId) {
+        this.assertionId = assertionId;
+    }
+
+    public String getAssertionIssuer() {
+        return assertionIssuer;
+    }
+
+    void setAssertionIssuer(String assertionIssuer) {
+        this.assertionIssuer = assertionIssuer;
+    }
+
+    public String getNameId() {
+        return nameId;
+    }
+
+    void setNameId(String nameId) {
+        this.nameId = nameId;
+    }
+
+    public Instant getNotBefore() {
+        return notBefore;
+    }
+
+    void setNotBefore(Instant notBefore) {
+        this.notBefore = notBefore;
+    }
+
+    public Instant getNotOnOrAfter() {
+        return notOnOrAfter;
+    }
+
+    void setNotOnOrAfter(Instant notOnOrAfter) {
+        this.notOnOrAfter = notOnOrAfter;
+    }
+
+    /**
+     * Audiences of each AudienceRestriction of the Assertion's Conditions
+     */
+    public List<List<String>> getAudienceRestrictions() {
+        return audienceRestrictions;
+    }
+
+    public String getRecipient() {
+        return recipient;
+    }
+
+    void setRecipient(String recipient) {
+        this.recipient = recipient;
+    }
+
+    public Instant getSubjectNotOnOrAfter() {
+        return subjectNotOnOrAfter;
+    }
+
+    void setSubjectNotOnOrAfter(Instant subjectNotOnOrAfter) {
+        this.subjectNotOnOrAfter = subjectNotOnOrAfter;
+    }
+
+    public String getSubjectInResponseTo() {
+        return subjectInResponseTo;
+    }
+
+    void setSubjectInResponseTo(String subjectInResponseTo) {
+        this.subjectInResponseTo = subjectInResponseTo;
+    }
+
+    public int getAssertionCount() {
+        return assertionCount;
+    }
+
+    void incrementAssertionCount() {
+        this.assertionCount++;
+    }
+
+    /**
+     * Whether the Response itself, rather than only its Assertion, is signed
+     */
+    public boolean isResponseSigned() {
+        for (CollectedSignature signature : signatures) {
+            if ("Response".equals(signature.getElementName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Enveloped signatures of the Response and Assertion, in document order
+     */
+    public List<CollectedSignature> getSignatures() {
+        return signatures;
+    }
+
+    public UserAttributes getUserAttributes() {
+        return userAttributes;
+    }
+}
@@ -0,0 +1,233 @@
+package ee.buerokratt.adauth.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.ReplayEntry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Replay store that shares entries directly with the other replicas over HTTP
+ *
+ * Peers are the configured base URLs, or the addresses behind a headless
+ * service (ad.cluster.peer-service) minus this pod's own, re-resolved
+ * periodically. Batches are POSTed to every peer and lookups ask them in
+ * turn; each peer has its own circuit breaker, so a restarting pod costs
+ * nothing but a skipped batch. Requests carry the shared secret in
+ * X-Cluster-Token.
+ *
+ * The bean always exists, so that an AOT-processed build can switch
+ * stores at runtime; it stays inert unless ad.cluster.replay-store=peers.
+ */
+@Component
+public class PeerReplayStore implements ReplayStore {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PeerReplayStore.class);
+
+    public static final String PATH = "/internal/replay";
+    public static final String TOKEN_HEADER = "X-Cluster-Token";
+    public static final String NAME = "peers";
+
+    private static final String CIRCUIT_BREAKER_PREFIX = "replay-peer:";
+    private static final long PEER_RESOLVE_INTERVAL = 30000L;
+
+    @Autowired
+    private ADProperties adProperties;
+
+    @Autowired
+    private ResilienceService resilienceService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private CloseableHttpClient httpClient;
+    private byte[] secret;
+    private volatile Consumer<List<ReplayEntry>> listener = entries -> { };
+    private volatile List<String> peers = List.of();
+    private volatile long peersResolvedAt;
+
+    @PostConstruct
+    void init() {
+        if (!isEnabled()) {
+            return;
+        }
+        ADProperties.Cluster cluster = adProperties.getCluster();
+        if (cluster.getSharedSecret() == null || cluster.getSharedSecret().isBlank()) {
+            throw new IllegalStateException("ad.cluster.shared-secret is required for the peers replay store");
+        }
+        secret = cluster.getSharedSecret().getBytes(StandardCharsets.UTF_8);
+
+        Timeout timeout = Timeout.ofMilliseconds(cluster.getTimeout());
+        httpClient = HttpClients.custom()
+            .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                    .setConnectTimeout(timeout)
+                    .setSocketTimeout(timeout)
+                    .build())
+                .build())
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectionRequestTimeout(timeout)
+                .setResponseTimeout(timeout)
+                .build())
+            .disableAutomaticRetries()
+            .build();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (httpClient != null) {
+            httpClient.close(CloseMode.GRACEFUL);
+        }
+    }
+
+    /**
+     * Whether ad.cluster.replay-store selects this store
+     */
+    public boolean isEnabled() {
+        return NAME.equals(adProperties.getCluster().getReplayStore());
+    }
+
+    @Override
+    public void publish(List<ReplayEntry> entries) throws IOException {
+        byte[] body = objectMapper.writeValueAsBytes(entries);
+        for (String peer : peers()) {
+            try {
+                resilienceService.execute(CIRCUIT_BREAKER_PREFIX + peer, 0, () -> {
+                    HttpPost post = new HttpPost(peer + PATH);
+                    post.setHeader(TOKEN_HEADER, adProperties.getCluster().getSharedSecret());
+                    post.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+                    return httpClient.execute(post, response -> {
+                        EntityUtils.consume(response.getEntity());
+                        if (response.getCode() >= 300) {
+                            throw new IOException("HTTP " + response.getCode());
+                        }
+                        return null;
+                    });
+                });
+            } catch (IOException e) {
+                log.debug("Replay entries not delivered to {}: {}", peer, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public boolean lookup(String key) {
+        String path = PATH + "/" + URLEncoder.encode(key, StandardCharsets.UTF_8);
+        for (String peer : peers()) {
+            try {
+                boolean known = resilienceService.execute(CIRCUIT_BREAKER_PREFIX + peer, 0, () -> {
+                    HttpGet get = new HttpGet(peer + path);
+                    get.setHeader(TOKEN_HEADER, adProperties.getCluster().getSharedSecret());
+                    return httpClient.execute(get, response -> {
+                        EntityUtils.consume(response.getEntity());
+                        if (response.getCode() == 200 || response.getCode() == 404) {
+                            return response.getCode() == 200;
+                        }
+                        throw new IOException("HTTP " + response.getCode());
+                    });
+                });
+                if (known) {
+                    return true;
+                }
+            } catch (IOException e) {
+                log.debug("Replay lookup on {} failed: {}", peer, e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void subscribe(Consumer<List<ReplayEntry>> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Entries POSTed by another replica
+     */
+    public void receive(List<ReplayEntry> entries) {
+        listener.accept(entries);
+    }
+
+    /**
+     * Constant-time check of the X-Cluster-Token header
+     */
+    public boolean isAuthorised(String token) {
+        return secret != null && token != null && MessageDigest.isEqual(secret, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<String> peers() {
+        ADProperties.Cluster cluster = adProperties.getCluster();
+        String service = cluster.getPeerService();
+        if (service == null || service.isBlank()) {
+            return cluster.getPeers();
+        }
+        long now = System.currentTimeMillis();
+        if (now - peersResolvedAt >= PEER_RESOLVE_INTERVAL) {
+            peers = resolve(URI.create(service));
+            peersResolvedAt = now;
+        }
+        return peers;
+    }
+
+    /**
+     * Base URLs for every address of a headless service except this pod's own
+     */
+    private List<String> resolve(URI service) {
+        List<String> resolved = new ArrayList<>();
+        try {
+            for (InetAddress address : InetAddress.getAllByName(service.getHost())) {
+                if (!isLocal(address)) {
+                    String host = address.getHostAddress();
+                    if (host.indexOf(':') >= 0) {
+                        host = "[" + host + "]";
+                    }
+                    String port = service.getPort() > 0 ? ":" + service.getPort() : "";
+                    resolved.add(service.getScheme() + "://" + host + port);
+                }
+            }
+        } catch (UnknownHostException e) {
+            log.warn("Cannot resolve replay peers from {}: {}", service, e.getMessage());
+            return peers;
+        }
+        if (!resolved.equals(peers)) {
+            log.info("Replay peers: {}", resolved);
+        }
+        return List.copyOf(resolved);
+    }
+
+    private static boolean isLocal(InetAddress address) {
+        try {
+            return address.isAnyLocalAddress() || address.isLoopbackAddress()
+                || NetworkInterface.getByInetAddress(address) != null;
+        } catch (SocketException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package ee.buerokratt.adauth.service;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory set of used IDs, each remembered until its expiry
+ *
+ * IDs are kept in a ring of segments, one per slice of expiry time. Each
+ * lookup visits every segment, and a segment whose slice has passed is
+ * dropped as a whole, so expiry costs O(1) per segment instead of a scan. When the
+ * entry cap is reached and no segment has expired, new IDs are refused with
+ * ReplayCacheFullException: forgetting a live ID would let its replay
+ * through, so a full cache fails closed. In fingerprint mode only a seeded 64-bit hash of each ID is stored, in a
+ * primitive open-addressing table.
+ */
+public class ReplayCache {
+
+    private final long windowMillis;
+    private final long segmentMillis;
+    private final int maxEntries;
+    private final boolean fingerprints;
+    private final long seed = ThreadLocalRandom.current().nextLong();
+    private final Segment[] segments;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * @param windowMillis Longest time an ID is remembered; later expiries are clamped to it
+     * @param segmentCount Number of expiry slices, at least 2
+     * @param maxEntries   Entry cap across all segments
+     * @param fingerprints Store 64-bit hashes instead of the ID strings
+     */
+    public ReplayCache(long windowMillis, int segmentCount, int maxEntries, boolean fingerprints) {
+        if (windowMillis < 1 || segmentCount < 2 || maxEntries < 1) {
+            throw new IllegalArgumentException("Replay cache window, segments and capacity must be positive");
+        }
+        this.windowMillis = windowMillis;
+        // n - 1 slices cover the window, so a live segment is never reused for a later slice
+        this.segmentMillis = (windowMillis + segmentCount - 2) / (segmentCount - 1);
+        this.maxEntries = maxEntries;
+        this.fingerprints = fingerprints;
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Record an ID unless it has been seen
+     *
+     * @param id        ID to record
+     * @param expiresAt Epoch millis after which the ID may be forgotten
+     * @param now       Current epoch millis
+     * @return true if the ID was not seen before, false for a replay
+     * @throws ReplayCacheFullException if the ID is new and the cache holds maxEntries unexpired IDs
+     */
+    public boolean checkAndRecord(String id, long expiresAt, long now) {
+        long fingerprint = fingerprints ? fingerprint(id) : 0L;
+        long expiry = Math.max(now, Math.min(expiresAt, now + windowMillis));
+        long slice = Math.floorDiv(expiry, segmentMillis);
+        Segment target = segments[(int) Math.floorMod(slice, (long) segments.length)];
+
+        // Also drops expired segments; a replay normally carries the same expiry and meets itself in target
+        for (Segment segment : segments) {
+            if (segment != target && segment.contains(id, fingerprint, now)) {
+                return false;
+            }
+        }
+        // Concurrent callers may pass this check together, so the cap can be exceeded by the threads in flight
+        if (size.get() >= maxEntries) {
+            dropExpired(now);
+            if (size.get() >= maxEntries) {
+                if (target.contains(id, fingerprint, now)) {
+                    return false;
+                }
+                rejections.incrementAndGet();
+                throw new ReplayCacheFullException(maxEntries);
+            }
+        }
+        if (!target.add(id, fingerprint, slice, now)) {
+            return false;
+        }
+        size.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Whether an unexpired ID is recorded
+     */
+    public boolean contains(String id, long now) {
+        long fingerprint = fingerprints ? fingerprint(id) : 0L;
+        for (Segment segment : segments) {
+            if (segment.contains(id, fingerprint, now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * New IDs refused because the entry cap was reached
+     */
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    private void dropExpired(long now) {
+        for (Segment segment : segments) {
+            segment.dropIfExpired(now);
+        }
+    }
+
+    private long fingerprint(String id) {
+        long hash = seed ^ 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash = (hash ^ id.charAt(i)) * 0x100000001b3L;
+        }
+        // Murmur3 finaliser spreads the FNV result over all 64 bits
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * IDs expiring within one time slice
+     */
+    private final class Segment {
+
+        volatile long slice = Long.MIN_VALUE;
+        private Set<String> ids;
+        private LongSet hashes;
+        private int count;
+
+        synchronized boolean contains(String id, long fingerprint, long now) {
+            if (count == 0) {
+                return false;
+            }
+            if (expired(now)) {
+                drop();
+                return false;
+            }
+            return fingerprints ? hashes.contains(fingerprint) : ids.contains(id);
+        }
+
+        synchronized boolean add(String id, long fingerprint, long targetSlice, long now) {
+            if (slice != targetSlice) {
+                drop();
+                slice = targetSlice;
+            } else if (expired(now)) {
+                drop();
+            }
+            boolean added;
+            if (fingerprints) {
+                if (hashes == null) {
+                    hashes = new LongSet();
+                }
+                added = hashes.add(fingerprint);
+            } else {
+                if (ids == null) {
+                    ids = new HashSet<>();
+                }
+                added = ids.add(id);
+            }
+            if (added) {
+                count++;
+            }
+            return added;
+        }
+
+        synchronized void dropIfExpired(long now) {
+            if (count > 0 && expired(now)) {
+                drop();
+            }
+        }
+
+        private boolean expired(long now) {
+            return (slice + 1) * segmentMillis <= now;
+        }
+
+        private void drop() {
+            if (count > 0) {
+                size.addAndGet(-count);
+            }
+            ids = null;
+            hashes = null;
+            count = 0;
+        }
+    }
+
+    /**
+     * Open-addressing set of longs; 0 marks an empty slot
+     */
+    private static final class LongSet {
+
+        private long[] table = new long[64];
+        private int used;
+
+        boolean contains(long value) {
+            long key = value == 0 ? 1 : value;
+            int mask = table.length - 1;
+            for (int i = (int) key & mask; ; i = (i + 1) & mask) {
+                if (table[i] == key) {
+                    return true;
+                }
+                if (table[i] == 0) {
+                    return false;
+                }
+            }
+        }
+
+        boolean add(long value) {
+            if (used * 2 >= table.length) {
+                grow();
+            }
+            long key = value == 0 ? 1 : value;
+            int mask = table.length - 1;
+            for (int i = (int) key & mask; ; i = (i + 1) & mask) {
+                if (table[i] == key) {
+                    return false;
+                }
+                if (table[i] == 0) {
+                    table[i] = key;
+                    used++;
+                    return true;
+                }
+            }
+        }
+
+        private void grow() {
+            long[] old = table;
+            table = new long[old.length * 2];
+            int mask = table.length - 1;
+            for (long key : old) {
+                if (key != 0) {
+                    int i = (int) key & mask;
+                    while (table[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    table[i] = key;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package ee.buerokratt.adauth.service;
+
+/**
+ * Thrown instead of recording a new ID when the replay cache is full
+ *
+ * Unchecked, as it can only be avoided by sizing the cache: the caller
+ * refuses the login rather than risk accepting a replay.
+ */
+public class ReplayCacheFullException extends RuntimeException {
+
+    public ReplayCacheFullException(int maxEntries) {
+        super("Replay cache full (" + maxEntries + " entries), refusing new IDs until some expire");
+    }
+}
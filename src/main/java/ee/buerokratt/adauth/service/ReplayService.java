@@ -0,0 +1,276 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.ReplayEntry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Issued AuthnRequest IDs and consumed assertion IDs across replicas
+ *
+ * Every decision is taken against a local near cache (ReplayCache), so a
+ * login never waits on the network, except when an InResponseTo names a
+ * request this replica has not heard of yet. New entries are queued and
+ * published to the ReplayStore in batches by a background flusher; entries
+ * from other replicas are merged into the near cache as they arrive. A
+ * replay sent to two replicas within one flush interval can therefore
+ * pass on both. Issued AuthnRequest IDs are kept in a near cache of their
+ * own: /login is public, and a flood of requests must not push consumed
+ * IDs out. A full near cache refuses new IDs, so both capacities are
+ * checked at startup against the expected login rate.
+ */
+@Service
+public class ReplayService {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ReplayService.class);
+
+    private static final int NEAR_CACHE_SEGMENTS = 64;
+    // Assertion ID and InResponseTo
+    private static final int IDS_PER_LOGIN = 2;
+    private static final String ISSUED = "issued:";
+
+    private final ADProperties adProperties;
+    private final ReplayStore store;
+
+    private final ConcurrentLinkedQueue<ReplayEntry> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private ReplayCache nearCache;
+    private ReplayCache issuedCache;
+    private ScheduledExecutorService flusher;
+
+    public ReplayService(ADProperties adProperties, ReplayStore store) {
+        this.adProperties = adProperties;
+        this.store = store;
+    }
+
+    /**
+     * Service on the store named by ad.cluster.replay-store
+     *
+     * Chosen here rather than by bean conditions, which an AOT-processed
+     * build would freeze at build time.
+     */
+    @Autowired
+    public ReplayService(ADProperties adProperties, LocalReplayStore local, PeerReplayStore peers) {
+        this(adProperties, select(adProperties.getCluster().getReplayStore(), local, peers));
+    }
+
+    private static ReplayStore select(String name, LocalReplayStore local, PeerReplayStore peers) {
+        if (name == null || name.isBlank() || name.equals("local")) {
+            return local;
+        }
+        if (name.equals(PeerReplayStore.NAME)) {
+            return peers;
+        }
+        throw new IllegalStateException("Unknown ad.cluster.replay-store: " + name);
+    }
+
+    @PostConstruct
+    void init() {
+        ADProperties.Federation federation = adProperties.getFederation();
+        checkCapacity("replay-cache-max-entries", federation.getReplayCacheMaxEntries(),
+            requiredEntries(federation), federation);
+        checkCapacity("authn-request-max-entries", federation.getAuthnRequestMaxEntries(),
+            requiredIssuedEntries(federation), federation);
+        boolean fingerprints = Boolean.TRUE.equals(federation.getReplayCacheFingerprints());
+        nearCache = new ReplayCache(federation.getReplayCacheWindow(), NEAR_CACHE_SEGMENTS,
+            federation.getReplayCacheMaxEntries(), fingerprints);
+        issuedCache = new ReplayCache(federation.getAuthnRequestLifetime(), NEAR_CACHE_SEGMENTS,
+            federation.getAuthnRequestMaxEntries(), fingerprints);
+        if (!store.isShared()) {
+            return;
+        }
+        store.subscribe(this::receive);
+        long interval = adProperties.getCluster().getFlushInterval();
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replay-store-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Sharing replay state through {}, flushing every {} ms", store.getClass().getSimpleName(), interval);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (flusher != null) {
+            flusher.shutdown();
+            flush();
+        }
+    }
+
+    /**
+     * IDs held at the expected login rate: each stays for its lifetime plus the clock skew, and
+     * until the end of its segment's time slice
+     */
+    static long requiredEntries(ADProperties.Federation federation) {
+        long slice = federation.getReplayCacheWindow() / (NEAR_CACHE_SEGMENTS - 1) + 1;
+        long retention = federation.getReplayCacheExpectedLifetime() + federation.getClockSkew() + slice;
+        return (long) federation.getReplayCacheExpectedRate() * IDS_PER_LOGIN * retention / 1000;
+    }
+
+    /**
+     * Issued IDs held at the expected login rate: one per login for authn-request-lifetime and a time slice
+     */
+    static long requiredIssuedEntries(ADProperties.Federation federation) {
+        long lifetime = federation.getAuthnRequestLifetime();
+        long retention = lifetime + lifetime / (NEAR_CACHE_SEGMENTS - 1) + 1;
+        return (long) federation.getReplayCacheExpectedRate() * retention / 1000;
+    }
+
+    private static void checkCapacity(String property, int maxEntries, long required,
+                                      ADProperties.Federation federation) {
+        if (maxEntries < required) {
+            throw new IllegalStateException("ad.federation." + property + " " + maxEntries + " cannot hold the "
+                + required + " IDs of " + federation.getReplayCacheExpectedRate()
+                + " logins/s; raise it or lower replay-cache-expected-rate");
+        }
+    }
+
+    /**
+     * Remember an AuthnRequest ID issued by this replica
+     *
+     * @throws ReplayCacheFullException if authn-request-max-entries IDs are outstanding
+     */
+    public void recordIssued(String requestId, Instant expiresAt, Instant now) {
+        record(ISSUED + requestId, expiresAt.toEpochMilli(), now.toEpochMilli());
+    }
+
+    /**
+     * Whether any replica issued an AuthnRequest ID
+     *
+     * Answers from the near cache; on a miss the store is asked, which
+     * covers a response arriving before the issuing replica's flush.
+     */
+    public boolean isIssued(String requestId, Instant now) {
+        String key = ISSUED + requestId;
+        if (issuedCache.contains(key, now.toEpochMilli())) {
+            return true;
+        }
+        if (!store.isShared()) {
+            return false;
+        }
+        try {
+            return store.lookup(key);
+        } catch (IOException e) {
+            log.warn("Replay store lookup for {} failed: {}", requestId, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Mark an ID as consumed
+     *
+     * @param key       Namespaced ID, e.g. "assertion:" + Assertion ID
+     * @param expiresAt Until when a replay would otherwise be accepted
+     * @return true on first use, false if this or another replica already consumed it
+     * @throws ReplayCacheFullException if the near cache has no room for a new key
+     */
+    public boolean markConsumed(String key, Instant expiresAt, Instant now) {
+        return record(key, expiresAt.toEpochMilli(), now.toEpochMilli());
+    }
+
+    /**
+     * Whether the near cache holds a key; answers lookups from other replicas
+     */
+    public boolean knows(String key, Instant now) {
+        return cache(key).contains(key, now.toEpochMilli());
+    }
+
+    /**
+     * Entries not yet published, and entries dropped because the queue was full
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * New IDs refused because a near cache was full
+     */
+    public long getRejectedCount() {
+        return nearCache.getRejections() + issuedCache.getRejections();
+    }
+
+    private ReplayCache cache(String key) {
+        return key.startsWith(ISSUED) ? issuedCache : nearCache;
+    }
+
+    private boolean record(String key, long expiresAt, long now) {
+        if (!cache(key).checkAndRecord(key, expiresAt, now)) {
+            return false;
+        }
+        if (store.isShared()) {
+            if (pendingCount.incrementAndGet() > adProperties.getCluster().getMaxPending()) {
+                pendingCount.decrementAndGet();
+                dropped.incrementAndGet();
+            } else {
+                pending.offer(new ReplayEntry(key, expiresAt));
+            }
+        }
+        return true;
+    }
+
+    void receive(List<ReplayEntry> entries) {
+        long now = System.currentTimeMillis();
+        int refused = 0;
+        for (ReplayEntry entry : entries) {
+            if (entry.getKey() != null && entry.getExpiresAt() > now) {
+                try {
+                    cache(entry.getKey()).checkAndRecord(entry.getKey(), entry.getExpiresAt(), now);
+                } catch (ReplayCacheFullException e) {
+                    // Local logins are refused as well until IDs expire, so none of these can be replayed here
+                    refused++;
+                }
+            }
+        }
+        if (refused > 0) {
+            log.warn("Dropped {} replay entries from other replicas, replay cache full", refused);
+        }
+    }
+
+    /**
+     * Publish queued entries in batches
+     */
+    void flush() {
+        int batchSize = adProperties.getCluster().getBatchSize();
+        List<ReplayEntry> batch = new ArrayList<>(Math.min(batchSize, Math.max(1, pendingCount.get())));
+        ReplayEntry entry;
+        while ((entry = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            batch.add(entry);
+            if (batch.size() == batchSize) {
+                publish(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            publish(batch);
+        }
+    }
+
+    private void publish(List<ReplayEntry> batch) {
+        try {
+            store.publish(batch);
+        } catch (IOException | RuntimeException e) {
+            // Replicas that missed the batch fall back to lookups for issued IDs
+            log.warn("Publishing {} replay entries failed: {}", batch.size(), e.getMessage());
+        }
+    }
+}
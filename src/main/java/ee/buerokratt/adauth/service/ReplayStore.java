@@ -0,0 +1,41 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.model.ReplayEntry;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Shared backend behind ReplayService
+ *
+ * ReplayService keeps a near cache and calls the store off the request
+ * path: entries are published in batches by a background flusher, and
+ * lookup() is only used when the near cache misses an issued request ID.
+ * Entries published by other replicas are delivered to the subscriber.
+ * Selected with ad.cluster.replay-store.
+ */
+public interface ReplayStore {
+
+    /**
+     * Whether entries are shared with other replicas at all
+     */
+    default boolean isShared() {
+        return true;
+    }
+
+    /**
+     * Publish a batch of entries to the other replicas
+     */
+    void publish(List<ReplayEntry> entries) throws IOException;
+
+    /**
+     * Ask the other replicas whether they know a key
+     */
+    boolean lookup(String key) throws IOException;
+
+    /**
+     * Register the receiver of entries published by other replicas
+     */
+    void subscribe(Consumer<List<ReplayEntry>> listener);
+}
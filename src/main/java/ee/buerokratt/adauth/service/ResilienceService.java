@@ -0,0 +1,222 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breakers and retry for outbound calls (AD FS, AD)
+ *
+ * Every outbound call goes through execute(), which guards it with a named
+ * CircuitBreaker configured from ADProperties.Resilience and retries I/O
+ * failures with jittered exponential backoff. While a breaker is open calls
+ * fail fast with CallNotPermittedException instead of tying up request
+ * threads on timeouts. Each endpoint also has a bulkhead: at most
+ * max-concurrent-calls attempts in flight, so that with virtual threads,
+ * where blocking is cheap, a slow AD FS is not flooded with connections.
+ * Breaker state, transitions and call outcomes are exported to Micrometer.
+ */
+@Service
+public class ResilienceService {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ResilienceService.class);
+
+    /**
+     * Outbound call; IOExceptions count as failures and are retried, unchecked
+     * exceptions count as failures without retry, checked E as successes
+     */
+    @FunctionalInterface
+    public interface OutboundCall<T, E extends Exception> {
+        T call() throws E, IOException;
+    }
+
+    @Autowired
+    private ADProperties adProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final ConcurrentHashMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Semaphore> bulkheads = new ConcurrentHashMap<>();
+
+    /**
+     * Run an outbound call through its circuit breaker with retries
+     *
+     * @param name Circuit breaker name, one per remote endpoint
+     * @param call The call
+     * @return Result of the first successful attempt
+     * @throws CallNotPermittedException if the circuit breaker is open or no bulkhead slot frees up in time
+     * @throws IOException               from the last attempt when all attempts failed
+     * @throws E                         from the call, without retry
+     * @throws RuntimeException          from the call, without retry
+     */
+    public <T, E extends Exception> T execute(String name, OutboundCall<T, E> call) throws E, IOException {
+        return execute(name, adProperties.getResilience().getMaxRetries(), call);
+    }
+
+    /**
+     * Run an outbound call through its circuit breaker with a specific number of retries
+     *
+     * @param maxRetries Retries after the first attempt, 0 for latency-sensitive calls
+     * @see #execute(String, OutboundCall)
+     */
+    public <T, E extends Exception> T execute(String name, int maxRetries, OutboundCall<T, E> call)
+            throws E, IOException {
+        ADProperties.Resilience resilience = adProperties.getResilience();
+        CircuitBreaker breaker = circuitBreaker(name);
+        Semaphore bulkhead = bulkhead(name);
+        int attempts = 1 + Math.max(0, maxRetries);
+
+        for (int attempt = 1; ; attempt++) {
+            // Slot first, so a half-open trial permit is never taken by a call that then waits
+            if (!acquire(bulkhead, resilience.getMaxConcurrentCallsWait())) {
+                calls(name, "saturated").increment();
+                throw new CallNotPermittedException(name, "too many concurrent calls");
+            }
+            if (!breaker.tryAcquirePermission()) {
+                bulkhead.release();
+                calls(name, "rejected").increment();
+                throw new CallNotPermittedException(name);
+            }
+            IOException failure;
+            try {
+                T result = call.call();
+                breaker.onSuccess();
+                calls(name, "success").increment();
+                return result;
+            } catch (IOException e) {
+                breaker.onFailure();
+                calls(name, "failure").increment();
+                if (attempt >= attempts) {
+                    throw e;
+                }
+                failure = e;
+            } catch (RuntimeException | Error e) {
+                // Unexpected, so not known to be the content's fault; also ends a half-open trial
+                breaker.onFailure();
+                calls(name, "failure").increment();
+                throw e;
+            } catch (Exception e) {
+                // The remote side answered; the error is about the content, not availability
+                breaker.onSuccess();
+                calls(name, "success").increment();
+                throw e;
+            } finally {
+                bulkhead.release();
+            }
+            long delay = backoff(resilience.getRetryBackoff(), attempt);
+            log.debug("{} failed (attempt {}/{}): {}, retrying in {} ms", name, attempt, attempts,
+                failure.getMessage(), delay);
+            meterRegistry.counter("resilience.retry.attempts", "name", name).increment();
+            sleep(delay, failure);
+        }
+    }
+
+    /**
+     * Circuit breaker by name, created on first use
+     */
+    public CircuitBreaker circuitBreaker(String name) {
+        CircuitBreaker existing = circuitBreakers.get(name);
+        return existing != null ? existing : circuitBreakers.computeIfAbsent(name, this::newCircuitBreaker);
+    }
+
+    /**
+     * Calls currently in flight to an endpoint
+     */
+    public int getConcurrentCalls(String name) {
+        Semaphore bulkhead = bulkheads.get(name);
+        return bulkhead == null ? 0 : adProperties.getResilience().getMaxConcurrentCalls() - bulkhead.availablePermits();
+    }
+
+    public Collection<CircuitBreaker> getCircuitBreakers() {
+        return new ArrayList<>(circuitBreakers.values());
+    }
+
+    private Semaphore bulkhead(String name) {
+        Semaphore existing = bulkheads.get(name);
+        return existing != null ? existing
+            : bulkheads.computeIfAbsent(name, key -> new Semaphore(adProperties.getResilience().getMaxConcurrentCalls()));
+    }
+
+    private static boolean acquire(Semaphore bulkhead, long waitMillis) throws InterruptedIOException {
+        if (bulkhead.tryAcquire()) {
+            return true;
+        }
+        try {
+            return bulkhead.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a call slot");
+        }
+    }
+
+    private CircuitBreaker newCircuitBreaker(String name) {
+        ADProperties.Resilience resilience = adProperties.getResilience();
+        CircuitBreaker breaker = new CircuitBreaker(name,
+            resilience.getCircuitBreakerSlidingWindowSize(),
+            resilience.getCircuitBreakerMinimumCalls(),
+            resilience.getCircuitBreakerFailureThreshold(),
+            resilience.getCircuitBreakerWaitDuration(),
+            this::onTransition);
+
+        for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+            Gauge.builder("resilience.circuitbreaker.state", breaker, b -> b.getState() == state ? 1 : 0)
+                .tag("name", name)
+                .tag("state", state.name().toLowerCase())
+                .description("1 for the current circuit breaker state")
+                .register(meterRegistry);
+        }
+        Gauge.builder("resilience.circuitbreaker.failure.rate", breaker, CircuitBreaker::getFailureRate)
+            .tag("name", name)
+            .description("Failure rate in percent over the sliding window, -1 below the minimum calls")
+            .register(meterRegistry);
+        return breaker;
+    }
+
+    private void onTransition(CircuitBreaker breaker, CircuitBreaker.State from, CircuitBreaker.State to) {
+        if (to == CircuitBreaker.State.OPEN) {
+            log.warn("Circuit breaker {} opened (failure rate {}%), failing fast", breaker.getName(),
+                breaker.getFailureRate());
+        } else {
+            log.info("Circuit breaker {} {} -> {}", breaker.getName(), from, to);
+        }
+        meterRegistry.counter("resilience.circuitbreaker.transitions", "name", breaker.getName(),
+            "from", from.name().toLowerCase(), "to", to.name().toLowerCase()).increment();
+    }
+
+    private Counter calls(String name, String outcome) {
+        return meterRegistry.counter("resilience.circuitbreaker.calls", "name", name, "outcome", outcome);
+    }
+
+    /**
+     * Exponential backoff with jitter: uniformly between half and all of base * 2^(attempt-1)
+     */
+    static long backoff(long base, int attempt) {
+        long ceiling = base << Math.min(attempt - 1, 16);
+        long floor = ceiling / 2;
+        return floor + ThreadLocalRandom.current().nextLong(ceiling - floor + 1);
+    }
+
+    private static void sleep(long millis, IOException cause) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Retry interrupted");
+            interrupted.addSuppressed(cause);
+            throw interrupted;
+        }
+    }
+}
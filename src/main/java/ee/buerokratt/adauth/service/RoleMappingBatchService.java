@@ -0,0 +1,175 @@
+package ee.buerokratt.adauth.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.DistinguishedName;
+import ee.buerokratt.adauth.model.RoleMappingBatchItem;
+import ee.buerokratt.adauth.model.RoleMappingBatchResult;
+import ee.buerokratt.adauth.model.RoleMappingResult;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Streams role mappings for large batches of users
+ *
+ * Entries are read from a JSON array or NDJSON one chunk at a time and
+ * results are written back in input order as each chunk completes, so
+ * memory depends on the chunk size, not the batch size. Identical group
+ * sets (in any order) are mapped once per batch, remembered in a bounded
+ * LRU; the distinct sets of a large chunk are mapped in parallel on a
+ * ForkJoinPool.
+ */
+@Service
+@RegisterReflectionForBinding(RoleMappingBatchItem.class)
+public class RoleMappingBatchService {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RoleMappingBatchService.class);
+
+    static final int CHUNK_SIZE = 1000;
+    static final int PARALLEL_THRESHOLD = 64;
+    static final int MAX_REMEMBERED_GROUP_SETS = 10000;
+
+    @Autowired
+    private RoleMappingService roleMappingService;
+
+    @Autowired
+    private ADProperties adProperties;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private ForkJoinPool pool;
+
+    @PostConstruct
+    void init() {
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Map every entry of a batch
+     *
+     * @param in     JSON array or NDJSON of RoleMappingBatchItem
+     * @param out    Receives a JSON array, or NDJSON when ndjson is set, of RoleMappingBatchResult
+     * @param ndjson Write one result per line instead of an array
+     * @return Number of entries read
+     */
+    public long mapStream(InputStream in, OutputStream out, boolean ndjson) throws IOException {
+        Map<GroupSetKey, List<String>> mapped = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<GroupSetKey, List<String>> eldest) {
+                return size() > MAX_REMEMBERED_GROUP_SETS;
+            }
+        };
+        long count = 0;
+        try (MappingIterator<RoleMappingBatchItem> items =
+                 objectMapper.readerFor(RoleMappingBatchItem.class).readValues(in);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            if (ndjson) {
+                generator.setRootValueSeparator(new SerializedString(""));
+            } else {
+                generator.writeStartArray();
+            }
+            List<RoleMappingBatchItem> chunk = new ArrayList<>(CHUNK_SIZE);
+            String error = null;
+            try {
+                while (items.hasNextValue()) {
+                    chunk.add(items.nextValue());
+                    if (chunk.size() == CHUNK_SIZE) {
+                        count += write(chunk, mapped, generator, ndjson);
+                        chunk.clear();
+                    }
+                }
+            } catch (JsonProcessingException e) {
+                // Results so far are already on their way; report where the input broke and stop
+                error = "Malformed batch entry after " + (count + chunk.size()) + " entries: "
+                    + e.getOriginalMessage();
+                log.warn("Batch role mapping stopped: {}", error);
+            }
+            count += write(chunk, mapped, generator, ndjson);
+            if (error != null) {
+                writeResult(new RoleMappingBatchResult(null, null, error), generator, ndjson);
+            }
+            if (!ndjson) {
+                generator.writeEndArray();
+            }
+        }
+        log.info("Mapped roles for {} batch entries", count);
+        return count;
+    }
+
+    private int write(List<RoleMappingBatchItem> chunk, Map<GroupSetKey, List<String>> mapped,
+                      JsonGenerator generator, boolean ndjson) throws IOException {
+        ADProperties.RoleMapping roleMapping = adProperties.getRoleMapping();
+        GroupSetKey[] keys = new GroupSetKey[chunk.size()];
+        Map<GroupSetKey, List<DistinguishedName>> pending = new LinkedHashMap<>();
+        long rulesVersion = roleMappingService.getRulesVersion();
+        for (int i = 0; i < keys.length; i++) {
+            if (chunk.get(i).getAdGroups() != null) {
+                List<DistinguishedName> groups = DistinguishedName.listOf(chunk.get(i).getAdGroups());
+                keys[i] = GroupSetKey.of(groups, roleMapping.getMultiGroupStrategy(), roleMapping.getDefaultRole(),
+                    rulesVersion);
+                if (!mapped.containsKey(keys[i])) {
+                    pending.putIfAbsent(keys[i], groups);
+                }
+            }
+        }
+
+        mapped.putAll(map(pending));
+
+        for (int i = 0; i < keys.length; i++) {
+            RoleMappingBatchItem item = chunk.get(i);
+            writeResult(keys[i] == null
+                ? new RoleMappingBatchResult(item.getId(), null, "adGroups is required")
+                : new RoleMappingBatchResult(item.getId(), mapped.get(keys[i]), null), generator, ndjson);
+        }
+        generator.flush();
+        return keys.length;
+    }
+
+    private Map<GroupSetKey, List<String>> map(Map<GroupSetKey, List<DistinguishedName>> pending) {
+        if (pending.size() < PARALLEL_THRESHOLD) {
+            Map<GroupSetKey, List<String>> results = new LinkedHashMap<>();
+            pending.forEach((key, groups) -> results.put(key, roles(groups)));
+            return results;
+        }
+        Map<GroupSetKey, List<String>> results = new ConcurrentHashMap<>();
+        pool.submit(() -> pending.entrySet().parallelStream()
+            .forEach(entry -> results.put(entry.getKey(), roles(entry.getValue())))).join();
+        return results;
+    }
+
+    private List<String> roles(List<DistinguishedName> groups) {
+        RoleMappingResult result = roleMappingService.mapDistinguishedNames(groups);
+        return result.getRoles();
+    }
+
+    private static void writeResult(RoleMappingBatchResult result, JsonGenerator generator, boolean ndjson)
+            throws IOException {
+        generator.writeObject(result);
+        if (ndjson) {
+            generator.writeRaw('\n');
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.bind.BindException;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads role mapping rules from ad.role-mapping.rules-file at runtime
+ *
+ * The file holds a "rules:" list in the same format as application.yml,
+ * typically mounted from the ad-config ConfigMap. It is checked every
+ * rules-reload-interval on a background thread; polling the content
+ * rather than watching file events also follows the symlink swap
+ * Kubernetes uses to update mounted ConfigMaps. Changed content is bound,
+ * validated and compiled on that thread and handed to RoleMappingService
+ * as a new rule set version. A file that is missing or invalid leaves the
+ * current rules in place.
+ */
+@Service
+public class RoleMappingRulesLoader {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RoleMappingRulesLoader.class);
+
+    private static final int MAX_RULES_FILE_SIZE = 1024 * 1024;
+    private static final Bindable<List<Map<String, Object>>> RULE_LIST = Bindable.of(
+        ResolvableType.forClassWithGenerics(List.class,
+            ResolvableType.forClassWithGenerics(Map.class, String.class, Object.class)));
+
+    @Autowired
+    private ADProperties adProperties;
+
+    @Autowired
+    private RoleMappingService roleMappingService;
+
+    private Path rulesFile;
+    private byte[] loadedDigest;
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    void init() {
+        ADProperties.RoleMapping roleMapping = adProperties.getRoleMapping();
+        if (roleMapping.getRulesFile() == null || roleMapping.getRulesFile().isBlank()) {
+            return;
+        }
+        rulesFile = Path.of(roleMapping.getRulesFile());
+        reload();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "role-mapping-rules-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = roleMapping.getRulesReloadInterval();
+        scheduler.scheduleWithFixedDelay(this::scheduledReload, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void scheduledReload() {
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            log.error("Role mapping rules reload failed", e);
+        }
+    }
+
+    /**
+     * Load the rules file if its content changed since the last load
+     *
+     * @return True if a new rule set was published
+     */
+    synchronized boolean reload() {
+        if (rulesFile == null) {
+            return false;
+        }
+        byte[] content;
+        try {
+            if (Files.size(rulesFile) > MAX_RULES_FILE_SIZE) {
+                log.warn("Role mapping rules file {} exceeds {} bytes, keeping current rules",
+                    rulesFile, MAX_RULES_FILE_SIZE);
+                return false;
+            }
+            content = Files.readAllBytes(rulesFile);
+        } catch (NoSuchFileException e) {
+            log.warn("Role mapping rules file {} not found, keeping current rules", rulesFile);
+            return false;
+        } catch (IOException e) {
+            log.warn("Role mapping rules file {} unreadable, keeping current rules: {}", rulesFile, e.getMessage());
+            return false;
+        }
+
+        byte[] digest = sha256(content);
+        if (MessageDigest.isEqual(digest, loadedDigest)) {
+            return false;
+        }
+
+        List<ADProperties.RoleMappingRule> rules;
+        try {
+            rules = parse(content);
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid role mapping rules in {}, keeping current rules: {}", rulesFile, e.getMessage());
+            // Not retried until the content changes again
+            loadedDigest = digest;
+            return false;
+        }
+        long version = roleMappingService.publish(CompiledRoleRules.compile(rules));
+        loadedDigest = digest;
+        log.info("Loaded {} role mapping rules from {} as version {}", rules.size(), rulesFile, version);
+        return true;
+    }
+
+    /**
+     * Bind and validate the "rules" list of a rules file
+     *
+     * @throws IllegalArgumentException if the file is not valid YAML or a rule is incomplete
+     */
+    static List<ADProperties.RoleMappingRule> parse(byte[] content) {
+        List<PropertySource<?>> sources;
+        try {
+            sources = new YamlPropertySourceLoader().load("role-mapping-rules", new ByteArrayResource(content));
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalArgumentException("Not valid YAML: " + e.getMessage(), e);
+        }
+        // Bound field by field rather than as a JavaBean, so that no reflection is needed in a native image
+        List<ADProperties.RoleMappingRule> rules = new ArrayList<>();
+        try {
+            Binder binder = new Binder(ConfigurationPropertySources.from(sources));
+            int count = binder.bind("rules", RULE_LIST)
+                .orElseThrow(() -> new IllegalArgumentException("No rules list"))
+                .size();
+            for (int i = 0; i < count; i++) {
+                String prefix = "rules[" + i + "].";
+                ADProperties.RoleMappingRule rule = new ADProperties.RoleMappingRule();
+                binder.bind(prefix + "ad-group", String.class).ifBound(rule::setAdGroup);
+                binder.bind(prefix + "role", String.class).ifBound(rule::setRole);
+                binder.bind(prefix + "priority", Integer.class).ifBound(rule::setPriority);
+                rules.add(rule);
+            }
+        } catch (BindException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+
+        for (int i = 0; i < rules.size(); i++) {
+            ADProperties.RoleMappingRule rule = rules.get(i);
+            if (rule.getAdGroup() == null || rule.getAdGroup().isBlank()) {
+                throw new IllegalArgumentException("Rule " + i + " has no ad-group");
+            }
+            if (rule.getRole() == null || rule.getRole().isBlank()) {
+                throw new IllegalArgumentException("Rule " + i + " (" + rule.getAdGroup() + ") has no role");
+            }
+            if (rule.getPriority() != null && rule.getPriority() < 0) {
+                throw new IllegalArgumentException("Rule " + i + " (" + rule.getAdGroup() + ") has a negative priority");
+            }
+        }
+        return Collections.unmodifiableList(rules);
+    }
+
+    private static byte[] sha256(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
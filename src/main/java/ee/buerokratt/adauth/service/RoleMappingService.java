@@ -1,35 +1,96 @@
 package ee.buerokratt.adauth.service;
 
 import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.DistinguishedName;
 import ee.buerokratt.adauth.model.RoleMappingResult;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Service for mapping AD groups to Bürokratt roles
  *
- * Implements multiple strategies for handling users in multiple groups
+ * Implements multiple strategies for handling users in multiple groups.
+ * Rules are compiled off the request path and published together with a
+ * version number through a single volatile reference. Results are cached
+ * per canonical group set and rule version in the "roleMappings" cache, so
+ * a new rule set makes old entries unreachable without clearing the cache;
+ * they age out by its size and expiry limits.
+ *
+ * With nested groups enabled, the groups are first expanded with the
+ * groups they are nested in (NestedGroupService), and the expanded set is
+ * the cache key.
  */
 @Service
 public class RoleMappingService {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RoleMappingService.class);
 
+    public static final String CACHE_NAME = "roleMappings";
+
     @Autowired
     private ADProperties adProperties;
 
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired(required = false)
+    private NestedGroupService nestedGroupService;
+
+    private volatile RuleSet ruleSet;
+
+    /**
+     * Compile the bound rules at startup, off the request path
+     */
+    @PostConstruct
+    void init() {
+        ruleSet();
+    }
+
+    /**
+     * Publish a compiled rule set, replacing the bound rules
+     *
+     * @param rules Compiled rules, e.g. from RoleMappingRulesLoader
+     * @return Version of the published rule set
+     */
+    public synchronized long publish(CompiledRoleRules rules) {
+        RuleSet previous = ruleSet;
+        RuleSet next = new RuleSet(previous == null ? 1 : previous.version + 1, rules);
+        // Bind first so that readers seeing the new set also see its source as the bound rules
+        adProperties.getRoleMapping().setRules(rules.getSource());
+        ruleSet = next;
+        log.info("Published role mapping rules version {}", next.version);
+        return next.version;
+    }
+
+    /**
+     * Version of the current rule set, part of every cache key
+     */
+    public long getRulesVersion() {
+        return ruleSet().version;
+    }
+
     /**
      * Map AD groups to roles based on configured rules
      *
      * @param adGroups List of AD group Distinguished Names
      * @return RoleMappingResult with mapped roles
      */
-    @Cacheable(value = "roleMappings", key = "#adGroups.hashCode()")
     public RoleMappingResult mapGroups(List<String> adGroups) {
+        return mapDistinguishedNames(adGroups == null ? null : DistinguishedName.listOf(adGroups));
+    }
+
+    /**
+     * Map parsed AD groups to roles based on configured rules
+     *
+     * @param adGroups AD groups, e.g. UserAttributes.getGroups()
+     * @return RoleMappingResult with mapped roles
+     */
+    public RoleMappingResult mapDistinguishedNames(List<DistinguishedName> adGroups) {
         if (adGroups == null || adGroups.isEmpty()) {
             log.debug("No AD groups provided, using default role");
             return new RoleMappingResult(
@@ -37,46 +98,81 @@ public class RoleMappingService {
             );
         }
 
-        List<ADProperties.RoleMappingRule> rules = adProperties.getRoleMapping().getRules();
+        RuleSet current = ruleSet();
+        CompiledRoleRules rules = current.rules;
 
-        if (rules == null || rules.isEmpty()) {
+        if (rules.isEmpty()) {
             log.warn("No role mapping rules configured, using default role");
             return new RoleMappingResult(
                 Collections.singletonList(adProperties.getRoleMapping().getDefaultRole())
             );
         }
 
-        switch (adProperties.getRoleMapping().getMultiGroupStrategy()) {
+        List<DistinguishedName> groups = nestedGroupService != null && nestedGroupService.isEnabled()
+            ? nestedGroupService.expand(adGroups) : adGroups;
+
+        ADProperties.RoleMapping.MultiGroupStrategy strategy = adProperties.getRoleMapping().getMultiGroupStrategy();
+        Cache cache = cacheManager.getCache(CACHE_NAME);
+        if (cache == null) {
+            return map(groups, rules, strategy);
+        }
+        GroupSetKey key = GroupSetKey.of(groups, strategy, adProperties.getRoleMapping().getDefaultRole(),
+            current.version);
+        return cache.get(key, () -> map(groups, rules, strategy));
+    }
+
+    private RoleMappingResult map(List<DistinguishedName> adGroups, CompiledRoleRules rules,
+                                  ADProperties.RoleMapping.MultiGroupStrategy strategy) {
+        long[] matched = rules.match(adGroups);
+
+        switch (strategy) {
             case HIGHEST_PRIORITY:
-                return mapHighestPriority(adGroups, rules);
+                return mapHighestPriority(matched, rules);
             case COMBINE:
-                return mapCombine(adGroups, rules);
+                return mapCombine(matched, rules);
             case FIRST_MATCH:
-                return mapFirstMatch(adGroups, rules);
+                return mapFirstMatch(matched, rules);
             default:
                 log.warn("Unknown multi-group strategy, using HIGHEST_PRIORITY");
-                return mapHighestPriority(adGroups, rules);
+                return mapHighestPriority(matched, rules);
         }
     }
 
+    /**
+     * Current rule set
+     * Rules bound or set on ADProperties by other means than publish() are
+     * compiled into a new version on first use
+     */
+    private RuleSet ruleSet() {
+        RuleSet current = this.ruleSet;
+        if (current == null || current.rules.getSource() != adProperties.getRoleMapping().getRules()) {
+            current = rebind();
+        }
+        return current;
+    }
+
+    private synchronized RuleSet rebind() {
+        RuleSet current = this.ruleSet;
+        List<ADProperties.RoleMappingRule> bound = adProperties.getRoleMapping().getRules();
+        if (current == null || current.rules.getSource() != bound) {
+            current = new RuleSet(current == null ? 1 : current.version + 1, CompiledRoleRules.compile(bound));
+            this.ruleSet = current;
+        }
+        return current;
+    }
+
     /**
      * Map using highest priority matched group
      * Groups with lower priority value = higher priority
      */
-    private RoleMappingResult mapHighestPriority(List<String> adGroups,
-                                                  List<ADProperties.RoleMappingRule> rules) {
-        // Sort by priority (ascending = higher priority)
-        List<ADProperties.RoleMappingRule> sortedRules = rules.stream()
-            .filter(rule -> rule.getPriority() != null)
-            .sorted(Comparator.comparingInt(ADProperties.RoleMappingRule::getPriority))
-            .collect(Collectors.toList());
-
-        for (ADProperties.RoleMappingRule rule : sortedRules) {
-            if (adGroups.stream().anyMatch(g -> g.contains(rule.getAdGroup()))) {
+    private RoleMappingResult mapHighestPriority(long[] matched, CompiledRoleRules rules) {
+        ADProperties.RoleMappingRule rule = rules.highestPriority(matched);
+        if (rule != null) {
+            if (log.isDebugEnabled()) {
                 log.debug("Matched AD group {} to role {} (priority {})",
                     rule.getAdGroup(), rule.getRole(), rule.getPriority());
-                return new RoleMappingResult(Collections.singletonList(rule.getRole()));
             }
+            return new RoleMappingResult(Collections.singletonList(rule.getRole()));
         }
 
         log.debug("No matching AD groups found, using default role");
@@ -88,13 +184,13 @@ public class RoleMappingService {
     /**
      * Combine all matched roles
      */
-    private RoleMappingResult mapCombine(List<String> adGroups,
-                                         List<ADProperties.RoleMappingRule> rules) {
-        Set<String> roles = new HashSet<>();
+    private RoleMappingResult mapCombine(long[] matched, CompiledRoleRules rules) {
+        Set<String> roles = new LinkedHashSet<>();
 
-        for (ADProperties.RoleMappingRule rule : rules) {
-            if (adGroups.stream().anyMatch(g -> g.contains(rule.getAdGroup()))) {
-                roles.add(rule.getRole());
+        boolean debug = log.isDebugEnabled();
+        for (ADProperties.RoleMappingRule rule : rules.allMatches(matched)) {
+            roles.add(rule.getRole());
+            if (debug) {
                 log.debug("Matched AD group {} to role {}", rule.getAdGroup(), rule.getRole());
             }
         }
@@ -110,13 +206,11 @@ public class RoleMappingService {
     /**
      * Use first matched group (by configuration order)
      */
-    private RoleMappingResult mapFirstMatch(List<String> adGroups,
-                                            List<ADProperties.RoleMappingRule> rules) {
-        for (ADProperties.RoleMappingRule rule : rules) {
-            if (adGroups.stream().anyMatch(g -> g.contains(rule.getAdGroup()))) {
-                log.debug("First match: AD group {} to role {}", rule.getAdGroup(), rule.getRole());
-                return new RoleMappingResult(Collections.singletonList(rule.getRole()));
-            }
+    private RoleMappingResult mapFirstMatch(long[] matched, CompiledRoleRules rules) {
+        ADProperties.RoleMappingRule rule = rules.firstMatch(matched);
+        if (rule != null) {
+            log.debug("First match: AD group {} to role {}", rule.getAdGroup(), rule.getRole());
+            return new RoleMappingResult(Collections.singletonList(rule.getRole()));
         }
 
         log.debug("No matching AD groups found, using default role");
@@ -124,4 +218,18 @@ public class RoleMappingService {
             Collections.singletonList(adProperties.getRoleMapping().getDefaultRole())
         );
     }
+
+    /**
+     * Compiled rules with the version they were published under
+     */
+    private static final class RuleSet {
+
+        final long version;
+        final CompiledRoleRules rules;
+
+        RuleSet(long version, CompiledRoleRules rules) {
+            this.version = version;
+            this.rules = rules;
+        }
+    }
 }
@@ -0,0 +1,571 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.model.DistinguishedName;
+import ee.buerokratt.adauth.model.UserAttributes;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streaming parser for Base64-encoded SAML 2.0 Responses
+ *
+ * Decodes Base64 on the fly and reads the Response with StAX, filling
+ * ParsedSAMLResponse and its UserAttributes directly - no DOM tree or
+ * intermediate XML string is materialised. DTDs and external entities
+ * are rejected, and input size, element depth and attribute value counts
+ * are bounded. Instances are thread-safe.
+ *
+ * StAX factories are pooled with JDK reader reuse enabled and element text
+ * is read through one buffer per parse, so a parse allocates little more
+ * than the resulting strings.
+ *
+ * Every event is also passed to a SignatureCollector, which canonicalizes
+ * signed elements in the same pass for SAMLSignatureVerifier.
+ *
+ * Fields are only taken from where the schema puts them, tracked by
+ * element depth: Response attributes, Issuer and Status from the Response
+ * itself, and Subject, Conditions and attributes from the Assertion. An
+ * element with the same name elsewhere, e.g. in Extensions or after the
+ * Assertion, is ignored, as it is not covered by an Assertion signature.
+ * A second Subject, NameID, SubjectConfirmationData or Conditions in the
+ * Assertion is rejected rather than overriding the first.
+ */
+public class SAMLResponseParser {
+
+    public static final String PROTOCOL_NS = "urn:oasis:names:tc:SAML:2.0:protocol";
+    public static final String ASSERTION_NS = "urn:oasis:names:tc:SAML:2.0:assertion";
+
+    private static final int MAX_DEPTH = 32;
+    private static final int MAX_ATTRIBUTE_VALUES = 5000;
+    private static final int MAX_POOLED_FACTORIES = Runtime.getRuntime().availableProcessors() * 2;
+    private static final String REUSE_INSTANCE = "reuse-instance";
+
+    private static final Map<String, Claim> CLAIMS = new HashMap<>();
+
+    static {
+        CLAIMS.put("http://schemas.xmlsoap.org/ws/2005/05/identity/claims/upn", Claim.UPN);
+        CLAIMS.put("upn", Claim.UPN);
+        CLAIMS.put("userPrincipalName", Claim.UPN);
+        CLAIMS.put("http://schemas.xmlsoap.org/ws/2005/05/identity/claims/emailaddress", Claim.EMAIL);
+        CLAIMS.put("mail", Claim.EMAIL);
+        CLAIMS.put("email", Claim.EMAIL);
+        CLAIMS.put("http://schemas.xmlsoap.org/ws/2005/05/identity/claims/name", Claim.DISPLAY_NAME);
+        CLAIMS.put("displayName", Claim.DISPLAY_NAME);
+        CLAIMS.put("http://schemas.xmlsoap.org/ws/2005/05/identity/claims/givenname", Claim.FIRST_NAME);
+        CLAIMS.put("givenName", Claim.FIRST_NAME);
+        CLAIMS.put("http://schemas.xmlsoap.org/ws/2005/05/identity/claims/surname", Claim.LAST_NAME);
+        CLAIMS.put("sn", Claim.LAST_NAME);
+        CLAIMS.put("http://schemas.microsoft.com/ws/2008/06/identity/claims/groups", Claim.GROUP);
+        CLAIMS.put("http://schemas.xmlsoap.org/claims/Group", Claim.GROUP);
+        CLAIMS.put("memberOf", Claim.GROUP);
+    }
+
+    // Each factory reuses a single reader, so a factory is used by one thread at a time
+    private final ConcurrentLinkedQueue<XMLInputFactory> factories = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledFactories = new AtomicInteger();
+    private final int maxResponseSize;
+
+    /**
+     * @param maxResponseSize Maximum size of the decoded XML in bytes
+     */
+    public SAMLResponseParser(int maxResponseSize) {
+        this.maxResponseSize = maxResponseSize;
+    }
+
+    /**
+     * StAX factory with DTDs and external entities disabled
+     */
+    static XMLInputFactory newFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        factory.setXMLResolver((publicId, systemId, baseUri, namespace) -> {
+            throw new XMLStreamException("External entities are not allowed");
+        });
+        try {
+            factory.setProperty(REUSE_INSTANCE, true);
+        } catch (IllegalArgumentException e) {
+            // Not the JDK built-in implementation; readers are simply not reused
+        }
+        return factory;
+    }
+
+    private XMLInputFactory borrowFactory() {
+        XMLInputFactory factory = factories.poll();
+        if (factory == null) {
+            return newFactory();
+        }
+        pooledFactories.decrementAndGet();
+        return factory;
+    }
+
+    private void releaseFactory(XMLInputFactory factory) {
+        if (pooledFactories.incrementAndGet() <= MAX_POOLED_FACTORIES) {
+            factories.offer(factory);
+        } else {
+            pooledFactories.decrementAndGet();
+        }
+    }
+
+    /**
+     * Parse Base64-encoded SAML Response
+     *
+     * @param base64SAMLResponse Base64-encoded SAML Response (HTTP-POST binding)
+     * @return Parsed response data
+     * @throws SAMLValidationException if the input is too large or not a well-formed SAML Response
+     */
+    public ParsedSAMLResponse parse(String base64SAMLResponse) throws SAMLValidationException {
+        // Base64 expands by 4/3; allow for line breaks of MIME-style encoders
+        long maxEncoded = (long) maxResponseSize * 4 / 3 + maxResponseSize / 38 + 4;
+        if (base64SAMLResponse.length() > maxEncoded) {
+            throw new SAMLValidationException("SAML response exceeds maximum size");
+        }
+
+        InputStream decoded = new LimitedInputStream(
+            Base64.getMimeDecoder().wrap(new AsciiInputStream(base64SAMLResponse)), maxResponseSize);
+        XMLInputFactory factory = borrowFactory();
+        XMLStreamReader reader = null;
+        try {
+            reader = factory.createXMLStreamReader(decoded);
+            return read(reader);
+        } catch (XMLStreamException e) {
+            Throwable cause = e.getNestedException() != null ? e.getNestedException()
+                : e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof SizeLimitExceededException) {
+                throw new SAMLValidationException("SAML response exceeds maximum size");
+            }
+            if (cause instanceof NonAsciiInputException) {
+                throw new SAMLValidationException("SAML response is not Base64: " + cause.getMessage());
+            }
+            throw new SAMLValidationException("Malformed SAML response: " + cause.getMessage(), e);
+        } finally {
+            boolean closed = reader == null;
+            if (reader != null) {
+                try {
+                    reader.close();
+                    closed = true;
+                } catch (XMLStreamException ignored) {
+                    // Reader state is unknown, do not return its factory to the pool
+                }
+            }
+            if (closed) {
+                releaseFactory(factory);
+            }
+        }
+    }
+
+    private ParsedSAMLResponse read(XMLStreamReader reader) throws XMLStreamException, SAMLValidationException {
+        ParsedSAMLResponse response = new ParsedSAMLResponse();
+        UserAttributes user = response.getUserAttributes();
+        List<DistinguishedName> groups = new ArrayList<>();
+        StringBuilder text = new StringBuilder(128);
+        SignatureCollector signatures = new SignatureCollector(response.getSignatures());
+
+        int depth = 0;
+        int assertionDepth = -1;
+        int subjectDepth = -1;
+        int confirmationDepth = -1;
+        int conditionsDepth = -1;
+        int restrictionDepth = -1;
+        int statementDepth = -1;
+        int attributeDepth = -1;
+        int statusDepth = -1;
+        int attributeValues = 0;
+        Claim currentClaim = null;
+        EnumSet<Seen> seen = EnumSet.noneOf(Seen.class);
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            signatures.event(reader, event);
+            if (event == XMLStreamConstants.DTD) {
+                throw new SAMLValidationException("DTD is not allowed in SAML response");
+            }
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == assertionDepth) {
+                    assertionDepth = -1;
+                } else if (depth == subjectDepth) {
+                    subjectDepth = -1;
+                } else if (depth == confirmationDepth) {
+                    confirmationDepth = -1;
+                } else if (depth == conditionsDepth) {
+                    conditionsDepth = -1;
+                } else if (depth == restrictionDepth) {
+                    restrictionDepth = -1;
+                } else if (depth == statementDepth) {
+                    statementDepth = -1;
+                } else if (depth == attributeDepth) {
+                    attributeDepth = -1;
+                    currentClaim = null;
+                } else if (depth == statusDepth) {
+                    statusDepth = -1;
+                }
+                depth--;
+                continue;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            if (++depth > MAX_DEPTH) {
+                throw new SAMLValidationException("SAML response exceeds maximum element depth");
+            }
+
+            String ns = reader.getNamespaceURI();
+            String name = reader.getLocalName();
+
+            if (depth == 1) {
+                if (!PROTOCOL_NS.equals(ns) || !"Response".equals(name)) {
+                    throw new SAMLValidationException("Root element is not a SAML 2.0 Response");
+                }
+                response.setResponseId(reader.getAttributeValue(null, "ID"));
+                response.setInResponseTo(reader.getAttributeValue(null, "InResponseTo"));
+                response.setDestination(reader.getAttributeValue(null, "Destination"));
+                response.setIssueInstant(instant(reader.getAttributeValue(null, "IssueInstant")));
+                continue;
+            }
+
+            if (PROTOCOL_NS.equals(ns)) {
+                switch (name) {
+                    case "Status":
+                        if (depth == 2) {
+                            statusDepth = depth;
+                        }
+                        break;
+                    case "StatusCode":
+                        // Only the top-level status code decides success
+                        if (statusDepth == depth - 1) {
+                            response.setStatusCode(reader.getAttributeValue(null, "Value"));
+                        }
+                        break;
+                    case "StatusMessage":
+                        if (statusDepth == depth - 1) {
+                            response.setStatusMessage(readText(reader, text, signatures));
+                            depth--;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                continue;
+            }
+
+            if (!ASSERTION_NS.equals(ns)) {
+                continue;
+            }
+
+            switch (name) {
+                case "Issuer":
+                    if (depth == 2 || depth == assertionDepth + 1) {
+                        String issuer = readText(reader, text, signatures).trim();
+                        depth--;
+                        if (assertionDepth > 0) {
+                            response.setAssertionIssuer(issuer);
+                        } else {
+                            response.setIssuer(issuer);
+                        }
+                    }
+                    break;
+                case "EncryptedAssertion":
+                    throw new SAMLValidationException("Encrypted assertions are not supported");
+                case "Assertion":
+                    response.incrementAssertionCount();
+                    if (assertionDepth > 0 || response.getAssertionCount() > 1) {
+                        throw new SAMLValidationException("SAML response must contain exactly one assertion");
+                    }
+                    assertionDepth = depth;
+                    response.setAssertionId(reader.getAttributeValue(null, "ID"));
+                    break;
+                case "Subject":
+                    if (depth == assertionDepth + 1) {
+                        once(seen, Seen.SUBJECT);
+                        subjectDepth = depth;
+                    }
+                    break;
+                case "NameID":
+                    if (depth == subjectDepth + 1) {
+                        once(seen, Seen.NAME_ID);
+                        response.setNameId(readText(reader, text, signatures).trim());
+                        depth--;
+                    }
+                    break;
+                case "SubjectConfirmation":
+                    if (depth == subjectDepth + 1) {
+                        confirmationDepth = depth;
+                    }
+                    break;
+                case "SubjectConfirmationData":
+                    if (depth == confirmationDepth + 1) {
+                        once(seen, Seen.SUBJECT_CONFIRMATION_DATA);
+                        response.setRecipient(reader.getAttributeValue(null, "Recipient"));
+                        response.setSubjectNotOnOrAfter(instant(reader.getAttributeValue(null, "NotOnOrAfter")));
+                        response.setSubjectInResponseTo(reader.getAttributeValue(null, "InResponseTo"));
+                    }
+                    break;
+                case "Conditions":
+                    if (depth == assertionDepth + 1) {
+                        once(seen, Seen.CONDITIONS);
+                        conditionsDepth = depth;
+                        response.setNotBefore(instant(reader.getAttributeValue(null, "NotBefore")));
+                        response.setNotOnOrAfter(instant(reader.getAttributeValue(null, "NotOnOrAfter")));
+                    }
+                    break;
+                case "AudienceRestriction":
+                    if (depth == conditionsDepth + 1) {
+                        restrictionDepth = depth;
+                        response.getAudienceRestrictions().add(new ArrayList<>());
+                    }
+                    break;
+                case "Audience":
+                    if (depth == restrictionDepth + 1) {
+                        List<List<String>> restrictions = response.getAudienceRestrictions();
+                        restrictions.get(restrictions.size() - 1).add(readText(reader, text, signatures).trim());
+                        depth--;
+                    }
+                    break;
+                case "AttributeStatement":
+                    if (depth == assertionDepth + 1) {
+                        statementDepth = depth;
+                    }
+                    break;
+                case "Attribute":
+                    if (depth == statementDepth + 1) {
+                        attributeDepth = depth;
+                        currentClaim = CLAIMS.get(reader.getAttributeValue(null, "Name"));
+                    }
+                    break;
+                case "AttributeValue":
+                    if (++attributeValues > MAX_ATTRIBUTE_VALUES) {
+                        throw new SAMLValidationException("SAML response exceeds maximum attribute values");
+                    }
+                    String value = readText(reader, text, signatures);
+                    depth--;
+                    if (currentClaim != null && depth == attributeDepth) {
+                        apply(user, groups, currentClaim, value.trim());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (user.getUPN() == null && response.getNameId() != null && response.getNameId().indexOf('@') > 0) {
+            user.setUPN(response.getNameId());
+        }
+        user.setGroups(Collections.unmodifiableList(groups));
+        return response;
+    }
+
+    /**
+     * Read text content of the current element, leaving the reader on its END_ELEMENT
+     * Same contract as XMLStreamReader.getElementText, using a shared buffer
+     */
+    private static String readText(XMLStreamReader reader, StringBuilder buffer, SignatureCollector signatures)
+            throws XMLStreamException {
+        buffer.setLength(0);
+        while (true) {
+            int event = reader.next();
+            signatures.event(reader, event);
+            switch (event) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    buffer.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.COMMENT:
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    return buffer.toString();
+                default:
+                    throw new XMLStreamException("Unexpected content in text-only element", reader.getLocation());
+            }
+        }
+    }
+
+    private static void apply(UserAttributes user, List<DistinguishedName> groups, Claim claim, String value) {
+        switch (claim) {
+            case UPN:
+                user.setUPN(value);
+                break;
+            case EMAIL:
+                user.setEmail(value);
+                break;
+            case DISPLAY_NAME:
+                user.setDisplayName(value);
+                break;
+            case FIRST_NAME:
+                user.setFirstName(value);
+                break;
+            case LAST_NAME:
+                user.setLastName(value);
+                break;
+            case GROUP:
+                if (!value.isEmpty()) {
+                    groups.add(DistinguishedName.of(value));
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void once(EnumSet<Seen> seen, Seen element) throws SAMLValidationException {
+        if (!seen.add(element)) {
+            throw new SAMLValidationException("SAML assertion contains more than one " + element.getElementName());
+        }
+    }
+
+    private static Instant instant(String value) throws SAMLValidationException {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Instant.parse(value.trim());
+        } catch (DateTimeParseException e) {
+            throw new SAMLValidationException("Invalid timestamp in SAML response: " + value);
+        }
+    }
+
+    /**
+     * Elements the Assertion may contain only once
+     */
+    private enum Seen {
+        SUBJECT("Subject"),
+        NAME_ID("NameID"),
+        SUBJECT_CONFIRMATION_DATA("SubjectConfirmationData"),
+        CONDITIONS("Conditions");
+
+        private final String elementName;
+
+        Seen(String elementName) {
+            this.elementName = elementName;
+        }
+
+        String getElementName() {
+            return elementName;
+        }
+    }
+
+    private enum Claim {
+        UPN,
+        EMAIL,
+        DISPLAY_NAME,
+        FIRST_NAME,
+        LAST_NAME,
+        GROUP
+    }
+
+    /**
+     * Exposes the characters of a Base64 string as bytes without copying it
+     *
+     * Characters outside ASCII are rejected rather than truncated to a byte,
+     * which could turn them into valid Base64 characters.
+     */
+    private static final class AsciiInputStream extends InputStream {
+
+        private final String source;
+        private int position;
+
+        AsciiInputStream(String source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return position < source.length() ? ascii(source.charAt(position++)) : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            int remaining = source.length() - position;
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = Math.min(length, remaining);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) ascii(source.charAt(position++));
+            }
+            return count;
+        }
+
+        private static int ascii(char c) throws IOException {
+            if (c > 0x7F) {
+                throw new NonAsciiInputException();
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Fails once more than the allowed number of decoded bytes is read
+     */
+    private static final class LimitedInputStream extends InputStream {
+
+        private final InputStream delegate;
+        private long remaining;
+
+        LimitedInputStream(InputStream delegate, long limit) {
+            this.delegate = delegate;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = delegate.read();
+            if (b >= 0 && --remaining < 0) {
+                throw new SizeLimitExceededException();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = delegate.read(buffer, offset, length);
+            if (count > 0) {
+                remaining -= count;
+                if (remaining < 0) {
+                    throw new SizeLimitExceededException();
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    private static final class NonAsciiInputException extends IOException {
+        NonAsciiInputException() {
+            super("SAML response contains non-ASCII characters");
+        }
+    }
+
+    private static final class SizeLimitExceededException extends IOException {
+        SizeLimitExceededException() {
+            super("SAML response exceeds maximum size");
+        }
+    }
+}
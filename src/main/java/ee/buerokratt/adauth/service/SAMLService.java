@@ -3,47 +3,98 @@ package ee.buerokratt.adauth.service;
 import ee.buerokratt.adauth.config.ADProperties;
 import ee.buerokratt.adauth.model.UserAttributes;
 import ee.buerokratt.adauth.model.ValidationResult;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
 import java.time.Instant;
 import java.util.*;
 
 /**
  * Service for processing SAML requests and responses
  *
- * Handles SAML authentication flow with AD FS
- * Note: This is a simplified implementation for demonstration
- * In production, would use Spring Security SAML2 fully
+ * Handles SAML authentication flow with AD FS.
+ * AuthnRequests are built by AuthnRequestBuilder for the HTTP-Redirect
+ * binding, signed when ad.federation.sign-authn-requests is set.
+ * Responses are parsed by the streaming SAMLResponseParser, their
+ * signatures checked by SAMLSignatureVerifier and then validated against
+ * status, time window, audience and ACS URL. An InResponseTo must name
+ * an AuthnRequest issued by one of the replicas, and assertion IDs and
+ * InResponseTo values are accepted once (ReplayService).
+ *
+ * AD FS signs only the Assertion by default. The Response's own
+ * Destination and InResponseTo are then unsigned and not used; the
+ * Assertion's Recipient and InResponseTo are required instead.
  */
 @Service
 public class SAMLService {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(SAMLService.class);
 
+    private static final String SUCCESS_STATUS = "urn:oasis:names:tc:SAML:2.0:status:Success";
+    // SAML 2.0 Bindings 3.4.3: RelayState MUST NOT exceed 80 bytes
+    static final int MAX_RELAY_STATE_BYTES = 80;
+
     @Autowired
     private ADProperties adProperties;
 
+    @Autowired
+    private SAMLSignatureVerifier signatureVerifier;
+
+    @Autowired
+    private FederationMetadataService metadataService;
+
+    @Autowired
+    private ReplayService replayService;
+
+    @Autowired
+    private AuthMetrics authMetrics;
+
+    @Autowired
+    private SigningKeyService signingKeyService;
+
+    private SAMLResponseParser responseParser;
+    private AuthnRequestBuilder authnRequestBuilder;
+    private String fallbackSsoUrl;
+
+    @PostConstruct
+    void init() {
+        ADProperties.Federation federation = adProperties.getFederation();
+        responseParser = new SAMLResponseParser(federation.getMaxResponseSize());
+        fallbackSsoUrl = extractADFSUrlFromMetadata() + "/adfs/ls/";
+
+        PrivateKey signingKey = Boolean.TRUE.equals(federation.getSignAuthnRequests())
+                ? signingKeyService.getKey(null).getPrivateKey() : null;
+        authnRequestBuilder = new AuthnRequestBuilder(federation.getEntityId(), federation.getAcsUrl(), signingKey);
+        authnRequestBuilder.prepare(singleSignOnUrl());
+    }
+
     /**
      * Create SAML authentication request
      * Returns URL to redirect user to AD FS login page
      *
      * @param relayState Optional URL to return after authentication
      * @return AD FS login URL
+     * @throws IllegalArgumentException if relayState is longer than 80 bytes in UTF-8
+     * @throws ReplayCacheFullException if too many AuthnRequests are outstanding
      */
     public String createAuthenticationRequest(String relayState) {
-        String adfsUrl = extractADFSUrlFromMetadata();
-        String authnRequestId = UUID.randomUUID().toString();
-
-        log.info("Creating SAML AuthnRequest: id={}, relayState={}", authnRequestId, relayState);
-
-        // Simplified implementation - returns AD FS URL
-        // In production, this would generate actual SAML AuthnRequest XML
-        return String.format("%s/adfs/ls/?SAMLRequest=%s&RelayState=%s",
-                adfsUrl,
-                "placeholder-saml-request",
-                relayState != null ? relayState : "/"
-        );
+        // Checked before any request ID, cache entry or signature is spent on it
+        if (relayState != null && (relayState.length() > MAX_RELAY_STATE_BYTES
+                || relayState.getBytes(StandardCharsets.UTF_8).length > MAX_RELAY_STATE_BYTES)) {
+            throw new IllegalArgumentException("RelayState exceeds " + MAX_RELAY_STATE_BYTES + " bytes");
+        }
+        String authnRequestId = authnRequestBuilder.newRequestId();
+
+        log.debug("Creating SAML AuthnRequest: id={}, relayState={}", authnRequestId, relayState);
+
+        Instant now = Instant.now();
+        replayService.recordIssued(authnRequestId,
+                now.plusMillis(adProperties.getFederation().getAuthnRequestLifetime()), now);
+        return authnRequestBuilder.build(singleSignOnUrl(), authnRequestId, now,
+                relayState != null ? relayState : "/");
     }
 
     /**
@@ -53,34 +104,177 @@ public class SAMLService {
      * @return ValidationResult with user attributes or error
      */
     public ValidationResult validateResponse(String base64SAMLResponse) {
-        try {
-            log.info("Validating SAML response");
+        return validateResponse(base64SAMLResponse, authMetrics.start());
+    }
 
+    /**
+     * Validate SAML response from AD FS, timing each stage
+     *
+     * @param base64SAMLResponse Base64-encoded SAML Response
+     * @param metrics            Timing of the request, completed up to the replay check
+     * @return ValidationResult with user attributes or error
+     */
+    public ValidationResult validateResponse(String base64SAMLResponse, AuthMetrics.Request metrics) {
+        try {
             // Validate input
             if (base64SAMLResponse == null || base64SAMLResponse.trim().isEmpty()) {
-                log.warn("SAML response is null or empty");
+                log.debug("SAML response is null or empty");
+                metrics.failed(true);
                 return ValidationResult.failure("SAML response is empty");
             }
 
-            // In production, this would:
-            // 1. Decode Base64 to get SAML XML
-            // 2. Parse SAML Response using Spring Security SAML2
-            // 3. Validate signature against AD FS certificate
-            // 4. Validate conditions (time, recipient, audience)
-            // 5. Extract user attributes from assertion
-
-            // For now, create mock user attributes for testing
-            // In a real implementation, this would validate actual SAML response
-            UserAttributes userAttributes = createMockUserAttributes();
+            ParsedSAMLResponse response = responseParser.parse(base64SAMLResponse);
+            metrics.completed(AuthMetrics.Stage.PARSE);
+            Instant now = Instant.now();
+            checkSignatures(response);
+            metrics.completed(AuthMetrics.Stage.SIGNATURE);
+            checkConditions(response, now);
+            metrics.completed(AuthMetrics.Stage.CONDITIONS);
+            checkReplay(response, now);
+            metrics.completed(AuthMetrics.Stage.REPLAY);
 
-            log.info("SAML validation successful for user: {}", userAttributes.getUPN());
+            UserAttributes userAttributes = response.getUserAttributes();
+            log.debug("SAML validation successful");
             return ValidationResult.success(userAttributes);
+        } catch (SAMLValidationException e) {
+            log.debug("SAML validation failed: {}", e.getMessage());
+            metrics.failed(true);
+            return ValidationResult.failure(e.getMessage());
+        } catch (ReplayCacheFullException e) {
+            log.warn("SAML response refused: {}", e.getMessage());
+            metrics.failed(false);
+            return ValidationResult.failure("Validation error: " + e.getMessage());
         } catch (Exception e) {
             log.error("SAML validation failed", e);
+            metrics.failed(false);
             return ValidationResult.failure("Validation error: " + e.getMessage());
         }
     }
 
+    /**
+     * Require a trusted signature on the Assertion or the Response; every signature present must verify
+     */
+    private void checkSignatures(ParsedSAMLResponse response) throws SAMLValidationException {
+        if (!signatureVerifier.hasTrustedCertificates()) {
+            throw new SAMLValidationException("No trusted AD FS signing certificates configured");
+        }
+        if (response.getSignatures().isEmpty()) {
+            throw new SAMLValidationException("SAML response is not signed");
+        }
+        for (CollectedSignature signature : response.getSignatures()) {
+            signatureVerifier.verify(signature);
+        }
+    }
+
+    /**
+     * Check status, time window, audience and recipient of a parsed response
+     */
+    private void checkConditions(ParsedSAMLResponse response, Instant now) throws SAMLValidationException {
+        ADProperties.Federation federation = adProperties.getFederation();
+        long skew = federation.getClockSkew();
+
+        if (!SUCCESS_STATUS.equals(response.getStatusCode())) {
+            throw new SAMLValidationException("SAML response status is not Success: " + response.getStatusCode());
+        }
+        if (response.getAssertionCount() == 0) {
+            throw new SAMLValidationException("SAML response contains no assertion");
+        }
+        if (response.getAssertionCount() > 1) {
+            throw new SAMLValidationException("SAML response contains " + response.getAssertionCount()
+                + " assertions, expected one");
+        }
+        if (response.getNotBefore() != null && now.plusMillis(skew).isBefore(response.getNotBefore())) {
+            throw new SAMLValidationException("SAML assertion is not yet valid");
+        }
+        if (response.getNotOnOrAfter() != null && !now.minusMillis(skew).isBefore(response.getNotOnOrAfter())) {
+            throw new SAMLValidationException("SAML assertion has expired");
+        }
+        if (response.getSubjectNotOnOrAfter() != null
+                && !now.minusMillis(skew).isBefore(response.getSubjectNotOnOrAfter())) {
+            throw new SAMLValidationException("SAML subject confirmation has expired");
+        }
+        // Every restriction applies, so each must name this SP
+        if (response.getAudienceRestrictions().isEmpty()) {
+            throw new SAMLValidationException("SAML assertion has no audience restriction");
+        }
+        for (List<String> audiences : response.getAudienceRestrictions()) {
+            if (!audiences.contains(federation.getEntityId())) {
+                throw new SAMLValidationException("SAML assertion audience does not match " + federation.getEntityId());
+            }
+        }
+        String acsUrl = federation.getAcsUrl();
+        if (response.isResponseSigned()) {
+            if (response.getDestination() != null && !response.getDestination().equals(acsUrl)) {
+                throw new SAMLValidationException("SAML response destination does not match ACS URL");
+            }
+        } else if (response.getRecipient() == null) {
+            throw new SAMLValidationException("SAML assertion has no subject recipient and the response is not signed");
+        }
+        if (response.getRecipient() != null && !response.getRecipient().equals(acsUrl)) {
+            throw new SAMLValidationException("SAML subject recipient does not match ACS URL");
+        }
+        if (response.getUserAttributes().getUPN() == null) {
+            throw new SAMLValidationException("SAML assertion does not contain a UPN");
+        }
+    }
+
+    /**
+     * Accept each assertion and each AuthnRequest answer once while the assertion is valid
+     */
+    private void checkReplay(ParsedSAMLResponse response, Instant now) throws SAMLValidationException {
+        Instant expiresAt = Instant.ofEpochMilli(replayExpiry(response, now));
+        if (response.getAssertionId() == null) {
+            throw new SAMLValidationException("SAML assertion has no ID");
+        }
+        String inResponseTo = inResponseTo(response);
+        if (inResponseTo != null && !replayService.isIssued(inResponseTo, now)) {
+            throw new SAMLValidationException("SAML response does not answer an AuthnRequest issued by this service");
+        }
+        if (!replayService.markConsumed("assertion:" + response.getAssertionId(), expiresAt, now)) {
+            throw new SAMLValidationException("SAML assertion has already been used");
+        }
+        if (inResponseTo != null && !replayService.markConsumed("request:" + inResponseTo, expiresAt, now)) {
+            throw new SAMLValidationException("SAML response for this AuthnRequest has already been used");
+        }
+    }
+
+    /**
+     * InResponseTo from the signed parts of a response, null if unsolicited
+     */
+    private static String inResponseTo(ParsedSAMLResponse response) throws SAMLValidationException {
+        String assertion = response.getSubjectInResponseTo();
+        String outer = response.isResponseSigned() ? response.getInResponseTo() : null;
+        if (assertion != null && outer != null && !assertion.equals(outer)) {
+            throw new SAMLValidationException("SAML response and assertion answer different AuthnRequests");
+        }
+        return assertion != null ? assertion : outer;
+    }
+
+    /**
+     * Until when a replay would still pass checkConditions
+     */
+    private long replayExpiry(ParsedSAMLResponse response, Instant now) {
+        ADProperties.Federation federation = adProperties.getFederation();
+        Instant expiry = response.getNotOnOrAfter();
+        Instant subjectExpiry = response.getSubjectNotOnOrAfter();
+        if (expiry == null || (subjectExpiry != null && subjectExpiry.isBefore(expiry))) {
+            expiry = subjectExpiry;
+        }
+        if (expiry == null) {
+            return now.toEpochMilli() + federation.getReplayCacheWindow();
+        }
+        return expiry.toEpochMilli() + federation.getClockSkew();
+    }
+
+    /**
+     * SSO endpoint from the cached metadata snapshot, or derived from metadata-url until it is loaded
+     */
+    private String singleSignOnUrl() {
+        FederationMetadata metadata = metadataService.getMetadata();
+        String ssoUrl = metadata != null ? metadata.getSingleSignOnUrl() : null;
+        return ssoUrl != null ? ssoUrl : fallbackSsoUrl;
+    }
+
     /**
      * Extract AD FS URL from metadata
      */
@@ -95,30 +289,4 @@ public class SAMLService {
         log.debug("Extracted AD FS URL: {} from metadata: {}", baseUrl, metadataUrl);
         return baseUrl;
     }
-
-    /**
-     * Decode Base64 string
-     */
-    private String decodeBase64(String encoded) {
-        byte[] decodedBytes = Base64.getDecoder().decode(encoded);
-        return new String(decodedBytes);
-    }
-
-    /**
-     * Create mock user attributes for testing
-     * In production, extract from actual SAML assertion
-     */
-    private UserAttributes createMockUserAttributes() {
-        return new UserAttributes(
-                "john.doe@domain.com",
-                "john.doe@domain.com",
-                "John Doe",
-                "John",
-                "Doe",
-                Arrays.asList(
-                        "CN=Buerokratt-Admins,OU=Groups,DC=domain,DC=com",
-                        "CN=All-Users,OU=Groups,DC=domain,DC=com"
-                )
-        );
-    }
 }
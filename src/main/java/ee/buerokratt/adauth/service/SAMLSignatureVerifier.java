@@ -0,0 +1,281 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Verifies enveloped XML signatures collected by SAMLResponseParser
+ *
+ * Trusted AD FS signing certificates are parsed once into PublicKeys,
+ * indexed by their KeyInfo encoding and SHA-256 thumbprint, and swapped
+ * atomically when the trust set changes. java.security.Signature instances
+ * are pooled per algorithm. The reference digest is compared before the
+ * RSA check, so tampered content is rejected without public key work.
+ */
+@Service
+public class SAMLSignatureVerifier {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(SAMLSignatureVerifier.class);
+
+    static final String EXC_C14N = "http://www.w3.org/2001/10/xml-exc-c14n#";
+    static final String ENVELOPED_SIGNATURE = "http://www.w3.org/2000/09/xmldsig#enveloped-signature";
+
+    private static final Map<String, String> SIGNATURE_ALGORITHMS = Map.of(
+        "http://www.w3.org/2000/09/xmldsig#rsa-sha1", "SHA1withRSA",
+        "http://www.w3.org/2001/04/xmldsig-more#rsa-sha256", "SHA256withRSA",
+        "http://www.w3.org/2001/04/xmldsig-more#rsa-sha384", "SHA384withRSA",
+        "http://www.w3.org/2001/04/xmldsig-more#rsa-sha512", "SHA512withRSA"
+    );
+
+    private static final int MAX_POOLED_SIGNATURES = Runtime.getRuntime().availableProcessors() * 2;
+
+    @Autowired
+    private ADProperties adProperties;
+
+    private final Map<String, ConcurrentLinkedQueue<Signature>> signaturePool = new ConcurrentHashMap<>();
+    private volatile TrustedKeys trustedKeys = TrustedKeys.EMPTY;
+    private List<X509Certificate> configuredCertificates = List.of();
+
+    @PostConstruct
+    void init() {
+        List<X509Certificate> certificates = new ArrayList<>();
+        for (String location : adProperties.getFederation().getSigningCertificates()) {
+            if (location != null && !location.isBlank()) {
+                certificates.addAll(loadCertificates(location.trim()));
+            }
+        }
+        configuredCertificates = List.copyOf(certificates);
+        updateTrustedCertificates(certificates);
+    }
+
+    /**
+     * Certificates from ad.federation.signing-certificates, trusted regardless of metadata
+     */
+    public List<X509Certificate> getConfiguredCertificates() {
+        return configuredCertificates;
+    }
+
+    /**
+     * Replace the trusted AD FS signing certificates
+     *
+     * @param certificates Certificates whose keys may sign SAML Responses
+     */
+    public void updateTrustedCertificates(Collection<X509Certificate> certificates) {
+        trustedKeys = TrustedKeys.of(certificates);
+        log.info("Trusted AD FS signing certificates: {}", trustedKeys.byThumbprint.keySet());
+    }
+
+    public boolean hasTrustedCertificates() {
+        return !trustedKeys.keys.isEmpty();
+    }
+
+    /**
+     * Check one collected signature
+     *
+     * @param signature Signature read from the Response or Assertion
+     * @throws SAMLValidationException if the signature is malformed, uses an unsupported
+     *                                 algorithm, does not match the content or is not from a trusted key
+     */
+    public void verify(CollectedSignature signature) throws SAMLValidationException {
+        String element = signature.getElementName();
+        if (signature.getError() != null) {
+            throw new SAMLValidationException("Invalid " + element + " signature: " + signature.getError());
+        }
+        if (signature.getReferenceCount() != 1 || signature.getElementId() == null
+                || !("#" + signature.getElementId()).equals(signature.getReferenceUri())) {
+            throw new SAMLValidationException(element + " signature does not reference the signed element");
+        }
+        for (String transform : signature.getTransforms()) {
+            if (!ENVELOPED_SIGNATURE.equals(transform) && !EXC_C14N.equals(transform)) {
+                throw new SAMLValidationException("Unsupported signature transform: " + transform);
+            }
+        }
+        String prefixes = signature.getInclusiveNamespaces();
+        if (prefixes != null && !prefixes.isBlank()) {
+            throw new SAMLValidationException("InclusiveNamespaces PrefixList is not supported");
+        }
+        if (!EXC_C14N.equals(signature.getCanonicalizationMethod())) {
+            throw new SAMLValidationException("Unsupported canonicalization method: "
+                + signature.getCanonicalizationMethod());
+        }
+        String algorithm = SIGNATURE_ALGORITHMS.get(signature.getSignatureMethod());
+        if (algorithm == null) {
+            throw new SAMLValidationException("Unsupported signature method: " + signature.getSignatureMethod());
+        }
+        if (signature.getSignedInfo() == null || signature.getDigestValue() == null
+                || signature.getSignatureValue() == null) {
+            throw new SAMLValidationException(element + " signature is incomplete");
+        }
+
+        // Cheap digest comparison first; RSA only runs for untampered content
+        byte[] expectedDigest = decode(signature.getDigestValue());
+        if (!MessageDigest.isEqual(expectedDigest, signature.getComputedDigest())) {
+            throw new SAMLValidationException(element + " digest does not match, content was modified");
+        }
+
+        TrustedKeys keys = trustedKeys;
+        byte[] signatureValue = decode(signature.getSignatureValue());
+        if (signature.getCertificate() != null) {
+            PublicKey key = keys.find(signature.getCertificate());
+            if (key == null) {
+                throw new SAMLValidationException(element + " is signed by an untrusted certificate");
+            }
+            if (!verifySignature(algorithm, key, signature.getSignedInfo(), signatureValue)) {
+                throw new SAMLValidationException(element + " signature is invalid");
+            }
+            return;
+        }
+        for (PublicKey key : keys.keys) {
+            if (verifySignature(algorithm, key, signature.getSignedInfo(), signatureValue)) {
+                return;
+            }
+        }
+        throw new SAMLValidationException(element + " signature is invalid");
+    }
+
+    private boolean verifySignature(String algorithm, PublicKey key, byte[] signedInfo, byte[] signatureValue)
+            throws SAMLValidationException {
+        ConcurrentLinkedQueue<Signature> pool = signaturePool.computeIfAbsent(algorithm,
+            a -> new ConcurrentLinkedQueue<>());
+        Signature verifier = pool.poll();
+        try {
+            if (verifier == null) {
+                verifier = Signature.getInstance(algorithm);
+            }
+            verifier.initVerify(key);
+            verifier.update(signedInfo);
+            return verifier.verify(signatureValue);
+        } catch (NoSuchAlgorithmException e) {
+            throw new SAMLValidationException("Signature algorithm not available: " + algorithm, e);
+        } catch (GeneralSecurityException e) {
+            log.debug("Signature check failed: {}", e.getMessage());
+            return false;
+        } finally {
+            if (verifier != null && pool.size() < MAX_POOLED_SIGNATURES) {
+                pool.offer(verifier);
+            }
+        }
+    }
+
+    private static byte[] decode(String base64) throws SAMLValidationException {
+        try {
+            return Base64.getMimeDecoder().decode(base64);
+        } catch (IllegalArgumentException e) {
+            throw new SAMLValidationException("Invalid Base64 in SAML signature");
+        }
+    }
+
+    /**
+     * Load certificates from classpath:/file: location or inline PEM
+     */
+    static List<X509Certificate> loadCertificates(String location) {
+        try {
+            if (location.startsWith("-----BEGIN")) {
+                return parseCertificates(new ByteArrayInputStream(location.getBytes(StandardCharsets.US_ASCII)));
+            }
+            Resource resource = new DefaultResourceLoader().getResource(location);
+            try (InputStream in = resource.getInputStream()) {
+                return parseCertificates(in);
+            }
+        } catch (IOException | CertificateException e) {
+            throw new IllegalStateException("Cannot load AD FS signing certificate from " + location, e);
+        }
+    }
+
+    static List<X509Certificate> parseCertificates(InputStream in) throws CertificateException {
+        CertificateFactory factory = CertificateFactory.getInstance("X.509");
+        List<X509Certificate> certificates = new ArrayList<>();
+        for (Certificate certificate : factory.generateCertificates(in)) {
+            certificates.add((X509Certificate) certificate);
+        }
+        return certificates;
+    }
+
+    /**
+     * Immutable trust set, replaced as a whole on update
+     */
+    private static final class TrustedKeys {
+
+        static final TrustedKeys EMPTY = new TrustedKeys(Map.of(), Map.of(), List.of());
+
+        final Map<String, PublicKey> byKeyInfo;
+        final Map<String, PublicKey> byThumbprint;
+        final List<PublicKey> keys;
+
+        private TrustedKeys(Map<String, PublicKey> byKeyInfo, Map<String, PublicKey> byThumbprint,
+                            List<PublicKey> keys) {
+            this.byKeyInfo = byKeyInfo;
+            this.byThumbprint = byThumbprint;
+            this.keys = keys;
+        }
+
+        static TrustedKeys of(Collection<X509Certificate> certificates) {
+            Map<String, PublicKey> byKeyInfo = new HashMap<>();
+            Map<String, PublicKey> byThumbprint = new HashMap<>();
+            List<PublicKey> keys = new ArrayList<>();
+            for (X509Certificate certificate : certificates) {
+                try {
+                    byte[] encoded = certificate.getEncoded();
+                    PublicKey key = certificate.getPublicKey();
+                    byKeyInfo.put(Base64.getEncoder().encodeToString(encoded), key);
+                    byThumbprint.put(thumbprint(encoded), key);
+                    keys.add(key);
+                } catch (CertificateEncodingException e) {
+                    throw new IllegalArgumentException("Cannot encode certificate "
+                        + certificate.getSubjectX500Principal(), e);
+                }
+            }
+            return new TrustedKeys(Collections.unmodifiableMap(byKeyInfo),
+                Collections.unmodifiableMap(byThumbprint), List.copyOf(keys));
+        }
+
+        /**
+         * Key for a KeyInfo X509Certificate, null if not trusted
+         */
+        PublicKey find(String keyInfoCertificate) throws SAMLValidationException {
+            PublicKey key = byKeyInfo.get(keyInfoCertificate);
+            if (key != null) {
+                return key;
+            }
+            // Line-wrapped or otherwise differently encoded: compare by thumbprint
+            return byThumbprint.get(thumbprint(decode(keyInfoCertificate)));
+        }
+
+        static String thumbprint(byte[] encoded) {
+            try {
+                return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(encoded));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not available", e);
+            }
+        }
+    }
+}
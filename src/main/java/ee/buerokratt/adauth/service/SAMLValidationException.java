@@ -0,0 +1,17 @@
+package ee.buerokratt.adauth.service;
+
+/**
+ * Thrown when a SAML message cannot be parsed or fails validation
+ *
+ * The message is safe to return to the caller as the validation error.
+ */
+public class SAMLValidationException extends Exception {
+
+    public SAMLValidationException(String message) {
+        super(message);
+    }
+
+    public SAMLValidationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
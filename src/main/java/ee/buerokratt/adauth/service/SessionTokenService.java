@@ -0,0 +1,214 @@
+package ee.buerokratt.adauth.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.UserAttributes;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Session JWTs for users whose SAML response was accepted
+ *
+ * Minted after role mapping so Ruuter/TIM can use the token without
+ * building the session itself. The key is loaded once through
+ * SigningKeyService (ad.session.key-alias, else the federation signing
+ * key) and may be RSA (RS256) or EC (ES256/ES384/ES512 by curve). The
+ * encoded JOSE header and the iss/aud claims are prepared at startup, so
+ * a token costs one claims JSON, two Base64url encodings and one
+ * signature; java.security.Signature instances are pooled per algorithm,
+ * as in SAMLSignatureVerifier. The public key is published as a JWKS document, also
+ * prepared once, whose kid is the RFC 7638 thumbprint.
+ */
+@Service
+public class SessionTokenService {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(SessionTokenService.class);
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final Base64.Encoder BASE64URL = JsonWebKey.BASE64URL;
+
+    private static final SerializedString ISS = new SerializedString("iss");
+    private static final SerializedString AUD = new SerializedString("aud");
+    private static final SerializedString SUB = new SerializedString("sub");
+    private static final SerializedString NAME = new SerializedString("name");
+    private static final SerializedString EMAIL = new SerializedString("email");
+    private static final SerializedString ROLES = new SerializedString("roles");
+    private static final SerializedString IAT = new SerializedString("iat");
+    private static final SerializedString EXP = new SerializedString("exp");
+
+    private static final int MAX_POOLED_SIGNATURES = Runtime.getRuntime().availableProcessors() * 2;
+
+    @Autowired
+    private ADProperties adProperties;
+
+    @Autowired
+    private SigningKeyService signingKeyService;
+
+    private final Map<String, ConcurrentLinkedQueue<Signature>> signaturePool = new ConcurrentHashMap<>();
+    private PrivateKey signingKey;
+    private String jcaAlgorithm;
+    private String keyId;
+    private byte[] signingInputPrefix;
+    private SerializedString issuer;
+    private SerializedString audience;
+    private long lifetimeSeconds;
+    private byte[] jwks;
+
+    @PostConstruct
+    void init() {
+        ADProperties.Session session = adProperties.getSession();
+        if (!Boolean.TRUE.equals(session.getEnabled())) {
+            return;
+        }
+        KeyStore.PrivateKeyEntry entry = signingKeyService.getKey(session.getKeyAlias());
+        useKey(entry.getPrivateKey(), entry.getCertificate().getPublicKey());
+        log.info("Issuing session tokens signed with {} key {}", jcaAlgorithm, keyId);
+    }
+
+    /**
+     * Prepare header, static claims and JWKS for a key pair
+     */
+    void useKey(PrivateKey privateKey, PublicKey publicKey) {
+        ADProperties.Session session = adProperties.getSession();
+        JsonWebKey jwk = JsonWebKey.of(publicKey);
+        String alg = jwk.algorithm();
+        jcaAlgorithm = jwk.jcaAlgorithm();
+        keyId = jwk.thumbprint();
+
+        String header = "{\"alg\":\"" + alg + "\",\"typ\":\"JWT\",\"kid\":\"" + keyId + "\"}";
+        signingInputPrefix = (BASE64URL.encodeToString(header.getBytes(StandardCharsets.UTF_8)) + ".")
+            .getBytes(StandardCharsets.US_ASCII);
+        String iss = session.getIssuer();
+        issuer = new SerializedString(iss == null || iss.isBlank() ? adProperties.getFederation().getEntityId() : iss);
+        String aud = session.getAudience();
+        audience = aud == null || aud.isBlank() ? null : new SerializedString(aud);
+        lifetimeSeconds = session.getTokenLifetime() / 1000;
+        jwks = jwk.jwks();
+        signingKey = privateKey;
+        try {
+            sign(new byte[0]);
+        } catch (GeneralSecurityException e) {
+            signingKey = null;
+            throw new IllegalStateException("Cannot sign session tokens with " + jcaAlgorithm, e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return signingKey != null;
+    }
+
+    /**
+     * Signed token for a validated user
+     *
+     * @param user  Attributes from the SAML assertion; sub is the UPN
+     * @param roles Mapped roles
+     * @param now   Issue time
+     */
+    public String issue(UserAttributes user, List<String> roles, Instant now) {
+        if (signingKey == null) {
+            throw new IllegalStateException("Session tokens are not enabled");
+        }
+        long iat = now.getEpochSecond();
+        ByteArrayOutputStream claims = new ByteArrayOutputStream(256);
+        try (JsonGenerator gen = JSON.createGenerator(claims)) {
+            gen.writeStartObject();
+            gen.writeFieldName(ISS);
+            gen.writeString(issuer);
+            if (audience != null) {
+                gen.writeFieldName(AUD);
+                gen.writeString(audience);
+            }
+            gen.writeFieldName(SUB);
+            gen.writeString(user.getUPN());
+            if (user.getDisplayName() != null) {
+                gen.writeFieldName(NAME);
+                gen.writeString(user.getDisplayName());
+            }
+            if (user.getEmail() != null) {
+                gen.writeFieldName(EMAIL);
+                gen.writeString(user.getEmail());
+            }
+            gen.writeFieldName(ROLES);
+            gen.writeStartArray();
+            for (String role : roles) {
+                gen.writeString(role);
+            }
+            gen.writeEndArray();
+            gen.writeFieldName(IAT);
+            gen.writeNumber(iat);
+            gen.writeFieldName(EXP);
+            gen.writeNumber(iat + lifetimeSeconds);
+            gen.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        byte[] payload = BASE64URL.encode(claims.toByteArray());
+        byte[] signingInput = Arrays.copyOf(signingInputPrefix, signingInputPrefix.length + payload.length);
+        System.arraycopy(payload, 0, signingInput, signingInputPrefix.length, payload.length);
+        byte[] signature;
+        try {
+            signature = BASE64URL.encode(sign(signingInput));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot sign session token", e);
+        }
+        byte[] token = Arrays.copyOf(signingInput, signingInput.length + 1 + signature.length);
+        token[signingInput.length] = '.';
+        System.arraycopy(signature, 0, token, signingInput.length + 1, signature.length);
+        return new String(token, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * JWKS document with the signing key, empty when tokens are disabled
+     */
+    public byte[] getJwks() {
+        return jwks != null ? jwks : "{\"keys\":[]}".getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public String getKeyId() {
+        return keyId;
+    }
+
+    public long getJwksMaxAge() {
+        return adProperties.getSession().getJwksMaxAge();
+    }
+
+    private byte[] sign(byte[] input) throws GeneralSecurityException {
+        // Signature instances are not thread-safe, so each call borrows one; the key itself is shared
+        ConcurrentLinkedQueue<Signature> pool = signaturePool.computeIfAbsent(jcaAlgorithm,
+            a -> new ConcurrentLinkedQueue<>());
+        Signature signer = pool.poll();
+        try {
+            if (signer == null) {
+                signer = Signature.getInstance(jcaAlgorithm);
+            }
+            signer.initSign(signingKey);
+            signer.update(input);
+            return signer.sign();
+        } finally {
+            if (signer != null && pool.size() < MAX_POOLED_SIGNATURES) {
+                pool.offer(signer);
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package ee.buerokratt.adauth.service;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects enveloped signatures of the Response and Assertion during parsing
+ *
+ * Receives every StAX event seen by SAMLResponseParser. The Response and the
+ * Assertion are canonicalized speculatively from their start tag; if the
+ * first child after Issuer is not ds:Signature the element is unsigned and
+ * its canonicalizer is dropped. The Signature subtree itself is left out of
+ * the element's canonical form (enveloped-signature transform), its
+ * SignedInfo is canonicalized separately, and once the digest algorithm is
+ * known the rest of the element is streamed straight into the digest.
+ */
+final class SignatureCollector {
+
+    static final String DSIG_NS = "http://www.w3.org/2000/09/xmldsig#";
+    static final String EXC_C14N_NS = "http://www.w3.org/2001/10/xml-exc-c14n#";
+
+    private static final Map<String, MessageDigest> DIGESTS = new HashMap<>();
+
+    static {
+        registerDigest("http://www.w3.org/2000/09/xmldsig#sha1", "SHA-1");
+        registerDigest("http://www.w3.org/2001/04/xmlenc#sha256", "SHA-256");
+        registerDigest("http://www.w3.org/2001/04/xmldsig-more#sha384", "SHA-384");
+        registerDigest("http://www.w3.org/2001/04/xmlenc#sha512", "SHA-512");
+    }
+
+    private final List<CollectedSignature> signatures;
+    private final List<SignedElement> open = new ArrayList<>(2);
+    private final StringBuilder text = new StringBuilder(512);
+    private int depth;
+
+    /**
+     * @param signatures List receiving each signature once its element has been read
+     */
+    SignatureCollector(List<CollectedSignature> signatures) {
+        this.signatures = signatures;
+    }
+
+    private static void registerDigest(String uri, String algorithm) {
+        try {
+            DIGESTS.put(uri, MessageDigest.getInstance(algorithm));
+        } catch (NoSuchAlgorithmException e) {
+            // Not available in this JRE; signatures using it are reported as unsupported
+        }
+    }
+
+    void event(XMLStreamReader reader, int event) {
+        switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                startElement(reader);
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                endElement();
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                characters(reader);
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                for (SignedElement element : open) {
+                    if (element.signatureDepth < 0) {
+                        element.c14n.processingInstruction(reader);
+                    } else if (element.signedInfo != null) {
+                        element.signedInfo.processingInstruction(reader);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void startElement(XMLStreamReader reader) {
+        depth++;
+        String ns = reader.getNamespaceURI();
+        String name = reader.getLocalName();
+
+        for (int i = 0; i < open.size(); i++) {
+            SignedElement element = open.get(i);
+            if (element.signatureDepth > 0) {
+                signatureContent(element, reader, ns, name);
+                continue;
+            }
+            if (!element.signatureSeen && depth == element.depth + 1) {
+                if (DSIG_NS.equals(ns) && "Signature".equals(name)) {
+                    element.signatureDepth = depth;
+                    continue;
+                }
+                if (!SAMLResponseParser.ASSERTION_NS.equals(ns) || !"Issuer".equals(name)) {
+                    // Signature must follow Issuer directly, so this element is unsigned
+                    open.remove(i--);
+                    continue;
+                }
+            }
+            element.c14n.startElement(reader);
+        }
+
+        boolean response = depth == 1 && SAMLResponseParser.PROTOCOL_NS.equals(ns) && "Response".equals(name);
+        boolean assertion = SAMLResponseParser.ASSERTION_NS.equals(ns) && "Assertion".equals(name);
+        if (response || assertion) {
+            SignedElement element = new SignedElement(depth,
+                new CollectedSignature(name, reader.getAttributeValue(null, "ID")));
+            element.c14n.startElement(reader);
+            open.add(element);
+        }
+    }
+
+    private void signatureContent(SignedElement element, XMLStreamReader reader, String ns, String name) {
+        CollectedSignature signature = element.signature;
+        if (element.signedInfo != null) {
+            element.signedInfo.startElement(reader);
+        } else if (DSIG_NS.equals(ns) && "SignedInfo".equals(name)) {
+            element.signedInfo = new ExclusiveCanonicalizer();
+            element.signedInfo.startElement(reader);
+            return;
+        }
+
+        if (EXC_C14N_NS.equals(ns) && "InclusiveNamespaces".equals(name)) {
+            signature.setInclusiveNamespaces(reader.getAttributeValue(null, "PrefixList"));
+            return;
+        }
+        if (!DSIG_NS.equals(ns)) {
+            return;
+        }
+        switch (name) {
+            case "CanonicalizationMethod":
+                signature.setCanonicalizationMethod(reader.getAttributeValue(null, "Algorithm"));
+                break;
+            case "SignatureMethod":
+                signature.setSignatureMethod(reader.getAttributeValue(null, "Algorithm"));
+                break;
+            case "Reference":
+                signature.incrementReferenceCount();
+                signature.setReferenceUri(reader.getAttributeValue(null, "URI"));
+                break;
+            case "Transform":
+                signature.getTransforms().add(reader.getAttributeValue(null, "Algorithm"));
+                break;
+            case "DigestMethod":
+                signature.setDigestMethod(reader.getAttributeValue(null, "Algorithm"));
+                break;
+            case "DigestValue":
+            case "SignatureValue":
+            case "X509Certificate":
+                element.textTarget = name;
+                text.setLength(0);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void characters(XMLStreamReader reader) {
+        for (SignedElement element : open) {
+            if (element.signatureDepth < 0) {
+                element.c14n.characters(reader);
+                continue;
+            }
+            if (element.signedInfo != null) {
+                element.signedInfo.characters(reader);
+            }
+            if (element.textTarget != null) {
+                text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+        }
+    }
+
+    private void endElement() {
+        for (int i = 0; i < open.size(); i++) {
+            SignedElement element = open.get(i);
+            CollectedSignature signature = element.signature;
+
+            if (element.signatureDepth > 0) {
+                if (element.signedInfo != null) {
+                    element.signedInfo.endElement();
+                    if (element.signedInfo.depth() == 0) {
+                        signature.setSignedInfo(element.signedInfo.toByteArray());
+                        element.signedInfo = null;
+                    }
+                }
+                if (element.textTarget != null) {
+                    storeText(signature, element.textTarget);
+                    element.textTarget = null;
+                }
+                if (depth == element.signatureDepth) {
+                    element.signatureDepth = -1;
+                    element.signatureSeen = true;
+                    MessageDigest digest = newDigest(signature.getDigestMethod());
+                    if (digest == null) {
+                        signature.setError("Unsupported digest algorithm: " + signature.getDigestMethod());
+                        signatures.add(signature);
+                        open.remove(i--);
+                    } else {
+                        element.c14n.digestInto(digest);
+                    }
+                }
+                continue;
+            }
+
+            element.c14n.endElement();
+            if (depth == element.depth) {
+                open.remove(i--);
+                if (element.signatureSeen) {
+                    signature.setComputedDigest(element.c14n.finishDigest());
+                    signatures.add(signature);
+                }
+            }
+        }
+        depth--;
+    }
+
+    private void storeText(CollectedSignature signature, String target) {
+        String value = text.toString().trim();
+        switch (target) {
+            case "DigestValue":
+                signature.setDigestValue(value);
+                break;
+            case "SignatureValue":
+                signature.setSignatureValue(value);
+                break;
+            default:
+                if (signature.getCertificate() == null) {
+                    signature.setCertificate(value);
+                }
+                break;
+        }
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        MessageDigest prototype = algorithm != null ? DIGESTS.get(algorithm) : null;
+        if (prototype == null) {
+            return null;
+        }
+        try {
+            return (MessageDigest) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            try {
+                return MessageDigest.getInstance(prototype.getAlgorithm());
+            } catch (NoSuchAlgorithmException unavailable) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Response or Assertion being canonicalized while its end tag is pending
+     */
+    private static final class SignedElement {
+
+        final int depth;
+        final CollectedSignature signature;
+        final ExclusiveCanonicalizer c14n = new ExclusiveCanonicalizer();
+
+        // Depth of the enveloped ds:Signature while inside it, -1 otherwise
+        int signatureDepth = -1;
+        boolean signatureSeen;
+        ExclusiveCanonicalizer signedInfo;
+        String textTarget;
+
+        SignedElement(int depth, CollectedSignature signature) {
+            this.depth = depth;
+            this.signature = signature;
+        }
+    }
+}
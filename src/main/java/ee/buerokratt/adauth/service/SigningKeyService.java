@@ -0,0 +1,115 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Private keys of this service from ad.federation.keystore-path
+ *
+ * The keystore is read once, on first use, and each key entry is
+ * unlocked once; AuthnRequest signing and session tokens share the
+ * loaded entries.
+ */
+@Service
+public class SigningKeyService {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(SigningKeyService.class);
+
+    @Autowired
+    private ADProperties adProperties;
+
+    private KeyStore keyStore;
+    private final Map<String, KeyStore.PrivateKeyEntry> entries = new HashMap<>();
+
+    /**
+     * Key entry by alias, or by signing-key-alias or the first key entry when blank
+     *
+     * @throws IllegalStateException if there is no keystore or no such key
+     */
+    public synchronized KeyStore.PrivateKeyEntry getKey(String alias) {
+        ADProperties.Federation federation = adProperties.getFederation();
+        String location = federation.getKeystorePath();
+        KeyStore store = keyStore();
+        if (alias == null || alias.isBlank()) {
+            alias = federation.getSigningKeyAlias();
+        }
+        if (alias == null || alias.isBlank()) {
+            alias = Collections.list(aliases(store)).stream()
+                    .filter(a -> isKeyEntry(store, a))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalStateException("No private key in " + location));
+        }
+        KeyStore.PrivateKeyEntry entry = entries.get(alias);
+        if (entry != null) {
+            return entry;
+        }
+        String privateKeyPassword = federation.getPrivateKeyPassword();
+        char[] keyPassword = privateKeyPassword != null && !privateKeyPassword.isEmpty()
+                ? privateKeyPassword.toCharArray() : password(federation.getKeystorePassword());
+        try {
+            if (!(store.getEntry(alias, new KeyStore.PasswordProtection(keyPassword))
+                    instanceof KeyStore.PrivateKeyEntry loaded)) {
+                throw new IllegalStateException("No private key " + alias + " in " + location);
+            }
+            log.info("Loaded private key {} from {}", alias, location);
+            entries.put(alias, loaded);
+            return loaded;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot load private key " + alias + " from " + location, e);
+        }
+    }
+
+    private KeyStore keyStore() {
+        if (keyStore != null) {
+            return keyStore;
+        }
+        String location = adProperties.getFederation().getKeystorePath();
+        if (location == null || location.isBlank()) {
+            throw new IllegalStateException("No keystore-path is configured");
+        }
+        // Plain paths are files, as mounted from the k8s secret
+        Resource resource = new DefaultResourceLoader()
+                .getResource(location.contains(":") ? location : "file:" + location);
+        try (InputStream in = resource.getInputStream()) {
+            // The PKCS12 keystore type also reads JKS files
+            KeyStore store = KeyStore.getInstance("PKCS12");
+            store.load(in, password(adProperties.getFederation().getKeystorePassword()));
+            keyStore = store;
+            return store;
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot load keystore " + location, e);
+        }
+    }
+
+    private static Enumeration<String> aliases(KeyStore keyStore) {
+        try {
+            return keyStore.aliases();
+        } catch (GeneralSecurityException e) {
+            return Collections.emptyEnumeration();
+        }
+    }
+
+    private static boolean isKeyEntry(KeyStore keyStore, String alias) {
+        try {
+            return keyStore.isKeyEntry(alias);
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    private static char[] password(String password) {
+        return password != null ? password.toCharArray() : new char[0];
+    }
+}
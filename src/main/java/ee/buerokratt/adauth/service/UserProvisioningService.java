@@ -0,0 +1,441 @@
+package ee.buerokratt.adauth.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.UserAttributes;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Just-in-time provisioning of AD users into auth_users, off the login path
+ *
+ * After a successful /validate the user's attributes and roles are queued
+ * (up to queue-size; beyond that they are dropped and written at a later
+ * login). A background flusher writes them as a JDBC batch of
+ * INSERT ... ON CONFLICT (ad_upn) DO UPDATE statements in one transaction,
+ * every flush-interval or as soon as batch-size users are queued. A user
+ * queued twice before a flush is written once. UPNs are stored and
+ * matched lower-case, since AD compares them case-insensitively, and a
+ * row created by another login method is taken over as an AD row.
+ *
+ * A hash of the written columns is kept per UPN; a login whose attributes
+ * and roles hash the same is not queued, so repeated logins cause no
+ * writes. The hash is forgotten after unchanged-ttl, which bounds how
+ * stale ad_last_sync can get. Hashes are only recorded once a row is
+ * committed, so users from a failed batch are written at their next login.
+ *
+ * updateRoles() queues a role change found by DirectorySyncService. It is
+ * written as an UPDATE of authorities and ad_last_sync after the upserts
+ * of the same flush, touches only users that already have a row, and
+ * drops the user's hash so that the next login is written in full.
+ */
+@Service
+public class UserProvisioningService {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(UserProvisioningService.class);
+
+    static final String UPSERT = """
+        INSERT INTO auth_users (idCode, login, displayName, email, firstName, lastName, authorities,
+            auth_method, ad_upn, ad_object_guid, ad_last_sync)
+        VALUES (?, ?, ?, ?, ?, ?, CAST(? AS jsonb), 'AD', ?, ?, ?)
+        ON CONFLICT (ad_upn) DO UPDATE SET
+            auth_method = 'AD',
+            displayName = EXCLUDED.displayName,
+            email = EXCLUDED.email,
+            firstName = EXCLUDED.firstName,
+            lastName = EXCLUDED.lastName,
+            authorities = EXCLUDED.authorities,
+            ad_object_guid = COALESCE(EXCLUDED.ad_object_guid, auth_users.ad_object_guid),
+            ad_last_sync = EXCLUDED.ad_last_sync""";
+
+    static final String UPDATE_ROLES = """
+        UPDATE auth_users SET authorities = CAST(? AS jsonb), ad_last_sync = ?
+        WHERE ad_upn = ?""";
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    @Autowired
+    private ADProperties adProperties;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    private final ConcurrentLinkedQueue<Upsert> pending = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<RoleUpdate> pendingRoles = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private Cache<String, Long> written;
+    private ScheduledExecutorService flusher;
+    private Connection connection;
+
+    @PostConstruct
+    void init() {
+        ADProperties.Provisioning provisioning = adProperties.getProvisioning();
+        if (!Boolean.TRUE.equals(provisioning.getEnabled())) {
+            return;
+        }
+        if (provisioning.getJdbcUrl() == null || provisioning.getJdbcUrl().isBlank()) {
+            log.warn("User provisioning enabled without ad.provisioning.jdbc-url, users are not provisioned");
+            return;
+        }
+        written = Caffeine.newBuilder()
+            .maximumSize(provisioning.getHashCacheMaxEntries())
+            .expireAfterWrite(Duration.ofMillis(provisioning.getUnchangedTtl()))
+            .build();
+        if (meterRegistry != null) {
+            Gauge.builder("ad.provisioning.pending", pendingCount, AtomicInteger::get)
+                .description("Users queued for provisioning")
+                .register(meterRegistry);
+        }
+
+        long interval = provisioning.getFlushInterval();
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "provisioning-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Provisioning AD users in batches of up to {}, flushing every {} ms",
+            provisioning.getBatchSize(), interval);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Provisioning flush did not finish in time");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        flush();
+        closeConnection();
+    }
+
+    /**
+     * Whether users are provisioned
+     */
+    public boolean isEnabled() {
+        return flusher != null;
+    }
+
+    /**
+     * Queue a validated user for writing, unless the same attributes and roles were written recently
+     *
+     * @return True if the user was queued
+     */
+    public boolean provision(UserAttributes user, List<String> roles, Instant now) {
+        if (flusher == null || user.getUPN() == null) {
+            return false;
+        }
+        Upsert upsert = Upsert.of(user, authorities(roles), now);
+        Long previous = written.getIfPresent(upsert.upn());
+        if (previous != null && previous == upsert.hash()) {
+            count("unchanged", 1);
+            return false;
+        }
+        if (!reserve()) {
+            return false;
+        }
+        pending.offer(upsert);
+        queued();
+        return true;
+    }
+
+    /**
+     * Queue new roles of a user already in auth_users, e.g. from DirectorySyncService
+     *
+     * Users without a row are not created; they are provisioned at their first login.
+     *
+     * @return True if the update was queued
+     */
+    public boolean updateRoles(String upn, List<String> roles, Instant now) {
+        if (flusher == null || upn == null) {
+            return false;
+        }
+        if (!reserve()) {
+            return false;
+        }
+        pendingRoles.offer(new RoleUpdate(upn.toLowerCase(Locale.ROOT), authorities(roles), now));
+        queued();
+        return true;
+    }
+
+    /**
+     * Users queued and not yet written
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    private boolean reserve() {
+        if (pendingCount.incrementAndGet() > adProperties.getProvisioning().getQueueSize()) {
+            pendingCount.decrementAndGet();
+            count("dropped", 1);
+            return false;
+        }
+        return true;
+    }
+
+    private void queued() {
+        count("queued", 1);
+        if (pendingCount.get() >= adProperties.getProvisioning().getBatchSize()
+            && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flush);
+            } catch (RuntimeException e) {
+                // Shutting down; the final flush picks the user up
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * Write queued users in batches, then queued role updates; runs on the flusher thread
+     */
+    synchronized void flush() {
+        flushRequested.set(false);
+        int batchSize = adProperties.getProvisioning().getBatchSize();
+        Map<String, Upsert> batch = new LinkedHashMap<>();
+        Upsert upsert;
+        while ((upsert = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            // The later login wins; its ad_last_sync is newer
+            batch.put(upsert.upn(), upsert);
+            if (batch.size() == batchSize) {
+                write(batch.values());
+                batch = new LinkedHashMap<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch.values());
+        }
+
+        Map<String, RoleUpdate> updates = new LinkedHashMap<>();
+        RoleUpdate update;
+        while ((update = pendingRoles.poll()) != null) {
+            pendingCount.decrementAndGet();
+            updates.put(update.upn(), update);
+            if (updates.size() == batchSize) {
+                writeRoles(updates.values());
+                updates = new LinkedHashMap<>();
+            }
+        }
+        if (!updates.isEmpty()) {
+            writeRoles(updates.values());
+        }
+    }
+
+    private void write(Collection<Upsert> batch) {
+        try {
+            Connection connection = connection();
+            try (PreparedStatement statement = connection.prepareStatement(UPSERT)) {
+                for (Upsert upsert : batch) {
+                    bind(statement, upsert);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                connection.commit();
+            } catch (BatchUpdateException e) {
+                // A row the database rejects must not keep failing the rest at every flush
+                connection.rollback();
+                log.warn("Provisioning batch of {} users failed, writing them one by one: {}",
+                    batch.size(), e.getMessage());
+                writeEach(connection, batch);
+                return;
+            }
+            for (Upsert upsert : batch) {
+                written.put(upsert.upn(), upsert.hash());
+            }
+            count("written", batch.size());
+        } catch (SQLException e) {
+            log.warn("Provisioning {} users failed: {}", batch.size(), e.getMessage());
+            count("failed", batch.size());
+            closeConnection();
+        }
+    }
+
+    private void writeEach(Connection connection, Collection<Upsert> batch) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(UPSERT)) {
+            for (Upsert upsert : batch) {
+                try {
+                    bind(statement, upsert);
+                    statement.executeUpdate();
+                    connection.commit();
+                    written.put(upsert.upn(), upsert.hash());
+                    count("written", 1);
+                } catch (SQLException e) {
+                    connection.rollback();
+                    log.warn("Provisioning an AD user failed: {}", e.getMessage());
+                    count("failed", 1);
+                }
+            }
+        }
+    }
+
+    private void writeRoles(Collection<RoleUpdate> batch) {
+        try {
+            Connection connection = connection();
+            int[] counts;
+            try (PreparedStatement statement = connection.prepareStatement(UPDATE_ROLES)) {
+                for (RoleUpdate update : batch) {
+                    statement.setString(1, update.authorities());
+                    statement.setTimestamp(2, Timestamp.from(update.syncedAt()));
+                    statement.setString(3, update.upn());
+                    statement.addBatch();
+                }
+                counts = statement.executeBatch();
+                connection.commit();
+            }
+            int updated = 0;
+            int i = 0;
+            for (RoleUpdate update : batch) {
+                written.invalidate(update.upn());
+                if (counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO) {
+                    updated++;
+                }
+                i++;
+            }
+            count("roles_updated", updated);
+            count("not_provisioned", batch.size() - updated);
+        } catch (SQLException e) {
+            log.warn("Updating roles of {} users failed: {}", batch.size(), e.getMessage());
+            count("failed", batch.size());
+            closeConnection();
+        }
+    }
+
+    private static void bind(PreparedStatement statement, Upsert upsert) throws SQLException {
+        statement.setString(1, upsert.upn());
+        statement.setString(2, upsert.upn());
+        statement.setString(3, upsert.displayName());
+        statement.setString(4, upsert.email());
+        statement.setString(5, upsert.firstName());
+        statement.setString(6, upsert.lastName());
+        statement.setString(7, upsert.authorities());
+        statement.setString(8, upsert.upn());
+        if (upsert.objectGuid() != null) {
+            statement.setString(9, upsert.objectGuid());
+        } else {
+            statement.setNull(9, Types.VARCHAR);
+        }
+        statement.setTimestamp(10, Timestamp.from(upsert.syncedAt()));
+    }
+
+    private Connection connection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            ADProperties.Provisioning provisioning = adProperties.getProvisioning();
+            connection = DriverManager.getConnection(provisioning.getJdbcUrl(), provisioning.getUsername(),
+                provisioning.getPassword());
+            connection.setAutoCommit(false);
+        }
+        return connection;
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.debug("Closing provisioning connection failed: {}", e.getMessage());
+            }
+            connection = null;
+        }
+    }
+
+    private void count(String outcome, int users) {
+        if (meterRegistry != null) {
+            meterRegistry.counter("ad.provisioning.users", "outcome", outcome).increment(users);
+        }
+    }
+
+    private static String authorities(List<String> roles) {
+        try {
+            return JSON.writeValueAsString(roles != null ? roles : List.of());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * New roles of one user; upn is lower-case
+     */
+    record RoleUpdate(String upn, String authorities, Instant syncedAt) {
+    }
+
+    /**
+     * One row of auth_users; upn is lower-case, hash covers every column but ad_last_sync
+     */
+    record Upsert(String upn, String displayName, String email, String firstName, String lastName,
+                  String authorities, String objectGuid, Instant syncedAt, long hash) {
+
+        static Upsert of(UserAttributes user, String authorities, Instant syncedAt) {
+            String upn = user.getUPN().toLowerCase(Locale.ROOT);
+            return new Upsert(upn, user.getDisplayName(), user.getEmail(),
+                user.getFirstName(), user.getLastName(), authorities, user.getObjectGuid(), syncedAt,
+                hash(upn, user.getDisplayName(), user.getEmail(), user.getFirstName(), user.getLastName(),
+                    authorities, user.getObjectGuid()));
+        }
+
+        /**
+         * First 64 bits of the SHA-256 of the values
+         */
+        static long hash(String... values) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            ByteBuffer length = ByteBuffer.allocate(4);
+            for (String value : values) {
+                byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+                // Length prefix, so that null, "" and a value moved to the next column hash differently
+                digest.update(length.clear().putInt(bytes != null ? bytes.length : -1).array());
+                if (bytes != null) {
+                    digest.update(bytes);
+                }
+            }
+            return ByteBuffer.wrap(digest.digest()).getLong();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package ee.buerokratt.adauth;
+
+import ee.buerokratt.adauth.service.ReplayService;
+import ee.buerokratt.adauth.service.SAMLService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration test for the lazy profile
+ */
+@SpringBootTest
+@ActiveProfiles("lazy")
+@TestPropertySource(locations = "classpath:application-test.yml")
+class LazyInitializationTest {
+
+    @Autowired
+    private ConfigurableListableBeanFactory beanFactory;
+
+    @Test
+    void testBackgroundServicesStayEager() {
+        // Then: Request-path beans wait for their first use, background services do not
+        assertTrue(beanFactory.getBeanDefinition(beanName(SAMLService.class)).isLazyInit());
+        assertFalse(beanFactory.getBeanDefinition(beanName(ReplayService.class)).isLazyInit());
+        assertTrue(beanFactory.containsSingleton(beanName(ReplayService.class)));
+    }
+
+    private String beanName(Class<?> type) {
+        return beanFactory.getBeanNamesForType(type)[0];
+    }
+}
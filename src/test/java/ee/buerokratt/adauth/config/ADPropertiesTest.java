@@ -39,6 +39,17 @@ class ADPropertiesTest {
         // When: Getting defaults
         // Then: Should have correct defaults
         assertEquals(5000, adProperties.getFederation().getTimeout());
+        assertEquals(262144, adProperties.getFederation().getMaxResponseSize());
+        assertEquals(60000L, adProperties.getFederation().getClockSkew());
+        assertEquals(3600000L, adProperties.getFederation().getMetadataRefreshInterval());
+        assertEquals(60000L, adProperties.getFederation().getMetadataMinRefreshInterval());
+        assertEquals(7200000L, adProperties.getFederation().getReplayCacheWindow());
+        assertEquals(2000000, adProperties.getFederation().getReplayCacheMaxEntries());
+        assertEquals(2000, adProperties.getFederation().getReplayCacheExpectedRate());
+        assertEquals(300000L, adProperties.getFederation().getReplayCacheExpectedLifetime());
+        assertEquals(2000000, adProperties.getFederation().getAuthnRequestMaxEntries());
+        assertFalse(adProperties.getFederation().getReplayCacheFingerprints());
+        assertTrue(adProperties.getFederation().getMetadata().isEmpty());
     }
 
     @Test
@@ -51,6 +62,8 @@ class ADPropertiesTest {
         assertEquals("ROLE_UNAUTHENTICATED", adProperties.getRoleMapping().getDefaultRole());
         assertEquals(ADProperties.RoleMapping.MultiGroupStrategy.HIGHEST_PRIORITY,
                      adProperties.getRoleMapping().getMultiGroupStrategy());
+        assertNull(adProperties.getRoleMapping().getRulesFile());
+        assertEquals(10000L, adProperties.getRoleMapping().getRulesReloadInterval());
     }
 
     @Test
@@ -64,6 +77,10 @@ class ADPropertiesTest {
         assertEquals(1000L, adProperties.getResilience().getRetryBackoff());
         assertEquals(50, adProperties.getResilience().getCircuitBreakerFailureThreshold());
         assertEquals(30000L, adProperties.getResilience().getCircuitBreakerWaitDuration());
+        assertEquals(10, adProperties.getResilience().getCircuitBreakerSlidingWindowSize());
+        assertEquals(5, adProperties.getResilience().getCircuitBreakerMinimumCalls());
+        assertEquals(100, adProperties.getResilience().getMaxConcurrentCalls());
+        assertEquals(1000L, adProperties.getResilience().getMaxConcurrentCallsWait());
     }
 
     @Test
@@ -0,0 +1,87 @@
+package ee.buerokratt.adauth.config;
+
+import ee.buerokratt.adauth.service.BearerTokenException;
+import ee.buerokratt.adauth.service.BearerTokenVerifier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for BearerTokenFilter
+ */
+class BearerTokenFilterTest {
+
+    private final BearerTokenVerifier verifier = mock(BearerTokenVerifier.class);
+    private final BearerTokenFilter filter = new BearerTokenFilter(verifier);
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void testAuthenticatesValidToken() throws Exception {
+        // Given
+        when(verifier.verify("good")).thenReturn(new BearerTokenVerifier.VerifiedToken(
+            "ruuter", List.of(new SimpleGrantedAuthority("ROLE_SERVICE")), Long.MAX_VALUE));
+        MockFilterChain chain = new MockFilterChain();
+
+        // When
+        filter.doFilter(request("Bearer good"), new MockHttpServletResponse(), chain);
+
+        // Then: The request continues as the token's subject
+        assertNotNull(chain.getRequest());
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        assertEquals("ruuter", authentication.getName());
+        assertTrue(authentication.isAuthenticated());
+    }
+
+    @Test
+    void testRejectsInvalidToken() throws Exception {
+        // Given
+        when(verifier.verify("bad")).thenThrow(new BearerTokenException("Token expired"));
+        MockFilterChain chain = new MockFilterChain();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // When
+        filter.doFilter(request("bearer bad"), response, chain);
+
+        // Then
+        assertNull(chain.getRequest());
+        assertEquals(401, response.getStatus());
+        assertEquals("Bearer error=\"invalid_token\", error_description=\"Token expired\"",
+            response.getHeader("WWW-Authenticate"));
+    }
+
+    @Test
+    void testPassesRequestsWithoutToken() throws Exception {
+        // Given
+        MockFilterChain chain = new MockFilterChain();
+
+        // When
+        filter.doFilter(request(null), new MockHttpServletResponse(), chain);
+
+        // Then: Left to the authorization rules
+        assertNotNull(chain.getRequest());
+        assertNull(SecurityContextHolder.getContext().getAuthentication());
+        verifyNoInteractions(verifier);
+    }
+
+    private static MockHttpServletRequest request(String authorization) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/auth/ad/map-roles");
+        if (authorization != null) {
+            request.addHeader("Authorization", authorization);
+        }
+        return request;
+    }
+}
@@ -0,0 +1,107 @@
+package ee.buerokratt.adauth.config;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for BoundedAsyncAppender
+ */
+class BoundedAsyncAppenderTest {
+
+    private final LoggerContext context = JsonLogEncoderTest.context();
+    private final Logger logger = context.getLogger("ee.buerokratt.adauth.Test");
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final SlowAppender target = new SlowAppender();
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        context.stop();
+    }
+
+    @Test
+    void testDropPolicyNeverBlocksAndCountsDrops() {
+        // Given: A writer that is stuck and a queue of 10
+        BoundedAsyncAppender appender = appender("drop");
+
+        // When: Logging far more than fits
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            logger.info("event {}", i);
+        }
+        logger.error("important");
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Then: The caller was not held up; INFO events beyond the threshold were dropped.
+        // The worker may drain up to a full queue before it blocks, so at most 2 x 10 are kept.
+        assertTrue(elapsedMillis < 1000, "took " + elapsedMillis + " ms");
+        assertTrue(appender.getDropped() >= 80, "dropped " + appender.getDropped());
+        assertEquals(BoundedAsyncAppender.OverflowPolicy.DROP, appender.getOverflowPolicy());
+    }
+
+    @Test
+    void testBlockPolicyKeepsEveryEvent() throws Exception {
+        // Given
+        BoundedAsyncAppender appender = appender("BLOCK");
+
+        // When: Logging more than fits while the writer catches up
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 50; i++) {
+                logger.info("event {}", i);
+            }
+        });
+        writer.start();
+        Thread.sleep(100);
+        release.countDown();
+        writer.join(5000);
+        appender.stop();
+
+        // Then
+        assertEquals(0, appender.getDropped());
+        assertEquals(50, target.appended.get());
+    }
+
+    private BoundedAsyncAppender appender(String policy) {
+        target.setContext(context);
+        target.start();
+        BoundedAsyncAppender appender = new BoundedAsyncAppender();
+        appender.setContext(context);
+        appender.setQueueSize(10);
+        appender.setOverflowPolicy(policy);
+        appender.addAppender(target);
+        appender.start();
+        logger.setLevel(Level.INFO);
+        logger.setAdditive(false);
+        logger.addAppender(appender);
+        return appender;
+    }
+
+    /**
+     * Blocks on the first event until released
+     */
+    private final class SlowAppender extends AppenderBase<ILoggingEvent> {
+
+        final AtomicInteger appended = new AtomicInteger();
+
+        @Override
+        protected void append(ILoggingEvent event) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            appended.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ee.buerokratt.adauth.config;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.util.LogbackMDCAdapter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.slf4j.event.KeyValuePair;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for JsonLogEncoder
+ */
+class JsonLogEncoderTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Logger logger = context().getLogger("ee.buerokratt.adauth.Test");
+
+    @Test
+    void testEncodesEventAsJsonLine() throws Exception {
+        // Given: Event with key/value pairs and characters that need escaping
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, Level.WARN,
+            "Line \"one\"\nline\ttwo {}", null, new Object[] {"\u0001"});
+        event.setTimeStamp(1767225600123L);
+        event.setKeyValuePairs(List.of(
+            new KeyValuePair("event", "auth.validate"),
+            new KeyValuePair("groups", 3),
+            new KeyValuePair("cached", true)
+        ));
+
+        // When
+        String line = new String(new JsonLogEncoder().encode(event), StandardCharsets.UTF_8);
+
+        // Then: One line of JSON with typed fields
+        assertTrue(line.endsWith("}\n"));
+        assertEquals(1, line.lines().count());
+        JsonNode json = objectMapper.readTree(line);
+        assertEquals("2026-01-01T00:00:00.123Z", json.get("timestamp").asText());
+        assertEquals("WARN", json.get("level").asText());
+        assertEquals("ee.buerokratt.adauth.Test", json.get("logger").asText());
+        assertEquals("Line \"one\"\nline\ttwo \u0001", json.get("message").asText());
+        assertEquals("auth.validate", json.get("event").asText());
+        assertTrue(json.get("groups").isInt());
+        assertTrue(json.get("cached").isBoolean());
+        assertNull(json.get("exception"));
+    }
+
+    @Test
+    void testIncludesStackTrace() throws Exception {
+        // Given
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, Level.ERROR,
+            "Failed", new IllegalStateException("outer", new IllegalArgumentException("inner")), null);
+
+        // When
+        JsonNode json = objectMapper.readTree(new JsonLogEncoder().encode(event));
+
+        // Then
+        String trace = json.get("exception").asText();
+        assertTrue(trace.startsWith("java.lang.IllegalStateException: outer"));
+        assertTrue(trace.contains("Caused by: java.lang.IllegalArgumentException: inner"));
+    }
+
+    /**
+     * Logger context separate from the application's
+     */
+    static LoggerContext context() {
+        LoggerContext context = new LoggerContext();
+        context.setMDCAdapter(new LogbackMDCAdapter());
+        return context;
+    }
+}
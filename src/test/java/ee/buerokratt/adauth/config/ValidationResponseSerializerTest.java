@@ -0,0 +1,70 @@
+package ee.buerokratt.adauth.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import ee.buerokratt.adauth.model.UserAttributes;
+import ee.buerokratt.adauth.model.ValidationResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ValidationResponseSerializer
+ */
+class ValidationResponseSerializerTest {
+
+    private final ObjectMapper plain = new ObjectMapper();
+    private final ObjectMapper objectMapper = new ObjectMapper()
+        .registerModule(new SimpleModule().addSerializer(new ValidationResponseSerializer()));
+
+    @Test
+    void testSuccessMatchesBeanSerialisation() throws Exception {
+        // Given: A user with characters that need escaping, a missing attribute and one from the directory
+        UserAttributes user = new UserAttributes("john.doe@domain.com", "john.doe@domain.com",
+            "John \"JD\" Doe", "J\u00f6hn", null, List.of(
+                "CN=Buerokratt-Admins,OU=Groups,DC=domain,DC=com",
+                "CN=Sales\\, Nordic,OU=Groups,DC=domain,DC=com",
+                "DOMAIN\\Group"));
+        user.setDepartment("Customer Support");
+        List<String> roles = List.of("ROLE_ADMINISTRATOR", "ROLE_CUSTOMER_SUPPORT_AGENT");
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("valid", true);
+        expected.put("userAttributes", user);
+        expected.put("roles", roles);
+
+        // When: Writing the same response twice, the second time from cached strings
+        objectMapper.writeValueAsBytes(ValidationResponse.success(user, roles));
+        String json = objectMapper.writeValueAsString(ValidationResponse.success(user, roles));
+
+        // Then: Same content as the Map body with bean serialisation
+        assertEquals(plain.valueToTree(expected), plain.readTree(json));
+        assertTrue(json.startsWith("{\"valid\":true,\"userAttributes\":{\"upn\":"));
+    }
+
+    @Test
+    void testFailure() throws Exception {
+        // When
+        String json = objectMapper.writeValueAsString(ValidationResponse.failure("Invalid \"signature\""));
+
+        // Then
+        assertEquals("{\"valid\":false,\"error\":\"Invalid \\\"signature\\\"\"}", json);
+    }
+
+    @Test
+    void testUserWithoutGroups() throws Exception {
+        // Given
+        UserAttributes user = new UserAttributes();
+        user.setUPN("john.doe@domain.com");
+
+        // When
+        String json = objectMapper.writeValueAsString(ValidationResponse.success(user, List.of()));
+
+        // Then
+        assertEquals("{\"valid\":true,\"userAttributes\":{\"upn\":\"john.doe@domain.com\",\"email\":null,"
+            + "\"displayName\":null,\"firstName\":null,\"lastName\":null,\"memberOf\":null},\"roles\":[]}", json);
+    }
+}
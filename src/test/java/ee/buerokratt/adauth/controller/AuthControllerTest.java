@@ -1,28 +1,40 @@
 package ee.buerokratt.adauth.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import ee.buerokratt.adauth.config.ADProperties;
 import ee.buerokratt.adauth.config.TestSecurityConfig;
 import ee.buerokratt.adauth.model.RoleMappingRequest;
 import ee.buerokratt.adauth.model.SAMLValidationRequest;
+import ee.buerokratt.adauth.service.ReplayCache;
+import ee.buerokratt.adauth.service.ReplayService;
+import ee.buerokratt.adauth.service.SAMLService;
+import ee.buerokratt.adauth.service.SAMLTestResponses;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * Integration tests for AuthController
  */
-@SpringBootTest
+@SpringBootTest(properties = "ad.federation.signing-certificates=classpath:saml/test-idp-signing.crt")
 @AutoConfigureMockMvc
 @Import(TestSecurityConfig.class)
 class AuthControllerTest {
@@ -33,6 +45,21 @@ class AuthControllerTest {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private ADProperties adProperties;
+
+    @Autowired
+    private SAMLService samlService;
+
+    @Autowired
+    private AuthController authController;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ReplayService replayService;
+
     @Test
     void testHealthEndpoint() throws Exception {
         // When: Calling health endpoint
@@ -64,6 +91,30 @@ class AuthControllerTest {
                 .andExpect(jsonPath("$.redirectUrl").exists());
     }
 
+    @Test
+    void testInitiateLoginRejectsLongRelayState() throws Exception {
+        // Given: RelayState of exactly 80 bytes, and 82 bytes in 41 characters
+        ReplayCache issued = (ReplayCache) ReflectionTestUtils.getField(replayService, "issuedCache");
+        String longest = "/" + "a".repeat(79);
+        String multiByte = "ä".repeat(41);
+
+        // When/Then: The limit is allowed
+        mockMvc.perform(post("/auth/ad/login")
+                        .param("relayState", longest))
+                .andExpect(status().isOk());
+        int outstanding = issued.size();
+
+        // When/Then: Longer values are rejected without issuing a request
+        mockMvc.perform(post("/auth/ad/login")
+                        .param("relayState", longest + "a"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("RelayState exceeds 80 bytes"));
+        mockMvc.perform(post("/auth/ad/login")
+                        .param("relayState", multiByte))
+                .andExpect(status().isBadRequest());
+        assertEquals(outstanding, issued.size());
+    }
+
     @Test
     void testMapRolesWithValidGroups() throws Exception {
         // Given: Valid AD groups
@@ -113,11 +164,59 @@ class AuthControllerTest {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    void testMapRolesBatchJsonArray() throws Exception {
+        // Given: Two users, one without groups, one entry missing its groups
+        String batch = "["
+                + "{\"id\":\"admin\",\"adGroups\":[\"CN=Buerokratt-Admins,OU=Groups,DC=domain,DC=com\"]},"
+                + "{\"id\":\"nobody\",\"adGroups\":[]},"
+                + "{\"id\":\"broken\"}"
+                + "]";
+
+        // When: Mapping the batch
+        mockMvc.perform(post("/auth/ad/map-roles/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(batch))
+                // Then: One result per entry, in input order
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$", hasSize(3)))
+                .andExpect(jsonPath("$[0].id").value("admin"))
+                .andExpect(jsonPath("$[0].roles", hasItem("ROLE_ADMINISTRATOR")))
+                .andExpect(jsonPath("$[1].roles", hasItem("ROLE_UNAUTHENTICATED")))
+                .andExpect(jsonPath("$[2].error").value("adGroups is required"));
+    }
+
+    @Test
+    void testMapRolesBatchNdjson() throws Exception {
+        // Given: NDJSON with a truncated last line
+        String batch = "{\"id\":\"a\",\"adGroups\":[\"CN=Buerokratt-Admins,OU=Groups,DC=domain,DC=com\"]}\n"
+                + "{\"id\":\"b\",\"adGroups\":[\"CN=Buerokratt-Admins,OU=Groups,DC=domain,DC=com\"]}\n"
+                + "{\"id\":\"c\",\"adGr";
+
+        // When: Mapping the batch
+        String body = mockMvc.perform(post("/auth/ad/map-roles/batch")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(batch))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString();
+
+        // Then: A line per mapped entry, then the error
+        List<String> lines = body.lines().toList();
+        assertEquals(3, lines.size());
+        assertEquals("a", objectMapper.readTree(lines.get(0)).get("id").asText());
+        assertEquals("ROLE_ADMINISTRATOR", objectMapper.readTree(lines.get(1)).get("roles").get(0).asText());
+        assertTrue(objectMapper.readTree(lines.get(2)).get("error").asText().startsWith("Malformed batch entry after 2"));
+    }
+
     @Test
     void testValidateSAMLResponseWithValidSAML() throws Exception {
         // Given: Valid SAML response
         SAMLValidationRequest request = new SAMLValidationRequest();
-        request.setSAMLResponse("valid-mock-saml-response");
+        request.setSAMLResponse(SAMLTestResponses.signedBase64(SAMLTestResponses.ADMIN,
+                adProperties.getFederation().getEntityId(), adProperties.getFederation().getAcsUrl(),
+                SAMLTestResponses.issueRequest(samlService)));
         request.setRelayState("/test");
 
         // When: Validating SAML
@@ -128,7 +227,8 @@ class AuthControllerTest {
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.valid").value(true))
                 .andExpect(jsonPath("$.userAttributes").exists())
-                .andExpect(jsonPath("$.roles").exists());
+                .andExpect(jsonPath("$.userAttributes.upn").value("john.doe@domain.com"))
+                .andExpect(jsonPath("$.roles", hasItem("ROLE_ADMINISTRATOR")));
     }
 
     @Test
@@ -148,6 +248,14 @@ class AuthControllerTest {
                 .andExpect(jsonPath("$.error").exists());
     }
 
+    @Test
+    void testJwksNotFoundWhenSessionTokensDisabled() throws Exception {
+        // When: Session tokens are not enabled
+        mockMvc.perform(get("/auth/ad/jwks"))
+                // Then
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     void testLogout() throws Exception {
         // When: Calling logout
@@ -157,6 +265,43 @@ class AuthControllerTest {
                 .andExpect(jsonPath("$.message").exists());
     }
 
+    @Test
+    void testInitiateLoginRefusedWhenTooManyPending() throws Exception {
+        // Given: Room for one outstanding AuthnRequest
+        Object issued = ReflectionTestUtils.getField(replayService, "issuedCache");
+        ReflectionTestUtils.setField(replayService, "issuedCache", new ReplayCache(900_000L, 64, 1, false));
+        try {
+            mockMvc.perform(post("/auth/ad/login"))
+                    .andExpect(status().isOk());
+
+            // When: Another login is started
+            mockMvc.perform(post("/auth/ad/login"))
+                    // Then: Refused without touching the used-ID cache
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(jsonPath("$.error").exists());
+        } finally {
+            ReflectionTestUtils.setField(replayService, "issuedCache", issued);
+        }
+    }
+
+    @Test
+    void testValidateSerialisationFailureCounted() {
+        // Given: Valid SAML response and a client that has gone away
+        SAMLValidationRequest request = new SAMLValidationRequest();
+        request.setSAMLResponse(SAMLTestResponses.signedBase64(SAMLTestResponses.ADMIN,
+                adProperties.getFederation().getEntityId(), adProperties.getFederation().getAcsUrl(),
+                SAMLTestResponses.issueRequest(samlService)));
+        double failed = meterRegistry.get("ad.saml.validation.errors")
+                .tag("stage", "serialisation").tag("type", "error").counter().count();
+
+        // When: Writing the body fails
+        assertThrows(IOException.class, () -> authController.validateSAMLResponse(request, new BrokenPipeResponse()));
+
+        // Then: Counted as a serialisation error
+        assertEquals(failed + 1, meterRegistry.get("ad.saml.validation.errors")
+                .tag("stage", "serialisation").tag("type", "error").counter().count());
+    }
+
     @Test
     void testPublicEndpointsAccessible() throws Exception {
         // Given: No authentication
@@ -181,4 +326,29 @@ class AuthControllerTest {
                 // Then: Should have CORS headers
                 .andExpect(status().isOk());
     }
+
+    /**
+     * Response whose output stream fails on write, like a closed connection
+     */
+    private static final class BrokenPipeResponse extends MockHttpServletResponse {
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return new ServletOutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    throw new IOException("Broken pipe");
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                }
+            };
+        }
+    }
 }
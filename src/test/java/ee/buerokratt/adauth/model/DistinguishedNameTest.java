@@ -0,0 +1,116 @@
+package ee.buerokratt.adauth.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for DistinguishedName
+ */
+class DistinguishedNameTest {
+
+    @Test
+    void testParsesIntoCanonicalRdns() {
+        // Given: DN with mixed case and spaces around separators
+        DistinguishedName dn = DistinguishedName.parse("CN=Buerokratt-Admins , OU=Groups,DC=Domain,DC=com");
+
+        // Then: One node per RDN, types and values case-folded
+        assertTrue(dn.isDistinguishedName());
+        assertEquals(4, dn.size());
+        assertEquals("cn=buerokratt-admins", dn.getRdn());
+        assertEquals("ou=groups", dn.getParent().getRdn());
+        assertEquals("cn=buerokratt-admins,ou=groups,dc=domain,dc=com", dn.toCanonicalString());
+        assertEquals("CN=Buerokratt-Admins , OU=Groups,DC=Domain,DC=com", dn.toString());
+    }
+
+    @Test
+    void testResolvesEscapesAndQuotes() {
+        // Given: Same value written with a hex escape, a special character escape and quotes
+        DistinguishedName hex = DistinguishedName.parse("CN=Smith\\2C John,OU=Users");
+        DistinguishedName escaped = DistinguishedName.parse("CN=Smith\\, John,OU=Users");
+        DistinguishedName quoted = DistinguishedName.parse("CN=\"Smith, John\",OU=Users");
+
+        // Then: All equal, with the comma re-escaped in the canonical form
+        assertEquals(hex, escaped);
+        assertEquals(hex, quoted);
+        assertEquals(hex.hashCode(), quoted.hashCode());
+        assertEquals("cn=smith\\, john", hex.getRdn());
+        assertEquals(2, hex.size());
+    }
+
+    @Test
+    void testDecodesUtf8HexEscapes() {
+        // Given: Non-ASCII value as UTF-8 hex escapes and as is
+        DistinguishedName escaped = DistinguishedName.parse("CN=J\\C3\\B5geva,OU=Users");
+        DistinguishedName plain = DistinguishedName.parse("CN=JÕGEVA,OU=Users");
+
+        // Then
+        assertEquals(plain, escaped);
+        assertEquals("cn=jõgeva", escaped.getRdn());
+    }
+
+    @Test
+    void testSortsMultiValuedRdns() {
+        // Given: Multi-valued RDN in either order
+        DistinguishedName first = DistinguishedName.parse("CN=Admins+OU=Groups,DC=domain");
+        DistinguishedName second = DistinguishedName.parse("OU=Groups+CN=Admins,DC=domain");
+
+        // Then
+        assertEquals(first, second);
+        assertEquals(2, first.size());
+    }
+
+    @Test
+    void testSharesInternedSuffixes() {
+        // Given: Two groups under the same OU
+        DistinguishedName admins = DistinguishedName.of("CN=Test-Admins,OU=Shared,DC=domain,DC=com");
+        DistinguishedName users = DistinguishedName.of("CN=Test-Users,OU=Shared,DC=domain,DC=com");
+
+        // Then: Parent nodes are the same instance, repeated lookups return the pooled DN
+        assertSame(admins.getParent(), users.getParent());
+        assertSame(admins, DistinguishedName.of("CN=Test-Admins,OU=Shared,DC=domain,DC=com"));
+        assertSame(admins.getParent(), DistinguishedName.of("OU=Shared,DC=domain,DC=com"));
+    }
+
+    @Test
+    void testStartsWithWholeRdns() {
+        // Given
+        DistinguishedName dn = DistinguishedName.of("CN=Admins-Old,OU=Groups,DC=domain");
+
+        // Then: Prefixes match only on RDN boundaries
+        assertTrue(dn.startsWith(DistinguishedName.of("cn=admins-old")));
+        assertTrue(dn.startsWith(DistinguishedName.of("CN=Admins-Old,OU=Groups")));
+        assertTrue(dn.getParent().startsWith(DistinguishedName.of("OU=Groups")));
+        assertFalse(dn.startsWith(DistinguishedName.of("CN=Admins")));
+        assertFalse(dn.startsWith(DistinguishedName.of("OU=Groups")));
+    }
+
+    @Test
+    void testKeepsInvalidValuesOpaque() {
+        // Given: Values that are not DNs
+        DistinguishedName netbios = DistinguishedName.of("DOMAIN\\Buerokratt-Admins");
+
+        // Then: Opaque, equal only to the same name ignoring case
+        assertFalse(netbios.isDistinguishedName());
+        assertEquals(netbios, DistinguishedName.of("domain\\buerokratt-admins"));
+        assertNotEquals(netbios, DistinguishedName.of("CN=Buerokratt-Admins"));
+        assertFalse(DistinguishedName.of("CN=Buerokratt-Admins").startsWith(netbios));
+        assertThrows(IllegalArgumentException.class, () -> DistinguishedName.parse("DOMAIN\\Buerokratt-Admins"));
+        assertThrows(IllegalArgumentException.class, () -> DistinguishedName.parse("CN=Admins,"));
+        assertThrows(IllegalArgumentException.class, () -> DistinguishedName.parse("CN=Admins\\2"));
+        assertThrows(IllegalArgumentException.class, () -> DistinguishedName.parse(" "));
+    }
+
+    @Test
+    void testListOfSkipsNulls() {
+        // Given
+        List<DistinguishedName> names = DistinguishedName.listOf(Arrays.asList("CN=A,DC=domain", null, "CN=B,DC=domain"));
+
+        // Then
+        assertEquals(2, names.size());
+        assertThrows(UnsupportedOperationException.class, () -> names.add(DistinguishedName.of("CN=C")));
+    }
+}
@@ -0,0 +1,51 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for AuthEventLogger
+ */
+class AuthEventLoggerTest {
+
+    @Test
+    void testPseudonymIsStableAndKeyed() {
+        // Given: Two loggers with the same key, one with another key
+        AuthEventLogger first = logger("key-one");
+        AuthEventLogger second = logger("key-one");
+        AuthEventLogger other = logger("key-two");
+
+        // When
+        String pseudonym = first.pseudonym("John.Doe@domain.com");
+
+        // Then: Same pseudonym for the same user under the same key only, without the name
+        assertEquals(16, pseudonym.length());
+        assertFalse(pseudonym.contains("john"));
+        assertEquals(pseudonym, second.pseudonym("john.doe@domain.com"));
+        assertNotEquals(pseudonym, other.pseudonym("john.doe@domain.com"));
+        assertNotEquals(pseudonym, first.pseudonym("jane.smith@domain.com"));
+        assertNull(first.pseudonym(null));
+    }
+
+    @Test
+    void testRandomKeyWhenNotConfigured() {
+        // Given: No key configured
+        AuthEventLogger first = logger(null);
+        AuthEventLogger second = logger("");
+
+        // Then: Each instance uses its own key
+        assertNotEquals(first.pseudonym("john.doe@domain.com"), second.pseudonym("john.doe@domain.com"));
+    }
+
+    private static AuthEventLogger logger(String key) {
+        ADProperties adProperties = new ADProperties();
+        adProperties.getLogging().setPseudonymKey(key);
+        AuthEventLogger logger = new AuthEventLogger();
+        ReflectionTestUtils.setField(logger, "adProperties", adProperties);
+        ReflectionTestUtils.invokeMethod(logger, "init");
+        return logger;
+    }
+}
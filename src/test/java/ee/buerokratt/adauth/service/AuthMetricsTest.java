@@ -0,0 +1,149 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for AuthMetrics
+ */
+@SpringBootTest
+class AuthMetricsTest {
+
+    @Autowired
+    private AuthMetrics authMetrics;
+
+    @Autowired
+    private SAMLService samlService;
+
+    @Autowired
+    private ADProperties adProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @AfterEach
+    void restoreSampleRate() {
+        adProperties.getMetrics().setStageSampleRate(1.0);
+    }
+
+    @Test
+    void testStagesTimedInOrder() {
+        // Given
+        long parsed = stageCount("parse");
+        long signed = stageCount("signature");
+        long succeeded = durationCount("success");
+
+        // When: A request completes two stages
+        AuthMetrics.Request request = authMetrics.start();
+        request.completed(AuthMetrics.Stage.PARSE);
+        request.completed(AuthMetrics.Stage.SIGNATURE);
+        request.finish();
+
+        // Then
+        assertEquals(parsed + 1, stageCount("parse"));
+        assertEquals(signed + 1, stageCount("signature"));
+        assertEquals(succeeded + 1, durationCount("success"));
+    }
+
+    @Test
+    void testFailureCountedForCurrentStage() {
+        // Given
+        double invalidConditions = errors("conditions", "invalid");
+        double errorsReplay = errors("replay", "error");
+        long failed = durationCount("failure");
+
+        // When: One request rejected after the signature check, one failing in the replay check
+        AuthMetrics.Request rejected = authMetrics.start();
+        rejected.completed(AuthMetrics.Stage.PARSE);
+        rejected.completed(AuthMetrics.Stage.SIGNATURE);
+        rejected.failed(true);
+        rejected.failed(false);
+        rejected.finish();
+        AuthMetrics.Request broken = authMetrics.start();
+        broken.completed(AuthMetrics.Stage.CONDITIONS);
+        broken.failed(false);
+        broken.finish();
+
+        // Then: Each failure counted once, for the stage that did not complete
+        assertEquals(invalidConditions + 1, errors("conditions", "invalid"));
+        assertEquals(errorsReplay + 1, errors("replay", "error"));
+        assertEquals(failed + 2, durationCount("failure"));
+    }
+
+    @Test
+    void testFailureCountedForGivenStage() {
+        // Given
+        double errorsSerialisation = errors("serialisation", "error");
+
+        // When: Session token stage skipped, then writing the body fails
+        AuthMetrics.Request request = authMetrics.start();
+        request.completed(AuthMetrics.Stage.ROLE_MAPPING);
+        request.failed(AuthMetrics.Stage.SERIALISATION, false);
+        request.finish();
+
+        // Then
+        assertEquals(errorsSerialisation + 1, errors("serialisation", "error"));
+    }
+
+    @Test
+    void testRoleMappingTimedUnderDesignName() {
+        // Given
+        long mapped = meterRegistry.get("ad.role.mapping.duration").timer().count();
+
+        // When
+        AuthMetrics.Request request = authMetrics.start();
+        request.completed(AuthMetrics.Stage.PARSE);
+        request.completed(AuthMetrics.Stage.ROLE_MAPPING);
+        request.finish();
+
+        // Then: Recorded both as a stage and under its own name
+        assertEquals(mapped + 1, meterRegistry.get("ad.role.mapping.duration").timer().count());
+    }
+
+    @Test
+    void testRejectedResponseCountedAsParseFailure() {
+        // Given
+        double invalidParse = errors("parse", "invalid");
+
+        // When
+        assertFalse(samlService.validateResponse("invalid-saml-response").isValid());
+
+        // Then
+        assertEquals(invalidParse + 1, errors("parse", "invalid"));
+    }
+
+    @Test
+    void testUnsampledRequestsSkipStageTimers() {
+        // Given: Stage timing disabled
+        adProperties.getMetrics().setStageSampleRate(0.0);
+        long parsed = stageCount("parse");
+        long succeeded = durationCount("success");
+
+        // When
+        AuthMetrics.Request request = authMetrics.start();
+        request.completed(AuthMetrics.Stage.PARSE);
+        request.finish();
+
+        // Then: Request duration is still recorded
+        assertEquals(parsed, stageCount("parse"));
+        assertEquals(succeeded + 1, durationCount("success"));
+    }
+
+    private long stageCount(String stage) {
+        return meterRegistry.get("ad.auth.stage.duration").tag("stage", stage).timer().count();
+    }
+
+    private long durationCount(String outcome) {
+        return meterRegistry.get("ad.auth.duration").tag("outcome", outcome).timer().count();
+    }
+
+    private double errors(String stage, String type) {
+        return meterRegistry.get("ad.saml.validation.errors").tag("stage", stage).tag("type", type).counter().count();
+    }
+}
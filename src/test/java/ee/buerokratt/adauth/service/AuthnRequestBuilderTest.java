@@ -0,0 +1,126 @@
+package ee.buerokratt.adauth.service;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for AuthnRequestBuilder
+ */
+class AuthnRequestBuilderTest {
+
+    private static final String SSO_URL = "https://adfs.domain.com/adfs/ls/";
+    private static final Instant NOW = Instant.parse("2026-03-02T08:00:00.123Z");
+
+    private static PrivateKey signingKey;
+    private static X509Certificate signingCertificate;
+
+    @BeforeAll
+    static void loadKey() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = AuthnRequestBuilderTest.class.getResourceAsStream("/saml/test-idp-keystore.p12")) {
+            keyStore.load(in, "changeit".toCharArray());
+        }
+        signingKey = (PrivateKey) keyStore.getKey("adfs-signing", "changeit".toCharArray());
+        signingCertificate = (X509Certificate) keyStore.getCertificate("adfs-signing");
+    }
+
+    @Test
+    void testBuildsDeflatedAuthnRequest() throws Exception {
+        // Given
+        AuthnRequestBuilder builder = new AuthnRequestBuilder("https://buerokratt.ee/saml/sp",
+            "https://buerokratt.ee/auth/ad/acs", null);
+        String id = builder.newRequestId();
+
+        // When
+        String url = builder.build(SSO_URL, id, NOW, "/chat?x=1&y=2");
+
+        // Then: Redirect binding parameters and the AuthnRequest content
+        assertTrue(url.startsWith(SSO_URL + "?SAMLRequest="));
+        Map<String, String> query = SAMLTestResponses.query(url);
+        assertEquals("/chat?x=1&y=2", query.get("RelayState"));
+        assertNull(query.get("Signature"));
+
+        String xml = SAMLTestResponses.inflate(query.get("SAMLRequest"));
+        assertTrue(xml.contains("ID=\"" + id + "\""));
+        assertTrue(xml.contains("IssueInstant=\"2026-03-02T08:00:00Z\""));
+        assertTrue(xml.contains("Destination=\"" + SSO_URL + "\""));
+        assertTrue(xml.contains("AssertionConsumerServiceURL=\"https://buerokratt.ee/auth/ad/acs\""));
+        assertTrue(xml.contains(">https://buerokratt.ee/saml/sp</saml:Issuer>"));
+    }
+
+    @Test
+    void testRequestIdsAreUniqueAndWellFormed() {
+        // Given
+        AuthnRequestBuilder builder = new AuthnRequestBuilder("sp", "acs", null);
+
+        // When
+        String first = builder.newRequestId();
+        String second = builder.newRequestId();
+
+        // Then: XML ID starting with "_", 128 random bits
+        assertTrue(first.matches("_[0-9a-f]{32}"));
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    void testReusedWorkspaceDoesNotLeakPreviousRequest() throws Exception {
+        // Given: Builder whose workspace served a request for another endpoint
+        AuthnRequestBuilder builder = new AuthnRequestBuilder("sp", "acs", null);
+        builder.build("https://adfs02.domain.com/adfs/ls/?tenant=a&b=c", builder.newRequestId(), NOW, "/first");
+        String id = builder.newRequestId();
+
+        // When
+        String url = builder.build(SSO_URL, id, NOW.plusSeconds(61), null);
+
+        // Then: New destination, ID and instant
+        String xml = SAMLTestResponses.inflate(SAMLTestResponses.query(url).get("SAMLRequest"));
+        assertTrue(xml.contains("ID=\"" + id + "\""));
+        assertTrue(xml.contains("IssueInstant=\"2026-03-02T08:01:01Z\""));
+        assertTrue(xml.contains("Destination=\"" + SSO_URL + "\""));
+        assertFalse(url.contains("RelayState"));
+        assertTrue(xml.endsWith("</samlp:AuthnRequest>"));
+    }
+
+    @Test
+    void testDestinationWithQueryIsEscaped() throws Exception {
+        // Given
+        AuthnRequestBuilder builder = new AuthnRequestBuilder("sp", "acs", null);
+
+        // When
+        String url = builder.build("https://adfs.domain.com/adfs/ls/?tenant=a&b=c", builder.newRequestId(), NOW, "/");
+
+        // Then: Parameters appended to the existing query, XML attribute escaped
+        assertTrue(url.startsWith("https://adfs.domain.com/adfs/ls/?tenant=a&b=c&SAMLRequest="));
+        assertTrue(SAMLTestResponses.inflate(SAMLTestResponses.query(url).get("SAMLRequest")).contains("?tenant=a&amp;b=c\""));
+    }
+
+    @Test
+    void testSignedRequestVerifiesWithSigningCertificate() throws Exception {
+        // Given
+        AuthnRequestBuilder builder = new AuthnRequestBuilder("sp", "acs", signingKey);
+
+        // When
+        String url = builder.build(SSO_URL, builder.newRequestId(), NOW, "/back");
+
+        // Then: Signature over the query octets before &Signature=
+        Map<String, String> query = SAMLTestResponses.query(url);
+        assertEquals(AuthnRequestBuilder.SIG_ALG_RSA_SHA256, query.get("SigAlg"));
+        String signedPart = url.substring(url.indexOf('?') + 1, url.indexOf("&Signature="));
+        Signature verifier = Signature.getInstance("SHA256withRSA");
+        verifier.initVerify(signingCertificate.getPublicKey());
+        verifier.update(signedPart.getBytes(StandardCharsets.US_ASCII));
+        assertTrue(verifier.verify(Base64.getDecoder().decode(query.get("Signature"))));
+    }
+}
@@ -0,0 +1,115 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.UserAttributes;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for BearerTokenVerifier
+ */
+class BearerTokenVerifierTest {
+
+    private final SessionTokenService ruuter = issuer();
+
+    @Test
+    void testVerifiesAndCachesToken() throws Exception {
+        // Given: A token signed by a trusted key
+        BearerTokenVerifier verifier = verifier("ad-auth-service");
+        String token = ruuter.issue(caller(), List.of("ROLE_SERVICE"), Instant.now());
+
+        // When: Verifying it twice
+        BearerTokenVerifier.VerifiedToken first = verifier.verify(token);
+        BearerTokenVerifier.VerifiedToken second = verifier.verify(token);
+
+        // Then: The caller and its roles; the second call is served from the cache
+        assertEquals("ruuter", first.subject());
+        assertEquals(List.of("ROLE_SERVICE"), first.authorities().stream().map(GrantedAuthority::getAuthority).toList());
+        assertSame(first, second);
+    }
+
+    @Test
+    void testRejectsInvalidTokens() throws Exception {
+        // Given
+        BearerTokenVerifier verifier = verifier("ad-auth-service");
+        String[] valid = ruuter.issue(caller(), List.of(), Instant.now()).split("\\.");
+        String[] other = ruuter.issue(caller(), List.of("ROLE_ADMINISTRATOR"), Instant.now()).split("\\.");
+        String kid = ruuter.getKeyId();
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair untrustedKey = generator.generateKeyPair();
+        SessionTokenService untrusted = issuer();
+        untrusted.useKey(untrustedKey.getPrivate(), untrustedKey.getPublic());
+
+        // Then: Each is rejected with its reason
+        assertRejected(verifier, "Malformed token", "not-a-token");
+        assertRejected(verifier, "Invalid token signature", valid[0] + "." + other[1] + "." + valid[2]);
+        assertRejected(verifier, "Token expired",
+            ruuter.issue(caller(), List.of(), Instant.now().minus(Duration.ofHours(2))));
+        assertRejected(verifier, "Unknown signing key", untrusted.issue(caller(), List.of(), Instant.now()));
+        assertRejected(verifier, "Unexpected token algorithm",
+            encode("{\"alg\":\"HS256\",\"kid\":\"" + kid + "\"}") + "." + valid[1] + "." + valid[2]);
+        assertRejected(verifier("another-service"), "Token is not for this service", String.join(".", valid));
+    }
+
+    private static void assertRejected(BearerTokenVerifier verifier, String reason, String token) {
+        BearerTokenException e = assertThrows(BearerTokenException.class, () -> verifier.verify(token));
+        assertEquals(reason, e.getMessage());
+    }
+
+    private static BearerTokenVerifier verifier(String audience) {
+        ADProperties adProperties = new ADProperties();
+        adProperties.setFederation(new ADProperties.Federation());
+        adProperties.getApiAuth().setTrustedCertificates(List.of("classpath:saml/test-idp-signing.crt"));
+        adProperties.getApiAuth().setIssuer("https://ruuter.buerokratt.ee");
+        adProperties.getApiAuth().setAudience(audience);
+        BearerTokenVerifier verifier = new BearerTokenVerifier();
+        ReflectionTestUtils.setField(verifier, "adProperties", adProperties);
+        ReflectionTestUtils.invokeMethod(verifier, "init");
+        return verifier;
+    }
+
+    /**
+     * Token issuer with the key of the trusted test certificate
+     */
+    private static SessionTokenService issuer() {
+        ADProperties adProperties = new ADProperties();
+        ADProperties.Federation federation = new ADProperties.Federation();
+        federation.setKeystorePath("classpath:" + SAMLTestSigner.IDP_KEYSTORE);
+        federation.setKeystorePassword("changeit");
+        adProperties.setFederation(federation);
+        adProperties.getSession().setEnabled(true);
+        adProperties.getSession().setIssuer("https://ruuter.buerokratt.ee");
+        adProperties.getSession().setAudience("ad-auth-service");
+        SigningKeyService signingKeyService = new SigningKeyService();
+        ReflectionTestUtils.setField(signingKeyService, "adProperties", adProperties);
+        SessionTokenService service = new SessionTokenService();
+        ReflectionTestUtils.setField(service, "adProperties", adProperties);
+        ReflectionTestUtils.setField(service, "signingKeyService", signingKeyService);
+        ReflectionTestUtils.invokeMethod(service, "init");
+        return service;
+    }
+
+    private static UserAttributes caller() {
+        UserAttributes caller = new UserAttributes();
+        caller.setUPN("ruuter");
+        return caller;
+    }
+
+    private static String encode(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,172 @@
+package ee.buerokratt.adauth.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for CircuitBreaker
+ */
+class CircuitBreakerTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final List<String> transitions = new ArrayList<>();
+
+    private CircuitBreaker breaker(int windowSize, int minimumCalls, float threshold, long waitMillis) {
+        return new CircuitBreaker("test", windowSize, minimumCalls, threshold, waitMillis,
+            (breaker, from, to) -> transitions.add(from + "->" + to), clock::get);
+    }
+
+    @Test
+    void testOpensWhenFailureRateReachesThreshold() {
+        // Given: Window of 10, minimum 4 calls, 50% threshold
+        CircuitBreaker breaker = breaker(10, 4, 50, 1000);
+
+        // When: 2 successes, then failures
+        breaker.onSuccess();
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure();
+
+        // Then: Opens at 2 of 4 failed
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(50f, breaker.getFailureRate());
+        assertEquals(List.of("CLOSED->OPEN"), transitions);
+    }
+
+    @Test
+    void testStaysClosedBelowMinimumCalls() {
+        // Given: Minimum of 5 calls
+        CircuitBreaker breaker = breaker(10, 5, 50, 1000);
+
+        // When: Only 4 failures recorded
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+
+        // Then: Not enough calls to judge
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(-1f, breaker.getFailureRate());
+        assertTrue(breaker.tryAcquirePermission());
+    }
+
+    @Test
+    void testSlidingWindowForgetsOldFailures() {
+        // Given: Window of 4 with 1 failure
+        CircuitBreaker breaker = breaker(4, 4, 50, 1000);
+        breaker.onFailure();
+
+        // When: Followed by 4 successes
+        for (int i = 0; i < 4; i++) {
+            breaker.onSuccess();
+        }
+
+        // Then: Failure has slid out of the window
+        assertEquals(4, breaker.getBufferedCalls());
+        assertEquals(0, breaker.getFailedCalls());
+        assertEquals(0f, breaker.getFailureRate());
+    }
+
+    @Test
+    void testHalfOpenAllowsSingleTrialAfterWaitDuration() {
+        // Given: Open breaker
+        CircuitBreaker breaker = breaker(2, 2, 50, 1000);
+        breaker.onFailure();
+        breaker.onFailure();
+        assertFalse(breaker.tryAcquirePermission());
+
+        // When: Wait duration elapses
+        clock.addAndGet(1000 * 1_000_000L);
+
+        // Then: Exactly one trial call is let through
+        assertTrue(breaker.tryAcquirePermission());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquirePermission());
+    }
+
+    @Test
+    void testHalfOpenClosesOnSuccessWithFreshWindow() {
+        // Given: Half-open breaker
+        CircuitBreaker breaker = breaker(2, 2, 50, 1000);
+        breaker.onFailure();
+        breaker.onFailure();
+        clock.addAndGet(1000 * 1_000_000L);
+        assertTrue(breaker.tryAcquirePermission());
+
+        // When: Trial call succeeds
+        breaker.onSuccess();
+
+        // Then: Closed with an empty window
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getBufferedCalls());
+        assertTrue(breaker.tryAcquirePermission());
+        assertEquals(List.of("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), transitions);
+    }
+
+    @Test
+    void testHalfOpenReopensOnFailure() {
+        // Given: Half-open breaker
+        CircuitBreaker breaker = breaker(2, 2, 50, 1000);
+        breaker.onFailure();
+        breaker.onFailure();
+        clock.addAndGet(1000 * 1_000_000L);
+        assertTrue(breaker.tryAcquirePermission());
+
+        // When: Trial call fails
+        breaker.onFailure();
+
+        // Then: Open again for another wait duration
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquirePermission());
+        clock.addAndGet(1000 * 1_000_000L);
+        assertTrue(breaker.tryAcquirePermission());
+    }
+
+    @Test
+    void testConcurrentRecordingKeepsCountsConsistent() throws InterruptedException {
+        // Given: Breaker that never opens and 4 threads recording
+        CircuitBreaker breaker = breaker(64, 64, 101, 1000);
+        int threads = 4;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger failuresRecorded = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 10_000; i++) {
+                    if ((i + seed) % 3 == 0) {
+                        breaker.onFailure();
+                        failuresRecorded.incrementAndGet();
+                    } else {
+                        breaker.onSuccess();
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        // When
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        // Then: Window is full and failures are within its bounds
+        assertEquals(64, breaker.getBufferedCalls());
+        assertTrue(breaker.getFailedCalls() >= 0 && breaker.getFailedCalls() <= 64);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
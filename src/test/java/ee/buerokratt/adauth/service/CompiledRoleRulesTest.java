@@ -0,0 +1,203 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.DistinguishedName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for CompiledRoleRules
+ */
+class CompiledRoleRulesTest {
+
+    @Test
+    void testExactAndSubstringMatches() {
+        // Given: Rules with a full DN and a bare CN fragment
+        CompiledRoleRules rules = CompiledRoleRules.compile(Arrays.asList(
+            rule("CN=Buerokratt-Admins,OU=Groups,DC=domain,DC=com", "ROLE_ADMINISTRATOR", 1),
+            rule("CN=Buerokratt-Analysts", "ROLE_ANALYST", 5)
+        ));
+
+        // When: Matching a group equal to the first rule
+        long[] matched = rules.match(dns("CN=Buerokratt-Admins,OU=Groups,DC=domain,DC=com"));
+
+        // Then: Only the admin rule matches
+        assertEquals("ROLE_ADMINISTRATOR", rules.firstMatch(matched).getRole());
+        assertEquals(1, rules.allMatches(matched).size());
+
+        // When: Matching a group containing the fragment
+        matched = rules.match(dns("CN=Buerokratt-Analysts,OU=Other,DC=domain,DC=com"));
+
+        // Then: Analyst rule matches
+        assertEquals("ROLE_ANALYST", rules.highestPriority(matched).getRole());
+    }
+
+    @Test
+    void testExactGroupAlsoMatchesContainedPatterns() {
+        // Given: One pattern contained in another
+        CompiledRoleRules rules = CompiledRoleRules.compile(Arrays.asList(
+            rule("CN=Admins,OU=Groups", "ROLE_ADMINISTRATOR", 2),
+            rule("OU=Groups", "ROLE_ANALYST", 1)
+        ));
+
+        // When: Group equals the longer pattern
+        long[] matched = rules.match(dns("CN=Admins,OU=Groups"));
+
+        // Then: Both rules match
+        assertEquals(2, rules.allMatches(matched).size());
+        assertEquals("ROLE_ANALYST", rules.highestPriority(matched).getRole());
+    }
+
+    @Test
+    void testRulesWithoutPriorityIgnoredForHighestPriority() {
+        // Given: Matching rule without priority
+        CompiledRoleRules rules = CompiledRoleRules.compile(Collections.singletonList(
+            rule("CN=Admins", "ROLE_ADMINISTRATOR", null)
+        ));
+
+        // When: Matching
+        long[] matched = rules.match(dns("CN=Admins,OU=Groups"));
+
+        // Then: Matches by order, not by priority
+        assertNull(rules.highestPriority(matched));
+        assertEquals("ROLE_ADMINISTRATOR", rules.firstMatch(matched).getRole());
+    }
+
+    @Test
+    void testNullAndEmptyInputs() {
+        // Given: Rule list containing a rule without AD group
+        CompiledRoleRules rules = CompiledRoleRules.compile(Arrays.asList(
+            rule(null, "ROLE_BROKEN", 1),
+            rule("CN=Admins", "ROLE_ADMINISTRATOR", 2)
+        ));
+
+        // When: Matching null group entries
+        long[] matched = rules.match(Arrays.asList(null, DistinguishedName.of("CN=Admins")));
+
+        // Then: Broken rule is skipped, null group ignored
+        assertEquals(List.of("ROLE_ADMINISTRATOR"),
+            rules.allMatches(matched).stream().map(ADProperties.RoleMappingRule::getRole).collect(Collectors.toList()));
+        assertTrue(CompiledRoleRules.compile(null).isEmpty());
+    }
+
+    @Test
+    void testMatchesWholeRdnsOnly() {
+        // Given: Rule for a group whose name prefixes another group's name
+        CompiledRoleRules rules = CompiledRoleRules.compile(Collections.singletonList(
+            rule("CN=Buerokratt-Admins", "ROLE_ADMINISTRATOR", 1)
+        ));
+
+        // When / Then: Longer CN does not match, other spelling of the same DN does
+        assertNull(rules.firstMatch(rules.match(dns("CN=Buerokratt-Admins-Old,OU=Groups,DC=domain,DC=com"))));
+        assertNotNull(rules.firstMatch(rules.match(dns("cn=buerokratt-admins, ou=Groups,DC=domain,DC=com"))));
+        assertNotNull(rules.firstMatch(rules.match(dns("CN=Buerokratt\\2DAdmins,OU=Groups"))));
+    }
+
+    @Test
+    void testOpaqueGroupNamesMatchOnlyWhole() {
+        // Given: Rule with a group name that is not a DN
+        CompiledRoleRules rules = CompiledRoleRules.compile(Collections.singletonList(
+            rule("DOMAIN\\Buerokratt-Admins", "ROLE_ADMINISTRATOR", 1)
+        ));
+
+        // When / Then
+        assertNotNull(rules.firstMatch(rules.match(dns("domain\\buerokratt-admins"))));
+        assertNull(rules.firstMatch(rules.match(dns("DOMAIN\\Buerokratt-Admins-Old"))));
+    }
+
+    @Test
+    void testMatchesNaiveScanForAllStrategies() {
+        // Given: Random rules and groups over a small RDN alphabet to force overlaps
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            List<ADProperties.RoleMappingRule> ruleList = new ArrayList<>();
+            int ruleCount = 1 + random.nextInt(20);
+            for (int i = 0; i < ruleCount; i++) {
+                ruleList.add(rule(randomDn(random, 1 + random.nextInt(3)), "ROLE_" + i,
+                    random.nextInt(5) == 0 ? null : random.nextInt(10)));
+            }
+            List<String> groups = new ArrayList<>();
+            int groupCount = 1 + random.nextInt(6);
+            for (int i = 0; i < groupCount; i++) {
+                groups.add(random.nextBoolean()
+                    ? randomDn(random, 1 + random.nextInt(5))
+                    : ruleList.get(random.nextInt(ruleCount)).getAdGroup());
+            }
+
+            // When: Matching with compiled rules
+            CompiledRoleRules compiled = CompiledRoleRules.compile(ruleList);
+            long[] matched = compiled.match(DistinguishedName.listOf(groups));
+
+            // Then: Same results as a per-rule scan for the rule's RDNs within each group's RDNs
+            assertEquals(naiveFirstMatch(ruleList, groups), compiled.firstMatch(matched));
+            assertEquals(naiveHighestPriority(ruleList, groups), compiled.highestPriority(matched));
+            assertEquals(naiveCombine(ruleList, groups), new LinkedHashSet<>(compiled.allMatches(matched)));
+        }
+    }
+
+    private static boolean naiveMatches(String group, ADProperties.RoleMappingRule rule) {
+        return Collections.indexOfSubList(rdns(group), rdns(rule.getAdGroup())) >= 0;
+    }
+
+    private static List<String> rdns(String dn) {
+        return Arrays.stream(dn.split(",")).map(String::toLowerCase).collect(Collectors.toList());
+    }
+
+    private static ADProperties.RoleMappingRule naiveFirstMatch(List<ADProperties.RoleMappingRule> rules,
+                                                                List<String> groups) {
+        return rules.stream()
+            .filter(r -> groups.stream().anyMatch(g -> naiveMatches(g, r)))
+            .findFirst().orElse(null);
+    }
+
+    private static ADProperties.RoleMappingRule naiveHighestPriority(List<ADProperties.RoleMappingRule> rules,
+                                                                     List<String> groups) {
+        return rules.stream()
+            .filter(r -> r.getPriority() != null)
+            .sorted(Comparator.comparingInt(ADProperties.RoleMappingRule::getPriority))
+            .filter(r -> groups.stream().anyMatch(g -> naiveMatches(g, r)))
+            .findFirst().orElse(null);
+    }
+
+    private static Set<ADProperties.RoleMappingRule> naiveCombine(List<ADProperties.RoleMappingRule> rules,
+                                                                  List<String> groups) {
+        return rules.stream()
+            .filter(r -> groups.stream().anyMatch(g -> naiveMatches(g, r)))
+            .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    private static String randomDn(Random random, int rdns) {
+        String[] alphabet = {"CN=a", "CN=B", "cn=b", "OU=a", "OU=A", "DC=c"};
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < rdns; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static List<DistinguishedName> dns(String... values) {
+        return DistinguishedName.listOf(Arrays.asList(values));
+    }
+
+    private static ADProperties.RoleMappingRule rule(String adGroup, String role, Integer priority) {
+        ADProperties.RoleMappingRule rule = new ADProperties.RoleMappingRule();
+        rule.setAdGroup(adGroup);
+        rule.setRole(role);
+        rule.setPriority(priority);
+        return rule;
+    }
+}
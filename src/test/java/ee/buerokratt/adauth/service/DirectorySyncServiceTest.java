@@ -0,0 +1,250 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.UserAttributes;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.DriverManager;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for DirectorySyncService against an in-memory directory and auth_users table
+ */
+class DirectorySyncServiceTest {
+
+    private static final String BIND_DN = "CN=svc-buerokratt,OU=Service Accounts,DC=domain,DC=com";
+    private static final String ANALYSTS = "CN=Analysts,OU=Groups,DC=domain,DC=com";
+    private static final String ADMINS = "CN=Admins,OU=Groups,DC=domain,DC=com";
+    private static final String JOHN = "CN=John Doe,OU=Users,DC=domain,DC=com";
+    private static final String MARI = "CN=Mari Maasikas,OU=Users,DC=domain,DC=com";
+    private static final String JANE = "CN=Jane Roe,OU=Users,DC=domain,DC=com";
+
+    @TempDir
+    Path temporaryDirectory;
+
+    private InMemoryLdapServer server;
+    private EmbeddedAuthUsersDatabase database;
+    private ADProperties adProperties;
+    private RoleMappingService roleMappingService;
+    private UserProvisioningService provisioningService;
+    private DirectorySyncService service;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new InMemoryLdapServer(BIND_DN, "secret");
+        // Two members per range, so that Analysts is read by range retrieval below
+        server.maxValueRange = 2;
+        server.add(JOHN, user("john.doe@domain.com", ANALYSTS));
+        server.add(MARI, user("mari.maasikas@domain.com", ADMINS));
+        server.add(JANE, user("jane.roe@domain.com"));
+        server.add(ANALYSTS, group(JOHN));
+        server.add(ADMINS, group(MARI));
+        server.add("CN=WS-0042,OU=Computers,DC=domain,DC=com", Map.of("objectClass", "user"));
+
+        database = new EmbeddedAuthUsersDatabase("directory-sync-" + System.nanoTime());
+        DriverManager.registerDriver(database);
+
+        adProperties = new ADProperties();
+        adProperties.setResilience(new ADProperties.Resilience());
+        ADProperties.RoleMapping roleMapping = new ADProperties.RoleMapping();
+        roleMapping.setRules(List.of(rule(ADMINS, "ROLE_ADMINISTRATOR", 1), rule(ANALYSTS, "ROLE_ANALYST", 2)));
+        adProperties.setRoleMapping(roleMapping);
+        adProperties.getLdap().setUrl(server.url());
+        adProperties.getLdap().setBindDn(BIND_DN);
+        adProperties.getLdap().setBindPassword("secret");
+        adProperties.getLdap().setBaseDn("DC=domain,DC=com");
+        adProperties.getProvisioning().setEnabled(true);
+        adProperties.getProvisioning().setJdbcUrl(database.url());
+        adProperties.getSync().setEnabled(true);
+        adProperties.getSync().setInterval(3600000L);
+        adProperties.getSync().setCheckpointFile(temporaryDirectory.resolve("sync.json").toString());
+        adProperties.getSync().setPageSize(2);
+        adProperties.getSync().setChunkSize(1);
+
+        meterRegistry = new SimpleMeterRegistry();
+        roleMappingService = new RoleMappingService();
+        ReflectionTestUtils.setField(roleMappingService, "adProperties", adProperties);
+        ReflectionTestUtils.setField(roleMappingService, "cacheManager",
+            new ConcurrentMapCacheManager(RoleMappingService.CACHE_NAME));
+        ReflectionTestUtils.invokeMethod(roleMappingService, "init");
+
+        provisioningService = new UserProvisioningService();
+        ReflectionTestUtils.setField(provisioningService, "adProperties", adProperties);
+        ReflectionTestUtils.setField(provisioningService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.invokeMethod(provisioningService, "init");
+        // John and Mari have logged in before, Jane has not
+        Instant login = Instant.parse("2026-03-02T07:45:00Z");
+        provisioningService.provision(login("john.doe@domain.com", "John Doe"), List.of("ROLE_ANALYST"), login);
+        provisioningService.provision(login("mari.maasikas@domain.com", "Mari Maasikas"), List.of(), login);
+        provisioningService.flush();
+
+        service = service();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        ReflectionTestUtils.invokeMethod(service, "shutdown");
+        ReflectionTestUtils.invokeMethod(provisioningService, "shutdown");
+        DriverManager.deregisterDriver(database);
+        server.close();
+    }
+
+    @Test
+    void testRemapsOnlyUsersAffectedByChanges() throws Exception {
+        // Given: A first, full read of the directory
+        int first = service.run();
+        provisioningService.flush();
+
+        // When: Jane joins Analysts; as in AD only the group entry changes
+        server.add(ANALYSTS, group(JOHN, JANE, MARI));
+        int second = service.run();
+        provisioningService.flush();
+
+        // Then: All three users were mapped by the full read, and only Jane and Mari after the change
+        assertEquals(3, first);
+        assertEquals(3, service.getUserCount());
+        assertEquals("[\"ROLE_ADMINISTRATOR\"]", database.row("mari.maasikas@domain.com").get("authorities"));
+        assertEquals(1.0, meterRegistry.counter("ad.sync.runs", "outcome", "incremental").count());
+        assertEquals(5.0, meterRegistry.counter("ad.sync.users", "outcome", "remapped").count());
+        // Mari keeps her higher priority role; Jane is not in auth_users until she logs in
+        assertEquals(1, second);
+        assertNull(database.row("jane.roe@domain.com"));
+        assertEquals(2.0, meterRegistry.counter("ad.provisioning.users", "outcome", "not_provisioned").count());
+
+        // When: Nothing changed
+        int third = service.run();
+
+        // Then
+        assertEquals(0, third);
+        assertEquals(5.0, meterRegistry.counter("ad.sync.users", "outcome", "remapped").count());
+    }
+
+    @Test
+    void testRuleChangeRemapsOnlyMembersOfMatchingGroups() throws Exception {
+        // Given
+        service.run();
+        provisioningService.flush();
+
+        // When: The Admins rule gets another role
+        List<ADProperties.RoleMappingRule> rules = new ArrayList<>(adProperties.getRoleMapping().getRules());
+        rules.set(0, rule(ADMINS, "ROLE_SERVICE_MANAGER", 1));
+        roleMappingService.publish(CompiledRoleRules.compile(rules));
+        int changed = service.run();
+        provisioningService.flush();
+
+        // Then: Only Mari is mapped again
+        assertEquals(1, changed);
+        assertEquals(4.0, meterRegistry.counter("ad.sync.users", "outcome", "remapped").count());
+        assertEquals("[\"ROLE_SERVICE_MANAGER\"]", database.row("mari.maasikas@domain.com").get("authorities"));
+        assertEquals("[\"ROLE_ANALYST\"]", database.row("john.doe@domain.com").get("authorities"));
+    }
+
+    @Test
+    void testResumesFromCheckpoint() throws Exception {
+        // Given: A synced directory, then a restart
+        service.run();
+        ReflectionTestUtils.invokeMethod(service, "shutdown");
+        assertTrue(Files.exists(temporaryDirectory.resolve("sync.json")));
+        service = service();
+
+        // When: John leaves Analysts for Admins while the service is down
+        server.add(JOHN, user("john.doe@domain.com", ADMINS));
+        server.add(ANALYSTS, group());
+        server.add(ADMINS, group(MARI, JOHN));
+        int changed = service.run();
+        provisioningService.flush();
+
+        // Then: The restarted service reads only the changes
+        assertEquals(1, changed);
+        assertEquals(1.0, meterRegistry.counter("ad.sync.runs", "outcome", "incremental").count());
+        assertEquals(4.0, meterRegistry.counter("ad.sync.users", "outcome", "read").count());
+        assertEquals("[\"ROLE_ADMINISTRATOR\"]", database.row("john.doe@domain.com").get("authorities"));
+
+        // When: The next read reaches another domain controller, whose USNs mean nothing here
+        server.serviceName = "CN=NTDS Settings,CN=DC2,CN=Servers,CN=Default-First-Site-Name,CN=Sites,"
+            + "CN=Configuration,DC=domain,DC=com";
+        int afterFailover = service.run();
+
+        // Then: The directory is read in full, and no roles change
+        assertEquals(2.0, meterRegistry.counter("ad.sync.runs", "outcome", "full").count());
+        assertEquals(0, afterFailover);
+    }
+
+    @Test
+    void testFullReadRevokesRolesOfDeletedGroup() throws Exception {
+        // Given: A synced directory
+        service.run();
+        provisioningService.flush();
+
+        // When: Admins is deleted; AD drops it from Mari's memberOf without a new uSNChanged
+        server.remove(ADMINS);
+        server.relink(MARI, user("mari.maasikas@domain.com"));
+        int incremental = service.run();
+
+        // Then: The incremental read does not see it
+        assertEquals(0, incremental);
+        assertEquals("[\"ROLE_ADMINISTRATOR\"]", database.row("mari.maasikas@domain.com").get("authorities"));
+
+        // When: The full interval has passed
+        adProperties.getSync().setFullInterval(1L);
+        Thread.sleep(2);
+        int full = service.run();
+        provisioningService.flush();
+
+        // Then: Mari loses the role
+        assertEquals(1, full);
+        assertEquals(2.0, meterRegistry.counter("ad.sync.runs", "outcome", "full").count());
+        assertFalse(database.row("mari.maasikas@domain.com").get("authorities").toString()
+            .contains("ROLE_ADMINISTRATOR"));
+    }
+
+    private DirectorySyncService service() {
+        ResilienceService resilienceService = new ResilienceService();
+        ReflectionTestUtils.setField(resilienceService, "adProperties", adProperties);
+        ReflectionTestUtils.setField(resilienceService, "meterRegistry", meterRegistry);
+
+        DirectorySyncService service = new DirectorySyncService();
+        ReflectionTestUtils.setField(service, "adProperties", adProperties);
+        ReflectionTestUtils.setField(service, "roleMappingService", roleMappingService);
+        ReflectionTestUtils.setField(service, "provisioningService", provisioningService);
+        ReflectionTestUtils.setField(service, "resilienceService", resilienceService);
+        ReflectionTestUtils.setField(service, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.invokeMethod(service, "init");
+        return service;
+    }
+
+    private static Map<String, Object> user(String upn, String... memberOf) {
+        return Map.of("objectClass", "user", "userPrincipalName", upn, "memberOf", List.of(memberOf));
+    }
+
+    private static Map<String, Object> group(String... members) {
+        return Map.of("objectClass", "group", "member", List.of(members));
+    }
+
+    private static ADProperties.RoleMappingRule rule(String adGroup, String role, int priority) {
+        ADProperties.RoleMappingRule rule = new ADProperties.RoleMappingRule();
+        rule.setAdGroup(adGroup);
+        rule.setRole(role);
+        rule.setPriority(priority);
+        return rule;
+    }
+
+    private static UserAttributes login(String upn, String displayName) {
+        String[] names = displayName.split(" ", 2);
+        return new UserAttributes(upn, upn, displayName, names[0], names[1], List.of());
+    }
+}
@@ -0,0 +1,488 @@
+package ee.buerokratt.adauth.service;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory stand-in for a PostgreSQL table, reached through JDBC
+ *
+ * A Driver for one jdbc:embedded: URL that runs upserts of the form
+ * INSERT INTO t (columns) VALUES (values) ON CONFLICT (key) DO UPDATE SET
+ * with column = EXCLUDED.column or COALESCE(EXCLUDED.column, t.column)
+ * assignments. Values are ? placeholders, CAST(? AS type) or quoted
+ * literals; unquoted names are folded to lower case as PostgreSQL does.
+ * UPDATE t SET column = ?, ... WHERE key = ? changes an existing row only.
+ * Changes become visible on commit. A failing statement aborts the
+ * transaction, and a failing batch throws BatchUpdateException.
+ * failNextBatch() simulates a lost connection, reject() a row the
+ * database refuses, e.g. for a constraint.
+ */
+class EmbeddedAuthUsersDatabase implements Driver {
+
+    private static final Pattern UPSERT = Pattern.compile(
+        "INSERT INTO (\\w+) \\((.*?)\\) VALUES \\((.*)\\) ON CONFLICT \\((\\w+)\\) DO UPDATE SET (.*)",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern UPDATE = Pattern.compile("UPDATE (\\w+) SET (.*) WHERE (\\w+) = \\?",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern ASSIGNMENT = Pattern.compile("(\\w+) = (\\?|CAST\\(\\? AS \\w+\\))",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern CAST = Pattern.compile("CAST\\(\\? AS \\w+\\)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern EXCLUDED = Pattern.compile("(\\w+) = EXCLUDED\\.(\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern COALESCE = Pattern.compile(
+        "(\\w+) = COALESCE\\(EXCLUDED\\.(\\w+), \\w+\\.(\\w+)\\)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern LITERAL = Pattern.compile("(\\w+) = '([^']*)'", Pattern.CASE_INSENSITIVE);
+
+    private final String url;
+    private final Map<String, Map<String, Object>> rows = new ConcurrentHashMap<>();
+    final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+    final AtomicInteger connections = new AtomicInteger();
+    private volatile boolean failNextBatch;
+    private volatile String rejected;
+
+    EmbeddedAuthUsersDatabase(String name) {
+        this.url = "jdbc:embedded:" + name;
+    }
+
+    String url() {
+        return url;
+    }
+
+    /**
+     * Committed row by key column value
+     */
+    Map<String, Object> row(String key) {
+        return rows.get(key);
+    }
+
+    int size() {
+        return rows.size();
+    }
+
+    /**
+     * Commit a row directly, as if another login method had created it
+     */
+    void insert(String key, Map<String, Object> row) {
+        rows.put(key, new HashMap<>(row));
+    }
+
+    /**
+     * Fail the next batch as if the connection dropped
+     */
+    void failNextBatch() {
+        failNextBatch = true;
+    }
+
+    /**
+     * Refuse to write rows with this key
+     */
+    void reject(String key) {
+        rejected = key;
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        connections.incrementAndGet();
+        return proxy(Connection.class, new ConnectionHandler());
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return this.url.equals(url);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        InvocationHandler unwrapping = (proxy, method, args) -> {
+            try {
+                return handler.invoke(proxy, method, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, unwrapping);
+    }
+
+    private final class ConnectionHandler implements InvocationHandler {
+
+        private final Map<String, Map<String, Object>> uncommitted = new LinkedHashMap<>();
+        private boolean autoCommit = true;
+        private boolean aborted;
+        private boolean closed;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "prepareStatement" -> {
+                    check();
+                    String sql = ((String) args[0]).replaceAll("\\s+", " ").trim();
+                    Command command = sql.regionMatches(true, 0, "UPDATE ", 0, 7) ? new Update(sql) : new Upsert(sql);
+                    return EmbeddedAuthUsersDatabase.proxy(PreparedStatement.class, new StatementHandler(this, command));
+                }
+                case "setAutoCommit" -> autoCommit = (Boolean) args[0];
+                case "getAutoCommit" -> {
+                    return autoCommit;
+                }
+                case "commit" -> {
+                    check();
+                    if (aborted) {
+                        throw new SQLException("current transaction is aborted", "25P02");
+                    }
+                    rows.putAll(uncommitted);
+                    uncommitted.clear();
+                }
+                case "rollback" -> {
+                    check();
+                    uncommitted.clear();
+                    aborted = false;
+                }
+                case "close" -> closed = true;
+                case "isClosed" -> {
+                    return closed;
+                }
+                case "isValid" -> {
+                    return !closed;
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "toString" -> {
+                    return "EmbeddedConnection[" + url + "]";
+                }
+                default -> throw new SQLFeatureNotSupportedException(method.getName());
+            }
+            return null;
+        }
+
+        void check() throws SQLException {
+            if (closed) {
+                throw new SQLException("This connection has been closed.", "08003");
+            }
+        }
+
+        /**
+         * @return Rows changed
+         */
+        int execute(Command command, Map<Integer, Object> parameters) throws SQLException {
+            check();
+            if (aborted) {
+                throw new SQLException("current transaction is aborted", "25P02");
+            }
+            String key = command.key(parameters);
+            if (key == null || key.equals(rejected)) {
+                aborted = !autoCommit;
+                throw new SQLException("duplicate key value violates unique constraint", "23505");
+            }
+            Map<String, Object> existing = uncommitted.containsKey(key) ? uncommitted.get(key) : rows.get(key);
+            Map<String, Object> row = command.apply(existing, parameters);
+            if (row == null) {
+                return 0;
+            }
+            if (autoCommit) {
+                rows.put(key, row);
+            } else {
+                uncommitted.put(key, row);
+            }
+            return 1;
+        }
+    }
+
+    private final class StatementHandler implements InvocationHandler {
+
+        private final ConnectionHandler connection;
+        private final Command command;
+        private Map<Integer, Object> parameters = new HashMap<>();
+        private final List<Map<Integer, Object>> batch = new ArrayList<>();
+
+        StatementHandler(ConnectionHandler connection, Command command) {
+            this.connection = connection;
+            this.command = command;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("set") && args.length >= 2 && args[0] instanceof Integer index) {
+                parameters.put(index, name.equals("setNull") ? null : args[1]);
+                return null;
+            }
+            switch (name) {
+                case "addBatch" -> {
+                    batch.add(parameters);
+                    parameters = new HashMap<>();
+                }
+                case "clearParameters" -> parameters = new HashMap<>();
+                case "executeUpdate" -> {
+                    return connection.execute(command, parameters);
+                }
+                case "executeBatch" -> {
+                    batchSizes.add(batch.size());
+                    List<Map<Integer, Object>> statements = new ArrayList<>(batch);
+                    batch.clear();
+                    if (failNextBatch) {
+                        failNextBatch = false;
+                        connection.closed = true;
+                        throw new SQLException("An I/O error occurred while sending to the backend.", "08006");
+                    }
+                    int[] counts = new int[statements.size()];
+                    for (int i = 0; i < statements.size(); i++) {
+                        try {
+                            counts[i] = connection.execute(command, statements.get(i));
+                        } catch (SQLException e) {
+                            connection.aborted = true;
+                            throw new BatchUpdateException(e.getMessage(), e.getSQLState(), counts, e);
+                        }
+                    }
+                    return counts;
+                }
+                case "close" -> batch.clear();
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                default -> throw new SQLFeatureNotSupportedException(name);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Parsed statement writing one row by key
+     */
+    private interface Command {
+
+        String key(Map<Integer, Object> parameters) throws SQLException;
+
+        /**
+         * New row, or null if the statement changes nothing
+         */
+        Map<String, Object> apply(Map<String, Object> existing, Map<Integer, Object> parameters) throws SQLException;
+    }
+
+    /**
+     * Parsed upsert statement
+     */
+    private static final class Upsert implements Command {
+
+        private final List<String> columns = new ArrayList<>();
+        private final List<Object> sources = new ArrayList<>();
+        private final Map<String, String> excluded = new LinkedHashMap<>();
+        private final Map<String, String> coalesced = new LinkedHashMap<>();
+        private final Map<String, String> literals = new LinkedHashMap<>();
+        private final String keyColumn;
+
+        Upsert(String sql) throws SQLException {
+            Matcher matcher = UPSERT.matcher(sql);
+            if (!matcher.matches()) {
+                throw new SQLException("syntax error: not an upsert", "42601");
+            }
+            String table = matcher.group(1).toLowerCase(Locale.ROOT);
+            for (String column : split(matcher.group(2))) {
+                columns.add(column.toLowerCase(Locale.ROOT));
+            }
+            int placeholder = 0;
+            for (String value : split(matcher.group(3))) {
+                if (value.equals("?") || CAST.matcher(value).matches()) {
+                    sources.add(++placeholder);
+                } else if (value.startsWith("'") && value.endsWith("'")) {
+                    sources.add(value.substring(1, value.length() - 1));
+                } else {
+                    throw new SQLException("syntax error at " + value, "42601");
+                }
+            }
+            if (columns.size() != sources.size()) {
+                throw new SQLException("INSERT has " + columns.size() + " columns but " + sources.size()
+                    + " values", "42601");
+            }
+            keyColumn = matcher.group(4).toLowerCase(Locale.ROOT);
+            for (String assignment : split(matcher.group(5))) {
+                Matcher plain = EXCLUDED.matcher(assignment);
+                Matcher coalesce = COALESCE.matcher(assignment);
+                Matcher literal = LITERAL.matcher(assignment);
+                if (plain.matches()) {
+                    excluded.put(column(plain.group(1)), column(plain.group(2)));
+                } else if (literal.matches()) {
+                    literals.put(column(literal.group(1)), literal.group(2));
+                } else if (coalesce.matches() && coalesce.group(2).equalsIgnoreCase(coalesce.group(3))) {
+                    coalesced.put(column(coalesce.group(1)), column(coalesce.group(2)));
+                } else {
+                    throw new SQLException("unsupported assignment " + assignment + " on " + table, "0A000");
+                }
+            }
+        }
+
+        @Override
+        public String key(Map<Integer, Object> parameters) throws SQLException {
+            return (String) values(parameters).get(keyColumn);
+        }
+
+        @Override
+        public Map<String, Object> apply(Map<String, Object> existing, Map<Integer, Object> parameters)
+            throws SQLException {
+            Map<String, Object> values = values(parameters);
+            if (existing == null) {
+                return values;
+            }
+            Map<String, Object> row = new HashMap<>(existing);
+            for (Map.Entry<String, String> assignment : excluded.entrySet()) {
+                row.put(assignment.getKey(), values.get(assignment.getValue()));
+            }
+            for (Map.Entry<String, String> assignment : coalesced.entrySet()) {
+                Object value = values.get(assignment.getValue());
+                if (value != null) {
+                    row.put(assignment.getKey(), value);
+                }
+            }
+            row.putAll(literals);
+            return row;
+        }
+
+        private Map<String, Object> values(Map<Integer, Object> parameters) throws SQLException {
+            Map<String, Object> values = new HashMap<>();
+            for (int i = 0; i < columns.size(); i++) {
+                Object source = sources.get(i);
+                if (source instanceof Integer index) {
+                    if (!parameters.containsKey(index)) {
+                        throw new SQLException("No value specified for parameter " + index, "22023");
+                    }
+                    values.put(columns.get(i), parameters.get(index));
+                } else {
+                    values.put(columns.get(i), source);
+                }
+            }
+            return values;
+        }
+
+        private String column(String name) throws SQLException {
+            String column = name.toLowerCase(Locale.ROOT);
+            if (!columns.contains(column)) {
+                throw new SQLException("column \"" + column + "\" does not exist", "42703");
+            }
+            return column;
+        }
+
+    }
+
+    /**
+     * Parsed update of one row by key
+     */
+    private static final class Update implements Command {
+
+        private final List<String> columns = new ArrayList<>();
+
+        Update(String sql) throws SQLException {
+            Matcher matcher = UPDATE.matcher(sql);
+            if (!matcher.matches()) {
+                throw new SQLException("syntax error: not a keyed update", "42601");
+            }
+            for (String assignment : split(matcher.group(2))) {
+                Matcher parameter = ASSIGNMENT.matcher(assignment);
+                if (!parameter.matches()) {
+                    throw new SQLException("unsupported assignment " + assignment, "0A000");
+                }
+                columns.add(parameter.group(1).toLowerCase(Locale.ROOT));
+            }
+        }
+
+        @Override
+        public String key(Map<Integer, Object> parameters) throws SQLException {
+            return (String) parameter(parameters, columns.size() + 1);
+        }
+
+        @Override
+        public Map<String, Object> apply(Map<String, Object> existing, Map<Integer, Object> parameters)
+            throws SQLException {
+            if (existing == null) {
+                return null;
+            }
+            Map<String, Object> row = new HashMap<>(existing);
+            for (int i = 0; i < columns.size(); i++) {
+                row.put(columns.get(i), parameter(parameters, i + 1));
+            }
+            return row;
+        }
+
+        private static Object parameter(Map<Integer, Object> parameters, int index) throws SQLException {
+            if (!parameters.containsKey(index)) {
+                throw new SQLException("No value specified for parameter " + index, "22023");
+            }
+            return parameters.get(index);
+        }
+    }
+
+    /**
+     * Comma-separated items outside parentheses
+     */
+    private static List<String> split(String list) {
+        List<String> items = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < list.length(); i++) {
+            char c = list.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                items.add(list.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        items.add(list.substring(start).trim());
+        return items;
+    }
+}
@@ -0,0 +1,65 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.model.ReplayEntry;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * In-process stand-in for a shared replay store connecting several replicas
+ *
+ * Each node is the ReplayStore of one ReplayService. Published batches are
+ * delivered to the other nodes, lookups ask the other nodes' services.
+ */
+class EmbeddedReplayStore {
+
+    private final List<Node> nodes = new CopyOnWriteArrayList<>();
+    final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+    final AtomicInteger lookups = new AtomicInteger();
+
+    Node node() {
+        Node node = new Node();
+        nodes.add(node);
+        return node;
+    }
+
+    final class Node implements ReplayStore {
+
+        private volatile Consumer<List<ReplayEntry>> listener = entries -> { };
+        private volatile ReplayService service;
+
+        void answerLookupsWith(ReplayService service) {
+            this.service = service;
+        }
+
+        @Override
+        public void publish(List<ReplayEntry> entries) {
+            batchSizes.add(entries.size());
+            for (Node node : nodes) {
+                if (node != this) {
+                    node.listener.accept(new ArrayList<>(entries));
+                }
+            }
+        }
+
+        @Override
+        public boolean lookup(String key) {
+            lookups.incrementAndGet();
+            for (Node node : nodes) {
+                if (node != this && node.service != null && node.service.knows(key, Instant.now())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void subscribe(Consumer<List<ReplayEntry>> listener) {
+            this.listener = listener;
+        }
+    }
+}
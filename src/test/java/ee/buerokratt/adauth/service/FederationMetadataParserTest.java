@@ -0,0 +1,65 @@
+package ee.buerokratt.adauth.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for FederationMetadataParser
+ */
+class FederationMetadataParserTest {
+
+    private final FederationMetadataParser parser = new FederationMetadataParser();
+
+    @Test
+    void testParseAdfsMetadata() throws Exception {
+        // Given: AD FS metadata with WS-Federation and SAML 2.0 descriptors
+        FederationMetadata metadata = parse("/saml/metadata/adfs-metadata.xml");
+
+        // Then: Only the SAML 2.0 IdP signing certificate and endpoints are read
+        assertEquals("http://adfs.domain.com/adfs/services/trust", metadata.getEntityId());
+        assertEquals(2, metadata.getSingleSignOnServices().size());
+        assertEquals("https://adfs.domain.com/adfs/ls/", metadata.getSingleSignOnUrl());
+        assertEquals(1, metadata.getSigningCertificates().size());
+        X509Certificate certificate = metadata.getSigningCertificates().get(0);
+        assertTrue(certificate.getSubjectX500Principal().getName().contains("ADFS Signing"));
+        assertEquals(Duration.ofHours(1), metadata.getCacheDuration());
+        assertNull(metadata.getValidUntil());
+    }
+
+    @Test
+    void testRejectMetadataWithoutIdpDescriptor() {
+        // Given: SP-only metadata
+        String xml = "<EntityDescriptor entityID=\"sp\" xmlns=\"urn:oasis:names:tc:SAML:2.0:metadata\">"
+            + "<SPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\"/>"
+            + "</EntityDescriptor>";
+
+        // When/Then: Parsing fails
+        assertThrows(SAMLValidationException.class, () -> parser.parse(
+            new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), "test", Instant.now()));
+    }
+
+    @Test
+    void testRejectDoctype() {
+        // Given: Metadata with a DTD
+        String xml = "<!DOCTYPE EntityDescriptor [<!ENTITY x SYSTEM \"file:///etc/passwd\">]>"
+            + "<EntityDescriptor entityID=\"&x;\" xmlns=\"urn:oasis:names:tc:SAML:2.0:metadata\"/>";
+
+        // When/Then: Parsing fails
+        assertThrows(SAMLValidationException.class, () -> parser.parse(
+            new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), "test", Instant.now()));
+    }
+
+    private FederationMetadata parse(String name) throws Exception {
+        try (InputStream in = getClass().getResourceAsStream(name)) {
+            return parser.parse(in, name, Instant.now());
+        }
+    }
+}
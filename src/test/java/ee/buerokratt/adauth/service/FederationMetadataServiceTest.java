@@ -0,0 +1,258 @@
+package ee.buerokratt.adauth.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.ValidationResult;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for FederationMetadataService against an embedded HTTP stand-in for two AD FS nodes
+ */
+@SpringBootTest(properties = "ad.federation.metadata-signing-certificates=classpath:saml/test-idp-signing.crt")
+class FederationMetadataServiceTest {
+
+    private static HttpServer server;
+    private static volatile int primaryStatus = 503;
+    private static volatile String primaryBody = "Service Unavailable";
+    private static volatile int secondaryStatus = 200;
+
+    @Autowired
+    private FederationMetadataService metadataService;
+
+    @Autowired
+    private SAMLService samlService;
+
+    @Autowired
+    private ADProperties adProperties;
+
+    @DynamicPropertySource
+    static void metadataSources(DynamicPropertyRegistry registry) throws IOException {
+        String metadata = signed(new String(resource("/saml/metadata/adfs-metadata.xml"), StandardCharsets.UTF_8));
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/adfs01", exchange -> respond(exchange, primaryStatus, primaryBody));
+        server.createContext("/adfs02", exchange -> respond(exchange, secondaryStatus, metadata));
+        server.start();
+
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        registry.add("ad.federation.metadata[0].uri", () -> base + "/adfs01");
+        registry.add("ad.federation.metadata[0].priority", () -> 1);
+        registry.add("ad.federation.metadata[1].uri", () -> base + "/adfs02");
+        registry.add("ad.federation.metadata[1].priority", () -> 2);
+        registry.add("ad.federation.timeout", () -> 2000);
+        registry.add("ad.resilience.retry-backoff", () -> 1);
+        registry.add("ad.resilience.circuit-breaker-wait-duration", () -> 0);
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.stop(0);
+    }
+
+    @BeforeEach
+    void setUp() {
+        primaryStatus = 503;
+        primaryBody = "Service Unavailable";
+        secondaryStatus = 200;
+    }
+
+    @Test
+    void testFailoverToSecondarySource() {
+        // Given: Primary AD FS node unavailable
+
+        // When: Refreshing
+        metadataService.refresh();
+
+        // Then: Snapshot comes from the secondary node
+        FederationMetadata metadata = metadataService.getMetadata();
+        assertNotNull(metadata);
+        assertTrue(metadata.getSource().endsWith("/adfs02"));
+        assertEquals("http://adfs.domain.com/adfs/services/trust", metadata.getEntityId());
+        assertEquals("https://adfs.domain.com/adfs/ls/", metadata.getSingleSignOnUrl());
+    }
+
+    @Test
+    void testPrimaryPreferredWhenAvailable() throws IOException {
+        // Given: Primary node serving metadata with its own endpoint
+        primaryStatus = 200;
+        primaryBody = signed(new String(resource("/saml/metadata/adfs-metadata.xml"), StandardCharsets.UTF_8)
+            .replace("https://adfs.domain.com/adfs/ls/", "https://adfs01.domain.com/adfs/ls/"));
+
+        // When: Refreshing and creating an authentication request
+        metadataService.refresh();
+        String authUrl = samlService.createAuthenticationRequest("/back");
+
+        // Then: Request path uses the primary's SSO endpoint
+        assertTrue(metadataService.getMetadata().getSource().endsWith("/adfs01"));
+        assertTrue(authUrl.startsWith("https://adfs01.domain.com/adfs/ls/?SAMLRequest="));
+    }
+
+    @Test
+    void testKeepSnapshotWhenAllSourcesFail() {
+        // Given: A loaded snapshot
+        metadataService.refresh();
+        FederationMetadata loaded = metadataService.getMetadata();
+
+        // When: Both nodes fail
+        secondaryStatus = 500;
+        long delay = metadataService.refresh();
+
+        // Then: Previous snapshot is kept and retried after the minimum interval
+        assertSame(loaded, metadataService.getMetadata());
+        assertEquals(adProperties.getFederation().getMetadataMinRefreshInterval(), delay);
+    }
+
+    @Test
+    void testSkipExpiredMetadata() throws IOException {
+        // Given: Primary serving metadata whose validUntil has passed
+        primaryStatus = 200;
+        primaryBody = signed(new String(resource("/saml/metadata/adfs-metadata.xml"), StandardCharsets.UTF_8)
+            .replace("cacheDuration=\"PT1H\"", "validUntil=\"2020-01-01T00:00:00Z\""));
+
+        // When: Refreshing
+        metadataService.refresh();
+
+        // Then: Secondary is used
+        assertTrue(metadataService.getMetadata().getSource().endsWith("/adfs02"));
+    }
+
+    @Test
+    void testRejectUnsignedMetadata() throws IOException {
+        // Given: Primary serving metadata without a signature
+        primaryStatus = 200;
+        primaryBody = new String(resource("/saml/metadata/adfs-metadata.xml"), StandardCharsets.UTF_8);
+
+        // When: Refreshing
+        metadataService.refresh();
+
+        // Then: Secondary is used
+        assertTrue(metadataService.getMetadata().getSource().endsWith("/adfs02"));
+    }
+
+    @Test
+    void testRejectTamperedMetadata() throws IOException {
+        // Given: Primary serving signed metadata whose SSO endpoint was changed afterwards
+        primaryStatus = 200;
+        primaryBody = signed(new String(resource("/saml/metadata/adfs-metadata.xml"), StandardCharsets.UTF_8))
+            .replace("https://adfs.domain.com/adfs/ls/", "https://attacker.example/adfs/ls/");
+
+        // When: Refreshing
+        metadataService.refresh();
+
+        // Then: Secondary is used
+        assertTrue(metadataService.getMetadata().getSource().endsWith("/adfs02"));
+    }
+
+    @Test
+    void testRejectMetadataSignedByUnpinnedKey() throws IOException {
+        // Given: Primary serving metadata signed with a key that is not pinned
+        primaryStatus = 200;
+        primaryBody = SAMLTestSigner.sign(new String(resource("/saml/metadata/adfs-metadata.xml"),
+            StandardCharsets.UTF_8), "EntityDescriptor", SAMLTestSigner.UNTRUSTED_KEYSTORE,
+            SAMLTestSigner.UNTRUSTED_ALIAS);
+
+        // When: Refreshing
+        metadataService.refresh();
+
+        // Then: Secondary is used
+        assertTrue(metadataService.getMetadata().getSource().endsWith("/adfs02"));
+    }
+
+    @Test
+    void testIgnoreCertificatesFromUnsignedHttpSource() throws IOException {
+        // Given: No pinned metadata certificate and unsigned metadata over plain HTTP
+        Object verifier = ReflectionTestUtils.getField(metadataService, "metadataSignatureVerifier");
+        ReflectionTestUtils.setField(metadataService, "metadataSignatureVerifier", null);
+        primaryStatus = 200;
+        primaryBody = new String(resource("/saml/metadata/adfs-metadata.xml"), StandardCharsets.UTF_8);
+        try {
+            // When: Refreshing
+            metadataService.refresh();
+
+            // Then: Endpoints are used, but its certificates are not trusted
+            FederationMetadata metadata = metadataService.getMetadata();
+            assertTrue(metadata.getSource().endsWith("/adfs01"));
+            assertEquals("https://adfs.domain.com/adfs/ls/", metadata.getSingleSignOnUrl());
+            assertTrue(metadata.getSigningCertificates().isEmpty());
+            ValidationResult result = samlService.validateResponse(SAMLTestResponses.signedBase64(
+                SAMLTestResponses.ADMIN, adProperties.getFederation().getEntityId(),
+                adProperties.getFederation().getAcsUrl(), SAMLTestResponses.issueRequest(samlService)));
+            assertFalse(result.isValid());
+        } finally {
+            ReflectionTestUtils.setField(metadataService, "metadataSignatureVerifier", verifier);
+        }
+    }
+
+    @Test
+    void testMetadataCertificatesAreTrusted() {
+        // Given: No signing certificate configured, signed metadata loaded
+        metadataService.refresh();
+
+        // When: Validating a response signed with the metadata certificate
+        ValidationResult result = samlService.validateResponse(SAMLTestResponses.signedBase64(SAMLTestResponses.ADMIN,
+            adProperties.getFederation().getEntityId(), adProperties.getFederation().getAcsUrl(),
+            SAMLTestResponses.issueRequest(samlService)));
+
+        // Then: Signature is accepted
+        assertTrue(result.isValid(), result.getError());
+    }
+
+    @Test
+    void testNextRefreshDelay() {
+        // Given: Refresh bounded to [1 min, 24 h]
+        Instant now = Instant.parse("2026-01-01T00:00:00Z");
+        long max = Duration.ofHours(24).toMillis();
+        long min = Duration.ofMinutes(1).toMillis();
+
+        // When/Then: cacheDuration, validUntil and the minimum interval all apply
+        assertEquals(max, FederationMetadataService.nextRefreshDelay(snapshot(null, null), now, max, min));
+        assertEquals(Duration.ofHours(1).toMillis(), FederationMetadataService.nextRefreshDelay(
+            snapshot(null, Duration.ofHours(1)), now, max, min));
+        assertEquals(Duration.ofMinutes(5).toMillis(), FederationMetadataService.nextRefreshDelay(
+            snapshot(now.plus(Duration.ofMinutes(10)), Duration.ofHours(1)), now, max, min));
+        assertEquals(min, FederationMetadataService.nextRefreshDelay(
+            snapshot(null, Duration.ofSeconds(5)), now, max, min));
+    }
+
+    private static FederationMetadata snapshot(Instant validUntil, Duration cacheDuration) {
+        return new FederationMetadata("idp", Map.of(), List.of(), validUntil, cacheDuration, "test", Instant.EPOCH);
+    }
+
+    private static String signed(String metadata) {
+        return SAMLTestSigner.sign(metadata, "EntityDescriptor", SAMLTestSigner.IDP_KEYSTORE, SAMLTestSigner.IDP_ALIAS);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] resource(String name) throws IOException {
+        try (InputStream in = FederationMetadataServiceTest.class.getResourceAsStream(name)) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.model.DistinguishedName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for GroupGraph
+ */
+class GroupGraphTest {
+
+    @Test
+    void testExpandsTransitiveMembership() {
+        // Given: Team-A in Support in Buerokratt-Admins; Loop-1 and Loop-2 nested in each other
+        GroupGraph graph = GroupGraph.build(Map.of(
+            dn("Team-A"), Set.of(dn("Support")),
+            dn("Support"), Set.of(dn("Buerokratt-Admins")),
+            dn("Loop-1"), Set.of(dn("Loop-2")),
+            dn("Loop-2"), Set.of(dn("Loop-1"), dn("Support"))));
+
+        // When
+        List<DistinguishedName> teamA = graph.expand(List.of(dn("Team-A"), dn("Unrelated")));
+        List<DistinguishedName> loop = graph.expand(List.of(dn("Loop-1")));
+        List<DistinguishedName> top = List.of(dn("Buerokratt-Admins"));
+
+        // Then: Direct groups first, each ancestor once; groups not nested anywhere are returned as is
+        assertEquals(List.of(dn("Team-A"), dn("Unrelated")), teamA.subList(0, 2));
+        assertEquals(Set.of(dn("Support"), dn("Buerokratt-Admins")), Set.copyOf(teamA.subList(2, teamA.size())));
+        assertEquals(4, loop.size());
+        assertEquals(Set.of(dn("Loop-1"), dn("Loop-2"), dn("Support"), dn("Buerokratt-Admins")), Set.copyOf(loop));
+        assertSame(top, graph.expand(top));
+        assertEquals(5, graph.size());
+        assertEquals(5, graph.edges());
+    }
+
+    @Test
+    void testIncrementalUpdateMatchesFullBuild() {
+        // Given: A random graph of 300 groups with cycles
+        Random random = new Random(42);
+        Map<DistinguishedName, Set<DistinguishedName>> memberOf = randomGraph(random, 300);
+        GroupGraph graph = GroupGraph.build(memberOf);
+
+        for (int round = 0; round < 20; round++) {
+            // When: A few groups move
+            Map<DistinguishedName, Set<DistinguishedName>> next = new HashMap<>(memberOf);
+            for (int i = 0; i < 3; i++) {
+                DistinguishedName group = dn("G" + random.nextInt(300));
+                next.put(group, Set.of(dn("G" + random.nextInt(300))));
+            }
+            next.remove(dn("G" + random.nextInt(300)));
+            GroupGraph.Update update = graph.update(next);
+            GroupGraph full = GroupGraph.build(next);
+
+            // Then: Same closure as a rebuild, from a fraction of the work
+            for (int g = 0; g < 300; g++) {
+                List<DistinguishedName> user = List.of(dn("G" + g));
+                assertEquals(Set.copyOf(full.expand(user)), Set.copyOf(update.graph().expand(user)), "G" + g);
+            }
+            assertTrue(update.recomputed() < 300, "recomputed " + update.recomputed());
+            graph = update.graph();
+            memberOf = next;
+        }
+    }
+
+    private static Map<DistinguishedName, Set<DistinguishedName>> randomGraph(Random random, int size) {
+        Map<DistinguishedName, Set<DistinguishedName>> memberOf = new HashMap<>();
+        for (int g = 0; g < size; g++) {
+            Set<DistinguishedName> parents = new HashSet<>();
+            // Mostly upwards, sometimes back down to form cycles
+            if (g < size - 1 && random.nextInt(3) > 0) {
+                parents.add(dn("G" + (g + 1 + random.nextInt(Math.min(20, size - g - 1)))));
+            }
+            if (random.nextInt(50) == 0) {
+                parents.add(dn("G" + random.nextInt(size)));
+            }
+            memberOf.put(dn("G" + g), parents);
+        }
+        return memberOf;
+    }
+
+    private static DistinguishedName dn(String cn) {
+        return DistinguishedName.of("CN=" + cn + ",OU=Groups,DC=domain,DC=com");
+    }
+}
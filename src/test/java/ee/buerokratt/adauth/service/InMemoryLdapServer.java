@@ -0,0 +1,482 @@
+package ee.buerokratt.adauth.service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory LDAP directory for tests
+ *
+ * Speaks enough LDAPv3 (RFC 4511, BER encoded) for JNDI: simple bind,
+ * base and subtree search with equality, presence, greater-or-equal,
+ * less-or-equal, and and or filters, abandon and unbind. Values are
+ * compared case-insensitively, or as numbers when both are. Like AD, every
+ * add() stamps the entry with the next uSNChanged, the root DSE reports
+ * highestCommittedUSN and dsServiceName, searches are paged with the
+ * paged results control (RFC 2696), and member values beyond
+ * maxValueRange are returned by range retrieval (member;range=0-1).
+ * Searches can be held back with hold() to line up concurrent callers,
+ * and stop() drops all connections like a directory going away.
+ */
+class InMemoryLdapServer implements AutoCloseable {
+
+    private static final int BIND_REQUEST = 0x60;
+    private static final int BIND_RESPONSE = 0x61;
+    private static final int UNBIND_REQUEST = 0x42;
+    private static final int SEARCH_REQUEST = 0x63;
+    private static final int SEARCH_RESULT_ENTRY = 0x64;
+    private static final int SEARCH_RESULT_DONE = 0x65;
+    private static final int INVALID_CREDENTIALS = 49;
+    private static final String PAGED_RESULTS = "1.2.840.113556.1.4.319";
+
+    private final Map<String, Map<String, List<byte[]>>> entries = new ConcurrentHashMap<>();
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private final ServerSocket serverSocket;
+    private final String bindDn;
+    private final String bindPassword;
+    private final AtomicLong usn = new AtomicLong();
+    private volatile CountDownLatch held;
+    volatile String serviceName = "CN=NTDS Settings,CN=DC1,CN=Servers,CN=Default-First-Site-Name,CN=Sites,"
+        + "CN=Configuration,DC=domain,DC=com";
+    volatile int maxValueRange = 1500;
+
+    final AtomicInteger connections = new AtomicInteger();
+    final AtomicInteger searches = new AtomicInteger();
+
+    InMemoryLdapServer(String bindDn, String bindPassword) throws IOException {
+        this.bindDn = bindDn;
+        this.bindPassword = bindPassword;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "ldap-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String url() {
+        return "ldap://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * Add or replace an entry; values are Strings, byte arrays or collections of Strings
+     *
+     * @return uSNChanged of the entry
+     */
+    long add(String dn, Map<String, Object> attributes) {
+        Map<String, List<byte[]>> values = new LinkedHashMap<>();
+        attributes.forEach((name, value) -> {
+            List<byte[]> list = new ArrayList<>();
+            if (value instanceof Collection<?> collection) {
+                collection.forEach(item -> list.add(item.toString().getBytes(StandardCharsets.UTF_8)));
+            } else {
+                list.add(value instanceof byte[] bytes ? bytes : value.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            values.put(name, list);
+        });
+        values.put("distinguishedName", List.of(dn.getBytes(StandardCharsets.UTF_8)));
+        synchronized (usn) {
+            long changed = usn.incrementAndGet();
+            values.put("uSNChanged", List.of(Long.toString(changed).getBytes(StandardCharsets.UTF_8)));
+            entries.put(dn.toLowerCase(Locale.ROOT), values);
+            return changed;
+        }
+    }
+
+    /**
+     * Replace an entry's attributes keeping its uSNChanged, as AD does when a back link such as memberOf changes
+     */
+    void relink(String dn, Map<String, Object> attributes) {
+        synchronized (usn) {
+            List<byte[]> changed = entries.get(dn.toLowerCase(Locale.ROOT)).get("uSNChanged");
+            add(dn, attributes);
+            entries.get(dn.toLowerCase(Locale.ROOT)).put("uSNChanged", changed);
+        }
+    }
+
+    /**
+     * Delete an entry; like an AD tombstone it takes a USN but no longer matches searches
+     */
+    void remove(String dn) {
+        synchronized (usn) {
+            usn.incrementAndGet();
+            entries.remove(dn.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Hold searches until the returned latch is counted down
+     */
+    CountDownLatch hold() {
+        CountDownLatch latch = new CountDownLatch(1);
+        held = latch;
+        return latch;
+    }
+
+    /**
+     * Stop accepting and drop every open connection
+     */
+    void stop() throws IOException {
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                sockets.add(socket);
+                connections.incrementAndGet();
+                Thread handler = new Thread(() -> serve(socket), "ldap-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                List<Element> message = read(in).children();
+                byte[] messageId = message.get(0).encode();
+                Element operation = message.get(1);
+                switch (operation.tag()) {
+                    case BIND_REQUEST -> out.write(message(messageId, bind(operation.children())));
+                    case SEARCH_REQUEST -> {
+                        Element paging = message.size() > 2 ? control(message.get(2), PAGED_RESULTS) : null;
+                        Page page = search(operation.children(), paging);
+                        for (byte[] entry : page.entries()) {
+                            out.write(message(messageId, entry));
+                        }
+                        byte[] done = result(SEARCH_RESULT_DONE, 0);
+                        out.write(page.cookie() == null ? message(messageId, done)
+                            : message(messageId, done, pagedResults(page.cookie())));
+                    }
+                    case UNBIND_REQUEST -> {
+                        return;
+                    }
+                    default -> {
+                        // Abandon and anything else get no response
+                    }
+                }
+                out.flush();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // Connection closed by either side, or a message this server does not understand
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    private byte[] bind(List<Element> request) {
+        String name = request.get(1).string();
+        String password = request.get(2).string();
+        boolean valid = bindDn == null || bindDn.equalsIgnoreCase(name) && bindPassword.equals(password);
+        return result(BIND_RESPONSE, valid ? 0 : INVALID_CREDENTIALS);
+    }
+
+    private Page search(List<Element> request, Element paging) throws IOException {
+        searches.incrementAndGet();
+        CountDownLatch latch = held;
+        if (latch != null) {
+            try {
+                latch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        String base = request.get(0).string().toLowerCase(Locale.ROOT);
+        boolean baseScope = request.get(1).content()[0] == 0;
+        Element filter = request.get(6);
+        List<String> requested = new ArrayList<>();
+        for (Element attribute : request.get(7).children()) {
+            requested.add(attribute.string());
+        }
+
+        List<Map<String, List<byte[]>>> matching = new ArrayList<>();
+        if (baseScope && base.isEmpty()) {
+            matching.add(rootDse());
+        } else {
+            // Sorted, so that pages follow each other
+            new TreeMap<>(entries).forEach((dn, attributes) -> {
+                if ((baseScope ? dn.equals(base) : dn.endsWith(base)) && matches(filter, attributes)) {
+                    matching.add(attributes);
+                }
+            });
+        }
+
+        int from = 0;
+        int to = matching.size();
+        byte[] cookie = null;
+        if (paging != null) {
+            List<Element> value = paging.children();
+            int size = (int) integer(value.get(0).content());
+            from = value.get(1).content().length > 0 ? Integer.parseInt(value.get(1).string()) : 0;
+            to = Math.min(matching.size(), from + size);
+            cookie = to < matching.size() ? Integer.toString(to).getBytes(StandardCharsets.UTF_8) : new byte[0];
+        }
+        List<byte[]> responses = new ArrayList<>();
+        for (Map<String, List<byte[]>> attributes : matching.subList(from, to)) {
+            responses.add(entry(attributes, requested, maxValueRange));
+        }
+        return new Page(responses, cookie);
+    }
+
+    private Map<String, List<byte[]>> rootDse() {
+        Map<String, List<byte[]>> attributes = new LinkedHashMap<>();
+        attributes.put("distinguishedName", List.of(new byte[0]));
+        attributes.put("highestCommittedUSN", List.of(Long.toString(usn.get()).getBytes(StandardCharsets.UTF_8)));
+        attributes.put("dsServiceName", List.of(serviceName.getBytes(StandardCharsets.UTF_8)));
+        return attributes;
+    }
+
+    /**
+     * Value of the control with an OID in a message's controls, or null
+     */
+    private static Element control(Element controls, String oid) {
+        if (controls.tag() != 0xa0) {
+            return null;
+        }
+        for (Element control : controls.children()) {
+            List<Element> fields = control.children();
+            if (fields.get(0).string().equals(oid)) {
+                // The control value is an octet string holding the encoded value
+                return fields.get(fields.size() - 1).children().get(0);
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(Element filter, Map<String, List<byte[]>> attributes) {
+        switch (filter.tag()) {
+            case 0xa0 -> {
+                for (Element child : filter.children()) {
+                    if (!matches(child, attributes)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            case 0xa1 -> {
+                for (Element child : filter.children()) {
+                    if (matches(child, attributes)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            case 0xa3 -> {
+                List<Element> assertion = filter.children();
+                String expected = assertion.get(1).string();
+                for (byte[] value : values(attributes, assertion.get(0).string())) {
+                    if (new String(value, StandardCharsets.UTF_8).equalsIgnoreCase(expected)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            case 0xa5, 0xa6 -> {
+                List<Element> assertion = filter.children();
+                String bound = assertion.get(1).string();
+                for (byte[] value : values(attributes, assertion.get(0).string())) {
+                    int comparison = compare(new String(value, StandardCharsets.UTF_8), bound);
+                    if (filter.tag() == 0xa5 ? comparison >= 0 : comparison <= 0) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            case 0x87 -> {
+                return !values(attributes, filter.string()).isEmpty();
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    private static int compare(String value, String bound) {
+        try {
+            return Long.compare(Long.parseLong(value), Long.parseLong(bound));
+        } catch (NumberFormatException e) {
+            return value.compareToIgnoreCase(bound);
+        }
+    }
+
+    private static List<byte[]> values(Map<String, List<byte[]>> attributes, String name) {
+        for (Map.Entry<String, List<byte[]>> attribute : attributes.entrySet()) {
+            if (attribute.getKey().equalsIgnoreCase(name)) {
+                return attribute.getValue();
+            }
+        }
+        return List.of();
+    }
+
+    private static byte[] entry(Map<String, List<byte[]>> attributes, List<String> requested, int maxValueRange) {
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        attributes.forEach((name, values) -> {
+            String description = name;
+            List<byte[]> returned = values;
+            if (name.equalsIgnoreCase("member")) {
+                // member or member;range=first-*
+                String range = requested.stream().filter(r -> r.regionMatches(true, 0, "member;range=", 0, 13))
+                    .findFirst().orElse(null);
+                int first = range == null ? 0 : Integer.parseInt(range.substring(13, range.indexOf('-')));
+                if (range == null && !requested.isEmpty() && requested.stream().noneMatch(name::equalsIgnoreCase)) {
+                    return;
+                }
+                if (range != null || values.size() > maxValueRange) {
+                    int last = Math.min(values.size(), first + maxValueRange);
+                    returned = values.subList(Math.min(first, values.size()), last);
+                    description = name + ";range=" + first + "-" + (last < values.size() ? last - 1 : "*");
+                }
+            } else if (!requested.isEmpty() && requested.stream().noneMatch(name::equalsIgnoreCase)) {
+                return;
+            }
+            ByteArrayOutputStream set = new ByteArrayOutputStream();
+            for (byte[] value : returned) {
+                set.writeBytes(tlv(0x04, value));
+            }
+            list.writeBytes(tlv(0x30, concat(octets(description), tlv(0x31, set.toByteArray()))));
+        });
+        byte[] dn = values(attributes, "distinguishedName").get(0);
+        return tlv(SEARCH_RESULT_ENTRY, concat(tlv(0x04, dn), tlv(0x30, list.toByteArray())));
+    }
+
+    private static byte[] result(int tag, int code) {
+        return tlv(tag, concat(tlv(0x0a, new byte[]{(byte) code}), octets(""), octets("")));
+    }
+
+    private static byte[] message(byte[] messageId, byte[] operation) {
+        return tlv(0x30, concat(messageId, operation));
+    }
+
+    private static byte[] message(byte[] messageId, byte[] operation, byte[] controls) {
+        return tlv(0x30, concat(messageId, operation, tlv(0xa0, controls)));
+    }
+
+    private static byte[] pagedResults(byte[] cookie) {
+        byte[] value = tlv(0x30, concat(tlv(0x02, new byte[]{0}), tlv(0x04, cookie)));
+        return tlv(0x30, concat(octets(PAGED_RESULTS), tlv(0x04, value)));
+    }
+
+    private static long integer(byte[] content) {
+        long value = content.length > 0 && content[0] < 0 ? -1 : 0;
+        for (byte b : content) {
+            value = value << 8 | (b & 0xff);
+        }
+        return value;
+    }
+
+    private static byte[] octets(String value) {
+        return tlv(0x04, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] tlv(int tag, byte[] content) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+        int length = content.length;
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int bytes = (32 - Integer.numberOfLeadingZeros(length) + 7) / 8;
+            out.write(0x80 | bytes);
+            for (int i = bytes - 1; i >= 0; i--) {
+                out.write(length >>> (8 * i));
+            }
+        }
+        out.writeBytes(content);
+        return out.toByteArray();
+    }
+
+    private static Element read(DataInputStream in) throws IOException {
+        int tag = in.read();
+        if (tag < 0) {
+            throw new EOFException();
+        }
+        int length = in.readUnsignedByte();
+        if (length >= 0x80) {
+            int bytes = length & 0x7f;
+            length = 0;
+            for (int i = 0; i < bytes; i++) {
+                length = length << 8 | in.readUnsignedByte();
+            }
+        }
+        byte[] content = new byte[length];
+        in.readFully(content);
+        return new Element(tag, content);
+    }
+
+    /**
+     * Entries of one search response and, when paged, the cookie of the next page (empty after the last)
+     */
+    private record Page(List<byte[]> entries, byte[] cookie) {
+    }
+
+    /**
+     * One BER element
+     */
+    private record Element(int tag, byte[] content) {
+
+        String string() {
+            return new String(content, StandardCharsets.UTF_8);
+        }
+
+        byte[] encode() {
+            return tlv(tag, content);
+        }
+
+        List<Element> children() {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+            List<Element> children = new ArrayList<>();
+            try {
+                while (in.available() > 0) {
+                    children.add(read(in));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Malformed BER element", e);
+            }
+            return children;
+        }
+    }
+}
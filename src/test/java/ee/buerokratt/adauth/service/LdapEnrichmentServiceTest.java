@@ -0,0 +1,172 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.UserAttributes;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for LdapEnrichmentService against an in-memory directory
+ */
+class LdapEnrichmentServiceTest {
+
+    private static final String BIND_DN = "CN=svc-buerokratt,OU=Service Accounts,DC=domain,DC=com";
+    private static final String MANAGER = "CN=Jane Roe,OU=Users,DC=domain,DC=com";
+
+    private InMemoryLdapServer server;
+    private LdapEnrichmentService service;
+    private ResilienceService resilienceService;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new InMemoryLdapServer(BIND_DN, "secret");
+        server.add("CN=John Doe,OU=Users,DC=domain,DC=com", Map.of(
+            "userPrincipalName", "john.doe@domain.com",
+            // 01234567-89ab-cdef-0123-456789abcdef as AD stores it
+            "objectGUID", HexFormat.of().parseHex("67452301ab89efcd0123456789abcdef"),
+            "manager", MANAGER,
+            "department", "Customer Support",
+            "telephoneNumber", "+372 5555 5555"));
+        server.add("CN=Mari Maasikas,OU=Users,DC=domain,DC=com", Map.of(
+            "userPrincipalName", "mari.maasikas@domain.com",
+            "department", "Analytics"));
+        service = service(server.url());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        ReflectionTestUtils.invokeMethod(service, "shutdown");
+        server.close();
+    }
+
+    @Test
+    void testEnrichesFromDirectoryAndCaches() {
+        // Given
+        UserAttributes john = user("john.doe@domain.com");
+        UserAttributes again = user("John.Doe@DOMAIN.com");
+        UserAttributes unknown = user("external@partner.ee");
+
+        // When
+        boolean found = service.enrich(john);
+        service.enrich(again);
+        boolean unknownFound = service.enrich(unknown);
+        service.enrich(user("external@partner.ee"));
+
+        // Then: Requested attributes only; repeats, in any case, and misses come from the cache
+        assertTrue(found);
+        assertEquals("01234567-89ab-cdef-0123-456789abcdef", john.getObjectGuid());
+        assertEquals(MANAGER, john.getManager());
+        assertEquals("Customer Support", john.getDepartment());
+        assertEquals(john.getObjectGuid(), again.getObjectGuid());
+        assertFalse(unknownFound);
+        assertNull(unknown.getDepartment());
+        assertEquals(2, server.searches.get());
+        assertEquals(1, server.connections.get());
+    }
+
+    @Test
+    void testConcurrentLookupsShareOneSearch() throws Exception {
+        // Given: The directory holds the search until eight logins of the same user wait for it
+        CountDownLatch release = server.hold();
+        List<UserAttributes> users = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            UserAttributes user = user("mari.maasikas@domain.com");
+            users.add(user);
+            Thread thread = new Thread(() -> service.enrich(user));
+            thread.start();
+            threads.add(thread);
+        }
+        while (server.searches.get() == 0
+                || threads.stream().filter(t -> t.getState() == Thread.State.WAITING).count() < 7) {
+            Thread.sleep(5);
+        }
+
+        // When
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        // Then: One search on one connection answers all of them
+        assertEquals(1, server.searches.get());
+        assertEquals(1, server.connections.get());
+        assertEquals(0, service.getSearchesInFlight());
+        for (UserAttributes user : users) {
+            assertEquals("Analytics", user.getDepartment());
+        }
+    }
+
+    @Test
+    void testUnreachableDirectoryOpensCircuitBreaker() throws Exception {
+        // Given: A pooled connection from an earlier login, then the directory goes away
+        assertTrue(service.enrich(user("john.doe@domain.com")));
+        server.stop();
+
+        // When: Logins of users not in the cache
+        UserAttributes mari = user("mari.maasikas@domain.com");
+        boolean first = service.enrich(mari);
+        boolean second = service.enrich(user("someone@domain.com"));
+        boolean third = service.enrich(user("someone.else@domain.com"));
+
+        // Then: Users are accepted without the attributes; with one failure in a window of two
+        // the breaker opens and later lookups fail fast
+        assertFalse(first);
+        assertFalse(second);
+        assertFalse(third);
+        assertNull(mari.getDepartment());
+        assertEquals(2.0, meterRegistry.counter("resilience.circuitbreaker.calls",
+            "name", LdapEnrichmentService.CIRCUIT_BREAKER_NAME, "outcome", "rejected").count());
+        assertEquals(CircuitBreaker.State.OPEN,
+            resilienceService.circuitBreaker(LdapEnrichmentService.CIRCUIT_BREAKER_NAME).getState());
+
+        // Then: Cached users are still enriched
+        UserAttributes john = user("john.doe@domain.com");
+        assertTrue(service.enrich(john));
+        assertEquals("Customer Support", john.getDepartment());
+    }
+
+    private LdapEnrichmentService service(String url) {
+        ADProperties adProperties = new ADProperties();
+        ADProperties.Resilience resilience = new ADProperties.Resilience();
+        resilience.setCircuitBreakerSlidingWindowSize(2);
+        resilience.setCircuitBreakerMinimumCalls(2);
+        adProperties.setResilience(resilience);
+        adProperties.getLdap().setEnabled(true);
+        adProperties.getLdap().setUrl(url);
+        adProperties.getLdap().setBindDn(BIND_DN);
+        adProperties.getLdap().setBindPassword("secret");
+        adProperties.getLdap().setBaseDn("DC=domain,DC=com");
+        adProperties.getLdap().setUserFilter("(userPrincipalName={0})");
+
+        meterRegistry = new SimpleMeterRegistry();
+        resilienceService = new ResilienceService();
+        ReflectionTestUtils.setField(resilienceService, "adProperties", adProperties);
+        ReflectionTestUtils.setField(resilienceService, "meterRegistry", meterRegistry);
+
+        LdapEnrichmentService service = new LdapEnrichmentService();
+        ReflectionTestUtils.setField(service, "adProperties", adProperties);
+        ReflectionTestUtils.setField(service, "resilienceService", resilienceService);
+        ReflectionTestUtils.setField(service, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.invokeMethod(service, "init");
+        return service;
+    }
+
+    private static UserAttributes user(String upn) {
+        UserAttributes user = new UserAttributes();
+        user.setUPN(upn);
+        return user;
+    }
+}
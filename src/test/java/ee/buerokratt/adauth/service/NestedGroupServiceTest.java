@@ -0,0 +1,140 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.DistinguishedName;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for NestedGroupService
+ */
+class NestedGroupServiceTest {
+
+    private static final String ADMINS = "CN=Buerokratt-Admins,OU=Groups,DC=domain,DC=com";
+    private static final String SUPPORT = "CN=Support-Leads,OU=Groups,DC=domain,DC=com";
+    private static final String TEAM = "CN=Tallinn Team,OU=Teams,DC=domain,DC=com";
+
+    @TempDir
+    Path tempDir;
+
+    private NestedGroupService service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void testParsesLdifExport() throws Exception {
+        // Given: An ldifde-style export with folded and base64 values, users and options
+        String ldif = "version: 1\n"
+            + "\n"
+            + "# Admins\n"
+            + "dn: " + ADMINS + "\n"
+            + "objectClass: top\n"
+            + "objectClass: group\n"
+            + "member;range=0-*: " + SUPPORT.substring(0, 20) + "\n"
+            + " " + SUPPORT.substring(20) + "\n"
+            + "member: CN=John Doe,OU=Users,DC=domain,DC=com\n"
+            + "\n"
+            + "dn:: " + Base64.getEncoder().encodeToString(SUPPORT.getBytes(StandardCharsets.UTF_8)) + "\n"
+            + "objectClass: group\n"
+            + "\n"
+            + "dn: " + TEAM + "\n"
+            + "objectClass: group\n"
+            + "memberOf: " + SUPPORT.toUpperCase() + "\n"
+            + "\n"
+            + "dn: CN=John Doe,OU=Users,DC=domain,DC=com\n"
+            + "objectClass: user\n"
+            + "memberOf: " + TEAM + "\n";
+
+        // When
+        Map<DistinguishedName, Set<DistinguishedName>> memberOf = NestedGroupService.parseLdif(new StringReader(ldif));
+
+        // Then: Group-in-group memberships only, from both directions
+        assertEquals(Map.of(
+            DistinguishedName.of(SUPPORT), Set.of(DistinguishedName.of(ADMINS)),
+            DistinguishedName.of(TEAM), Set.of(DistinguishedName.of(SUPPORT))), memberOf);
+    }
+
+    @Test
+    void testRolesFromNestedGroupsFollowTheExport() throws Exception {
+        // Given: Tallinn Team is in Support-Leads, which is in Buerokratt-Admins
+        Path ldif = tempDir.resolve("groups.ldif");
+        write(ldif, group(ADMINS, SUPPORT) + group(SUPPORT, TEAM) + group(TEAM), 1);
+        service = service(ldif);
+        RoleMappingService roleMapping = roleMapping(service);
+
+        // When
+        List<String> before = roleMapping.mapGroups(List.of(TEAM)).getRoles();
+
+        // Then: The team's members get the Admins role
+        assertEquals(List.of("ROLE_ADMINISTRATOR"), before);
+
+        // When: Support-Leads leaves Admins
+        write(ldif, group(ADMINS) + group(SUPPORT, TEAM) + group(TEAM), 2);
+        assertTrue(service.reload());
+
+        // Then: The team loses the role; an unchanged file is not reloaded
+        assertEquals(List.of("ROLE_UNAUTHENTICATED"), roleMapping.mapGroups(List.of(TEAM)).getRoles());
+        assertFalse(service.reload());
+    }
+
+    private static NestedGroupService service(Path ldif) {
+        ADProperties adProperties = new ADProperties();
+        adProperties.setRoleMapping(new ADProperties.RoleMapping());
+        adProperties.getRoleMapping().getNestedGroups().setEnabled(true);
+        adProperties.getRoleMapping().getNestedGroups().setLdifFile(ldif.toString());
+        NestedGroupService service = new NestedGroupService();
+        ReflectionTestUtils.setField(service, "adProperties", adProperties);
+        ReflectionTestUtils.invokeMethod(service, "init");
+        return service;
+    }
+
+    private static RoleMappingService roleMapping(NestedGroupService nestedGroups) {
+        ADProperties adProperties = new ADProperties();
+        adProperties.setRoleMapping(new ADProperties.RoleMapping());
+        ADProperties.RoleMappingRule rule = new ADProperties.RoleMappingRule();
+        rule.setAdGroup(ADMINS);
+        rule.setRole("ROLE_ADMINISTRATOR");
+        rule.setPriority(1);
+        adProperties.getRoleMapping().setRules(List.of(rule));
+        RoleMappingService service = new RoleMappingService();
+        ReflectionTestUtils.setField(service, "adProperties", adProperties);
+        ReflectionTestUtils.setField(service, "cacheManager", new ConcurrentMapCacheManager(RoleMappingService.CACHE_NAME));
+        ReflectionTestUtils.setField(service, "nestedGroupService", nestedGroups);
+        return service;
+    }
+
+    private static String group(String dn, String... members) {
+        StringBuilder entry = new StringBuilder("dn: ").append(dn).append("\nobjectClass: group\n");
+        for (String member : members) {
+            entry.append("member: ").append(member).append('\n');
+        }
+        return entry.append('\n').toString();
+    }
+
+    private static void write(Path file, String content, long version) throws Exception {
+        Files.writeString(file, content);
+        // Distinct modification times, as the reload checks them
+        Files.setLastModifiedTime(file, FileTime.from(Instant.parse("2026-01-01T00:00:00Z").plusSeconds(version)));
+    }
+}
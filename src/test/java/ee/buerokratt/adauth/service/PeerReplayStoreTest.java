@@ -0,0 +1,138 @@
+package ee.buerokratt.adauth.service;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Unit tests for PeerReplayStore and the cluster endpoints against an embedded HTTP stand-in for a peer
+ */
+@SpringBootTest(properties = {
+    "ad.cluster.replay-store=peers",
+    "ad.cluster.shared-secret=test-secret",
+    "ad.cluster.flush-interval=3600000"
+})
+@AutoConfigureMockMvc
+class PeerReplayStoreTest {
+
+    private static HttpServer peer;
+    private static final List<String> received = new CopyOnWriteArrayList<>();
+    private static final List<String> tokens = new CopyOnWriteArrayList<>();
+
+    @Autowired
+    private PeerReplayStore store;
+
+    @Autowired
+    private ReplayService replayService;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @DynamicPropertySource
+    static void peers(DynamicPropertyRegistry registry) throws IOException {
+        peer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        peer.createContext(PeerReplayStore.PATH, exchange -> {
+            tokens.add(exchange.getRequestHeaders().getFirst(PeerReplayStore.TOKEN_HEADER));
+            int status;
+            if ("POST".equals(exchange.getRequestMethod())) {
+                received.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+                status = 202;
+            } else {
+                status = exchange.getRequestURI().getPath().endsWith("/issued:_known") ? 200 : 404;
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        peer.start();
+        registry.add("ad.cluster.peers[0]", () -> "http://127.0.0.1:" + peer.getAddress().getPort());
+    }
+
+    @AfterAll
+    static void stopPeer() {
+        peer.stop(0);
+    }
+
+    @BeforeEach
+    void setUp() {
+        received.clear();
+        tokens.clear();
+    }
+
+    @Test
+    void testFlushPostsBatchToPeers() {
+        // Given: Consumed assertion on this replica
+        Instant now = Instant.now();
+        replayService.markConsumed("assertion:_peer-test", now.plusSeconds(300), now);
+
+        // When
+        replayService.flush();
+
+        // Then: One JSON batch with the shared secret
+        assertEquals(1, received.size());
+        assertTrue(received.get(0).contains("\"key\":\"assertion:_peer-test\""));
+        assertEquals(List.of("test-secret"), tokens);
+    }
+
+    @Test
+    void testLookupAsksPeers() throws IOException {
+        // When / Then
+        assertTrue(store.lookup("issued:_known"));
+        assertFalse(store.lookup("issued:_unknown"));
+    }
+
+    @Test
+    void testReceivesBatchFromPeer() throws Exception {
+        // Given: Batch published by another replica
+        long expiresAt = Instant.now().plusSeconds(300).toEpochMilli();
+        String body = "[{\"key\":\"issued:_from-peer\",\"expiresAt\":" + expiresAt + "}]";
+
+        // When
+        mockMvc.perform(post(PeerReplayStore.PATH)
+                .header(PeerReplayStore.TOKEN_HEADER, "test-secret")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(body))
+            .andExpect(status().isAccepted());
+
+        // Then: Known locally and answered to lookups
+        assertTrue(replayService.isIssued("_from-peer", Instant.now()));
+        mockMvc.perform(get(PeerReplayStore.PATH + "/issued:_from-peer")
+                .header(PeerReplayStore.TOKEN_HEADER, "test-secret"))
+            .andExpect(status().isOk());
+        mockMvc.perform(get(PeerReplayStore.PATH + "/issued:_other")
+                .header(PeerReplayStore.TOKEN_HEADER, "test-secret"))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testRejectsWrongSecret() throws Exception {
+        // When / Then
+        mockMvc.perform(post(PeerReplayStore.PATH)
+                .header(PeerReplayStore.TOKEN_HEADER, "wrong")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[]"))
+            .andExpect(status().isUnauthorized());
+        mockMvc.perform(get(PeerReplayStore.PATH + "/issued:_x"))
+            .andExpect(status().isUnauthorized());
+        assertFalse(store.isAuthorised(null));
+    }
+}
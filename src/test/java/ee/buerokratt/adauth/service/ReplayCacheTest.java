@@ -0,0 +1,156 @@
+package ee.buerokratt.adauth.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ReplayCache
+ */
+class ReplayCacheTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long HOUR = 3_600_000L;
+
+    @Test
+    void testRejectsSecondUse() {
+        // Given
+        ReplayCache cache = new ReplayCache(2 * HOUR, 64, 1000, false);
+
+        // When
+        boolean first = cache.checkAndRecord("_assertion-1", NOW + HOUR, NOW);
+        boolean second = cache.checkAndRecord("_assertion-1", NOW + HOUR, NOW + 1000);
+
+        // Then
+        assertTrue(first);
+        assertFalse(second);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testRejectsSecondUseWithDifferentExpiry() {
+        // Given: ID recorded with a short expiry
+        ReplayCache cache = new ReplayCache(2 * HOUR, 64, 1000, false);
+        cache.checkAndRecord("_request-1", NOW + 60_000, NOW);
+
+        // When: Presented again with a later expiry
+        boolean replay = cache.checkAndRecord("_request-1", NOW + HOUR, NOW + 1000);
+
+        // Then
+        assertFalse(replay);
+    }
+
+    @Test
+    void testForgetsIdAfterExpiry() {
+        // Given: ID expiring in 1 minute
+        ReplayCache cache = new ReplayCache(2 * HOUR, 64, 1000, false);
+        cache.checkAndRecord("_assertion-1", NOW + 60_000, NOW);
+
+        // When: Presented after its segment has passed
+        boolean later = cache.checkAndRecord("_assertion-1", NOW + 10 * 60_000 + HOUR, NOW + 10 * 60_000);
+
+        // Then: Accepted again, expired segment dropped
+        assertTrue(later);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testExpiryIsClampedToWindow() {
+        // Given: Expiry far beyond the 1 h window
+        ReplayCache cache = new ReplayCache(HOUR, 16, 1000, false);
+        cache.checkAndRecord("_assertion-1", NOW + 24 * HOUR, NOW);
+
+        // When / Then: Remembered for the window, then forgotten
+        assertFalse(cache.checkAndRecord("_assertion-1", NOW + 24 * HOUR, NOW + HOUR - 1000));
+        assertTrue(cache.checkAndRecord("_assertion-1", NOW + 24 * HOUR, NOW + 2 * HOUR));
+    }
+
+    @Test
+    void testFullCacheRefusesNewIds() {
+        // Given: Cap of 4 with two IDs expiring soon and two late
+        ReplayCache cache = new ReplayCache(2 * HOUR, 64, 4, false);
+        cache.checkAndRecord("_soon-1", NOW + 60_000, NOW);
+        cache.checkAndRecord("_soon-2", NOW + 60_000, NOW);
+        cache.checkAndRecord("_late-1", NOW + HOUR, NOW);
+        cache.checkAndRecord("_late-2", NOW + HOUR, NOW);
+
+        // When: One more ID before any has expired
+        assertThrows(ReplayCacheFullException.class, () -> cache.checkAndRecord("_late-3", NOW + HOUR, NOW));
+
+        // Then: Nothing forgotten, replays still rejected
+        assertEquals(4, cache.size());
+        assertEquals(1, cache.getRejections());
+        assertFalse(cache.checkAndRecord("_soon-1", NOW + 60_000, NOW));
+        assertFalse(cache.checkAndRecord("_late-1", NOW + HOUR, NOW));
+    }
+
+    @Test
+    void testFullCacheMakesRoomFromExpiredSegments() {
+        // Given: Full cache whose soon-expiring IDs have passed
+        ReplayCache cache = new ReplayCache(2 * HOUR, 64, 4, false);
+        cache.checkAndRecord("_soon-1", NOW + 60_000, NOW);
+        cache.checkAndRecord("_soon-2", NOW + 60_000, NOW);
+        cache.checkAndRecord("_late-1", NOW + HOUR, NOW);
+        cache.checkAndRecord("_late-2", NOW + HOUR, NOW);
+
+        // When
+        boolean recorded = cache.checkAndRecord("_late-3", NOW + HOUR, NOW + 10 * 60_000);
+
+        // Then
+        assertTrue(recorded);
+        assertEquals(3, cache.size());
+        assertEquals(0, cache.getRejections());
+    }
+
+    @Test
+    void testFingerprintMode() {
+        // Given
+        ReplayCache cache = new ReplayCache(2 * HOUR, 64, 100_000, true);
+
+        // When: Many distinct IDs, then a replay
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(cache.checkAndRecord("_assertion-" + i, NOW + HOUR, NOW));
+        }
+
+        // Then
+        assertFalse(cache.checkAndRecord("_assertion-42", NOW + HOUR, NOW));
+        assertEquals(10_000, cache.size());
+    }
+
+    @Test
+    void testConcurrentReplayAcceptedOnce() throws InterruptedException {
+        // Given: 4 threads posting the same assertion at once
+        ReplayCache cache = new ReplayCache(2 * HOUR, 64, 1000, false);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger accepted = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (cache.checkAndRecord("_assertion-1", NOW + HOUR, NOW)) {
+                    accepted.incrementAndGet();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        // When
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Then
+        assertEquals(1, accepted.get());
+    }
+}
@@ -0,0 +1,220 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ReplayService with two replicas over an embedded store
+ */
+class ReplayServiceTest {
+
+    private EmbeddedReplayStore store;
+    private final List<ReplayService> services = new ArrayList<>();
+    private ReplayService podA;
+    private ReplayService podB;
+
+    @BeforeEach
+    void setUp() {
+        store = new EmbeddedReplayStore();
+        // Flushes are triggered by the tests
+        podA = replica(properties(3, 100, 3_600_000L));
+        podB = replica(properties(3, 100, 3_600_000L));
+    }
+
+    @AfterEach
+    void tearDown() {
+        services.forEach(ReplayService::shutdown);
+    }
+
+    @Test
+    void testAssertionConsumedOnOneReplicaIsRejectedOnAnother() {
+        // Given: Assertion accepted on pod A and flushed
+        Instant now = Instant.now();
+        assertTrue(podA.markConsumed("assertion:_a1", now.plusSeconds(300), now));
+        podA.flush();
+
+        // When: Replayed to pod B
+        boolean accepted = podB.markConsumed("assertion:_a1", now.plusSeconds(300), now);
+
+        // Then
+        assertFalse(accepted);
+    }
+
+    @Test
+    void testIssuedRequestFoundOnAnotherReplicaBeforeFlush() {
+        // Given: Request issued on pod A, not yet flushed
+        Instant now = Instant.now();
+        podA.recordIssued("_r1", now.plusSeconds(900), now);
+
+        // When: Response arrives at pod B
+        boolean issued = podB.isIssued("_r1", now);
+
+        // Then: Found through a store lookup
+        assertTrue(issued);
+        assertEquals(1, store.lookups.get());
+        assertFalse(podB.isIssued("_unknown", now));
+    }
+
+    @Test
+    void testIssuedRequestAnsweredFromNearCacheAfterFlush() {
+        // Given: Request issued on pod A and flushed
+        Instant now = Instant.now();
+        podA.recordIssued("_r1", now.plusSeconds(900), now);
+        podA.flush();
+
+        // When
+        boolean issued = podB.isIssued("_r1", now);
+
+        // Then: No network lookup needed
+        assertTrue(issued);
+        assertEquals(0, store.lookups.get());
+    }
+
+    @Test
+    void testEntriesArePublishedInBatches() {
+        // Given: 7 entries with a batch size of 3
+        Instant now = Instant.now();
+        for (int i = 0; i < 7; i++) {
+            podA.markConsumed("assertion:_a" + i, now.plusSeconds(300), now);
+        }
+
+        // When
+        podA.flush();
+
+        // Then
+        assertEquals(List.of(3, 3, 1), store.batchSizes);
+        assertEquals(0, podA.getPendingCount());
+    }
+
+    @Test
+    void testPendingQueueIsBounded() {
+        // Given: Replica with room for 5 pending entries
+        ReplayService small = replica(properties(100, 5, 3_600_000L));
+        Instant now = Instant.now();
+
+        // When: 8 entries before any flush
+        for (int i = 0; i < 8; i++) {
+            assertTrue(small.markConsumed("assertion:_a" + i, now.plusSeconds(300), now));
+        }
+
+        // Then: Decisions unaffected, overflow counted
+        assertEquals(5, small.getPendingCount());
+        assertEquals(3, small.getDroppedCount());
+    }
+
+    @Test
+    void testBackgroundFlushPropagates() throws InterruptedException {
+        // Given: Replicas flushing every 20 ms, assertion accepted on the first
+        ReplayService first = replica(properties(100, 100, 20L));
+        ReplayService second = replica(properties(100, 100, 20L));
+        Instant now = Instant.now();
+        first.markConsumed("assertion:_a1", now.plusSeconds(300), now);
+
+        // When: Waiting for the flusher
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!second.knows("assertion:_a1", Instant.now()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // Then
+        assertTrue(second.knows("assertion:_a1", Instant.now()));
+    }
+
+    @Test
+    void testLocalStoreSharesNothing() {
+        // Given: Single replica with the local store
+        ReplayService local = new ReplayService(properties(100, 100, 20L), new LocalReplayStore());
+        local.init();
+        Instant now = Instant.now();
+
+        // When
+        local.recordIssued("_r1", now.plusSeconds(900), now);
+        local.markConsumed("assertion:_a1", now.plusSeconds(300), now);
+
+        // Then: Decisions from the near cache, nothing queued
+        assertTrue(local.isIssued("_r1", now));
+        assertFalse(local.markConsumed("assertion:_a1", now.plusSeconds(300), now));
+        assertEquals(0, local.getPendingCount());
+    }
+
+    @Test
+    void testFullNearCacheRefusesLogins() {
+        // Given: Near cache for 2 IDs at a low expected rate
+        ADProperties properties = properties(100, 100, 20L);
+        properties.getFederation().setReplayCacheMaxEntries(2);
+        properties.getFederation().setReplayCacheExpectedRate(0);
+        ReplayService local = new ReplayService(properties, new LocalReplayStore());
+        local.init();
+        Instant now = Instant.now();
+        local.markConsumed("assertion:_a1", now.plusSeconds(300), now);
+        local.markConsumed("request:_r1", now.plusSeconds(300), now);
+
+        // When / Then: New IDs refused, known ones still rejected as replays
+        assertThrows(ReplayCacheFullException.class,
+            () -> local.markConsumed("assertion:_a2", now.plusSeconds(300), now));
+        assertFalse(local.markConsumed("assertion:_a1", now.plusSeconds(300), now));
+        assertEquals(1, local.getRejectedCount());
+    }
+
+    @Test
+    void testIssuedRequestsDoNotDisplaceConsumedIds() {
+        // Given: Room for 2 outstanding AuthnRequests, an assertion already consumed
+        ADProperties properties = properties(100, 100, 20L);
+        properties.getFederation().setAuthnRequestMaxEntries(2);
+        properties.getFederation().setReplayCacheExpectedRate(0);
+        ReplayService local = new ReplayService(properties, new LocalReplayStore());
+        local.init();
+        Instant now = Instant.now();
+        assertTrue(local.markConsumed("assertion:_a1", now.plusSeconds(300), now));
+
+        // When: /login is flooded
+        local.recordIssued("_r1", now.plusSeconds(900), now);
+        local.recordIssued("_r2", now.plusSeconds(900), now);
+        assertThrows(ReplayCacheFullException.class, () -> local.recordIssued("_r3", now.plusSeconds(900), now));
+
+        // Then: Further requests refused, the consumed assertion still rejected and new ones accepted
+        assertTrue(local.isIssued("_r1", now));
+        assertFalse(local.isIssued("_r3", now));
+        assertFalse(local.markConsumed("assertion:_a1", now.plusSeconds(300), now));
+        assertTrue(local.markConsumed("assertion:_a2", now.plusSeconds(300), now));
+    }
+
+    @Test
+    void testUndersizedNearCacheFailsStartup() {
+        // Given: 2000 logins/s for 5 min, 1 min skew and a 2 h / 63 time slice need 1.9M IDs
+        ADProperties properties = properties(100, 100, 20L);
+        properties.getFederation().setReplayCacheMaxEntries(1_000_000);
+        ReplayService local = new ReplayService(properties, new LocalReplayStore());
+
+        // When / Then
+        assertEquals(1_897_144, ReplayService.requiredEntries(properties.getFederation()));
+        assertEquals(1_828_572, ReplayService.requiredIssuedEntries(properties.getFederation()));
+        assertThrows(IllegalStateException.class, local::init);
+    }
+
+    private ReplayService replica(ADProperties properties) {
+        EmbeddedReplayStore.Node node = store.node();
+        ReplayService service = new ReplayService(properties, node);
+        node.answerLookupsWith(service);
+        service.init();
+        services.add(service);
+        return service;
+    }
+
+    private static ADProperties properties(int batchSize, int maxPending, long flushInterval) {
+        ADProperties properties = new ADProperties();
+        properties.setFederation(new ADProperties.Federation());
+        properties.getCluster().setBatchSize(batchSize);
+        properties.getCluster().setMaxPending(maxPending);
+        properties.getCluster().setFlushInterval(flushInterval);
+        return properties;
+    }
+}
@@ -0,0 +1,202 @@
+package ee.buerokratt.adauth.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ResilienceService
+ */
+@SpringBootTest(properties = {
+    "ad.resilience.max-retries=2",
+    "ad.resilience.retry-backoff=1",
+    "ad.resilience.circuit-breaker-sliding-window-size=4",
+    "ad.resilience.circuit-breaker-minimum-calls=4",
+    "ad.resilience.circuit-breaker-wait-duration=60000",
+    "ad.resilience.max-concurrent-calls=2",
+    "ad.resilience.max-concurrent-calls-wait=50"
+})
+class ResilienceServiceTest {
+
+    @Autowired
+    private ResilienceService resilienceService;
+
+    @Autowired
+    private CircuitBreakerHealthIndicator healthIndicator;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void testRetriesIOExceptionUntilSuccess() throws IOException {
+        // Given: Call failing twice before answering
+        AtomicInteger attempts = new AtomicInteger();
+
+        // When
+        String result = resilienceService.execute("retry-success", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IOException("Connection refused");
+            }
+            return "ok";
+        });
+
+        // Then
+        assertEquals("ok", result);
+        assertEquals(3, attempts.get());
+        assertEquals(2.0, meterRegistry.counter("resilience.retry.attempts", "name", "retry-success").count());
+    }
+
+    @Test
+    void testGivesUpAfterMaxRetries() {
+        // Given: Call that always fails
+        AtomicInteger attempts = new AtomicInteger();
+
+        // When
+        IOException e = assertThrows(IOException.class, () -> resilienceService.execute("retry-exhausted", () -> {
+            attempts.incrementAndGet();
+            throw new IOException("Read timed out");
+        }));
+
+        // Then: 1 attempt + 2 retries, last error surfaces
+        assertEquals("Read timed out", e.getMessage());
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void testNonIOExceptionIsNotRetried() {
+        // Given: Remote answers with invalid content
+        AtomicInteger attempts = new AtomicInteger();
+
+        // When
+        assertThrows(SAMLValidationException.class, () -> resilienceService.execute("content-error", () -> {
+            attempts.incrementAndGet();
+            throw new SAMLValidationException("Malformed document");
+        }));
+
+        // Then: No retry, counted as success for the breaker
+        assertEquals(1, attempts.get());
+        assertEquals(CircuitBreaker.State.CLOSED, resilienceService.circuitBreaker("content-error").getState());
+    }
+
+    @Test
+    void testUncheckedExceptionCountsAsFailure() {
+        // Given: Call failing with unexpected unchecked exceptions and errors
+        AtomicInteger attempts = new AtomicInteger();
+        ResilienceService.OutboundCall<String, RuntimeException> failing = () -> {
+            if (attempts.incrementAndGet() % 2 == 0) {
+                throw new StackOverflowError();
+            }
+            throw new IllegalStateException("Unexpected reply");
+        };
+
+        // When: Enough calls to fill the window
+        for (int i = 0; i < 2; i++) {
+            assertThrows(IllegalStateException.class, () -> resilienceService.execute("unchecked", failing));
+            assertThrows(StackOverflowError.class, () -> resilienceService.execute("unchecked", failing));
+        }
+
+        // Then: No retry, every call counted as a failure and the slots released
+        assertEquals(4, attempts.get());
+        assertEquals(CircuitBreaker.State.OPEN, resilienceService.circuitBreaker("unchecked").getState());
+        assertEquals(4.0, meterRegistry.counter("resilience.circuitbreaker.calls",
+            "name", "unchecked", "outcome", "failure").count());
+        assertEquals(0, resilienceService.getConcurrentCalls("unchecked"));
+    }
+
+    @Test
+    void testOpenBreakerFailsFastAndDegradesHealth() {
+        // Given: Endpoint failing often enough to open the breaker
+        AtomicInteger attempts = new AtomicInteger();
+        ResilienceService.OutboundCall<String, RuntimeException> failing = () -> {
+            attempts.incrementAndGet();
+            throw new IOException("Connection refused");
+        };
+        assertThrows(IOException.class, () -> resilienceService.execute("unreachable", failing));
+        assertThrows(IOException.class, () -> resilienceService.execute("unreachable", failing));
+        assertEquals(CircuitBreaker.State.OPEN, resilienceService.circuitBreaker("unreachable").getState());
+        int attemptsWhenOpened = attempts.get();
+        double rejectedWhenOpened = meterRegistry.counter("resilience.circuitbreaker.calls",
+            "name", "unreachable", "outcome", "rejected").count();
+
+        // When
+        assertThrows(CallNotPermittedException.class, () -> resilienceService.execute("unreachable", failing));
+
+        // Then: Call not made, rejection and state exported
+        assertEquals(attemptsWhenOpened, attempts.get());
+        assertEquals(rejectedWhenOpened + 1, meterRegistry.counter("resilience.circuitbreaker.calls",
+            "name", "unreachable", "outcome", "rejected").count());
+        assertEquals(1.0, meterRegistry.get("resilience.circuitbreaker.state")
+            .tag("name", "unreachable").tag("state", "open").gauge().value());
+        assertEquals(1.0, meterRegistry.counter("resilience.circuitbreaker.transitions",
+            "name", "unreachable", "from", "closed", "to", "open").count());
+
+        Health health = healthIndicator.health();
+        assertEquals(CircuitBreakerHealthIndicator.DEGRADED, health.getStatus());
+        assertNotNull(health.getDetails().get("unreachable"));
+    }
+
+    @Test
+    void testBackoffIsExponentialWithJitter() {
+        // When / Then: Between half and all of base * 2^(attempt-1)
+        for (int i = 0; i < 100; i++) {
+            long first = ResilienceService.backoff(100, 1);
+            long third = ResilienceService.backoff(100, 3);
+            assertTrue(first >= 50 && first <= 100, "first retry " + first);
+            assertTrue(third >= 200 && third <= 400, "third retry " + third);
+        }
+    }
+
+    @Test
+    void testBulkheadLimitsConcurrentCalls() throws Exception {
+        // Given: Two slow calls in flight to the same endpoint
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = callers.submit(() -> resilienceService.execute("slow-adfs", () -> {
+                started.countDown();
+                release.await();
+                return "ok";
+            }));
+            Future<String> second = callers.submit(() -> resilienceService.execute("slow-adfs", () -> {
+                started.countDown();
+                release.await();
+                return "ok";
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals(2, resilienceService.getConcurrentCalls("slow-adfs"));
+
+            // When: A third call waits longer than max-concurrent-calls-wait
+            AtomicInteger attempts = new AtomicInteger();
+            CallNotPermittedException e = assertThrows(CallNotPermittedException.class,
+                () -> resilienceService.execute("slow-adfs", () -> attempts.incrementAndGet()));
+
+            // Then: Not made, counted as saturated and not held against the breaker
+            assertTrue(e.getMessage().contains("too many concurrent calls"));
+            assertEquals(0, attempts.get());
+            assertEquals(1.0, meterRegistry.counter("resilience.circuitbreaker.calls",
+                "name", "slow-adfs", "outcome", "saturated").count());
+            assertEquals(0, resilienceService.circuitBreaker("slow-adfs").getFailedCalls());
+
+            release.countDown();
+            assertEquals("ok", first.get(5, TimeUnit.SECONDS));
+            assertEquals("ok", second.get(5, TimeUnit.SECONDS));
+            assertEquals(0, resilienceService.getConcurrentCalls("slow-adfs"));
+        } finally {
+            release.countDown();
+            callers.shutdownNow();
+        }
+    }
+}
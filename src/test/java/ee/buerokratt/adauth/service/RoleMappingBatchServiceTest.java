@@ -0,0 +1,99 @@
+package ee.buerokratt.adauth.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for RoleMappingBatchService
+ */
+@SpringBootTest
+class RoleMappingBatchServiceTest {
+
+    @Autowired
+    private RoleMappingBatchService batchService;
+
+    @SpyBean
+    private RoleMappingService roleMappingService;
+
+    @Test
+    void testIdenticalGroupSetsMappedOnce() throws Exception {
+        // Given: Three users with the same groups in different order, one with other groups
+        String batch = "["
+            + "{\"id\":\"1\",\"adGroups\":[\"CN=Buerokratt-Admins,OU=Groups,DC=domain,DC=com\",\"CN=X,DC=domain\"]},"
+            + "{\"id\":\"2\",\"adGroups\":[\"CN=X,DC=domain\",\"CN=Buerokratt-Admins,OU=Groups,DC=domain,DC=com\"]},"
+            + "{\"id\":\"3\",\"adGroups\":[\"CN=Buerokratt-Admins,OU=Groups,DC=domain,DC=com\",\"CN=X,DC=domain\"]},"
+            + "{\"id\":\"4\",\"adGroups\":[\"CN=Y,DC=domain\"]}"
+            + "]";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // When
+        long count = batchService.mapStream(
+            new ByteArrayInputStream(batch.getBytes(StandardCharsets.UTF_8)), out, false);
+
+        // Then: Two distinct group sets, four results
+        assertEquals(4, count);
+        verify(roleMappingService, times(2)).mapDistinguishedNames(anyList());
+        String body = out.toString(StandardCharsets.UTF_8);
+        assertTrue(body.startsWith("[{\"id\":\"1\",\"roles\":[\"ROLE_ADMINISTRATOR\"]}"), body);
+    }
+
+    @Test
+    void testLargeBatchIsStreamed() throws Exception {
+        // Given: 25,000 NDJSON entries over 100 group sets, generated while being read
+        int entries = 25000;
+        InputStream in = new SequenceInputStream(new Enumeration<>() {
+            private int next;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < entries;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                int i = next++;
+                String line = "{\"id\":\"user" + i + "\",\"adGroups\":[\"CN=Group-" + (i % 100)
+                    + ",OU=Groups,DC=domain,DC=com\",\"CN=Buerokratt-Admins,OU=Groups,DC=domain,DC=com\"]}\n";
+                return new ByteArrayInputStream(line.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        CountingOutputStream out = new CountingOutputStream();
+
+        // When
+        long count = batchService.mapStream(in, out, true);
+
+        // Then: Every entry answered, each group set mapped once (in parallel for the first chunk)
+        assertEquals(entries, count);
+        assertEquals(entries, out.lines);
+        verify(roleMappingService, times(100)).mapDistinguishedNames(anyList());
+    }
+
+    /**
+     * Discards output, counting lines
+     */
+    private static final class CountingOutputStream extends OutputStream {
+
+        int lines;
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+    }
+}
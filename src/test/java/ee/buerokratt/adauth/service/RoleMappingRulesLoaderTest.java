@@ -0,0 +1,144 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for RoleMappingRulesLoader
+ */
+@SpringBootTest(properties = "ad.role-mapping.rules-reload-interval=3600000")
+class RoleMappingRulesLoaderTest {
+
+    private static final Path RULES_FILE = createRulesFile();
+
+    private static final List<String> ANALYSTS = Collections.singletonList(
+        "CN=Buerokratt-Analysts,OU=Groups,DC=domain,DC=com"
+    );
+
+    @Autowired
+    private RoleMappingRulesLoader loader;
+
+    @Autowired
+    private RoleMappingService roleMappingService;
+
+    @Autowired
+    private ADProperties adProperties;
+
+    @DynamicPropertySource
+    static void rulesFile(DynamicPropertyRegistry registry) {
+        registry.add("ad.role-mapping.rules-file", RULES_FILE::toString);
+    }
+
+    @AfterAll
+    static void deleteRulesFile() throws IOException {
+        Files.deleteIfExists(RULES_FILE);
+    }
+
+    @Test
+    void testRulesFileReplacesBoundRules() throws IOException {
+        // Given: Rules file loaded at startup
+        writeRules("rules:\n"
+            + "  - ad-group: CN=Buerokratt-Analysts,OU=Groups,DC=domain,DC=com\n"
+            + "    role: ROLE_ANALYST\n"
+            + "    priority: 5\n");
+        loader.reload();
+        long version = roleMappingService.getRulesVersion();
+        assertEquals("ROLE_ANALYST", roleMappingService.mapGroups(ANALYSTS).getRoles().get(0));
+
+        // When: The file changes
+        writeRules("rules:\n"
+            + "  - ad-group: CN=Buerokratt-Analysts\n"
+            + "    role: ROLE_CHATBOT_TRAINER\n"
+            + "    priority: 1\n");
+        boolean reloaded = loader.reload();
+
+        // Then: New rules are published under a new version and cached results no longer apply
+        assertTrue(reloaded);
+        assertEquals(version + 1, roleMappingService.getRulesVersion());
+        assertEquals(1, adProperties.getRoleMapping().getRules().size());
+        assertEquals("ROLE_CHATBOT_TRAINER", roleMappingService.mapGroups(ANALYSTS).getRoles().get(0));
+
+        // And: Unchanged content is not published again
+        assertFalse(loader.reload());
+        assertEquals(version + 1, roleMappingService.getRulesVersion());
+    }
+
+    @Test
+    void testInvalidRulesFileKeepsCurrentRules() throws IOException {
+        // Given: Valid rules loaded
+        writeRules("rules:\n"
+            + "  - ad-group: CN=Buerokratt-Analysts,OU=Groups,DC=domain,DC=com\n"
+            + "    role: ROLE_ANALYST\n"
+            + "    priority: 5\n");
+        loader.reload();
+        long version = roleMappingService.getRulesVersion();
+
+        // When: The file is replaced by incomplete rules, broken YAML, or removed
+        writeRules("rules:\n  - ad-group: CN=Buerokratt-Analysts\n    priority: 1\n");
+        assertFalse(loader.reload());
+        writeRules("rules: [\n");
+        assertFalse(loader.reload());
+        Files.delete(RULES_FILE);
+        assertFalse(loader.reload());
+
+        // Then: The previous rules stay in place
+        assertEquals(version, roleMappingService.getRulesVersion());
+        assertEquals("ROLE_ANALYST", roleMappingService.mapGroups(ANALYSTS).getRoles().get(0));
+    }
+
+    @Test
+    void testParseRejectsIncompleteRules() {
+        // Then
+        assertThrows(IllegalArgumentException.class, () -> parse("other: value\n"));
+        assertThrows(IllegalArgumentException.class, () -> parse("rules:\n  - role: ROLE_ANALYST\n"));
+        assertThrows(IllegalArgumentException.class,
+            () -> parse("rules:\n  - ad-group: CN=A\n    role: ROLE_ANALYST\n    priority: -1\n"));
+        assertThrows(IllegalArgumentException.class,
+            () -> parse("rules:\n  - ad-group: CN=A\n    role: ROLE_ANALYST\n    priority: high\n"));
+        assertEquals(2, parse("rules:\n  - ad-group: CN=A\n    role: ROLE_A\n  - ad-group: CN=B\n    role: ROLE_B\n")
+            .size());
+    }
+
+    @Test
+    void testParseAcceptsRelaxedNames() {
+        // When
+        List<ADProperties.RoleMappingRule> rules = parse("rules:\n  - adGroup: CN=A\n    role: ROLE_A\n    priority: 2\n"
+            + "  - ad_group: CN=B\n    role: ROLE_B\n");
+
+        // Then: Bound as from application.yml
+        assertEquals("CN=A", rules.get(0).getAdGroup());
+        assertEquals(2, rules.get(0).getPriority());
+        assertEquals("CN=B", rules.get(1).getAdGroup());
+        assertNull(rules.get(1).getPriority());
+    }
+
+    private static List<ADProperties.RoleMappingRule> parse(String yaml) {
+        return RoleMappingRulesLoader.parse(yaml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeRules(String yaml) throws IOException {
+        Files.writeString(RULES_FILE, yaml);
+    }
+
+    private static Path createRulesFile() {
+        try {
+            return Files.createTempFile("role-mapping-rules", ".yaml");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
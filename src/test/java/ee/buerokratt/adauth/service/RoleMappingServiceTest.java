@@ -1,12 +1,15 @@
 package ee.buerokratt.adauth.service;
 
 import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.DistinguishedName;
 import ee.buerokratt.adauth.model.RoleMappingResult;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -25,6 +28,9 @@ class RoleMappingServiceTest {
     @Autowired
     private ADProperties adProperties;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     private List<String> testAdGroups;
 
     @BeforeEach
@@ -215,4 +221,90 @@ class RoleMappingServiceTest {
         assertEquals(1, result.getRoles().size());
         assertEquals("ROLE_ADMINISTRATOR", result.getRoles().get(0));
     }
+
+    @Test
+    void testCacheKeyIsOrderIndependent() {
+        // Given: Same groups in different order, spelling and with duplicates
+        List<String> reordered = Arrays.asList(
+            "CN=All-Users,OU=Groups,DC=domain,DC=com",
+            "cn=buerokratt-admins, ou=Groups, dc=domain, dc=com",
+            "CN=All-Users,OU=Groups,DC=domain,DC=com"
+        );
+        ADProperties.RoleMapping.MultiGroupStrategy strategy =
+            ADProperties.RoleMapping.MultiGroupStrategy.HIGHEST_PRIORITY;
+
+        // When: Building cache keys
+        List<DistinguishedName> groups = DistinguishedName.listOf(testAdGroups);
+        GroupSetKey first = GroupSetKey.of(groups, strategy, "ROLE_UNAUTHENTICATED", 1);
+        GroupSetKey second = GroupSetKey.of(DistinguishedName.listOf(reordered), strategy, "ROLE_UNAUTHENTICATED", 1);
+
+        // Then: Keys are equal, but differ for another strategy, group set or rule version
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertNotEquals(first, GroupSetKey.of(groups,
+            ADProperties.RoleMapping.MultiGroupStrategy.COMBINE, "ROLE_UNAUTHENTICATED", 1));
+        assertNotEquals(first, GroupSetKey.of(
+            DistinguishedName.listOf(Collections.singletonList("CN=All-Users,OU=Groups,DC=domain,DC=com")),
+            strategy, "ROLE_UNAUTHENTICATED", 1));
+        assertNotEquals(first, GroupSetKey.of(groups, strategy, "ROLE_UNAUTHENTICATED", 2));
+    }
+
+    @Test
+    void testCacheHitsRecordedInRegistry() {
+        // Given: HIGHEST_PRIORITY strategy and a fresh group set
+        adProperties.getRoleMapping().setMultiGroupStrategy(
+            ADProperties.RoleMapping.MultiGroupStrategy.HIGHEST_PRIORITY
+        );
+        List<String> groups = Arrays.asList(
+            "CN=Buerokratt-Trainers,OU=Groups,DC=domain,DC=com",
+            "CN=Cache-Test,OU=Groups,DC=domain,DC=com"
+        );
+        List<String> reversed = new ArrayList<>(groups);
+        Collections.reverse(reversed);
+        double hitsBefore = cacheGets("hit");
+
+        // When: Mapping the same group set twice in different order
+        RoleMappingResult first = roleMappingService.mapGroups(groups);
+        RoleMappingResult second = roleMappingService.mapGroups(reversed);
+
+        // Then: Second call is served from the cache
+        assertEquals(first.getRoles(), second.getRoles());
+        assertEquals(hitsBefore + 1, cacheGets("hit"));
+    }
+
+    @Test
+    void testCacheInvalidatedWhenRulesChange() {
+        // Given: Cached mapping for analysts
+        adProperties.getRoleMapping().setMultiGroupStrategy(
+            ADProperties.RoleMapping.MultiGroupStrategy.HIGHEST_PRIORITY
+        );
+        List<String> analystGroups = Collections.singletonList(
+            "CN=Buerokratt-Analysts,OU=Groups,DC=domain,DC=com"
+        );
+        assertEquals("ROLE_ANALYST", roleMappingService.mapGroups(analystGroups).getRoles().get(0));
+
+        List<ADProperties.RoleMappingRule> original = adProperties.getRoleMapping().getRules();
+        try {
+            // When: Rules are replaced
+            ADProperties.RoleMappingRule rule = new ADProperties.RoleMappingRule();
+            rule.setAdGroup("CN=Buerokratt-Analysts");
+            rule.setRole("ROLE_CHATBOT_TRAINER");
+            rule.setPriority(1);
+            adProperties.getRoleMapping().setRules(Collections.singletonList(rule));
+
+            // Then: New rules apply immediately
+            assertEquals("ROLE_CHATBOT_TRAINER", roleMappingService.mapGroups(analystGroups).getRoles().get(0));
+        } finally {
+            adProperties.getRoleMapping().setRules(original);
+        }
+        assertEquals("ROLE_ANALYST", roleMappingService.mapGroups(analystGroups).getRoles().get(0));
+    }
+
+    private double cacheGets(String result) {
+        return meterRegistry.get("cache.gets")
+            .tag("cache", RoleMappingService.CACHE_NAME)
+            .tag("result", result)
+            .functionCounter()
+            .count();
+    }
 }
@@ -0,0 +1,237 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.model.UserAttributes;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SAMLResponseParser against the sample corpus
+ */
+class SAMLResponseParserTest {
+
+    private static final String AUDIENCE = "https://buerokratt.ee/saml/sp";
+    private static final String ACS_URL = "https://buerokratt.ee/auth/ad/acs";
+
+    private SAMLResponseParser parser;
+
+    @BeforeEach
+    void setUp() {
+        parser = new SAMLResponseParser(262144);
+    }
+
+    @Test
+    void testParseAdminResponse() throws Exception {
+        // Given: AD FS response with full claim URIs
+        String saml = SAMLTestResponses.base64(SAMLTestResponses.ADMIN, AUDIENCE, ACS_URL);
+
+        // When: Parsing
+        ParsedSAMLResponse response = parser.parse(saml);
+
+        // Then: Protocol fields and user attributes are filled
+        assertEquals("_8e2f4a6b-1c3d-4e5f-a6b7-c8d9e0f1a2b3", response.getResponseId());
+        assertEquals("_4c1d7f0e-9b2a-4e3c-8d5f-6a7b8c9d0e1f", response.getInResponseTo());
+        assertEquals("_a7f3c2d1-4b5e-4f60-9a1b-2c3d4e5f6a7b", response.getAssertionId());
+        assertEquals("urn:oasis:names:tc:SAML:2.0:status:Success", response.getStatusCode());
+        assertEquals("http://adfs.domain.com/adfs/services/trust", response.getIssuer());
+        assertEquals("http://adfs.domain.com/adfs/services/trust", response.getAssertionIssuer());
+        assertEquals(ACS_URL, response.getDestination());
+        assertEquals(ACS_URL, response.getRecipient());
+        assertEquals(1, response.getAssertionCount());
+        assertEquals(List.of(List.of(AUDIENCE)), response.getAudienceRestrictions());
+        assertNotNull(response.getNotBefore());
+        assertNotNull(response.getNotOnOrAfter());
+
+        UserAttributes user = response.getUserAttributes();
+        assertEquals("john.doe@domain.com", user.getUPN());
+        assertEquals("john.doe@domain.com", user.getEmail());
+        assertEquals("John Doe", user.getDisplayName());
+        assertEquals("John", user.getFirstName());
+        assertEquals("Doe", user.getLastName());
+        assertEquals(2, user.getMemberOf().size());
+        assertEquals("CN=Buerokratt-Admins,OU=Groups,DC=domain,DC=com", user.getMemberOf().get(0));
+    }
+
+    @Test
+    void testParseLargeGroupListWithPrefixedNamespace() throws Exception {
+        // Given: ~30 KB response with 250 groups and saml: prefixed assertion
+        String saml = SAMLTestResponses.base64(SAMLTestResponses.LARGE_GROUPS, AUDIENCE, ACS_URL);
+
+        // When: Parsing
+        ParsedSAMLResponse response = parser.parse(saml);
+
+        // Then: All groups are read in document order
+        assertEquals("jane.smith@domain.com", response.getUserAttributes().getUPN());
+        assertEquals(250, response.getUserAttributes().getMemberOf().size());
+        assertTrue(response.getUserAttributes().getMemberOf()
+            .contains("CN=Buerokratt-CSAgents,OU=Groups,DC=domain,DC=com"));
+    }
+
+    @Test
+    void testParseShortClaimNames() throws Exception {
+        // Given: Response using LDAP attribute names instead of claim URIs
+        String saml = SAMLTestResponses.base64(SAMLTestResponses.SHORT_CLAIM_NAMES, AUDIENCE, ACS_URL);
+
+        // When: Parsing
+        UserAttributes user = parser.parse(saml).getUserAttributes();
+
+        // Then: Attributes are mapped, unknown claims ignored
+        assertEquals("mari.maasikas@domain.com", user.getUPN());
+        assertEquals("Mari", user.getFirstName());
+        assertEquals("Maasikas", user.getLastName());
+        assertEquals(1, user.getMemberOf().size());
+    }
+
+    @Test
+    void testParseMimeEncodedInput() throws Exception {
+        // Given: Base64 with line breaks every 76 characters
+        String xml = SAMLTestResponses.xml(SAMLTestResponses.ADMIN, AUDIENCE, ACS_URL);
+        String mime = Base64.getMimeEncoder().encodeToString(xml.getBytes("UTF-8"));
+
+        // When: Parsing
+        ParsedSAMLResponse response = parser.parse(mime);
+
+        // Then: Decoding ignores line breaks
+        assertEquals("john.doe@domain.com", response.getUserAttributes().getUPN());
+    }
+
+    @Test
+    void testParseStatusResponderWithoutAssertion() throws Exception {
+        // Given: AD FS error response
+        String saml = SAMLTestResponses.base64(SAMLTestResponses.STATUS_RESPONDER, AUDIENCE, ACS_URL);
+
+        // When: Parsing
+        ParsedSAMLResponse response = parser.parse(saml);
+
+        // Then: Top-level status is kept, nested status ignored
+        assertEquals("urn:oasis:names:tc:SAML:2.0:status:Responder", response.getStatusCode());
+        assertNotNull(response.getStatusMessage());
+        assertEquals(0, response.getAssertionCount());
+    }
+
+    @Test
+    void testRejectDoctypeAndExternalEntities() {
+        // Given: Response with DTD declaring an external entity
+        String saml = SAMLTestResponses.base64(SAMLTestResponses.XXE, AUDIENCE, ACS_URL);
+
+        // When/Then: Parsing fails before the entity is resolved
+        SAMLValidationException e = assertThrows(SAMLValidationException.class, () -> parser.parse(saml));
+        assertFalse(e.getMessage().contains("root:"));
+    }
+
+    @Test
+    void testRejectMultipleAssertions() {
+        // Given: Response with a second, injected assertion
+        String saml = SAMLTestResponses.base64(SAMLTestResponses.TWO_ASSERTIONS, AUDIENCE, ACS_URL);
+
+        // When/Then: Parsing fails
+        SAMLValidationException e = assertThrows(SAMLValidationException.class, () -> parser.parse(saml));
+        assertTrue(e.getMessage().contains("exactly one assertion"));
+    }
+
+    @Test
+    void testRejectEncryptedAssertion() {
+        // Given: Response with EncryptedAssertion
+        String saml = SAMLTestResponses.base64(SAMLTestResponses.ENCRYPTED_ASSERTION, AUDIENCE, ACS_URL);
+
+        // When/Then: Parsing fails
+        assertThrows(SAMLValidationException.class, () -> parser.parse(saml));
+    }
+
+    @Test
+    void testRejectOversizedResponse() {
+        // Given: Parser limited to 4 KB and a 30 KB response
+        SAMLResponseParser smallParser = new SAMLResponseParser(4096);
+        String saml = SAMLTestResponses.base64(SAMLTestResponses.LARGE_GROUPS, AUDIENCE, ACS_URL);
+
+        // When/Then: Parsing fails on size
+        SAMLValidationException e = assertThrows(SAMLValidationException.class, () -> smallParser.parse(saml));
+        assertTrue(e.getMessage().contains("maximum size"));
+    }
+
+    @Test
+    void testRejectNonSamlInput() {
+        // When/Then: Non-XML and non-SAML XML are rejected
+        assertThrows(SAMLValidationException.class, () -> parser.parse("invalid-saml-response"));
+        assertThrows(SAMLValidationException.class,
+            () -> parser.parse(SAMLTestResponses.encode("<html><body>AD FS error</body></html>")));
+    }
+
+    @Test
+    void testIgnoresSubjectAndConditionsOutsideAssertion() throws Exception {
+        // Given: Subject, Conditions and attributes appended after the Assertion
+        String xml = SAMLTestResponses.xml(SAMLTestResponses.ADMIN, AUDIENCE, ACS_URL).replace("</samlp:Response>",
+            "<saml:Subject xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\"><saml:NameID>eve@domain.com</saml:NameID>"
+            + "<saml:SubjectConfirmation><saml:SubjectConfirmationData NotOnOrAfter=\"2099-01-01T00:00:00Z\"/>"
+            + "</saml:SubjectConfirmation></saml:Subject>"
+            + "<saml:Conditions xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\" NotOnOrAfter=\"2099-01-01T00:00:00Z\">"
+            + "<saml:AudienceRestriction><saml:Audience>https://other-sp.example.com/</saml:Audience>"
+            + "</saml:AudienceRestriction></saml:Conditions>"
+            + "<saml:Attribute xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\" Name=\"memberOf\">"
+            + "<saml:AttributeValue>CN=Domain Admins,DC=domain,DC=com</saml:AttributeValue></saml:Attribute>"
+            + "</samlp:Response>");
+
+        // When: Parsing
+        ParsedSAMLResponse response = parser.parse(SAMLTestResponses.encode(xml));
+
+        // Then: Only the Assertion's own values are read
+        assertEquals("john.doe@domain.com", response.getNameId());
+        assertNotEquals("2099-01-01T00:00:00Z", response.getNotOnOrAfter().toString());
+        assertNotEquals("2099-01-01T00:00:00Z", response.getSubjectNotOnOrAfter().toString());
+        assertEquals(List.of(List.of(AUDIENCE)), response.getAudienceRestrictions());
+        assertEquals(2, response.getUserAttributes().getMemberOf().size());
+    }
+
+    @Test
+    void testRejectNonAsciiInput() {
+        // Given: Base64 with a character that truncates to 'A' when masked to a byte
+        String saml = SAMLTestResponses.base64(SAMLTestResponses.ADMIN, AUDIENCE, ACS_URL);
+        String nonAscii = saml.substring(0, 40) + '\u0141' + saml.substring(41);
+
+        // When/Then: Parsing fails instead of decoding something else
+        SAMLValidationException e = assertThrows(SAMLValidationException.class, () -> parser.parse(nonAscii));
+        assertTrue(e.getMessage().contains("non-ASCII"));
+    }
+
+    @Test
+    void testAllocatesLessThanDomParsing() throws Exception {
+        // Given: Large response and a DOM parser doing the decode-then-parse approach
+        String saml = SAMLTestResponses.base64(SAMLTestResponses.LARGE_GROUPS, AUDIENCE, ACS_URL);
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < 200; i++) {
+            parser.parse(saml);
+            builder.parse(new ByteArrayInputStream(Base64.getDecoder().decode(saml)));
+        }
+
+        // When: Measuring allocation per parse
+        int iterations = 100;
+        long start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < iterations; i++) {
+            parser.parse(saml);
+        }
+        long stax = threads.getThreadAllocatedBytes(thread) - start;
+
+        start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < iterations; i++) {
+            Document document = builder.parse(new ByteArrayInputStream(Base64.getDecoder().decode(saml)));
+            assertNotNull(document.getDocumentElement());
+        }
+        long dom = threads.getThreadAllocatedBytes(thread) - start;
+
+        // Then: Streaming parse allocates clearly less
+        assertTrue(stax * 2 < dom, "StAX allocated " + stax / iterations + " B/op, DOM " + dom / iterations + " B/op");
+    }
+}
@@ -1,5 +1,6 @@
 package ee.buerokratt.adauth.service;
 
+import ee.buerokratt.adauth.config.ADProperties;
 import ee.buerokratt.adauth.model.UserAttributes;
 import ee.buerokratt.adauth.model.ValidationResult;
 import org.junit.jupiter.api.BeforeEach;
@@ -14,12 +15,21 @@ import static org.junit.jupiter.api.Assertions.*;
 /**
  * Unit tests for SAMLService
  */
-@SpringBootTest
+@SpringBootTest(properties = "ad.federation.signing-certificates=classpath:saml/test-idp-signing.crt")
 class SAMLServiceTest {
 
+    // Signature wrapping: placed after the signed Assertion, so the Assertion signature still verifies
+    private static final String WRAPPED_SUBJECT = "<saml:Subject xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\">"
+        + "<saml:SubjectConfirmation Method=\"urn:oasis:names:tc:SAML:2.0:cm:bearer\">"
+        + "<saml:SubjectConfirmationData NotOnOrAfter=\"2099-01-01T00:00:00Z\"/>"
+        + "</saml:SubjectConfirmation></saml:Subject>";
+
     @Autowired
     private SAMLService samlService;
 
+    @Autowired
+    private ADProperties adProperties;
+
     private String relayState;
 
     @BeforeEach
@@ -36,6 +46,19 @@ class SAMLServiceTest {
         assertNotNull(authUrl);
         assertTrue(authUrl.contains("http"));
         assertTrue(authUrl.contains("adfs"));
+        assertEquals(relayState, SAMLTestResponses.query(authUrl).get("RelayState"));
+    }
+
+    @Test
+    void testCreateAuthenticationRequestCarriesAuthnRequest() throws Exception {
+        // When: Creating authentication request
+        String authUrl = samlService.createAuthenticationRequest(relayState);
+
+        // Then: SAMLRequest inflates to an AuthnRequest from this SP
+        String xml = SAMLTestResponses.inflate(SAMLTestResponses.query(authUrl).get("SAMLRequest"));
+        assertTrue(xml.startsWith("<samlp:AuthnRequest"));
+        assertTrue(xml.contains(">" + adProperties.getFederation().getEntityId() + "</saml:Issuer>"));
+        assertTrue(xml.contains("AssertionConsumerServiceURL=\"" + adProperties.getFederation().getAcsUrl() + "\""));
     }
 
     @Test
@@ -50,8 +73,8 @@ class SAMLServiceTest {
 
     @Test
     void testValidateResponseWithValidSAML() {
-        // Given: Valid (mock) SAML response
-        String validSAML = "valid-mock-saml-response";
+        // Given: Valid SAML response from the sample corpus
+        String validSAML = sample(SAMLTestResponses.ADMIN);
 
         // When: Validating
         ValidationResult result = samlService.validateResponse(validSAML);
@@ -65,17 +88,248 @@ class SAMLServiceTest {
 
     @Test
     void testValidateResponseWithInvalidSAML() {
-        // Given: Invalid SAML response (currently any non-empty string is considered valid in mock implementation)
+        // Given: Invalid SAML response (not Base64-encoded XML)
         String invalidSAML = "invalid-saml-response";
 
         // When: Validating
         ValidationResult result = samlService.validateResponse(invalidSAML);
 
-        // Then: Should return success with mock attributes (simplified implementation)
-        // In production, this would validate actual SAML structure
+        // Then: Should return failure
         assertNotNull(result);
-        assertTrue(result.isValid());
-        assertNotNull(result.getUserAttributes());
+        assertFalse(result.isValid());
+        assertNotNull(result.getError());
+        assertNull(result.getUserAttributes());
+    }
+
+    @Test
+    void testValidateResponseExpired() {
+        // When: Validating an assertion whose time window has passed
+        ValidationResult result = samlService.validateResponse(sample(SAMLTestResponses.EXPIRED));
+
+        // Then: Should return failure
+        assertFalse(result.isValid());
+        assertTrue(result.getError().contains("expired"));
+    }
+
+    @Test
+    void testValidateResponseWrongAudience() {
+        // When: Validating an assertion issued for another SP
+        ValidationResult result = samlService.validateResponse(sample(SAMLTestResponses.WRONG_AUDIENCE));
+
+        // Then: Should return failure
+        assertFalse(result.isValid());
+        assertTrue(result.getError().contains("audience"));
+    }
+
+    @Test
+    void testValidateResponseWrongRecipient() {
+        // When: Validating a response posted to another ACS URL
+        ValidationResult result = samlService.validateResponse(SAMLTestResponses.signedBase64(SAMLTestResponses.ADMIN,
+            adProperties.getFederation().getEntityId(), "https://evil.example.com/acs",
+            SAMLTestResponses.issueRequest(samlService)));
+
+        // Then: Should return failure
+        assertFalse(result.isValid());
+    }
+
+    @Test
+    void testValidateResponseStatusNotSuccess() {
+        // When: Validating an AD FS error response
+        String signed = SAMLTestSigner.signResponse(SAMLTestResponses.xml(SAMLTestResponses.STATUS_RESPONDER,
+            adProperties.getFederation().getEntityId(), adProperties.getFederation().getAcsUrl()));
+        ValidationResult result = samlService.validateResponse(SAMLTestResponses.encode(signed));
+
+        // Then: Should return failure with the status
+        assertFalse(result.isValid());
+        assertTrue(result.getError().contains("Responder"));
+    }
+
+    @Test
+    void testValidateResponseWithoutAssertion() {
+        // Given: Signed Success response whose assertion was removed
+        String xml = SAMLTestResponses.xml(SAMLTestResponses.ADMIN,
+            adProperties.getFederation().getEntityId(), adProperties.getFederation().getAcsUrl());
+        String signed = SAMLTestSigner.signResponse(xml.replaceAll("(?s)<Assertion .*</Assertion>", ""));
+
+        // When: Validating
+        ValidationResult result = samlService.validateResponse(SAMLTestResponses.encode(signed));
+
+        // Then: Should return failure naming the missing assertion
+        assertFalse(result.isValid());
+        assertTrue(result.getError().contains("no assertion"), result.getError());
+    }
+
+    @Test
+    void testValidateResponseUnsigned() {
+        // Given: Well-formed response without any signature
+        String unsigned = SAMLTestResponses.base64(SAMLTestResponses.ADMIN,
+            adProperties.getFederation().getEntityId(), adProperties.getFederation().getAcsUrl());
+
+        // When: Validating
+        ValidationResult result = samlService.validateResponse(unsigned);
+
+        // Then: Should return failure
+        assertFalse(result.isValid());
+        assertTrue(result.getError().contains("not signed"));
+    }
+
+    @Test
+    void testValidateResponseTampered() {
+        // Given: Signed response with a group added after signing
+        String signed = SAMLTestSigner.signAssertion(SAMLTestResponses.xml(SAMLTestResponses.ADMIN,
+            adProperties.getFederation().getEntityId(), adProperties.getFederation().getAcsUrl()));
+        String tampered = signed.replace("CN=All-Users", "CN=Buerokratt-ServiceManagers");
+
+        // When: Validating
+        ValidationResult result = samlService.validateResponse(SAMLTestResponses.encode(tampered));
+
+        // Then: Should return failure
+        assertFalse(result.isValid());
+        assertTrue(result.getError().contains("digest"));
+    }
+
+    @Test
+    void testValidateResponseSignedOnResponseLevel() {
+        // Given: Response signed as a whole, assertion unsigned
+        String signed = SAMLTestSigner.signResponse(SAMLTestResponses.withFreshIds(SAMLTestResponses.xml(
+            SAMLTestResponses.ADMIN, adProperties.getFederation().getEntityId(),
+            adProperties.getFederation().getAcsUrl()), SAMLTestResponses.issueRequest(samlService)));
+
+        // When: Validating
+        ValidationResult result = samlService.validateResponse(SAMLTestResponses.encode(signed));
+
+        // Then: Should succeed
+        assertTrue(result.isValid(), result.getError());
+    }
+
+    @Test
+    void testValidateResponseReplayed() {
+        // Given: Response that was already accepted
+        String saml = sample(SAMLTestResponses.ADMIN);
+        assertTrue(samlService.validateResponse(saml).isValid());
+
+        // When: Posting it again
+        ValidationResult result = samlService.validateResponse(saml);
+
+        // Then: Should return failure
+        assertFalse(result.isValid());
+        assertTrue(result.getError().contains("already been used"));
+    }
+
+    @Test
+    void testValidateResponseToUnknownRequest() {
+        // Given: Response answering an AuthnRequest no replica issued
+        String saml = SAMLTestResponses.signedBase64(SAMLTestResponses.ADMIN, adProperties.getFederation().getEntityId(),
+            adProperties.getFederation().getAcsUrl(), "_never-issued");
+
+        // When: Validating
+        ValidationResult result = samlService.validateResponse(saml);
+
+        // Then: Should return failure
+        assertFalse(result.isValid());
+        assertTrue(result.getError().contains("does not answer"));
+    }
+
+    @Test
+    void testValidateResponseSecondAnswerToSameRequest() {
+        // Given: Two different assertions answering the same AuthnRequest
+        String xml = SAMLTestResponses.withFreshIds(SAMLTestResponses.xml(SAMLTestResponses.ADMIN,
+            adProperties.getFederation().getEntityId(), adProperties.getFederation().getAcsUrl()),
+            SAMLTestResponses.issueRequest(samlService));
+        String second = xml.replaceAll("Assertion ID=\"[^\"]+\"", "Assertion ID=\"_second-assertion\"");
+        assertTrue(samlService.validateResponse(SAMLTestResponses.encode(SAMLTestSigner.signAssertion(xml))).isValid());
+
+        // When: Validating the second one
+        ValidationResult result = samlService.validateResponse(
+            SAMLTestResponses.encode(SAMLTestSigner.signAssertion(second)));
+
+        // Then: Should return failure
+        assertFalse(result.isValid());
+        assertTrue(result.getError().contains("AuthnRequest"));
+    }
+
+    @Test
+    void testValidateResponseIgnoresConditionsOutsideSignedAssertion() {
+        // Given: Assertion signed for another SP, with a Subject and Conditions for this SP appended after it
+        String signed = SAMLTestSigner.signAssertion(SAMLTestResponses.withFreshIds(SAMLTestResponses.xml(
+            SAMLTestResponses.ADMIN, "https://other-sp.example.com/", adProperties.getFederation().getAcsUrl()),
+            SAMLTestResponses.issueRequest(samlService)));
+        String wrapped = signed.replace("</samlp:Response>", WRAPPED_SUBJECT + wrappedConditions() + "</samlp:Response>");
+
+        // When: Validating
+        ValidationResult result = samlService.validateResponse(SAMLTestResponses.encode(wrapped));
+
+        // Then: The signed audience decides
+        assertFalse(result.isValid());
+        assertTrue(result.getError().contains("audience"), result.getError());
+    }
+
+    @Test
+    void testValidateResponseIgnoresValidityOutsideSignedAssertion() {
+        // Given: Expired signed assertion, with later NotOnOrAfter values appended after it
+        String signed = SAMLTestSigner.signAssertion(SAMLTestResponses.withFreshIds(SAMLTestResponses.xml(
+            SAMLTestResponses.EXPIRED, adProperties.getFederation().getEntityId(),
+            adProperties.getFederation().getAcsUrl()), SAMLTestResponses.issueRequest(samlService)));
+        String wrapped = signed.replace("</samlp:Response>", WRAPPED_SUBJECT + wrappedConditions() + "</samlp:Response>");
+
+        // When: Validating
+        ValidationResult result = samlService.validateResponse(SAMLTestResponses.encode(wrapped));
+
+        // Then: The signed validity decides
+        assertFalse(result.isValid());
+        assertTrue(result.getError().contains("expired"), result.getError());
+    }
+
+    @Test
+    void testValidateResponseIgnoresUnsignedResponseInResponseTo() {
+        // Given: Assertion answering an unknown request, the unsigned Response changed to name an issued one
+        String signed = SAMLTestSigner.signAssertion(SAMLTestResponses.withFreshIds(SAMLTestResponses.xml(
+            SAMLTestResponses.ADMIN, adProperties.getFederation().getEntityId(),
+            adProperties.getFederation().getAcsUrl()), "_never-issued"));
+        String issued = SAMLTestResponses.issueRequest(samlService);
+        String tampered = signed.replaceFirst("InResponseTo=\"_never-issued\"", "InResponseTo=\"" + issued + "\"");
+
+        // When: Validating
+        ValidationResult result = samlService.validateResponse(SAMLTestResponses.encode(tampered));
+
+        // Then: Only the signed InResponseTo counts
+        assertFalse(result.isValid());
+        assertTrue(result.getError().contains("does not answer"), result.getError());
+    }
+
+    @Test
+    void testValidateResponseRequiresEveryAudienceRestriction() {
+        // Given: Signed assertion with a second AudienceRestriction for another SP
+        String xml = SAMLTestResponses.withFreshIds(SAMLTestResponses.xml(SAMLTestResponses.ADMIN,
+            adProperties.getFederation().getEntityId(), adProperties.getFederation().getAcsUrl()),
+            SAMLTestResponses.issueRequest(samlService)).replace("</Conditions>",
+            "<AudienceRestriction><Audience>https://other-sp.example.com/</Audience></AudienceRestriction></Conditions>");
+
+        // When: Validating
+        ValidationResult result = samlService.validateResponse(
+            SAMLTestResponses.encode(SAMLTestSigner.signAssertion(xml)));
+
+        // Then: Should return failure
+        assertFalse(result.isValid());
+        assertTrue(result.getError().contains("audience"), result.getError());
+    }
+
+    @Test
+    void testValidateResponseRejectsDuplicateSubjectConfirmation() {
+        // Given: Signed assertion with a second SubjectConfirmationData without InResponseTo
+        String xml = SAMLTestResponses.withFreshIds(SAMLTestResponses.xml(SAMLTestResponses.ADMIN,
+            adProperties.getFederation().getEntityId(), adProperties.getFederation().getAcsUrl()),
+            SAMLTestResponses.issueRequest(samlService)).replace("</Subject>",
+            "<SubjectConfirmation Method=\"urn:oasis:names:tc:SAML:2.0:cm:bearer\"><SubjectConfirmationData/>"
+            + "</SubjectConfirmation></Subject>");
+
+        // When: Validating
+        ValidationResult result = samlService.validateResponse(
+            SAMLTestResponses.encode(SAMLTestSigner.signAssertion(xml)));
+
+        // Then: Should return failure
+        assertFalse(result.isValid());
+        assertTrue(result.getError().contains("more than one"), result.getError());
     }
 
     @Test
@@ -92,9 +346,9 @@ class SAMLServiceTest {
     }
 
     @Test
-    void testExtractMockUserAttributes() {
+    void testExtractUserAttributes() {
         // Given: Valid SAML response
-        String validSAML = "valid-mock-saml-response";
+        String validSAML = sample(SAMLTestResponses.ADMIN);
 
         // When: Validating
         ValidationResult result = samlService.validateResponse(validSAML);
@@ -146,4 +400,15 @@ class SAMLServiceTest {
         assertEquals(errorMessage, result.getError());
         assertNull(result.getUserAttributes());
     }
+
+    private String wrappedConditions() {
+        return "<saml:Conditions xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\" NotOnOrAfter=\"2099-01-01T00:00:00Z\">"
+            + "<saml:AudienceRestriction><saml:Audience>" + adProperties.getFederation().getEntityId()
+            + "</saml:Audience></saml:AudienceRestriction></saml:Conditions>";
+    }
+
+    private String sample(String name) {
+        return SAMLTestResponses.signedBase64(name, adProperties.getFederation().getEntityId(),
+            adProperties.getFederation().getAcsUrl(), SAMLTestResponses.issueRequest(samlService));
+    }
 }
@@ -0,0 +1,151 @@
+package ee.buerokratt.adauth.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.InputStream;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SAMLSignatureVerifier against responses signed with javax.xml.crypto
+ */
+@SpringBootTest(properties = "ad.federation.signing-certificates=classpath:saml/test-idp-signing.crt")
+class SAMLSignatureVerifierTest {
+
+    private static final String AUDIENCE = "https://buerokratt.ee/saml/sp";
+    private static final String ACS_URL = "https://buerokratt.ee/auth/ad/acs";
+
+    @Autowired
+    private SAMLSignatureVerifier verifier;
+
+    private SAMLResponseParser parser;
+
+    @BeforeEach
+    void setUp() {
+        parser = new SAMLResponseParser(262144);
+    }
+
+    @Test
+    void testVerifySignedAssertion() throws Exception {
+        // Given: Assertion signed with the trusted key
+        String signed = SAMLTestSigner.signAssertion(SAMLTestResponses.xml(SAMLTestResponses.ADMIN, AUDIENCE, ACS_URL));
+
+        // When: Parsing
+        List<CollectedSignature> signatures = parse(signed);
+
+        // Then: One Assertion signature that verifies
+        assertEquals(1, signatures.size());
+        assertEquals("Assertion", signatures.get(0).getElementName());
+        assertNotNull(signatures.get(0).getCertificate());
+        verifier.verify(signatures.get(0));
+    }
+
+    @Test
+    void testVerifyPrefixedAssertionWithNamespaceOnAncestor() throws Exception {
+        // Given: saml: prefix declared on the Response only, 250 groups
+        String signed = SAMLTestSigner.signAssertion(
+            SAMLTestResponses.xml(SAMLTestResponses.LARGE_GROUPS, AUDIENCE, ACS_URL));
+
+        // When/Then: Canonical form renders the inherited namespace and verifies
+        List<CollectedSignature> signatures = parse(signed);
+        assertEquals(1, signatures.size());
+        verifier.verify(signatures.get(0));
+    }
+
+    @Test
+    void testVerifySignedResponseAroundSignedAssertion() throws Exception {
+        // Given: Assertion signed, then the whole Response signed
+        String xml = SAMLTestResponses.xml(SAMLTestResponses.ADMIN, AUDIENCE, ACS_URL);
+        String signed = SAMLTestSigner.signResponse(SAMLTestSigner.signAssertion(xml));
+
+        // When: Parsing
+        List<CollectedSignature> signatures = parse(signed);
+
+        // Then: Both signatures verify
+        assertEquals(2, signatures.size());
+        for (CollectedSignature signature : signatures) {
+            verifier.verify(signature);
+        }
+    }
+
+    @Test
+    void testRejectModifiedContent() throws Exception {
+        // Given: Signed assertion with the UPN changed afterwards
+        String signed = SAMLTestSigner.signAssertion(SAMLTestResponses.xml(SAMLTestResponses.ADMIN, AUDIENCE, ACS_URL));
+        CollectedSignature signature = parse(signed.replace(">john.doe@domain.com<", ">jane.smith@domain.com<")).get(0);
+
+        // When/Then: Digest comparison fails
+        SAMLValidationException e = assertThrows(SAMLValidationException.class, () -> verifier.verify(signature));
+        assertTrue(e.getMessage().contains("digest"));
+    }
+
+    @Test
+    void testRejectUntrustedKey() throws Exception {
+        // Given: Assertion signed with a key that is not configured
+        String signed = SAMLTestSigner.sign(SAMLTestResponses.xml(SAMLTestResponses.ADMIN, AUDIENCE, ACS_URL),
+            "Assertion", SAMLTestSigner.UNTRUSTED_KEYSTORE, SAMLTestSigner.UNTRUSTED_ALIAS);
+        CollectedSignature signature = parse(signed).get(0);
+
+        // When/Then: Rejected before any RSA work with the foreign certificate
+        SAMLValidationException e = assertThrows(SAMLValidationException.class, () -> verifier.verify(signature));
+        assertTrue(e.getMessage().contains("untrusted"));
+    }
+
+    @Test
+    void testRejectReferenceToOtherElement() throws Exception {
+        // Given: Signature whose Reference points elsewhere
+        String signed = SAMLTestSigner.signAssertion(SAMLTestResponses.xml(SAMLTestResponses.ADMIN, AUDIENCE, ACS_URL));
+        CollectedSignature signature = parse(signed.replace("URI=\"#_a7f3", "URI=\"#_b7f3")).get(0);
+
+        // When/Then: Rejected
+        SAMLValidationException e = assertThrows(SAMLValidationException.class, () -> verifier.verify(signature));
+        assertTrue(e.getMessage().contains("reference"));
+    }
+
+    @Test
+    void testFindKeyForLineWrappedCertificate() throws Exception {
+        // Given: KeyInfo certificate wrapped at 64 characters (KeyInfo is not signed)
+        String signed = SAMLTestSigner.signAssertion(SAMLTestResponses.xml(SAMLTestResponses.ADMIN, AUDIENCE, ACS_URL));
+        Matcher certificate = Pattern.compile("(<ds:X509Certificate>)([^<]+)(</ds:X509Certificate>)").matcher(signed);
+        assertTrue(certificate.find());
+        String wrapped = certificate.group(2).replaceAll("(.{64})", "$1\n");
+        String rewrapped = signed.substring(0, certificate.start(2)) + wrapped + signed.substring(certificate.end(2));
+
+        // When/Then: Key is found by thumbprint and the signature verifies
+        verifier.verify(parse(rewrapped).get(0));
+    }
+
+    @Test
+    void testUpdateTrustedCertificates() throws Exception {
+        // Given: Signed assertion and the configured certificate
+        String signed = SAMLTestSigner.signAssertion(SAMLTestResponses.xml(SAMLTestResponses.ADMIN, AUDIENCE, ACS_URL));
+        CollectedSignature signature = parse(signed).get(0);
+        List<X509Certificate> configured;
+        try (InputStream in = getClass().getResourceAsStream("/saml/test-idp-signing.crt")) {
+            configured = SAMLSignatureVerifier.parseCertificates(in);
+        }
+
+        try {
+            // When: Trust set is replaced by an empty one
+            verifier.updateTrustedCertificates(List.of());
+
+            // Then: Nothing is trusted any more
+            assertFalse(verifier.hasTrustedCertificates());
+            assertThrows(SAMLValidationException.class, () -> verifier.verify(signature));
+        } finally {
+            verifier.updateTrustedCertificates(configured);
+        }
+        verifier.verify(signature);
+    }
+
+    private List<CollectedSignature> parse(String xml) throws SAMLValidationException {
+        return parser.parse(SAMLTestResponses.encode(xml)).getSignatures();
+    }
+}
@@ -0,0 +1,152 @@
+package ee.buerokratt.adauth.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Test corpus of AD FS SAML Responses
+ *
+ * Templates live in src/test/resources/saml/responses. Placeholders for
+ * time window, audience and ACS URL are filled at load time so the
+ * samples stay valid regardless of when the tests run. Samples for
+ * SAMLService get fresh IDs, since it accepts each assertion only once,
+ * and answer an AuthnRequest it issued.
+ */
+public final class SAMLTestResponses {
+
+    public static final String ADMIN = "adfs-admin.xml";
+    public static final String LARGE_GROUPS = "adfs-large-groups.xml";
+    public static final String SHORT_CLAIM_NAMES = "adfs-short-claim-names.xml";
+    public static final String STATUS_RESPONDER = "adfs-status-responder.xml";
+    public static final String EXPIRED = "adfs-expired.xml";
+    public static final String WRONG_AUDIENCE = "adfs-wrong-audience.xml";
+    public static final String XXE = "adfs-xxe.xml";
+    public static final String TWO_ASSERTIONS = "adfs-two-assertions.xml";
+    public static final String ENCRYPTED_ASSERTION = "adfs-encrypted-assertion.xml";
+
+    public static final String RESPONSE_ID = "_8e2f4a6b-1c3d-4e5f-a6b7-c8d9e0f1a2b3";
+    public static final String IN_RESPONSE_TO = "_4c1d7f0e-9b2a-4e3c-8d5f-6a7b8c9d0e1f";
+    public static final String ASSERTION_ID = "_a7f3c2d1-4b5e-4f60-9a1b-2c3d4e5f6a7b";
+
+    private static final Pattern REQUEST_ID = Pattern.compile("<samlp:AuthnRequest [^>]*ID=\"([^\"]+)\"");
+
+    private SAMLTestResponses() {
+    }
+
+    /**
+     * Load template with placeholders filled
+     */
+    public static String xml(String name, String audience, String acsUrl) {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        return template(name)
+            .replace("{{NOW}}", now.toString())
+            .replace("{{NOT_BEFORE}}", now.minusSeconds(60).toString())
+            .replace("{{NOT_ON_OR_AFTER}}", now.plusSeconds(3600).toString())
+            .replace("{{AUDIENCE}}", audience)
+            .replace("{{ACS_URL}}", acsUrl);
+    }
+
+    /**
+     * Load template with placeholders filled, Base64-encoded as posted by the browser
+     */
+    public static String base64(String name, String audience, String acsUrl) {
+        return encode(xml(name, audience, acsUrl));
+    }
+
+    /**
+     * Load template with placeholders filled, fresh IDs and the Assertion signed by the test IdP key
+     *
+     * @param inResponseTo ID of an AuthnRequest issued by SAMLService
+     */
+    public static String signedBase64(String name, String audience, String acsUrl, String inResponseTo) {
+        return encode(SAMLTestSigner.signAssertion(withFreshIds(xml(name, audience, acsUrl), inResponseTo)));
+    }
+
+    /**
+     * Replace the sample Response and Assertion IDs with unique ones and set InResponseTo
+     */
+    public static String withFreshIds(String xml, String inResponseTo) {
+        return xml.replace(RESPONSE_ID, "_" + UUID.randomUUID())
+            .replace(IN_RESPONSE_TO, inResponseTo)
+            .replace(ASSERTION_ID, "_" + UUID.randomUUID());
+    }
+
+    /**
+     * Issue an AuthnRequest and return its ID
+     */
+    public static String issueRequest(SAMLService samlService) {
+        String xml = inflate(query(samlService.createAuthenticationRequest("/")).get("SAMLRequest"));
+        Matcher matcher = REQUEST_ID.matcher(xml);
+        if (!matcher.find()) {
+            throw new IllegalStateException("No AuthnRequest ID in " + xml);
+        }
+        return matcher.group(1);
+    }
+
+    /**
+     * Decoded query parameters of a redirect URL
+     */
+    public static Map<String, String> query(String url) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        for (String pair : url.substring(url.indexOf('?') + 1).split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                parameters.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Inflate a Base64 SAMLRequest as sent with the HTTP-Redirect binding
+     */
+    public static String inflate(String samlRequest) {
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(Base64.getDecoder().decode(samlRequest));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                out.write(buffer, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("SAMLRequest is not deflated", e);
+        } finally {
+            inflater.end();
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    public static String encode(String xml) {
+        return Base64.getEncoder().encodeToString(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String template(String name) {
+        try (InputStream in = SAMLTestResponses.class.getResourceAsStream("/saml/responses/" + name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Unknown SAML test response: " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
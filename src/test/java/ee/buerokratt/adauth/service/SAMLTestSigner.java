@@ -0,0 +1,135 @@
+package ee.buerokratt.adauth.service;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import javax.xml.crypto.dsig.DigestMethod;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.SignatureMethod;
+import javax.xml.crypto.dsig.SignedInfo;
+import javax.xml.crypto.dsig.Transform;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMSignContext;
+import javax.xml.crypto.dsig.keyinfo.KeyInfo;
+import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
+import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
+import javax.xml.crypto.dsig.spec.TransformParameterSpec;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Signs SAML test responses the way AD FS does
+ *
+ * Enveloped signature with exc-c14n and RSA-SHA256, inserted after the
+ * Issuer of the signed element, with the signing certificate in KeyInfo.
+ * Uses the JDK javax.xml.crypto implementation so the streaming verifier
+ * is checked against an independent canonicalizer.
+ */
+public final class SAMLTestSigner {
+
+    public static final String IDP_KEYSTORE = "/saml/test-idp-keystore.p12";
+    public static final String IDP_ALIAS = "adfs-signing";
+    public static final String UNTRUSTED_KEYSTORE = "/saml/test-untrusted-keystore.p12";
+    public static final String UNTRUSTED_ALIAS = "untrusted";
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private SAMLTestSigner() {
+    }
+
+    /**
+     * Sign the Assertion with the trusted test IdP key
+     */
+    public static String signAssertion(String xml) {
+        return sign(xml, "Assertion", IDP_KEYSTORE, IDP_ALIAS);
+    }
+
+    /**
+     * Sign the Response with the trusted test IdP key
+     */
+    public static String signResponse(String xml) {
+        return sign(xml, "Response", IDP_KEYSTORE, IDP_ALIAS);
+    }
+
+    /**
+     * Sign the first element with the given local name using a key from a test keystore
+     */
+    public static String sign(String xml, String elementName, String keystore, String alias) {
+        PrivateKey key;
+        X509Certificate certificate;
+        try {
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            try (InputStream in = SAMLTestSigner.class.getResourceAsStream(keystore)) {
+                keyStore.load(in, PASSWORD);
+            }
+            key = (PrivateKey) keyStore.getKey(alias, PASSWORD);
+            certificate = (X509Certificate) keyStore.getCertificate(alias);
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot load SAML test key " + alias + " from " + keystore, e);
+        }
+        return sign(xml, elementName, key, certificate);
+    }
+
+    /**
+     * Sign the first element with the given local name using the given key and certificate
+     */
+    public static String sign(String xml, String elementName, PrivateKey key, X509Certificate certificate) {
+        try {
+            DocumentBuilderFactory documentFactory = DocumentBuilderFactory.newInstance();
+            documentFactory.setNamespaceAware(true);
+            Document document = documentFactory.newDocumentBuilder()
+                .parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+            Element element = (Element) document.getElementsByTagNameNS("*", elementName).item(0);
+            element.setIdAttributeNS(null, "ID", true);
+
+            XMLSignatureFactory factory = XMLSignatureFactory.getInstance("DOM");
+            Reference reference = factory.newReference("#" + element.getAttribute("ID"),
+                factory.newDigestMethod(DigestMethod.SHA256, null),
+                List.of(factory.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null),
+                    factory.newTransform(CanonicalizationMethod.EXCLUSIVE, (TransformParameterSpec) null)),
+                null, null);
+            SignedInfo signedInfo = factory.newSignedInfo(
+                factory.newCanonicalizationMethod(CanonicalizationMethod.EXCLUSIVE, (C14NMethodParameterSpec) null),
+                factory.newSignatureMethod(SignatureMethod.RSA_SHA256, null),
+                Collections.singletonList(reference));
+            KeyInfoFactory keyInfoFactory = factory.getKeyInfoFactory();
+            KeyInfo keyInfo = keyInfoFactory.newKeyInfo(
+                List.of(keyInfoFactory.newX509Data(List.of(certificate))));
+
+            DOMSignContext context = new DOMSignContext(key, element, issuerSibling(element));
+            context.setDefaultNamespacePrefix("ds");
+            factory.newXMLSignature(signedInfo, keyInfo).sign(context);
+
+            StringWriter out = new StringWriter();
+            TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(out));
+            return out.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot sign SAML test response", e);
+        }
+    }
+
+    /**
+     * Node the Signature is inserted before: the element following Issuer
+     */
+    private static Node issuerSibling(Element element) {
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && "Issuer".equals(child.getLocalName())) {
+                return child.getNextSibling();
+            }
+        }
+        return element.getFirstChild();
+    }
+}
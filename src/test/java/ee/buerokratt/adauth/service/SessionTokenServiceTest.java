@@ -0,0 +1,154 @@
+package ee.buerokratt.adauth.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.UserAttributes;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SessionTokenService
+ */
+class SessionTokenServiceTest {
+
+    private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testRsaTokenFromKeystore() throws Exception {
+        // Given: Session tokens signed with the RSA key of the test keystore
+        SessionTokenService service = service(true);
+
+        // When
+        String[] parts = service.issue(user(), List.of("ROLE_ADMINISTRATOR"), NOW).split("\\.");
+
+        // Then: RS256 token with the configured claims, verifiable with the JWKS key
+        JsonNode header = decode(parts[0]);
+        assertEquals("RS256", header.get("alg").asText());
+        assertEquals(service.getKeyId(), header.get("kid").asText());
+        JsonNode claims = decode(parts[1]);
+        assertEquals("https://buerokratt.ee/saml/sp", claims.get("iss").asText());
+        assertEquals("ruuter", claims.get("aud").asText());
+        assertEquals("john.doe@domain.com", claims.get("sub").asText());
+        assertEquals("John \"JD\" Doe", claims.get("name").asText());
+        assertEquals("ROLE_ADMINISTRATOR", claims.get("roles").get(0).asText());
+        assertEquals(NOW.getEpochSecond(), claims.get("iat").asLong());
+        assertEquals(NOW.getEpochSecond() + 3600, claims.get("exp").asLong());
+
+        JsonNode jwk = objectMapper.readTree(service.getJwks()).get("keys").get(0);
+        assertEquals(service.getKeyId(), jwk.get("kid").asText());
+        PublicKey publicKey = KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(
+            new BigInteger(1, Base64.getUrlDecoder().decode(jwk.get("n").asText())),
+            new BigInteger(1, Base64.getUrlDecoder().decode(jwk.get("e").asText()))));
+        assertTrue(verify("SHA256withRSA", publicKey, parts));
+    }
+
+    @Test
+    void testEcToken() throws Exception {
+        // Given: A P-256 key
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair keyPair = generator.generateKeyPair();
+        SessionTokenService service = service(false);
+        service.useKey(keyPair.getPrivate(), keyPair.getPublic());
+
+        // When
+        String[] parts = service.issue(user(), List.of(), NOW).split("\\.");
+
+        // Then: ES256 with a 64-byte JOSE signature and the curve in the JWKS
+        assertEquals("ES256", decode(parts[0]).get("alg").asText());
+        assertEquals(64, Base64.getUrlDecoder().decode(parts[2]).length);
+        assertTrue(verify("SHA256withECDSAinP1363Format", keyPair.getPublic(), parts));
+        JsonNode jwk = objectMapper.readTree(service.getJwks()).get("keys").get(0);
+        assertEquals("P-256", jwk.get("crv").asText());
+        assertEquals(43, jwk.get("x").asText().length());
+    }
+
+    @Test
+    void testPooledSignaturesAcrossThreadsAndKeys() throws Exception {
+        // Given: Tokens issued with one P-256 key, then the key replaced by another
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair first = generator.generateKeyPair();
+        SessionTokenService service = service(false);
+        service.useKey(first.getPrivate(), first.getPublic());
+        service.issue(user(), List.of(), NOW);
+        KeyPair keyPair = generator.generateKeyPair();
+        service.useKey(keyPair.getPrivate(), keyPair.getPublic());
+
+        // When: Issued from several threads at once
+        List<String> tokens = IntStream.range(0, 200).parallel()
+            .mapToObj(i -> service.issue(user(), List.of("ROLE_" + i), NOW))
+            .toList();
+
+        // Then: Every token verifies with the current key
+        for (String token : tokens) {
+            assertTrue(verify("SHA256withECDSAinP1363Format", keyPair.getPublic(), token.split("\\.")));
+        }
+    }
+
+    @Test
+    void testDisabledByDefault() throws Exception {
+        // Given
+        SessionTokenService service = service(false);
+
+        // Then
+        assertFalse(service.isEnabled());
+        assertEquals(0, objectMapper.readTree(service.getJwks()).get("keys").size());
+        assertThrows(IllegalStateException.class, () -> service.issue(user(), List.of(), NOW));
+    }
+
+    private static SessionTokenService service(boolean enabled) {
+        ADProperties adProperties = new ADProperties();
+        ADProperties.Federation federation = new ADProperties.Federation();
+        federation.setEntityId("https://buerokratt.ee/saml/sp");
+        federation.setKeystorePath("classpath:" + SAMLTestSigner.IDP_KEYSTORE);
+        federation.setKeystorePassword("changeit");
+        adProperties.setFederation(federation);
+        adProperties.getSession().setEnabled(enabled);
+        adProperties.getSession().setAudience("ruuter");
+        SigningKeyService signingKeyService = new SigningKeyService();
+        ReflectionTestUtils.setField(signingKeyService, "adProperties", adProperties);
+        SessionTokenService service = new SessionTokenService();
+        ReflectionTestUtils.setField(service, "adProperties", adProperties);
+        ReflectionTestUtils.setField(service, "signingKeyService", signingKeyService);
+        ReflectionTestUtils.invokeMethod(service, "init");
+        return service;
+    }
+
+    private static UserAttributes user() {
+        UserAttributes user = new UserAttributes();
+        user.setUPN("john.doe@domain.com");
+        user.setDisplayName("John \"JD\" Doe");
+        return user;
+    }
+
+    private JsonNode decode(String part) throws Exception {
+        return objectMapper.readTree(Base64.getUrlDecoder().decode(part));
+    }
+
+    private static boolean verify(String algorithm, PublicKey key, String[] parts) throws Exception {
+        Signature signature = Signature.getInstance(algorithm);
+        signature.initVerify(key);
+        signature.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+        return signature.verify(Base64.getUrlDecoder().decode(parts[2]));
+    }
+}
@@ -0,0 +1,192 @@
+package ee.buerokratt.adauth.service;
+
+import ee.buerokratt.adauth.config.ADProperties;
+import ee.buerokratt.adauth.model.UserAttributes;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.DriverManager;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for UserProvisioningService against an in-memory auth_users table
+ */
+class UserProvisioningServiceTest {
+
+    private static final Instant NOW = Instant.parse("2026-03-02T07:45:00Z");
+
+    private EmbeddedAuthUsersDatabase database;
+    private UserProvisioningService service;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        database = new EmbeddedAuthUsersDatabase("auth-users-" + System.nanoTime());
+        DriverManager.registerDriver(database);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (service != null) {
+            ReflectionTestUtils.invokeMethod(service, "shutdown");
+        }
+        DriverManager.deregisterDriver(database);
+    }
+
+    @Test
+    void testFlushesOnBatchSizeOrInterval() throws Exception {
+        // Given: Batches of three, flushed every 200 ms
+        service = service(3, 200);
+
+        // When: Three logins, the first user twice with a new role
+        service.provision(user("john.doe@domain.com", "John Doe"), List.of("ROLE_ANALYST"), NOW);
+        service.provision(user("mari.maasikas@domain.com", "Mari Maasikas"), List.of(), NOW);
+        service.provision(user("john.doe@domain.com", "John Doe"), List.of("ROLE_ADMINISTRATOR"), NOW.plusSeconds(1));
+        await(() -> database.size() == 2);
+
+        // Then: The full queue is written at once, each user once with the latest login
+        assertEquals(List.of(2), database.batchSizes);
+        Map<String, Object> john = database.row("john.doe@domain.com");
+        assertEquals("john.doe@domain.com", john.get("idcode"));
+        assertEquals("John Doe", john.get("displayname"));
+        assertEquals("AD", john.get("auth_method"));
+        assertEquals("[\"ROLE_ADMINISTRATOR\"]", john.get("authorities"));
+        assertEquals(Timestamp.from(NOW.plusSeconds(1)), john.get("ad_last_sync"));
+
+        // When: One more login
+        service.provision(user("jane.roe@domain.com", "Jane Roe"), List.of(), NOW);
+
+        // Then: Written by the interval flush
+        await(() -> database.size() == 3);
+        assertEquals(List.of(2, 1), database.batchSizes);
+        assertEquals(1, database.connections.get());
+    }
+
+    @Test
+    void testSkipsUsersWhoseAttributesDidNotChange() {
+        // Given: A user written with the objectGUID from the directory
+        service = service(100, 60000);
+        UserAttributes john = user("john.doe@domain.com", "John Doe");
+        john.setObjectGuid("01234567-89ab-cdef-0123-456789abcdef");
+        assertTrue(service.provision(john, List.of("ROLE_ANALYST"), NOW));
+        service.flush();
+
+        // When: The same login again, then without the objectGUID (directory unavailable) and a new name
+        boolean unchanged = service.provision(john, List.of("ROLE_ANALYST"), NOW.plusSeconds(60));
+        UserAttributes renamed = user("john.doe@domain.com", "John Smith");
+        boolean changed = service.provision(renamed, List.of("ROLE_ANALYST"), NOW.plusSeconds(120));
+        service.flush();
+
+        // Then: No write for the repeat; the rename is written and keeps the stored objectGUID
+        assertFalse(unchanged);
+        assertTrue(changed);
+        assertEquals(List.of(1, 1), database.batchSizes);
+        Map<String, Object> row = database.row("john.doe@domain.com");
+        assertEquals("John Smith", row.get("displayname"));
+        assertEquals("01234567-89ab-cdef-0123-456789abcdef", row.get("ad_object_guid"));
+        assertEquals(1.0, meterRegistry.counter("ad.provisioning.users", "outcome", "unchanged").count());
+    }
+
+    @Test
+    void testFailedWritesAreRetriedAtNextLogin() {
+        // Given: The connection drops during the first batch
+        service = service(100, 60000);
+        database.failNextBatch();
+        UserAttributes john = user("john.doe@domain.com", "John Doe");
+        service.provision(john, List.of(), NOW);
+        service.flush();
+
+        // When: John logs in again alongside a user the database refuses
+        database.reject("conflict@domain.com");
+        boolean queued = service.provision(john, List.of(), NOW.plusSeconds(60));
+        service.provision(user("conflict@domain.com", "Duplicate Account"), List.of(), NOW.plusSeconds(60));
+        service.provision(user("mari.maasikas@domain.com", "Mari Maasikas"), List.of(), NOW.plusSeconds(60));
+        service.flush();
+
+        // Then: John was not remembered as written; the refused row does not block the others
+        assertTrue(queued);
+        assertEquals(2, database.size());
+        assertNotNull(database.row("john.doe@domain.com"));
+        assertNotNull(database.row("mari.maasikas@domain.com"));
+        assertEquals(2, database.connections.get());
+        assertEquals(2.0, meterRegistry.counter("ad.provisioning.users", "outcome", "failed").count());
+        assertEquals(0, service.getPendingCount());
+    }
+
+    @Test
+    void testMatchesUpnsCaseInsensitively() {
+        // Given: A user written with the UPN as ADFS sent it
+        service = service(100, 60000);
+        service.provision(user("John.Doe@Domain.com", "John Doe"), List.of("ROLE_ANALYST"), NOW);
+        service.flush();
+
+        // When: The directory reports a role change and the user logs in again, both in lower case
+        assertTrue(service.updateRoles("john.doe@domain.com", List.of("ROLE_ADMINISTRATOR"), NOW.plusSeconds(60)));
+        service.flush();
+        Object updatedAuthorities = database.row("john.doe@domain.com").get("authorities");
+        service.provision(user("john.doe@domain.com", "John Smith"), List.of("ROLE_ADMINISTRATOR"), NOW.plusSeconds(120));
+        service.flush();
+
+        // Then: One row, keyed by the lower-case UPN, received both writes
+        assertEquals(1, database.size());
+        assertEquals("[\"ROLE_ADMINISTRATOR\"]", updatedAuthorities);
+        Map<String, Object> row = database.row("john.doe@domain.com");
+        assertEquals("john.doe@domain.com", row.get("login"));
+        assertEquals("John Smith", row.get("displayname"));
+    }
+
+    @Test
+    void testTakesOverExistingNonAdRow() {
+        // Given: A row for the same UPN created by another login method
+        service = service(100, 60000);
+        database.insert("john.doe@domain.com", Map.of("idcode", "38001010000", "login", "john.doe@domain.com",
+            "auth_method", "TARA", "ad_upn", "john.doe@domain.com"));
+
+        // When: The user logs in through AD
+        service.provision(user("john.doe@domain.com", "John Doe"), List.of("ROLE_ANALYST"), NOW);
+        service.flush();
+
+        // Then: The row is marked as an AD user and keeps its idCode
+        Map<String, Object> row = database.row("john.doe@domain.com");
+        assertEquals("AD", row.get("auth_method"));
+        assertEquals("38001010000", row.get("idcode"));
+        assertEquals("John Doe", row.get("displayname"));
+    }
+
+    private UserProvisioningService service(int batchSize, long flushInterval) {
+        ADProperties adProperties = new ADProperties();
+        ADProperties.Provisioning provisioning = adProperties.getProvisioning();
+        provisioning.setEnabled(true);
+        provisioning.setJdbcUrl(database.url());
+        provisioning.setBatchSize(batchSize);
+        provisioning.setFlushInterval(flushInterval);
+        meterRegistry = new SimpleMeterRegistry();
+        UserProvisioningService service = new UserProvisioningService();
+        ReflectionTestUtils.setField(service, "adProperties", adProperties);
+        ReflectionTestUtils.setField(service, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.invokeMethod(service, "init");
+        return service;
+    }
+
+    private static UserAttributes user(String upn, String displayName) {
+        String[] names = displayName.split(" ", 2);
+        return new UserAttributes(upn, upn, displayName, names[0], names[1], List.of());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            Thread.sleep(10);
+        }
+    }
+}